@@ -0,0 +1,79 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javafx.scene.shape.Rectangle;
+
+/**
+ * Measures how long it takes to compute the cells of a plate image, for every plate type and
+ * orientation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellRectangleBenchmark {
+
+    @Param({ "PT_96_WELLS", "PT_81_WELLS", "PT_100_WELLS", "PT_144_WELLS" })
+    public PlateType plateType;
+
+    @Param({ "LANDSCAPE", "PORTRAIT" })
+    public PlateOrientation orientation;
+
+    private Rectangle bbox;
+
+    private Set<CellRectangle> cells;
+
+    @Setup
+    public void setup() {
+        bbox = new Rectangle(100, 100, 2400, 1600);
+        cells = CellRectangle.getCellsForBoundingBox(bbox,
+                                                     orientation,
+                                                     plateType,
+                                                     BarcodePosition.BOTTOM);
+    }
+
+    @Benchmark
+    public Set<CellRectangle> getCellsForBoundingBox() {
+        return CellRectangle.getCellsForBoundingBox(bbox,
+                                                    orientation,
+                                                    plateType,
+                                                    BarcodePosition.BOTTOM);
+    }
+
+    @Benchmark
+    public CellGrid cellGridForBoundingBox() {
+        return CellGrid.forBoundingBox(bbox.getX(),
+                                       bbox.getY(),
+                                       bbox.getWidth(),
+                                       bbox.getHeight(),
+                                       orientation,
+                                       plateType,
+                                       BarcodePosition.BOTTOM);
+    }
+
+    @Benchmark
+    public List<CellRectangle> sortCells() {
+        return CellRectangle.sortCells(cells);
+    }
+
+}
@@ -0,0 +1,67 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.biobank.platedecoder.model.SbsLabeling;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes to compare two decode results, as done when an image is decoded
+ * more than once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeResultBenchmark {
+
+    @Param({ "96", "384" })
+    public int wellCount;
+
+    private DecodeResult former;
+
+    private DecodeResult latter;
+
+    private Set<DecodedWell> formerWells;
+
+    private Set<DecodedWell> latterWells;
+
+    @Setup
+    public void setup() {
+        former = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+        latter = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+        for (int i = 0; i < wellCount; ++i) {
+            String label = SbsLabeling.fromPosition(i);
+            former.addWell(label, "ID" + i);
+            latter.addWell(label, "ID" + i);
+        }
+        formerWells = former.getDecodedWells();
+        latterWells = latter.getDecodedWells();
+    }
+
+    @Benchmark
+    public boolean compareDecodeResults() {
+        return DecodeResult.compareDecodeResults(former, latter);
+    }
+
+    @Benchmark
+    public boolean compareDecodedWells() {
+        return DecodeResult.compareDecodeResults(formerWells, latterWells);
+    }
+
+}
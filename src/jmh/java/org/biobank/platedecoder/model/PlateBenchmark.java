@@ -0,0 +1,58 @@
+package org.biobank.platedecoder.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures creating a plate, and computing the position and label of each well cell in the same
+ * way as the well grid does, for every plate type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlateBenchmark {
+
+    @Param({ "PT_96_WELLS", "PT_81_WELLS", "PT_100_WELLS", "PT_144_WELLS" })
+    public PlateType plateType;
+
+    @Param({ "LANDSCAPE", "PORTRAIT" })
+    public PlateOrientation orientation;
+
+    @Benchmark
+    public Plate createPlate() {
+        return new Plate(plateType);
+    }
+
+    @Benchmark
+    public void wellGridLayout(Blackhole blackhole) {
+        PlateLayout layout = PlateLayout.get(plateType, orientation, BarcodePosition.BOTTOM);
+        int rows = layout.getRows();
+        int cols = layout.getCols();
+
+        // same computation as WellGrid.update, for a grid 2400 by 1600 pixels
+        double wellWidth = 2400.0 / cols;
+        double wellHeight = 1600.0 / rows;
+        for (int row = 0; row < rows; ++row) {
+            for (int col = 0; col < cols; ++col) {
+                blackhole.consume(layout.getLabel(row, col));
+                blackhole.consume(100 + col * wellWidth);
+                blackhole.consume(100 + row * wellHeight);
+            }
+        }
+    }
+
+}
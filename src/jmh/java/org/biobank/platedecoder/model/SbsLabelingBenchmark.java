@@ -0,0 +1,71 @@
+package org.biobank.platedecoder.model;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javafx.util.Pair;
+
+/**
+ * Measures the conversions between SBS labels and rows and columns. Each benchmark converts all
+ * the positions of a 384 well plate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SbsLabelingBenchmark {
+
+    private final String [] labels = new String[SbsLabeling.SBS_MAX_POSITIONS];
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < labels.length; ++i) {
+            labels[i] = SbsLabeling.fromPosition(i);
+        }
+    }
+
+    @Benchmark
+    public void fromRowCol(Blackhole blackhole) {
+        for (int row = 0; row < SbsLabeling.SBS_MAX_ROWS; ++row) {
+            for (int col = 0; col < SbsLabeling.SBS_MAX_COLS; ++col) {
+                blackhole.consume(SbsLabeling.fromRowCol(row, col));
+            }
+        }
+    }
+
+    @Benchmark
+    public void toRowCol(Blackhole blackhole) {
+        for (String label : labels) {
+            Pair<Integer, Integer> rowCol = SbsLabeling.toRowCol(label);
+            blackhole.consume(rowCol);
+        }
+    }
+
+    @Benchmark
+    public void fromPosition(Blackhole blackhole) {
+        for (int i = 0; i < SbsLabeling.SBS_MAX_POSITIONS; ++i) {
+            blackhole.consume(SbsLabeling.fromPosition(i));
+        }
+    }
+
+    @Benchmark
+    public void toPosition(Blackhole blackhole) {
+        for (String label : labels) {
+            blackhole.consume(SbsLabeling.toPosition(label));
+        }
+    }
+
+}
@@ -0,0 +1,253 @@
+package org.biobank.platedecoder.batch;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.DecoderBackendType;
+import org.biobank.platedecoder.dmscanlib.DecoderWorkerPool;
+import org.biobank.platedecoder.dmscanlib.LibraryLoader;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateDecoderPreferences;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+
+/**
+ * Decodes a directory of plate images from the command line, without starting the JavaFX
+ * application.
+ *
+ * <p>Options are given as <code>--name value</code> pairs. Either <code>--images</code> or
+ * <code>--watch</code> is required, the other options default to the settings saved by the
+ * application:
+ *
+ * <ul>
+ * <li><code>--images</code>: a directory, or a file name pattern such as
+ *     <code>scans/*.bmp</code>. See {@link BatchDecoder#findImages}.</li>
+ * <li><code>--watch</code>: a directory to watch for new images, instead of
+ *     <code>--images</code>. The program runs until it is stopped. See {@link
+ *     WatchFolderDecoder}.</li>
+ * <li><code>--output-dir</code>, <code>--journal</code>, <code>--queue</code> (default 16) and
+ *     <code>--settle-millis</code> (default 2000): where the results and the {@link
+ *     DecodeJournal} of watch mode are written, how many settled images can wait to be decoded
+ *     and how long an image must stay unchanged. Results are written beside the images, and the
+ *     journal to {@link #JOURNAL_FILE}, by default.</li>
+ * <li><code>--plate-type</code>: a {@link PlateType} name, such as <code>PT_96_WELLS</code>.</li>
+ * <li><code>--orientation</code>: <code>LANDSCAPE</code> or <code>PORTRAIT</code>.</li>
+ * <li><code>--barcode-position</code>: <code>TOP</code> or <code>BOTTOM</code>.</li>
+ * <li><code>--grid</code>: the well grid in pixels, as <code>x,y,width,height</code>.</li>
+ * <li><code>--backend</code>: a {@link DecoderBackendType} name.</li>
+ * <li><code>--workers</code>: the number of images decoded at the same time.</li>
+ * <li><code>--format</code>: <code>csv</code> (the default) or <code>json</code>, see {@link
+ *     CsvBatchResultWriter} and {@link JsonBatchResultWriter}.</li>
+ * <li><code>--output</code>: the file the results are written to, standard output if not
+ *     given. Not used in watch mode.</li>
+ * <li><code>--min-edge-factor</code>, <code>--max-edge-factor</code>,
+ *     <code>--scan-gap-factor</code>, <code>--square-dev</code>, <code>--edge-thresh</code>,
+ *     <code>--corrections</code> and <code>--shrink</code>: the {@link DecodeOptions}.</li>
+ * </ul>
+ *
+ * <p>The program exits with status 1 on a usage error, and 2 if some images given with
+ * <code>--images</code> could not be decoded.
+ */
+public final class BatchDecode {
+
+   /** The journal used in watch mode when none is given, in the output or watched directory. */
+   public static final String JOURNAL_FILE = "platedecoder-journal.txt";
+
+   private static final long DEFAULT_QUEUE = 16;
+
+   private static final long DEFAULT_SETTLE_MILLIS = 2000;
+
+   private BatchDecode() {
+      // main only
+   }
+
+   /**
+    * @param args  The command line options.
+    *
+    * @throws IOException if the images cannot be listed or the results cannot be written.
+    *
+    * @throws InterruptedException if interrupted while decoding.
+    */
+   public static void main(String [] args) throws IOException, InterruptedException {
+      // standard output may carry the results, so the log goes to standard error; this is done
+      // before the logger is created so that its console appender writes there
+      PrintStream stdout = System.out;
+      System.setOut(System.err);
+      Logger log = LoggerFactory.getLogger(BatchDecode.class);
+
+      Map<String, String> options = new LinkedHashMap<>();
+      for (int i = 0; i + 1 < args.length; i += 2) {
+         if (!args[i].startsWith("--")) {
+            usage("invalid option: " + args[i]);
+         }
+         options.put(args[i].substring(2), args[i + 1]);
+      }
+      if ((options.containsKey("images") == options.containsKey("watch"))
+          || (args.length % 2 != 0)) {
+         usage(null);
+      }
+
+      PlateDecoderPreferences prefs = PlateDecoderPreferences.getInstance();
+      PlateType plateType = options.containsKey("plate-type")
+         ? PlateType.valueOf(options.get("plate-type")) : prefs.getPlateType();
+      PlateOrientation orientation = options.containsKey("orientation")
+         ? PlateOrientation.valueOf(options.get("orientation")) : prefs.getPlateOrietation();
+      BarcodePosition barcodePosition = options.containsKey("barcode-position")
+         ? BarcodePosition.valueOf(options.get("barcode-position")) : prefs.getBarcodePosition();
+      Bounds grid = options.containsKey("grid")
+         ? parseGrid(options.get("grid")) : prefs.getWellBounds(plateType);
+      DecoderBackendType backendType = options.containsKey("backend")
+         ? DecoderBackendType.valueOf(options.get("backend")) : prefs.getDecoderBackendType();
+      int workers = (int) getLong(options, "workers", prefs.getDecoderWorkers());
+
+      DecodeOptions decodeOptions = new DecodeOptions(
+         getDouble(options, "min-edge-factor", prefs.getMinEdgeFactor()),
+         getDouble(options, "max-edge-factor", prefs.getMaxEdgeFactor()),
+         getDouble(options, "scan-gap-factor", prefs.getScanGapFactor()),
+         getLong(options, "square-dev", prefs.getSquareDeviation()),
+         getLong(options, "edge-thresh", prefs.getEdgeThreshold()),
+         getLong(options, "corrections", prefs.getDecoderCorrections()),
+         getLong(options, "shrink", DecodeOptions.DEFAULT_SHRINK));
+
+      String format = options.getOrDefault("format", "csv");
+      if (!format.equals("csv") && !format.equals("json")) {
+         usage("invalid format: " + format);
+      }
+
+      if (backendType == DecoderBackendType.NATIVE) {
+         LibraryLoader.load();
+      } else if (backendType == DecoderBackendType.WORKERS) {
+         DecoderWorkerPool.getInstance().setSize(workers);
+      }
+
+      log.info("decoding with {}, {} {} barcodes {}, grid {}, {}",
+               backendType.name(),
+               plateType,
+               orientation,
+               barcodePosition,
+               grid,
+               decodeOptions);
+
+      BatchDecoder decoder =
+         new BatchDecoder(backendType.getBackend(),
+                          CellGrid.forBoundingBox(grid.getMinX(),
+                                                  grid.getMinY(),
+                                                  grid.getWidth(),
+                                                  grid.getHeight(),
+                                                  orientation,
+                                                  plateType,
+                                                  barcodePosition),
+                          decodeOptions,
+                          workers);
+
+      if (options.containsKey("watch")) {
+         watch(decoder, options, format, backendType);
+         return;
+      }
+
+      List<File> images = BatchDecoder.findImages(options.get("images"));
+      OutputStream out = options.containsKey("output")
+         ? new FileOutputStream(options.get("output")) : stdout;
+      Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+      int failed;
+      try (BatchResultWriter results = BatchResultWriter.create(format, writer)) {
+         failed = decoder.decode(images, results);
+      }
+
+      if (backendType == DecoderBackendType.WORKERS) {
+         DecoderWorkerPool.getInstance().shutdown();
+      }
+      if (failed > 0) {
+         System.exit(2);
+      }
+   }
+
+   // runs until the process is stopped, the shutdown hook lets the images being decoded finish
+   private static void watch(BatchDecoder        decoder,
+                             Map<String, String> options,
+                             String              format,
+                             DecoderBackendType  backendType) throws IOException {
+      File dir = new File(options.get("watch"));
+      File outputDir = options.containsKey("output-dir")
+         ? new File(options.get("output-dir")) : null;
+      if ((outputDir != null) && !outputDir.isDirectory() && !outputDir.mkdirs()) {
+         usage("cannot create output directory: " + outputDir);
+      }
+      File journalFile = options.containsKey("journal")
+         ? new File(options.get("journal"))
+         : new File((outputDir == null) ? dir : outputDir, JOURNAL_FILE);
+
+      DecodeJournal journal = new DecodeJournal(journalFile);
+      WatchFolderDecoder watcher =
+         new WatchFolderDecoder(decoder,
+                                dir,
+                                outputDir,
+                                format,
+                                journal,
+                                (int) getLong(options, "queue", DEFAULT_QUEUE),
+                                getLong(options, "settle-millis", DEFAULT_SETTLE_MILLIS));
+
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+               watcher.close();
+               journal.close();
+            } catch (IOException e) {
+               System.err.println("error while stopping: " + e.getMessage());
+            }
+            if (backendType == DecoderBackendType.WORKERS) {
+               DecoderWorkerPool.getInstance().shutdown();
+            }
+      }, "watch-folder-shutdown"));
+      watcher.start();
+   }
+
+   private static Bounds parseGrid(String value) {
+      String [] parts = value.split(",");
+      if (parts.length != 4) {
+         usage("invalid grid: " + value);
+      }
+      return new BoundingBox(Double.parseDouble(parts[0].trim()),
+                             Double.parseDouble(parts[1].trim()),
+                             Double.parseDouble(parts[2].trim()),
+                             Double.parseDouble(parts[3].trim()));
+   }
+
+   private static double getDouble(Map<String, String> options, String name, double defaultValue) {
+      return options.containsKey(name) ? Double.parseDouble(options.get(name)) : defaultValue;
+   }
+
+   private static long getLong(Map<String, String> options, String name, long defaultValue) {
+      return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+   }
+
+   private static void usage(String error) {
+      if (error != null) {
+         System.err.println(error);
+      }
+      System.err.println("usage: BatchDecode --images DIR|PATTERN | --watch DIR [--output-dir DIR]"
+                         + " [--journal FILE] [--queue N] [--settle-millis N]"
+                         + " [--plate-type TYPE]"
+                         + " [--orientation LANDSCAPE|PORTRAIT] [--barcode-position TOP|BOTTOM]"
+                         + " [--grid X,Y,WIDTH,HEIGHT] [--backend NATIVE|JAVA|WORKERS]"
+                         + " [--workers N] [--format csv|json] [--output FILE]"
+                         + " [--min-edge-factor F] [--max-edge-factor F] [--scan-gap-factor F]"
+                         + " [--square-dev N] [--edge-thresh N] [--corrections N] [--shrink N]");
+      System.exit(1);
+   }
+
+}
@@ -0,0 +1,209 @@
+package org.biobank.platedecoder.batch;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_FAIL;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.CellRectangle;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ScanLibResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes many plate images with the same well grid and settings, without a user interface.
+ *
+ * <p>Whole images are decoded concurrently on a fixed number of threads. Backends that are not
+ * thread safe, such as the native library, decode one image at a time; use {@link
+ * org.biobank.platedecoder.dmscanlib.DecoderWorkerPool} to decode them in parallel.
+ *
+ * <p>See {@link BatchDecode} for the command line.
+ */
+public class BatchDecoder {
+
+   private static final Logger LOG = LoggerFactory.getLogger(BatchDecoder.class);
+
+   /** The files picked up when a directory is given to {@link #findImages}. */
+   public static final String IMAGE_GLOB =
+      "*.{bmp,BMP,png,PNG,jpg,JPG,jpeg,JPEG,tif,TIF,tiff,TIFF}";
+
+   private final DecoderBackend backend;
+
+   private final DecodeOptions decodeOptions;
+
+   private final CellRectangle [] cells;
+
+   private final int workers;
+
+   /**
+    * @param backend  The decoder used for every image.
+    *
+    * @param grid  The wells to decode in every image.
+    *
+    * @param decodeOptions  The settings used to decode every image.
+    *
+    * @param workers  The number of images decoded at the same time. Reduced to 1 if the backend
+    *                 is not thread safe.
+    */
+   public BatchDecoder(DecoderBackend backend,
+                       CellGrid       grid,
+                       DecodeOptions  decodeOptions,
+                       int            workers) {
+      if ((backend == null) || (grid == null) || (decodeOptions == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      if (workers < 1) {
+         throw new IllegalArgumentException("invalid number of workers: " + workers);
+      }
+      if ((workers > 1) && !backend.isThreadSafe()) {
+         LOG.warn("the decoder is not thread safe, images will be decoded one at a time");
+         workers = 1;
+      }
+      this.backend = backend;
+      this.decodeOptions = decodeOptions;
+      this.cells = CellRectangle.fromCellGrid(grid);
+      this.workers = workers;
+   }
+
+   public int getWorkers() {
+      return workers;
+   }
+
+   /**
+    * Lists the images to decode.
+    *
+    * @param pathOrGlob  A directory, in which case the images it holds are listed (see {@link
+    *                    #IMAGE_GLOB}), or a file name that may contain a glob pattern, such as
+    *                    {@code scans/plate-*.bmp}. Only the last part of the path can be a
+    *                    pattern.
+    *
+    * @return the matching files, sorted by name.
+    *
+    * @throws IOException if the directory cannot be read.
+    */
+   public static List<File> findImages(String pathOrGlob) throws IOException {
+      File file = new File(pathOrGlob);
+      Path dir;
+      String glob;
+      if (file.isDirectory()) {
+         dir = file.toPath();
+         glob = IMAGE_GLOB;
+      } else {
+         File parent = file.getParentFile();
+         dir = (parent == null) ? Paths.get("") : parent.toPath();
+         glob = file.getName();
+      }
+
+      List<File> images = new ArrayList<>();
+      try (DirectoryStream<Path> stream =
+              Files.newDirectoryStream(dir.toAbsolutePath(), glob)) {
+         for (Path path : stream) {
+            if (Files.isRegularFile(path)) {
+               images.add(dir.resolve(path.getFileName()).toFile());
+            }
+         }
+      }
+      Collections.sort(images);
+      return images;
+   }
+
+   /**
+    * Decodes the images and passes each result to {@code writer} as soon as it is available.
+    *
+    * @param images  The images to decode.
+    *
+    * @param writer  Receives the results, in the order the images finish decoding. Not closed by
+    *                this method.
+    *
+    * @return the number of images that could not be decoded. Images where no tubes were found
+    * are not counted.
+    *
+    * @throws IOException if the writer fails. The images still being decoded are abandoned.
+    *
+    * @throws InterruptedException if the thread is interrupted while waiting for a result.
+    */
+   public int decode(List<File> images, BatchResultWriter writer)
+      throws IOException, InterruptedException {
+      ExecutorService executor = Executors.newFixedThreadPool(workers);
+      try {
+         CompletionService<DecodedImage> completion = new ExecutorCompletionService<>(executor);
+         for (File image : images) {
+            completion.submit(() -> new DecodedImage(image, decode(image)));
+         }
+
+         int failed = 0;
+         long tubes = 0;
+         long start = System.nanoTime();
+         for (int i = 0; i < images.size(); ++i) {
+            DecodedImage decoded;
+            try {
+               decoded = completion.take().get();
+            } catch (ExecutionException e) {
+               // decode() does not throw
+               throw new IllegalStateException(e.getCause());
+            }
+
+            ScanLibResult.Result code = decoded.result.getResultCode();
+            if ((code != ScanLibResult.Result.SUCCESS)
+                && (code != ScanLibResult.Result.INVALID_NOTHING_DECODED)) {
+               LOG.warn("could not decode {}: {}", decoded.image, code);
+               ++failed;
+            }
+            tubes += decoded.result.getDecodedWellCount();
+            writer.write(decoded.image, decoded.result);
+         }
+
+         LOG.info("decoded {} tubes in {} images in {} ms, {} images failed",
+                  tubes,
+                  images.size(),
+                  (System.nanoTime() - start) / 1000000,
+                  failed);
+         return failed;
+      } finally {
+         executor.shutdownNow();
+      }
+   }
+
+   /**
+    * Decodes one image.
+    *
+    * @param image  The image.
+    *
+    * @return the result. Errors are returned as a failed result rather than thrown.
+    */
+   public DecodeResult decode(File image) {
+      try {
+         return backend.decodeImage(0, image.getPath(), decodeOptions, cells);
+      } catch (RuntimeException e) {
+         // one bad image must not stop the batch
+         LOG.error("decoding {} failed", image, e);
+         return new DecodeResult(SC_FAIL, SC_FAIL, String.valueOf(e.getMessage()));
+      }
+   }
+
+   private static class DecodedImage {
+      final File image;
+      final DecodeResult result;
+
+      DecodedImage(File image, DecodeResult result) {
+         this.image = image;
+         this.result = result;
+      }
+   }
+
+}
@@ -0,0 +1,53 @@
+package org.biobank.platedecoder.batch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+
+/**
+ * Receives the results of a {@link BatchDecoder}.
+ *
+ * <p>Results are written one image at a time, from a single thread, in the order the images
+ * finish decoding. Implementations should flush each result so that the output can be read while
+ * the batch is still running.
+ */
+public interface BatchResultWriter extends Closeable {
+
+   /**
+    * Writes the result of decoding one image.
+    *
+    * @param image  The image that was decoded.
+    *
+    * @param result  The result of decoding the image.
+    *
+    * @throws IOException if the result cannot be written.
+    */
+   void write(File image, DecodeResult result) throws IOException;
+
+   /**
+    * Creates a writer for a format given on the command line.
+    *
+    * @param format  {@code csv} or {@code json}. Also used as the extension of result files.
+    *
+    * @param out  Where the results are written. Closed with the writer.
+    *
+    * @return the writer.
+    *
+    * @throws IOException if the writer cannot start its output.
+    *
+    * @throws IllegalArgumentException if the format is not known.
+    */
+   static BatchResultWriter create(String format, Writer out) throws IOException {
+      switch (format) {
+      case "csv":
+         return new CsvBatchResultWriter(out);
+      case "json":
+         return new JsonBatchResultWriter(out);
+      default:
+         throw new IllegalArgumentException("invalid format: " + format);
+      }
+   }
+
+}
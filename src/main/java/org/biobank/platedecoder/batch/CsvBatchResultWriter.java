@@ -0,0 +1,51 @@
+package org.biobank.platedecoder.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecodedWell;
+import org.supercsv.io.CsvListWriter;
+import org.supercsv.prefs.CsvPreference;
+
+/**
+ * Writes batch results as CSV, with one row for each decoded tube.
+ *
+ * <p>The columns are the image file, the result code, the well label and the inventory ID. An
+ * image where nothing was decoded gets a single row with an empty label and inventory ID.
+ */
+public class CsvBatchResultWriter implements BatchResultWriter {
+
+   private static final String [] HEADER = { "image", "result", "label", "inventoryId" };
+
+   private final CsvListWriter writer;
+
+   /**
+    * @param out  Where the CSV is written. Closed with this writer.
+    *
+    * @throws IOException if the header cannot be written.
+    */
+   public CsvBatchResultWriter(Writer out) throws IOException {
+      writer = new CsvListWriter(out, CsvPreference.STANDARD_PREFERENCE);
+      writer.writeHeader(HEADER);
+      writer.flush();
+   }
+
+   @Override
+   public void write(File image, DecodeResult result) throws IOException {
+      String code = String.valueOf(result.getResultCode());
+      if (result.getDecodedWellCount() == 0) {
+         writer.write(image.getPath(), code, "", "");
+      }
+      for (DecodedWell well : result.getDecodedWells()) {
+         writer.write(image.getPath(), code, well.getLabel(), well.getMessage());
+      }
+      writer.flush();
+   }
+
+   @Override
+   public void close() throws IOException {
+      writer.close();
+   }
+
+}
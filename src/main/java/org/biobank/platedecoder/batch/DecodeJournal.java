@@ -0,0 +1,183 @@
+package org.biobank.platedecoder.batch;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An append only record of the images decoded by a {@link WatchFolderDecoder}, used to resume
+ * after a restart.
+ *
+ * <p>Each line records one step of a job: {@code STARTED} when decoding starts, then {@code
+ * DONE} or {@code FAILED}, followed by the size and modification time of the image, the result
+ * code and the image's path, separated by tabs. An image is identified by its path, size and
+ * modification time, so an image that is replaced by a new scan with the same name is decoded
+ * again.
+ *
+ * <p>Every line is forced to disk before {@link #record} returns. A line left incomplete by a
+ * crash is ignored when the journal is read back, and its image is decoded again.
+ */
+public class DecodeJournal implements Closeable {
+
+   private static final Logger LOG = LoggerFactory.getLogger(DecodeJournal.class);
+
+   /** The steps recorded for a job. */
+   public enum State {
+      STARTED,
+      DONE,
+      FAILED
+   }
+
+   private final File file;
+
+   private final FileChannel channel;
+
+   // the last state of each job, guarded by this
+   private final Map<String, State> jobs = new HashMap<>();
+
+   /**
+    * Opens a journal, creating it if it does not exist, and reads the jobs it holds.
+    *
+    * @param file  The journal file.
+    *
+    * @throws IOException if the file cannot be read or opened for writing.
+    */
+   public DecodeJournal(File file) throws IOException {
+      this.file = file;
+      boolean incomplete = false;
+      if (file.exists()) {
+         read();
+         incomplete = !endsWithNewline(file);
+      }
+      channel = FileChannel.open(file.toPath(),
+                                 StandardOpenOption.CREATE,
+                                 StandardOpenOption.WRITE,
+                                 StandardOpenOption.APPEND);
+      if (incomplete) {
+         // end the line left by a crash, so that it is not joined to the next one
+         write(ByteBuffer.wrap(new byte [] { '\n' }));
+      }
+   }
+
+   private static boolean endsWithNewline(File file) throws IOException {
+      try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+         if (in.length() == 0) {
+            return true;
+         }
+         in.seek(in.length() - 1);
+         return in.read() == '\n';
+      }
+   }
+
+   private void read() throws IOException {
+      int lineNumber = 0;
+      try (BufferedReader reader = Files.newBufferedReader(file.toPath(),
+                                                           StandardCharsets.UTF_8)) {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            ++lineNumber;
+            String [] fields = line.split("\t", 5);
+            if (fields.length != 5) {
+               LOG.warn("{}:{}: ignoring incomplete line", file, lineNumber);
+               continue;
+            }
+            try {
+               State state = State.valueOf(fields[0]);
+               jobs.put(getKey(fields[4], Long.parseLong(fields[1]), Long.parseLong(fields[2])),
+                        state);
+            } catch (IllegalArgumentException e) {
+               LOG.warn("{}:{}: ignoring invalid line", file, lineNumber);
+            }
+         }
+      }
+   }
+
+   public File getFile() {
+      return file;
+   }
+
+   /**
+    * Returns the last state recorded for an image.
+    *
+    * @param image  The image.
+    *
+    * @return the state, or {@code null} if the image, with its current size and modification
+    * time, was never recorded.
+    */
+   public synchronized State getState(File image) {
+      return jobs.get(getKey(image.getAbsolutePath(), image.length(), image.lastModified()));
+   }
+
+   /**
+    * Returns {@code true} if an image was decoded, or could not be decoded, and does not have to
+    * be decoded again.
+    *
+    * @param image  The image.
+    *
+    * @return {@code true} if the image is finished.
+    */
+   public boolean isFinished(File image) {
+      State state = getState(image);
+      return (state == State.DONE) || (state == State.FAILED);
+   }
+
+   /**
+    * Appends a step to the journal and forces it to disk.
+    *
+    * @param image  The image of the job.
+    *
+    * @param size  The size of the image when the job was started.
+    *
+    * @param lastModified  The modification time of the image when the job was started.
+    *
+    * @param state  The step.
+    *
+    * @param result  The result code, or an empty string when the job is started.
+    *
+    * @throws IOException if the journal cannot be written.
+    */
+   public synchronized void record(File   image,
+                                   long   size,
+                                   long   lastModified,
+                                   State  state,
+                                   String result) throws IOException {
+      String path = image.getAbsolutePath();
+      StringBuffer buf = new StringBuffer();
+      buf.append(state.name()).append('\t');
+      buf.append(size).append('\t');
+      buf.append(lastModified).append('\t');
+      buf.append(result.replace('\t', ' ')).append('\t');
+      buf.append(path).append('\n');
+
+      write(ByteBuffer.wrap(buf.toString().getBytes(StandardCharsets.UTF_8)));
+      jobs.put(getKey(path, size, lastModified), state);
+   }
+
+   private void write(ByteBuffer bytes) throws IOException {
+      while (bytes.hasRemaining()) {
+         channel.write(bytes);
+      }
+      channel.force(false);
+   }
+
+   private static String getKey(String path, long size, long lastModified) {
+      return path + '\t' + size + '\t' + lastModified;
+   }
+
+   @Override
+   public synchronized void close() throws IOException {
+      channel.close();
+   }
+
+}
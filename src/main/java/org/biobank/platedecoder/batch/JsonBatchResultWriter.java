@@ -0,0 +1,71 @@
+package org.biobank.platedecoder.batch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecodedWell;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+/**
+ * Writes batch results as JSON, with one object on each line for each image.
+ *
+ * <p>Each object holds the image file, the result code, the message from the decoder and an
+ * object mapping the labels of the decoded wells to their inventory IDs. The wells that were
+ * skipped because they do not appear to contain a 2D barcode are listed separately. Writing one
+ * object per line, rather than a single array, lets the output be processed while the batch is
+ * running.
+ */
+public class JsonBatchResultWriter implements BatchResultWriter {
+
+   private final Writer out;
+
+   /**
+    * @param out  Where the JSON is written. Closed with this writer.
+    */
+   public JsonBatchResultWriter(Writer out) {
+      this.out = out;
+   }
+
+   /**
+    * Converts a result to the object written for each image, without the image.
+    *
+    * @param result  The result.
+    *
+    * @return the result code, message, decoded wells and skipped wells, in a map that can be
+    * written with Jackson.
+    */
+   public static Map<String, Object> toJson(DecodeResult result) {
+      Map<String, String> wells = new LinkedHashMap<>();
+      for (DecodedWell well : result.getDecodedWells()) {
+         wells.put(well.getLabel(), well.getMessage());
+      }
+
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("result", String.valueOf(result.getResultCode()));
+      json.put("message", (result.getMessage() == null) ? "" : result.getMessage());
+      json.put("wells", wells);
+      json.put("skipped", result.getSkippedWells());
+      return json;
+   }
+
+   @Override
+   public void write(File image, DecodeResult result) throws IOException {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("image", image.getPath());
+      json.putAll(toJson(result));
+
+      out.write(JSON.std.asString(json));
+      out.write('\n');
+      out.flush();
+   }
+
+   @Override
+   public void close() throws IOException {
+      out.close();
+   }
+
+}
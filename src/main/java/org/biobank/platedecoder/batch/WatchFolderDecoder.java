@@ -0,0 +1,330 @@
+package org.biobank.platedecoder.batch;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.ScanLibResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Watches a directory and decodes the plate images that appear in it.
+ *
+ * <p>An image is decoded once its size and modification time have not changed for the settle
+ * time, so that images still being written by a scanner on another station are not read. Settled
+ * images are queued for a fixed number of worker threads; when the queue is full, images wait in
+ * the directory until there is room.
+ *
+ * <p>The result of each image is written to a file named after the image with the extension of
+ * the output format, for example {@code plate1.bmp.csv}, either beside the image or in an output
+ * directory. The file is written under a temporary name and then renamed, so a reader never sees
+ * a partial result.
+ *
+ * <p>Every job is recorded in a {@link DecodeJournal}. When the decoder starts, the images already
+ * in the directory are checked against the journal, so images that arrived while it was stopped
+ * are decoded and images that were finished are not decoded again.
+ */
+public class WatchFolderDecoder implements Closeable {
+
+   private static final Logger LOG = LoggerFactory.getLogger(WatchFolderDecoder.class);
+
+   private static final PathMatcher IMAGES =
+      FileSystems.getDefault().getPathMatcher("glob:" + BatchDecoder.IMAGE_GLOB);
+
+   // the time given to the images being decoded to finish when the decoder is closed
+   private static final long CLOSE_SECONDS = 60;
+
+   private final BatchDecoder decoder;
+
+   private final Path dir;
+
+   private final File outputDir;
+
+   private final String format;
+
+   private final DecodeJournal journal;
+
+   private final long settleMillis;
+
+   private final ThreadPoolExecutor executor;
+
+   private final WatchService watcher;
+
+   // images that were created or changed and are not queued yet, only used by the watch thread
+   private final Map<Path, Candidate> candidates = new HashMap<>();
+
+   // images queued or being decoded
+   private final Set<Path> queued = ConcurrentHashMap.newKeySet();
+
+   private final Thread thread;
+
+   private volatile boolean running;
+
+   private static class Candidate {
+      long size = -1;
+      long lastModified = -1;
+      long changedAt;
+   }
+
+   /**
+    * @param decoder  Decodes each image. Its number of workers is the number of images decoded at
+    *                 the same time.
+    *
+    * @param dir  The directory watched for images.
+    *
+    * @param outputDir  The directory the results are written to, or {@code null} to write them
+    *                   beside the images.
+    *
+    * @param format  The format of the results, {@code csv} or {@code json}. See {@link
+    *                BatchResultWriter#create}.
+    *
+    * @param journal  Records the jobs. Not closed by this decoder.
+    *
+    * @param queueCapacity  The number of settled images that can wait for a worker.
+    *
+    * @param settleMillis  How long an image must stay unchanged before it is decoded.
+    *
+    * @throws IOException if the directory cannot be watched.
+    */
+   public WatchFolderDecoder(BatchDecoder  decoder,
+                             File          dir,
+                             File          outputDir,
+                             String        format,
+                             DecodeJournal journal,
+                             int           queueCapacity,
+                             long          settleMillis) throws IOException {
+      if ((decoder == null) || (dir == null) || (format == null) || (journal == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      if (!dir.isDirectory()) {
+         throw new IllegalArgumentException("not a directory: " + dir);
+      }
+      if ((queueCapacity < 1) || (settleMillis < 0)) {
+         throw new IllegalArgumentException("invalid queue capacity or settle time");
+      }
+      if (!format.equals("csv") && !format.equals("json")) {
+         throw new IllegalArgumentException("invalid format: " + format);
+      }
+
+      this.decoder = decoder;
+      this.dir = dir.toPath().toAbsolutePath();
+      this.outputDir = outputDir;
+      this.format = format;
+      this.journal = journal;
+      this.settleMillis = settleMillis;
+      this.executor = new ThreadPoolExecutor(decoder.getWorkers(),
+                                             decoder.getWorkers(),
+                                             0,
+                                             TimeUnit.MILLISECONDS,
+                                             new ArrayBlockingQueue<>(queueCapacity));
+      this.watcher = FileSystems.getDefault().newWatchService();
+      this.thread = new Thread(this::watch, "watch-folder");
+   }
+
+   /**
+    * Starts watching the directory, and queues the images it already holds that are not finished
+    * in the journal.
+    *
+    * @throws IOException if the directory cannot be watched or listed.
+    */
+   public void start() throws IOException {
+      dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+      scan();
+      running = true;
+      thread.start();
+      LOG.info("watching {}", dir);
+   }
+
+   /**
+    * Returns the number of images queued or being decoded.
+    *
+    * @return the number of images.
+    */
+   public int getPending() {
+      return queued.size();
+   }
+
+   private void scan() throws IOException {
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+         for (Path path : stream) {
+            see(path);
+         }
+      }
+   }
+
+   private void see(Path path) {
+      if (IMAGES.matches(path.getFileName()) && !candidates.containsKey(path)) {
+         candidates.put(path, new Candidate());
+      }
+   }
+
+   private void watch() {
+      long pollMillis = Math.max(10, settleMillis / 2);
+      while (running) {
+         try {
+            WatchKey key = watcher.poll(pollMillis, TimeUnit.MILLISECONDS);
+            if (key != null) {
+               for (WatchEvent<?> event : key.pollEvents()) {
+                  if (event.kind() == OVERFLOW) {
+                     // events were lost
+                     scan();
+                  } else {
+                     see(dir.resolve((Path) event.context()));
+                  }
+               }
+               if (!key.reset()) {
+                  LOG.error("{} can no longer be watched", dir);
+                  running = false;
+               }
+            }
+            queueSettled();
+         } catch (InterruptedException e) {
+            running = false;
+         } catch (Exception e) {
+            // keep watching, the images are found again by the next scan
+            LOG.error("error while watching {}", dir, e);
+         }
+      }
+   }
+
+   private void queueSettled() {
+      long now = System.currentTimeMillis();
+      Iterator<Map.Entry<Path, Candidate>> it = candidates.entrySet().iterator();
+      while (it.hasNext()) {
+         Map.Entry<Path, Candidate> entry = it.next();
+         Path path = entry.getKey();
+         Candidate candidate = entry.getValue();
+         File image = path.toFile();
+         if (!image.isFile()) {
+            it.remove();
+            continue;
+         }
+
+         long size = image.length();
+         long lastModified = image.lastModified();
+         if ((size != candidate.size) || (lastModified != candidate.lastModified)) {
+            candidate.size = size;
+            candidate.lastModified = lastModified;
+            candidate.changedAt = now;
+            continue;
+         }
+         if ((size == 0) || (now - candidate.changedAt < settleMillis)) {
+            continue;
+         }
+
+         if (journal.isFinished(image) || !queued.add(path)) {
+            // finished before, or still being decoded and will be seen again if it changed
+            it.remove();
+            continue;
+         }
+         try {
+            executor.execute(() -> decode(path, size, lastModified));
+            it.remove();
+         } catch (RejectedExecutionException e) {
+            // the queue is full, try again on the next poll
+            queued.remove(path);
+            return;
+         }
+      }
+   }
+
+   private void decode(Path path, long size, long lastModified) {
+      File image = path.toFile();
+      try {
+         journal.record(image, size, lastModified, DecodeJournal.State.STARTED, "");
+         DecodeResult result = decoder.decode(image);
+         writeResult(image, result);
+
+         ScanLibResult.Result code = result.getResultCode();
+         boolean done = (code == ScanLibResult.Result.SUCCESS)
+            || (code == ScanLibResult.Result.INVALID_NOTHING_DECODED);
+         journal.record(image,
+                        size,
+                        lastModified,
+                        done ? DecodeJournal.State.DONE : DecodeJournal.State.FAILED,
+                        String.valueOf(code));
+         LOG.info("{}: {}, {} tubes", image.getName(), code, result.getDecodedWellCount());
+      } catch (IOException e) {
+         // not recorded as finished, so it is decoded again after a restart
+         LOG.error("could not save the result of {}", image, e);
+      } finally {
+         queued.remove(path);
+      }
+   }
+
+   /**
+    * Returns the file the result of an image is written to.
+    *
+    * @param image  The image.
+    *
+    * @return the result file.
+    */
+   public File getResultFile(File image) {
+      File parent = (outputDir == null) ? image.getAbsoluteFile().getParentFile() : outputDir;
+      return new File(parent, image.getName() + "." + format);
+   }
+
+   private void writeResult(File image, DecodeResult result) throws IOException {
+      File resultFile = getResultFile(image);
+      Path temp = new File(resultFile.getPath() + ".tmp").toPath();
+      Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8);
+      try (BatchResultWriter writer = BatchResultWriter.create(format, out)) {
+         writer.write(image, result);
+      }
+      Files.move(temp,
+                 resultFile.toPath(),
+                 StandardCopyOption.REPLACE_EXISTING,
+                 StandardCopyOption.ATOMIC_MOVE);
+   }
+
+   /**
+    * Stops watching, drops the images that are queued and waits for the ones being decoded. The
+    * dropped images are not in the journal and are queued again when the directory is next
+    * watched.
+    *
+    * @throws IOException if the watch service cannot be closed.
+    */
+   @Override
+   public void close() throws IOException {
+      running = false;
+      thread.interrupt();
+      try {
+         thread.join();
+         // not shutdownNow(), an interrupt would close the journal's channel
+         executor.getQueue().clear();
+         executor.shutdown();
+         if (!executor.awaitTermination(CLOSE_SECONDS, TimeUnit.SECONDS)) {
+            LOG.warn("images still being decoded after {} seconds", CLOSE_SECONDS);
+         }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      watcher.close();
+   }
+
+}
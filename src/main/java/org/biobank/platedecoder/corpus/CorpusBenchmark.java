@@ -0,0 +1,255 @@
+package org.biobank.platedecoder.corpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.CellRectangle;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecodedWell;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.DecoderBackendType;
+import org.biobank.platedecoder.dmscanlib.LibraryLoader;
+import org.biobank.platedecoder.dmscanlib.ScanLibResult;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Measures the speed and accuracy of a decoder on a corpus of plate images.
+ *
+ * <p>The corpus is a directory of images, each with a {@link PlateManifest} holding the inventory
+ * IDs of its tubes. The images can come from a scanner, with hand checked manifests, or from
+ * {@link PlateImageGenerator}. Each image is decoded from its file with the cells given by the
+ * manifest's well bounds, and the decoded messages are compared with the manifest.
+ *
+ * <p>The result is a {@link CorpusReport}, which can be saved as a baseline. When run from the
+ * command line with a baseline, the program exits with status 1 if the decoder is slower or less
+ * accurate than the baseline by more than the allowed thresholds.
+ */
+public class CorpusBenchmark {
+
+   private static final Logger LOG = LoggerFactory.getLogger(CorpusBenchmark.class);
+
+   private final DecoderBackend backend;
+
+   private final String backendName;
+
+   private final DecodeOptions decodeOptions;
+
+   /**
+    * @param backend  The decoder to measure.
+    *
+    * @param backendName  The name of the decoder, saved in the report.
+    *
+    * @param decodeOptions  The settings used to decode every image.
+    */
+   public CorpusBenchmark(DecoderBackend backend, String backendName, DecodeOptions decodeOptions) {
+      if ((backend == null) || (decodeOptions == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      this.backend = backend;
+      this.backendName = backendName;
+      this.decodeOptions = decodeOptions;
+   }
+
+   /**
+    * Returns the manifests in a corpus directory.
+    *
+    * @param dir  The corpus directory.
+    *
+    * @return the manifest files, sorted by name.
+    *
+    * @throws IOException if the directory cannot be read.
+    */
+   public static File [] getManifestFiles(File dir) throws IOException {
+      File [] files = dir.listFiles((d, name) -> name.endsWith(PlateManifest.FILE_SUFFIX));
+      if (files == null) {
+         throw new IOException("not a directory: " + dir);
+      }
+      Arrays.sort(files);
+      return files;
+   }
+
+   /**
+    * Decodes every image in a corpus.
+    *
+    * @param dir  The corpus directory.
+    *
+    * @param warmupPasses  The number of times the corpus is decoded, without being measured,
+    *                      before the measured pass. Allows the JIT compiler to optimize the
+    *                      decoder.
+    *
+    * @return the report of the measured pass.
+    *
+    * @throws IOException if the directory or a manifest cannot be read.
+    */
+   public CorpusReport run(File dir, int warmupPasses) throws IOException {
+      File [] manifestFiles = getManifestFiles(dir);
+      if (manifestFiles.length == 0) {
+         throw new IOException("no manifests in " + dir);
+      }
+
+      List<PlateManifest> manifests = new ArrayList<>(manifestFiles.length);
+      for (File file : manifestFiles) {
+         manifests.add(PlateManifest.read(file));
+      }
+
+      for (int pass = 0; pass < warmupPasses; ++pass) {
+         for (PlateManifest manifest : manifests) {
+            decode(dir, manifest, getCells(manifest));
+         }
+      }
+
+      // a registry of its own, so that runs are not exported or mixed with the application's
+      LatencyHistogram histogram = new Metrics(null).histogram("corpus.decode");
+      int failedImages = 0;
+      long wells = 0;
+      long tubes = 0;
+      long decoded = 0;
+      long correct = 0;
+      long decodeNanos = 0;
+
+      for (PlateManifest manifest : manifests) {
+         CellRectangle [] cells = getCells(manifest);
+         long start = System.nanoTime();
+         DecodeResult result = decode(dir, manifest, cells);
+         long nanos = System.nanoTime() - start;
+         histogram.record(nanos);
+         decodeNanos += nanos;
+
+         wells += cells.length;
+         Map<String, String> expected = manifest.getInventoryIds();
+         tubes += expected.size();
+
+         ScanLibResult.Result code = result.getResultCode();
+         if ((code != ScanLibResult.Result.SUCCESS)
+             && (code != ScanLibResult.Result.INVALID_NOTHING_DECODED)) {
+            LOG.warn("could not decode {}: {}", manifest.getImage(), code);
+            ++failedImages;
+            continue;
+         }
+
+         int imageCorrect = 0;
+         for (DecodedWell well : result.getDecodedWells()) {
+            ++decoded;
+            if (well.getMessage().equals(expected.get(well.getLabel()))) {
+               ++imageCorrect;
+            } else {
+               LOG.debug("misread in {}: {} decoded as {}, expected {}",
+                         manifest.getImage(),
+                         well.getLabel(),
+                         well.getMessage(),
+                         expected.get(well.getLabel()));
+            }
+         }
+         correct += imageCorrect;
+         LOG.debug("{}: {}/{} tubes in {} ms",
+                   manifest.getImage(),
+                   imageCorrect,
+                   expected.size(),
+                   nanos / 1000000);
+      }
+
+      return new CorpusReport(backendName,
+                              manifests.size(),
+                              failedImages,
+                              wells,
+                              tubes,
+                              decoded,
+                              correct,
+                              decodeNanos,
+                              histogram.getPercentile50Millis(),
+                              histogram.getPercentile95Millis(),
+                              histogram.getPercentile99Millis());
+   }
+
+   private DecodeResult decode(File dir, PlateManifest manifest, CellRectangle [] cells) {
+      return backend.decodeImage(0,
+                                 new File(dir, manifest.getImage()).getPath(),
+                                 decodeOptions,
+                                 cells);
+   }
+
+   private static CellRectangle [] getCells(PlateManifest manifest) {
+      double [] bounds = manifest.getWellBounds();
+      CellGrid grid = CellGrid.forBoundingBox(bounds[0],
+                                              bounds[1],
+                                              bounds[2],
+                                              bounds[3],
+                                              manifest.getOrientation(),
+                                              manifest.getPlateType(),
+                                              manifest.getBarcodePosition());
+      return CellRectangle.fromCellGrid(grid);
+   }
+
+   /**
+    * Runs the benchmark from the command line.
+    *
+    * <p>Options are given as <code>--name value</code> pairs: <code>--corpus</code> (directory,
+    * required), <code>--backend</code> (a {@link DecoderBackendType} name, default
+    * <code>NATIVE</code>), <code>--warmup</code> (passes, default 1), <code>--baseline</code>
+    * (report file), <code>--save</code> (report file), <code>--max-slowdown</code> (default 0.1),
+    * <code>--max-recall-drop</code> (default 0.005) and <code>--max-misread-increase</code>
+    * (default 0.001).
+    *
+    * <p>Exits with status 1 if a baseline is given and the run regressed past a threshold.
+    *
+    * @param args  The command line options.
+    *
+    * @throws IOException if the corpus or a report cannot be read or written.
+    */
+   public static void main(String [] args) throws IOException {
+      Map<String, String> options = new LinkedHashMap<>();
+      for (int i = 0; i + 1 < args.length; i += 2) {
+         if (!args[i].startsWith("--")) {
+            throw new IllegalArgumentException("invalid option: " + args[i]);
+         }
+         options.put(args[i].substring(2), args[i + 1]);
+      }
+      if (!options.containsKey("corpus") || (args.length % 2 != 0)) {
+         System.err.println("usage: CorpusBenchmark --corpus DIR [--backend NATIVE|JAVA]"
+                            + " [--warmup N] [--baseline FILE] [--save FILE]"
+                            + " [--max-slowdown F] [--max-recall-drop F]"
+                            + " [--max-misread-increase F]");
+         System.exit(1);
+      }
+
+      DecoderBackendType type =
+         DecoderBackendType.valueOf(options.getOrDefault("backend", "NATIVE"));
+      if (type == DecoderBackendType.NATIVE) {
+         LibraryLoader.load();
+      }
+      CorpusBenchmark benchmark = new CorpusBenchmark(type.getBackend(),
+                                                      type.name(),
+                                                      DecodeOptions.getDefaultDecodeOptions());
+      CorpusReport report = benchmark.run(new File(options.get("corpus")),
+                                          Integer.parseInt(options.getOrDefault("warmup", "1")));
+      System.out.println(report);
+
+      if (options.containsKey("save")) {
+         report.write(new File(options.get("save")));
+      }
+
+      if (options.containsKey("baseline")) {
+         CorpusReport baseline = CorpusReport.read(new File(options.get("baseline")));
+         System.out.println("baseline " + baseline);
+         List<String> regressions = report.findRegressions(
+            baseline,
+            Double.parseDouble(options.getOrDefault("max-slowdown", "0.1")),
+            Double.parseDouble(options.getOrDefault("max-recall-drop", "0.005")),
+            Double.parseDouble(options.getOrDefault("max-misread-increase", "0.001")));
+         if (!regressions.isEmpty()) {
+            regressions.forEach(regression -> System.out.println("REGRESSION: " + regression));
+            System.exit(1);
+         }
+      }
+   }
+
+}
@@ -0,0 +1,294 @@
+package org.biobank.platedecoder.corpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+/**
+ * The speed and accuracy of a decoder on a corpus of plate images, as measured by {@link
+ * CorpusBenchmark}.
+ *
+ * <p>A report can be saved and used as the baseline for later runs, see {@link
+ * #findRegressions}.
+ */
+public final class CorpusReport {
+
+   private final String backend;
+
+   private final int images;
+
+   private final int failedImages;
+
+   private final long wells;
+
+   private final long tubes;
+
+   private final long decoded;
+
+   private final long correct;
+
+   private final long decodeNanos;
+
+   private final double percentile50Millis;
+
+   private final double percentile95Millis;
+
+   private final double percentile99Millis;
+
+   /**
+    * @param backend  The name of the decoder that was measured.
+    *
+    * @param images  The number of images decoded.
+    *
+    * @param failedImages  The number of images where the decoder returned an error.
+    *
+    * @param wells  The number of wells in the images, with or without a tube.
+    *
+    * @param tubes  The number of tubes in the images, according to their manifests.
+    *
+    * @param decoded  The number of wells the decoder returned a message for.
+    *
+    * @param correct  The number of wells where the message matches the manifest.
+    *
+    * @param decodeNanos  The total time spent decoding the images.
+    *
+    * @param percentile50Millis  The median time to decode an image.
+    *
+    * @param percentile95Millis  The 95th percentile of the time to decode an image.
+    *
+    * @param percentile99Millis  The 99th percentile of the time to decode an image.
+    */
+   public CorpusReport(String backend,
+                       int    images,
+                       int    failedImages,
+                       long   wells,
+                       long   tubes,
+                       long   decoded,
+                       long   correct,
+                       long   decodeNanos,
+                       double percentile50Millis,
+                       double percentile95Millis,
+                       double percentile99Millis) {
+      this.backend = backend;
+      this.images = images;
+      this.failedImages = failedImages;
+      this.wells = wells;
+      this.tubes = tubes;
+      this.decoded = decoded;
+      this.correct = correct;
+      this.decodeNanos = decodeNanos;
+      this.percentile50Millis = percentile50Millis;
+      this.percentile95Millis = percentile95Millis;
+      this.percentile99Millis = percentile99Millis;
+   }
+
+   public String getBackend() {
+      return backend;
+   }
+
+   public int getImages() {
+      return images;
+   }
+
+   public int getFailedImages() {
+      return failedImages;
+   }
+
+   public long getWells() {
+      return wells;
+   }
+
+   public long getTubes() {
+      return tubes;
+   }
+
+   public long getDecoded() {
+      return decoded;
+   }
+
+   public long getCorrect() {
+      return correct;
+   }
+
+   /**
+    * @return the number of wells where the decoder returned a message that does not match the
+    *         manifest, including wells that have no tube.
+    */
+   public long getMisreads() {
+      return decoded - correct;
+   }
+
+   public long getDecodeNanos() {
+      return decodeNanos;
+   }
+
+   /**
+    * @return the number of wells, with or without a tube, decoded per second.
+    */
+   public double getWellsPerSecond() {
+      return (decodeNanos == 0) ? 0 : wells * 1e9 / decodeNanos;
+   }
+
+   /**
+    * @return the fraction of tubes that were decoded correctly.
+    */
+   public double getRecall() {
+      return (tubes == 0) ? 1.0 : (double) correct / tubes;
+   }
+
+   /**
+    * @return the fraction of decoded wells where the message is wrong.
+    */
+   public double getMisreadRate() {
+      return (decoded == 0) ? 0 : (double) getMisreads() / decoded;
+   }
+
+   public double getPercentile50Millis() {
+      return percentile50Millis;
+   }
+
+   public double getPercentile95Millis() {
+      return percentile95Millis;
+   }
+
+   public double getPercentile99Millis() {
+      return percentile99Millis;
+   }
+
+   /**
+    * Compares this report with a baseline.
+    *
+    * @param baseline  The report of an earlier run on the same corpus.
+    *
+    * @param maxSlowdown  The largest allowed loss of throughput, and increase of the 95th
+    *                     percentile latency, as a fraction of the baseline. For example 0.1 for
+    *                     10%.
+    *
+    * @param maxRecallDrop  The largest allowed decrease of the recall, as an absolute fraction.
+    *
+    * @param maxMisreadIncrease  The largest allowed increase of the misread rate, as an absolute
+    *                            fraction.
+    *
+    * @return a description of each regression, or an empty list if there are none.
+    */
+   public List<String> findRegressions(CorpusReport baseline,
+                                       double       maxSlowdown,
+                                       double       maxRecallDrop,
+                                       double       maxMisreadIncrease) {
+      List<String> regressions = new ArrayList<>();
+      if (getWellsPerSecond() < baseline.getWellsPerSecond() * (1 - maxSlowdown)) {
+         regressions.add(String.format("throughput %.1f wells/s, baseline %.1f wells/s",
+                                       getWellsPerSecond(),
+                                       baseline.getWellsPerSecond()));
+      }
+      if (percentile95Millis > baseline.percentile95Millis * (1 + maxSlowdown)) {
+         regressions.add(String.format("95th percentile %.1f ms, baseline %.1f ms",
+                                       percentile95Millis,
+                                       baseline.percentile95Millis));
+      }
+      if (getRecall() < baseline.getRecall() - maxRecallDrop) {
+         regressions.add(String.format("recall %.4f, baseline %.4f",
+                                       getRecall(),
+                                       baseline.getRecall()));
+      }
+      if (getMisreadRate() > baseline.getMisreadRate() + maxMisreadIncrease) {
+         regressions.add(String.format("misread rate %.4f, baseline %.4f",
+                                       getMisreadRate(),
+                                       baseline.getMisreadRate()));
+      }
+      return regressions;
+   }
+
+   /**
+    * Saves the report as JSON.
+    *
+    * @param file  The file to save the report in.
+    *
+    * @throws IOException if the file cannot be written.
+    */
+   public void write(File file) throws IOException {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("backend", backend);
+      json.put("images", images);
+      json.put("failedImages", failedImages);
+      json.put("wells", wells);
+      json.put("tubes", tubes);
+      json.put("decoded", decoded);
+      json.put("correct", correct);
+      json.put("decodeNanos", decodeNanos);
+      json.put("percentile50Millis", percentile50Millis);
+      json.put("percentile95Millis", percentile95Millis);
+      json.put("percentile99Millis", percentile99Millis);
+
+      // derived values, only for people reading the file
+      json.put("wellsPerSecond", getWellsPerSecond());
+      json.put("recall", getRecall());
+      json.put("misreadRate", getMisreadRate());
+
+      String text = JSON.std.with(JSON.Feature.PRETTY_PRINT_OUTPUT).asString(json);
+      Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+   }
+
+   /**
+    * Reads a report saved with {@link #write}.
+    *
+    * @param file  The file holding the report.
+    *
+    * @return the report.
+    *
+    * @throws IOException if the file cannot be read or is not a valid report.
+    */
+   public static CorpusReport read(File file) throws IOException {
+      String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+      Map<String, Object> json = JSON.std.mapFrom(text);
+      try {
+         return new CorpusReport(String.valueOf(json.get("backend")),
+                                 getNumber(json, "images").intValue(),
+                                 getNumber(json, "failedImages").intValue(),
+                                 getNumber(json, "wells").longValue(),
+                                 getNumber(json, "tubes").longValue(),
+                                 getNumber(json, "decoded").longValue(),
+                                 getNumber(json, "correct").longValue(),
+                                 getNumber(json, "decodeNanos").longValue(),
+                                 getNumber(json, "percentile50Millis").doubleValue(),
+                                 getNumber(json, "percentile95Millis").doubleValue(),
+                                 getNumber(json, "percentile99Millis").doubleValue());
+      } catch (IllegalArgumentException e) {
+         throw new IOException("invalid report " + file + ": " + e.getMessage(), e);
+      }
+   }
+
+   private static Number getNumber(Map<String, Object> json, String key) {
+      Object value = json.get(key);
+      if (!(value instanceof Number)) {
+         throw new IllegalArgumentException("missing number: " + key);
+      }
+      return (Number) value;
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      buf.append(backend).append(": ");
+      buf.append(images).append(" images (").append(failedImages).append(" failed), ");
+      buf.append(String.format("%.1f wells/s, ", getWellsPerSecond()));
+      buf.append(String.format("p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, ",
+                               percentile50Millis,
+                               percentile95Millis,
+                               percentile99Millis));
+      buf.append(String.format("recall %.4f (%d/%d), ", getRecall(), correct, tubes));
+      buf.append(String.format("misread rate %.4f (%d/%d)",
+                               getMisreadRate(),
+                               getMisreads(),
+                               decoded));
+      return buf.toString();
+   }
+
+}
@@ -0,0 +1,460 @@
+package org.biobank.platedecoder.corpus;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import javax.imageio.ImageIO;
+import org.biobank.platedecoder.dmscanlib.datamatrix.BitMatrix;
+import org.biobank.platedecoder.dmscanlib.datamatrix.DataMatrixEncoder;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateLayout;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+
+/**
+ * Renders images of plates holding tubes with known inventory IDs.
+ *
+ * <p>Each tube is drawn as a light disc with a DataMatrix symbol, encoded with {@link
+ * DataMatrixEncoder}, on a dark plate. The image can then be degraded with blur, a loss of
+ * contrast and noise, applied in that order, to look like a flatbed scan. Each image is written
+ * with a {@link PlateManifest} holding the inventory IDs, so that a decoder's output can be
+ * checked against it.
+ *
+ * <p>The wells are placed using the same {@link PlateLayout} as the decoder, so the labels in the
+ * manifest match the labels of a {@link org.biobank.platedecoder.dmscanlib.CellGrid} built from
+ * the manifest's well bounds.
+ *
+ * <p>All random choices come from the seed given to the constructor, so a corpus can be
+ * regenerated exactly.
+ */
+public class PlateImageGenerator {
+
+   /** The distance between the centres of two wells on an SBS plate, in millimetres. */
+   public static final double WELL_PITCH_MM = 9.0;
+
+   private static final double MM_PER_INCH = 25.4;
+
+   private static final int PLATE_GRAY = 60;
+
+   private static final int EMPTY_WELL_GRAY = 35;
+
+   private static final int TUBE_GRAY = 190;
+
+   private final PlateType plateType;
+
+   private final PlateOrientation orientation;
+
+   private final BarcodePosition barcodePosition;
+
+   private final long dpi;
+
+   private final long seed;
+
+   private final Random random;
+
+   private double fillRatio = 1.0;
+
+   private double noise = 0;
+
+   private double blur = 0;
+
+   private double maxRotation = 0;
+
+   private double contrast = 1.0;
+
+   private double symbolSize = 0.25;
+
+   private String idPrefix = "FR";
+
+   /**
+    * @param plateType  The dimensions of the plate in terms of number of wells.
+    *
+    * @param orientation  The plate's orientation in the image.
+    *
+    * @param barcodePosition  The location of the 2D barcodes on the tubes.
+    *
+    * @param dpi  The resolution of the images.
+    *
+    * @param seed  The seed for the inventory IDs, the tubes that are present and the
+    *              degradations.
+    */
+   public PlateImageGenerator(PlateType        plateType,
+                              PlateOrientation orientation,
+                              BarcodePosition  barcodePosition,
+                              long             dpi,
+                              long             seed) {
+      if ((plateType == null) || (orientation == null) || (barcodePosition == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      if (dpi <= 0) {
+         throw new IllegalArgumentException("invalid dpi: " + dpi);
+      }
+      this.plateType = plateType;
+      this.orientation = orientation;
+      this.barcodePosition = barcodePosition;
+      this.dpi = dpi;
+      this.seed = seed;
+      this.random = new Random(seed);
+   }
+
+   /**
+    * @param fillRatio  The probability that a well holds a tube, between 0 and 1.
+    */
+   public void setFillRatio(double fillRatio) {
+      if ((fillRatio < 0) || (fillRatio > 1)) {
+         throw new IllegalArgumentException("invalid fill ratio: " + fillRatio);
+      }
+      this.fillRatio = fillRatio;
+   }
+
+   /**
+    * @param noise  The standard deviation of the gaussian noise added to each pixel, in gray
+    *               levels. Use 0 for no noise.
+    */
+   public void setNoise(double noise) {
+      if (noise < 0) {
+         throw new IllegalArgumentException("invalid noise: " + noise);
+      }
+      this.noise = noise;
+   }
+
+   /**
+    * @param blur  The standard deviation of the gaussian blur, in pixels. Use 0 for no blur.
+    */
+   public void setBlur(double blur) {
+      if (blur < 0) {
+         throw new IllegalArgumentException("invalid blur: " + blur);
+      }
+      this.blur = blur;
+   }
+
+   /**
+    * @param maxRotation  Each tube is rotated by a random angle between minus and plus this
+    *                     value, in degrees.
+    */
+   public void setMaxRotation(double maxRotation) {
+      if (maxRotation < 0) {
+         throw new IllegalArgumentException("invalid rotation: " + maxRotation);
+      }
+      this.maxRotation = maxRotation;
+   }
+
+   /**
+    * @param contrast  The factor applied to the distance of each pixel from mid gray. Values
+    *                  below 1 make the image look washed out.
+    */
+   public void setContrast(double contrast) {
+      if ((contrast <= 0) || (contrast > 1)) {
+         throw new IllegalArgumentException("invalid contrast: " + contrast);
+      }
+      this.contrast = contrast;
+   }
+
+   /**
+    * @param symbolSize  The length of the edge of each symbol, as a fraction of the well pitch.
+    *                    It should be within the edge factors of the {@link
+    *                    org.biobank.platedecoder.dmscanlib.DecodeOptions} used to decode the
+    *                    images.
+    */
+   public void setSymbolSize(double symbolSize) {
+      if ((symbolSize <= 0) || (symbolSize > 0.6)) {
+         throw new IllegalArgumentException("invalid symbol size: " + symbolSize);
+      }
+      this.symbolSize = symbolSize;
+   }
+
+   /**
+    * @param idPrefix  The text that starts every inventory ID.
+    */
+   public void setIdPrefix(String idPrefix) {
+      if (idPrefix == null) {
+         throw new IllegalArgumentException("prefix is null");
+      }
+      this.idPrefix = idPrefix;
+   }
+
+   /**
+    * @return the distance between the centres of two wells in the images, in pixels.
+    */
+   public double getWellPitch() {
+      return WELL_PITCH_MM / MM_PER_INCH * dpi;
+   }
+
+   /**
+    * Chooses the wells that hold a tube, and the inventory ID of each tube, for a new image.
+    *
+    * @param image  The name of the image file.
+    *
+    * @return the manifest of the image.
+    */
+   public PlateManifest createManifest(String image) {
+      PlateLayout layout = PlateLayout.get(plateType, orientation, barcodePosition);
+      double pitch = getWellPitch();
+      double margin = pitch / 2;
+      double [] wellBounds = new double [] {
+         margin, margin, layout.getCols() * pitch, layout.getRows() * pitch
+      };
+
+      Map<String, String> inventoryIds = new LinkedHashMap<>();
+      Set<String> used = new HashSet<>();
+      for (int well = 0, n = layout.size(); well < n; ++well) {
+         if (random.nextDouble() >= fillRatio) continue;
+
+         String id;
+         do {
+            id = String.format("%s%08d", idPrefix, random.nextInt(100000000));
+         } while (!used.add(id));
+         inventoryIds.put(layout.getLabelForWell(well), id);
+      }
+
+      Map<String, Object> settings = new LinkedHashMap<>();
+      settings.put("seed", seed);
+      settings.put("fillRatio", fillRatio);
+      settings.put("noise", noise);
+      settings.put("blur", blur);
+      settings.put("maxRotation", maxRotation);
+      settings.put("contrast", contrast);
+      settings.put("symbolSize", symbolSize);
+
+      return new PlateManifest(image,
+                               plateType,
+                               orientation,
+                               barcodePosition,
+                               dpi,
+                               wellBounds,
+                               inventoryIds,
+                               settings);
+   }
+
+   /**
+    * Renders the image described by a manifest, using this generator's degradations.
+    *
+    * @param manifest  The manifest, from {@link #createManifest}.
+    *
+    * @return the grayscale image.
+    */
+   public BufferedImage render(PlateManifest manifest) {
+      PlateLayout layout = PlateLayout.get(manifest.getPlateType(),
+                                           manifest.getOrientation(),
+                                           manifest.getBarcodePosition());
+      double [] bounds = manifest.getWellBounds();
+      double pitch = bounds[2] / layout.getCols();
+      int width = (int) Math.ceil(bounds[0] * 2 + bounds[2]);
+      int height = (int) Math.ceil(bounds[1] * 2 + bounds[3]);
+
+      // the same manifest is always rendered the same way
+      Random imageRandom = new Random(seed ^ manifest.getImage().hashCode());
+
+      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+      Graphics2D g = image.createGraphics();
+      g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+      g.setColor(gray(PLATE_GRAY));
+      g.fillRect(0, 0, width, height);
+
+      Map<String, String> inventoryIds = manifest.getInventoryIds();
+      for (int row = 0; row < layout.getRows(); ++row) {
+         for (int col = 0; col < layout.getCols(); ++col) {
+            double centreX = bounds[0] + (col + 0.5) * pitch;
+            double centreY = bounds[1] + (row + 0.5) * pitch;
+            String id = inventoryIds.get(layout.getLabel(row, col));
+            double degrees = (2 * imageRandom.nextDouble() - 1) * maxRotation;
+            drawWell(g, centreX, centreY, pitch, id, degrees);
+         }
+      }
+      g.dispose();
+
+      byte [] pixels = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+      if (blur > 0) {
+         blur(pixels, width, height, blur);
+      }
+      if ((contrast != 1.0) || (noise > 0)) {
+         for (int i = 0; i < pixels.length; ++i) {
+            double value = ((pixels[i] & 0xff) - 128) * contrast + 128;
+            if (noise > 0) {
+               value += imageRandom.nextGaussian() * noise;
+            }
+            pixels[i] = (byte) clamp(value);
+         }
+      }
+      return image;
+   }
+
+   /**
+    * Creates a new image and saves it, with its manifest, in a directory.
+    *
+    * @param dir  The directory to save the files in.
+    *
+    * @param name  The name of the image, without an extension. The image is saved as a PNG file.
+    *
+    * @return the manifest of the image.
+    *
+    * @throws IOException if the files cannot be written.
+    */
+   public PlateManifest write(File dir, String name) throws IOException {
+      File imageFile = new File(dir, name + ".png");
+      PlateManifest manifest = createManifest(imageFile.getName());
+      if (!ImageIO.write(render(manifest), "png", imageFile)) {
+         throw new IOException("no PNG writer available");
+      }
+      manifest.write(PlateManifest.getManifestFile(imageFile));
+      return manifest;
+   }
+
+   private void drawWell(Graphics2D g,
+                         double     centreX,
+                         double     centreY,
+                         double     pitch,
+                         String     id,
+                         double     degrees) {
+      double tube = 0.85 * pitch;
+      Ellipse2D disc = new Ellipse2D.Double(centreX - tube / 2, centreY - tube / 2, tube, tube);
+      if (id == null) {
+         g.setColor(gray(EMPTY_WELL_GRAY));
+         g.fill(disc);
+         return;
+      }
+
+      g.setColor(gray(TUBE_GRAY));
+      g.fill(disc);
+
+      BitMatrix symbol = DataMatrixEncoder.encode(id);
+      double module = symbolSize * pitch / symbol.getCols();
+      double symbolWidth = symbol.getCols() * module;
+      double symbolHeight = symbol.getRows() * module;
+
+      AffineTransform saved = g.getTransform();
+      g.translate(centreX, centreY);
+      g.rotate(Math.toRadians(degrees));
+      g.translate(-symbolWidth / 2, -symbolHeight / 2);
+
+      // quiet zone of two modules
+      g.setColor(Color.WHITE);
+      g.fill(new Rectangle2D.Double(-2 * module,
+                                    -2 * module,
+                                    symbolWidth + 4 * module,
+                                    symbolHeight + 4 * module));
+
+      g.setColor(Color.BLACK);
+      for (int row = 0; row < symbol.getRows(); ++row) {
+         for (int col = 0; col < symbol.getCols(); ++col) {
+            if (symbol.get(row, col)) {
+               g.fill(new Rectangle2D.Double(col * module, row * module, module, module));
+            }
+         }
+      }
+      g.setTransform(saved);
+   }
+
+   // separable gaussian blur, the edges of the image are extended
+   private static void blur(byte [] pixels, int width, int height, double sigma) {
+      int radius = (int) Math.ceil(3 * sigma);
+      double [] kernel = new double[2 * radius + 1];
+      double sum = 0;
+      for (int i = -radius; i <= radius; ++i) {
+         kernel[i + radius] = Math.exp(-(i * i) / (2 * sigma * sigma));
+         sum += kernel[i + radius];
+      }
+      for (int i = 0; i < kernel.length; ++i) {
+         kernel[i] /= sum;
+      }
+
+      double [] temp = new double[pixels.length];
+      for (int y = 0; y < height; ++y) {
+         int offset = y * width;
+         for (int x = 0; x < width; ++x) {
+            double value = 0;
+            for (int k = -radius; k <= radius; ++k) {
+               int xk = Math.min(width - 1, Math.max(0, x + k));
+               value += kernel[k + radius] * (pixels[offset + xk] & 0xff);
+            }
+            temp[offset + x] = value;
+         }
+      }
+      for (int y = 0; y < height; ++y) {
+         for (int x = 0; x < width; ++x) {
+            double value = 0;
+            for (int k = -radius; k <= radius; ++k) {
+               int yk = Math.min(height - 1, Math.max(0, y + k));
+               value += kernel[k + radius] * temp[yk * width + x];
+            }
+            pixels[y * width + x] = (byte) clamp(value);
+         }
+      }
+   }
+
+   private static int clamp(double value) {
+      return (int) Math.max(0, Math.min(255, Math.round(value)));
+   }
+
+   private static Color gray(int value) {
+      return new Color(value, value, value);
+   }
+
+   /**
+    * Writes a corpus of plate images and their manifests.
+    *
+    * <p>Options are given as <code>--name value</code> pairs: <code>--out</code> (directory,
+    * required), <code>--count</code>, <code>--plate</code> (a {@link PlateType} name),
+    * <code>--orientation</code>, <code>--barcode</code>, <code>--dpi</code>, <code>--fill</code>,
+    * <code>--noise</code>, <code>--blur</code>, <code>--rotation</code>,
+    * <code>--contrast</code>, <code>--symbol</code> and <code>--seed</code>.
+    *
+    * @param args  The command line options.
+    *
+    * @throws IOException if the files cannot be written.
+    */
+   public static void main(String [] args) throws IOException {
+      Map<String, String> options = new LinkedHashMap<>();
+      for (int i = 0; i + 1 < args.length; i += 2) {
+         if (!args[i].startsWith("--")) {
+            throw new IllegalArgumentException("invalid option: " + args[i]);
+         }
+         options.put(args[i].substring(2), args[i + 1]);
+      }
+      if (!options.containsKey("out") || (args.length % 2 != 0)) {
+         System.err.println("usage: PlateImageGenerator --out DIR [--count N] [--plate TYPE]"
+                            + " [--orientation O] [--barcode B] [--dpi N] [--fill R]"
+                            + " [--noise SIGMA] [--blur SIGMA] [--rotation DEG]"
+                            + " [--contrast C] [--symbol F] [--seed N]");
+         System.exit(1);
+      }
+
+      File dir = new File(options.get("out"));
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+         throw new IOException("cannot create directory " + dir);
+      }
+
+      PlateImageGenerator generator = new PlateImageGenerator(
+         PlateType.valueOf(options.getOrDefault("plate", PlateType.PT_96_WELLS.name())),
+         PlateOrientation.valueOf(
+            options.getOrDefault("orientation", PlateOrientation.LANDSCAPE.name())),
+         BarcodePosition.valueOf(options.getOrDefault("barcode", BarcodePosition.BOTTOM.name())),
+         Long.parseLong(options.getOrDefault("dpi", "600")),
+         Long.parseLong(options.getOrDefault("seed", "1")));
+      generator.setFillRatio(Double.parseDouble(options.getOrDefault("fill", "1")));
+      generator.setNoise(Double.parseDouble(options.getOrDefault("noise", "0")));
+      generator.setBlur(Double.parseDouble(options.getOrDefault("blur", "0")));
+      generator.setMaxRotation(Double.parseDouble(options.getOrDefault("rotation", "0")));
+      generator.setContrast(Double.parseDouble(options.getOrDefault("contrast", "1")));
+      generator.setSymbolSize(Double.parseDouble(options.getOrDefault("symbol", "0.25")));
+
+      int count = Integer.parseInt(options.getOrDefault("count", "1"));
+      for (int i = 0; i < count; ++i) {
+         PlateManifest manifest = generator.write(dir, String.format("plate-%04d", i));
+         System.out.println(manifest);
+      }
+   }
+
+}
@@ -0,0 +1,254 @@
+package org.biobank.platedecoder.corpus;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateLayout;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+/**
+ * The ground truth for an image of a plate: how the plate was imaged, where its wells are, and
+ * the inventory ID of the tube in each well.
+ *
+ * <p>A manifest is saved as a JSON file next to its image, see {@link #getManifestFile}. Wells
+ * without a tube, or with a tube that has no barcode, are not listed.
+ *
+ */
+public final class PlateManifest {
+
+   /** Added to the name of an image, without its extension, to get the name of its manifest. */
+   public static final String FILE_SUFFIX = ".manifest.json";
+
+   private final String image;
+
+   private final PlateType plateType;
+
+   private final PlateOrientation orientation;
+
+   private final BarcodePosition barcodePosition;
+
+   private final long dpi;
+
+   private final double [] wellBounds;
+
+   private final Map<String, String> inventoryIds;
+
+   private final Map<String, Object> settings;
+
+   /**
+    * @param image  The name of the image file, relative to the manifest.
+    *
+    * @param plateType  The dimensions of the plate in terms of number of wells.
+    *
+    * @param orientation  The plate's orientation in the image.
+    *
+    * @param barcodePosition  The location of the 2D barcodes on the tubes.
+    *
+    * @param dpi  The resolution of the image.
+    *
+    * @param wellBounds  The rectangle enclosing the wells in the image, in pixels: x, y, width and
+    *                    height.
+    *
+    * @param inventoryIds  The inventory ID of each tube, by SBS label.
+    *
+    * @param settings  How the image was created, for example the amount of noise added. Only
+    *                  used to describe the image. Can be empty.
+    */
+   public PlateManifest(String              image,
+                        PlateType           plateType,
+                        PlateOrientation    orientation,
+                        BarcodePosition     barcodePosition,
+                        long                dpi,
+                        double []           wellBounds,
+                        Map<String, String> inventoryIds,
+                        Map<String, Object> settings) {
+      if ((image == null) || (plateType == null) || (orientation == null)
+          || (barcodePosition == null) || (inventoryIds == null) || (settings == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      if ((wellBounds == null) || (wellBounds.length != 4)) {
+         throw new IllegalArgumentException("well bounds must have 4 values");
+      }
+      this.image = image;
+      this.plateType = plateType;
+      this.orientation = orientation;
+      this.barcodePosition = barcodePosition;
+      this.dpi = dpi;
+      this.wellBounds = wellBounds.clone();
+
+      // sorted so that manifests are easy to compare
+      Map<String, String> sorted = new TreeMap<>(PlateLayout.LABEL_ORDER);
+      sorted.putAll(inventoryIds);
+      this.inventoryIds = Collections.unmodifiableMap(sorted);
+      this.settings = Collections.unmodifiableMap(new TreeMap<>(settings));
+   }
+
+   /**
+    * Returns the file holding the manifest of an image.
+    *
+    * @param imageFile  The image.
+    *
+    * @return the manifest file, in the same directory as the image.
+    */
+   public static File getManifestFile(File imageFile) {
+      String name = imageFile.getName();
+      int dot = name.lastIndexOf('.');
+      if (dot > 0) {
+         name = name.substring(0, dot);
+      }
+      return new File(imageFile.getParentFile(), name + FILE_SUFFIX);
+   }
+
+   /**
+    * @return the name of the image file, relative to the manifest.
+    */
+   public String getImage() {
+      return image;
+   }
+
+   public PlateType getPlateType() {
+      return plateType;
+   }
+
+   public PlateOrientation getOrientation() {
+      return orientation;
+   }
+
+   public BarcodePosition getBarcodePosition() {
+      return barcodePosition;
+   }
+
+   public long getDpi() {
+      return dpi;
+   }
+
+   /**
+    * @return the rectangle enclosing the wells in the image, in pixels: x, y, width and height.
+    */
+   public double [] getWellBounds() {
+      return wellBounds.clone();
+   }
+
+   /**
+    * @return the inventory ID of each tube, by SBS label, sorted by label.
+    */
+   public Map<String, String> getInventoryIds() {
+      return inventoryIds;
+   }
+
+   public Map<String, Object> getSettings() {
+      return settings;
+   }
+
+   /**
+    * Saves the manifest.
+    *
+    * @param file  Where to save the manifest. See {@link #getManifestFile}.
+    *
+    * @throws IOException if the file cannot be written.
+    */
+   public void write(File file) throws IOException {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("image", image);
+      json.put("plateType", plateType.name());
+      json.put("orientation", orientation.name());
+      json.put("barcodePosition", barcodePosition.name());
+      json.put("dpi", dpi);
+
+      Map<String, Object> bounds = new LinkedHashMap<>();
+      bounds.put("x", wellBounds[0]);
+      bounds.put("y", wellBounds[1]);
+      bounds.put("width", wellBounds[2]);
+      bounds.put("height", wellBounds[3]);
+      json.put("wellBounds", bounds);
+
+      json.put("settings", settings);
+      json.put("inventoryIds", inventoryIds);
+
+      String text = JSON.std.with(JSON.Feature.PRETTY_PRINT_OUTPUT).asString(json);
+      Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+   }
+
+   /**
+    * Reads a manifest saved with {@link #write}.
+    *
+    * @param file  The manifest file.
+    *
+    * @return the manifest.
+    *
+    * @throws IOException if the file cannot be read or is not a valid manifest.
+    */
+   public static PlateManifest read(File file) throws IOException {
+      String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+      Map<String, Object> json = JSON.std.mapFrom(text);
+
+      try {
+         Map<String, Object> bounds = getMap(json, "wellBounds");
+         double [] wellBounds = new double [] {
+            getNumber(bounds, "x").doubleValue(),
+            getNumber(bounds, "y").doubleValue(),
+            getNumber(bounds, "width").doubleValue(),
+            getNumber(bounds, "height").doubleValue()
+         };
+
+         Map<String, String> inventoryIds = new LinkedHashMap<>();
+         getMap(json, "inventoryIds").forEach((label, id) -> {
+               inventoryIds.put(label, String.valueOf(id));
+            });
+
+         Map<String, Object> settings =
+            json.containsKey("settings") ? getMap(json, "settings") : Collections.emptyMap();
+
+         return new PlateManifest(String.valueOf(json.get("image")),
+                                  PlateType.valueOf(String.valueOf(json.get("plateType"))),
+                                  PlateOrientation.valueOf(String.valueOf(json.get("orientation"))),
+                                  BarcodePosition.valueOf(
+                                     String.valueOf(json.get("barcodePosition"))),
+                                  getNumber(json, "dpi").longValue(),
+                                  wellBounds,
+                                  inventoryIds,
+                                  settings);
+      } catch (IllegalArgumentException | ClassCastException e) {
+         throw new IOException("invalid manifest " + file + ": " + e.getMessage(), e);
+      }
+   }
+
+   @SuppressWarnings("unchecked")
+   private static Map<String, Object> getMap(Map<String, Object> json, String key) {
+      Object value = json.get(key);
+      if (!(value instanceof Map)) {
+         throw new IllegalArgumentException("missing object: " + key);
+      }
+      return (Map<String, Object>) value;
+   }
+
+   private static Number getNumber(Map<String, Object> json, String key) {
+      Object value = json.get(key);
+      if (!(value instanceof Number)) {
+         throw new IllegalArgumentException("missing number: " + key);
+      }
+      return (Number) value;
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      buf.append(image).append(", ");
+      buf.append(plateType.name()).append(", ");
+      buf.append(orientation.name()).append(", ");
+      buf.append(barcodePosition.name()).append(", ");
+      buf.append(dpi).append(" dpi, ");
+      buf.append(inventoryIds.size()).append(" tubes");
+      return buf.toString();
+   }
+
+}
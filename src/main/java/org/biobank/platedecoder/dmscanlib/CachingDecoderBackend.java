@@ -0,0 +1,250 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.net.URISyntaxException;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Returns stored results when the same image is decoded again with the same wells and settings.
+ *
+ * <p>The key for a result is the SHA-256 hash of the contents of the image, the label and
+ * dimensions of each well, the decode options, the name of the backend and, when the backend uses
+ * one, the rungs of the {@link DecodeOptionsLadder} in the order they are tried. Since the
+ * contents of the image are used, and not its file name, a file that changed is decoded again.
+ *
+ * <p>The size and modification time of the native library and of the application are also part
+ * of the key, so that results are decoded again once either is upgraded.
+ *
+ * <p>Results are stored in a {@link DecodeResultCache}. Decodes that fail are not stored.
+ *
+ */
+public class CachingDecoderBackend implements DecoderBackend {
+
+   private static final Logger LOG = LoggerFactory.getLogger(CachingDecoderBackend.class);
+
+   private final DecoderBackend backend;
+
+   private final String backendName;
+
+   private final DecodeOptionsLadder ladder;
+
+   private final DecodeResultCache cache;
+
+   /**
+    * Adds a cache to a backend that does not use a ladder of decode options.
+    *
+    * @param backend  The backend used when the result is not in the cache.
+    *
+    * @param backendName  Identifies the backend, so that results from different backends are
+    *                     stored separately.
+    *
+    * @param cache  Where the results are stored.
+    */
+   public CachingDecoderBackend(DecoderBackend    backend,
+                                String            backendName,
+                                DecodeResultCache cache) {
+      this(backend, backendName, null, cache);
+   }
+
+   /**
+    * Adds a cache to a backend.
+    *
+    * @param backend  The backend used when the result is not in the cache.
+    *
+    * @param backendName  Identifies the backend, so that results from different backends are
+    *                     stored separately.
+    *
+    * @param ladder  The ladder used by the backend, or {@code null} if it does not use one. The
+    *                rungs can change while the backend is used.
+    *
+    * @param cache  Where the results are stored.
+    */
+   public CachingDecoderBackend(DecoderBackend      backend,
+                                String              backendName,
+                                DecodeOptionsLadder ladder,
+                                DecodeResultCache   cache) {
+      if ((backend == null) || (backendName == null) || (cache == null)) {
+         throw new IllegalArgumentException("backend, name and cache must not be null");
+      }
+      this.backend = backend;
+      this.backendName = backendName;
+      this.ladder = ladder;
+      this.cache = cache;
+   }
+
+   @Override
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      if ((filename == null) || !isValidRequest(decodeOptions, wells)) {
+         return backend.decodeImage(verbose, filename, decodeOptions, wells);
+      }
+
+      MessageDigest digest = DigestUtils.getSha256Digest();
+      try (InputStream in = new BufferedInputStream(new FileInputStream(new File(filename)))) {
+         DigestUtils.updateDigest(digest, in);
+      } catch (IOException e) {
+         // let the backend report the error
+         return backend.decodeImage(verbose, filename, decodeOptions, wells);
+      }
+
+      String key = createKey(digest, decodeOptions, wells);
+      DecodeResult result = cache.get(key);
+      if (result != null) {
+         LOG.debug("decodeImage: using cached result for {}", filename);
+         return result;
+      }
+
+      result = backend.decodeImage(verbose, filename, decodeOptions, wells);
+      cache.put(key, result);
+      return result;
+   }
+
+   @Override
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells) {
+      if ((image == null) || !isValidRequest(decodeOptions, wells)) {
+         return backend.decodeImageBuffer(verbose, image, decodeOptions, wells);
+      }
+
+      MessageDigest digest = DigestUtils.getSha256Digest();
+      updateDigest(digest, image.getFormat().name());
+      updateDigest(digest, image.getWidth());
+      updateDigest(digest, image.getHeight());
+      updateDigest(digest, image.getStride());
+      ByteBuffer pixels = image.getPixels().duplicate();
+      pixels.clear();
+      pixels.limit(image.getStride() * image.getHeight());
+      digest.update(pixels);
+
+      String key = createKey(digest, decodeOptions, wells);
+      DecodeResult result = cache.get(key);
+      if (result != null) {
+         LOG.debug("decodeImageBuffer: using cached result");
+         return result;
+      }
+
+      result = backend.decodeImageBuffer(verbose, image, decodeOptions, wells);
+      cache.put(key, result);
+      return result;
+   }
+
+   @Override
+   public boolean isThreadSafe() {
+      return backend.isThreadSafe();
+   }
+
+   @Override
+   public boolean isImageBufferSupported() {
+      return backend.isImageBufferSupported();
+   }
+
+   private static boolean isValidRequest(DecodeOptions decodeOptions, CellRectangle[] wells) {
+      return (decodeOptions != null)
+         && (wells != null)
+         && (wells.length > 0)
+         && Arrays.stream(wells).allMatch(well -> well != null);
+   }
+
+   // adds the request parameters to a digest that already holds the contents of the image
+   private String createKey(MessageDigest   digest,
+                            DecodeOptions   decodeOptions,
+                            CellRectangle[] wells) {
+      updateDigest(digest, DecoderVersionHolder.VERSION);
+      updateDigest(digest, backendName);
+
+      if (ladder != null) {
+         updateDigest(digest, ladder.format());
+         int [] order = ladder.getOrder();
+         updateDigest(digest, order.length);
+         for (int index : order) {
+            updateDigest(digest, index);
+         }
+      }
+
+      updateDigest(digest, decodeOptions.getMinEdgeFactor());
+      updateDigest(digest, decodeOptions.getMaxEdgeFactor());
+      updateDigest(digest, decodeOptions.getScanGapFactor());
+      updateDigest(digest, decodeOptions.getSquareDev());
+      updateDigest(digest, decodeOptions.getEdgeThresh());
+      updateDigest(digest, decodeOptions.getCorrections());
+      updateDigest(digest, decodeOptions.getShrink());
+
+      // the order of the wells does not change the result
+      CellRectangle [] sorted = wells.clone();
+      Arrays.sort(sorted, (a, b) -> a.getLabel().compareTo(b.getLabel()));
+
+      updateDigest(digest, sorted.length);
+      for (CellRectangle well : sorted) {
+         updateDigest(digest, well.getLabel());
+         updateDigest(digest, well.getX());
+         updateDigest(digest, well.getY());
+         updateDigest(digest, well.getWidth());
+         updateDigest(digest, well.getHeight());
+      }
+
+      return Hex.encodeHexString(digest.digest());
+   }
+
+   private static class DecoderVersionHolder {
+      private static final String VERSION = getDecoderVersion();
+   }
+
+   // changes when the native library or the application, which holds the Java decoder, is
+   // replaced; reading the files would be slower and the time stamps are enough
+   private static String getDecoderVersion() {
+      StringBuffer buf = new StringBuffer();
+      appendFileVersion(buf, LibraryLoader.findLibrary());
+
+      CodeSource source = CachingDecoderBackend.class.getProtectionDomain().getCodeSource();
+      if (source != null) {
+         try {
+            appendFileVersion(buf, new File(source.getLocation().toURI()));
+         } catch (URISyntaxException | IllegalArgumentException e) {
+            LOG.warn("application location is not a file: {}", source.getLocation());
+         }
+      }
+      LOG.debug("decoder version: {}", buf);
+      return buf.toString();
+   }
+
+   private static void appendFileVersion(StringBuffer buf, File file) {
+      buf.append("[");
+      if ((file != null) && file.isFile()) {
+         buf.append(file.getName());
+         buf.append(", size: ").append(file.length());
+         buf.append(", modified: ").append(file.lastModified());
+      }
+      buf.append("]");
+   }
+
+   private static void updateDigest(MessageDigest digest, String value) {
+      byte [] bytes = value.getBytes(StandardCharsets.UTF_8);
+      updateDigest(digest, bytes.length);
+      digest.update(bytes);
+   }
+
+   private static void updateDigest(MessageDigest digest, double value) {
+      updateDigest(digest, Double.doubleToLongBits(value));
+   }
+
+   private static void updateDigest(MessageDigest digest, long value) {
+      digest.update(ByteBuffer.allocate(Long.BYTES).putLong(value).array());
+   }
+
+}
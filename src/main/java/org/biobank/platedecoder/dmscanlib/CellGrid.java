@@ -0,0 +1,361 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.util.Arrays;
+import java.util.function.IntPredicate;
+
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateLayout;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+
+/**
+ * The regions of a plate image that each contain a single 2D barcode, stored in primitive arrays.
+ *
+ * <p>This is a compact form of an array of {@link CellRectangle}. Each cell has a position, a size
+ * and a well index. The well index counts the wells of the plate row by row, {@code row * cols +
+ * col} for the plate's number of columns: {@code A1} is 0, {@code A2} is 1, and so on. It is not
+ * the SBS position of {@link org.biobank.platedecoder.model.SbsLabeling}, which always counts 24
+ * columns per row. Labels are only looked up when asked for with {@link #getLabel}.
+ *
+ * <p>This class does not use the JavaFX toolkit, so cells can be created without a display. A cell
+ * grid is immutable.
+ *
+ */
+public final class CellGrid {
+
+   /**
+    * Receives the cells of a grid. See {@link CellGrid#forEach}.
+    */
+   @FunctionalInterface
+   public interface CellConsumer {
+
+      /**
+       * @param cell  The position of the cell in the grid.
+       *
+       * @param wellIndex  The well index of the well on the plate.
+       *
+       * @param x  The X coordinate of the top left corner of the cell.
+       *
+       * @param y  The Y coordinate of the top left corner of the cell.
+       *
+       * @param width  The width of the cell.
+       *
+       * @param height  The height of the cell.
+       */
+      void accept(int cell, int wellIndex, double x, double y, double width, double height);
+   }
+
+   private final PlateType plateType;
+
+   private final double [] x;
+
+   private final double [] y;
+
+   private final double [] width;
+
+   private final double [] height;
+
+   private final int [] wellIndex;
+
+   /**
+    * Creates a grid from existing arrays. The arrays are not copied and must all have the same
+    * length.
+    *
+    * @param plateType  The plate the well indexes refer to.
+    *
+    * @param x  The X coordinate of the top left corner of each cell.
+    *
+    * @param y  The Y coordinate of the top left corner of each cell.
+    *
+    * @param width  The width of each cell.
+    *
+    * @param height  The height of each cell.
+    *
+    * @param wellIndex  The well index of each cell on the plate.
+    */
+   public CellGrid(PlateType  plateType,
+                   double []  x,
+                   double []  y,
+                   double []  width,
+                   double []  height,
+                   int []     wellIndex) {
+      int size = wellIndex.length;
+      if ((x.length != size) || (y.length != size) || (width.length != size)
+          || (height.length != size)) {
+         throw new IllegalArgumentException("arrays must have the same length");
+      }
+      int wells = plateType.getRows() * plateType.getCols();
+      for (int index : wellIndex) {
+         if ((index < 0) || (index >= wells)) {
+            throw new IllegalArgumentException("invalid well index: " + index);
+         }
+      }
+      this.plateType = plateType;
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
+      this.wellIndex = wellIndex;
+   }
+
+   /**
+    * Divides a bounding box into the cells of a plate.
+    *
+    * <p>The cells are made slightly smaller than their share of the bounding box so that they all
+    * fit within the image. See {@link CellRectangle#getCellsForBoundingBox}.
+    *
+    * @param bboxX  The X coordinate of the top left corner of the bounding box.
+    *
+    * @param bboxY  The Y coordinate of the top left corner of the bounding box.
+    *
+    * @param bboxWidth  The width of the bounding box.
+    *
+    * @param bboxHeight  The height of the bounding box.
+    *
+    * @param orientation  The plate's orientation.
+    *
+    * @param plateType  The dimensions of the plate in terms of number of wells.
+    *
+    * @param barcodePosition  The location of the 2D barcode on the tubes of the plate.
+    *
+    * @return the cells, row by row as they appear in the image.
+    */
+   public static CellGrid forBoundingBox(double           bboxX,
+                                         double           bboxY,
+                                         double           bboxWidth,
+                                         double           bboxHeight,
+                                         PlateOrientation orientation,
+                                         PlateType        plateType,
+                                         BarcodePosition  barcodePosition) {
+      PlateLayout layout = PlateLayout.get(plateType, orientation, barcodePosition);
+      int rows = layout.getRows();
+      int cols = layout.getCols();
+
+      double cellWidth  = bboxWidth / cols;
+      double cellHeight = bboxHeight / rows;
+      double xInset = 0.0001 * cellWidth;
+      double yInset = 0.0001 * cellHeight;
+      double cellWidthInset = cellWidth - 2 * xInset;
+      double cellHeightInset = cellHeight - 2 * yInset;
+
+      int size = rows * cols;
+      double [] x = new double[size];
+      double [] y = new double[size];
+      double [] width = new double[size];
+      double [] height = new double[size];
+      int [] wellIndex = new int[size];
+
+      for (int row = 0, i = 0; row < rows; ++row) {
+         for (int col = 0; col < cols; ++col, ++i) {
+            x[i] = bboxX + col * cellWidth + xInset;
+            y[i] = bboxY + row * cellHeight + yInset;
+            width[i] = cellWidthInset;
+            height[i] = cellHeightInset;
+            wellIndex[i] = layout.getWellIndex(row, col);
+         }
+      }
+      return new CellGrid(plateType, x, y, width, height, wellIndex);
+   }
+
+   /**
+    * Gets the well index for a row and column of the grid in the image, based on the plate's
+    * settings.
+    *
+    * @param row  The row the position is at. The top row is row 0.
+    *
+    * @param col  The column the position is at. The leftmost column is 0.
+    *
+    * @param orientation  The plate's orientation.
+    *
+    * @param plateType  The dimensions of the plate in terms of number of wells.
+    *
+    * @param barcodePosition  The location of the 2D barcode on the tubes of the plate.
+    *
+    * @return The well index of the well on the plate.
+    */
+   public static int getWellIndexForPosition(int              row,
+                                             int              col,
+                                             PlateOrientation orientation,
+                                             PlateType        plateType,
+                                             BarcodePosition  barcodePosition) {
+      return PlateLayout.get(plateType, orientation, barcodePosition).getWellIndex(row, col);
+   }
+
+   /**
+    * Converts a well index to an SBS label.
+    *
+    * @param plateType  The plate the well index refers to.
+    *
+    * @param wellIndex  The well index of the well on the plate.
+    *
+    * @return the label, for example {@code A1}.
+    */
+   public static String getLabel(PlateType plateType, int wellIndex) {
+      return PlateLayout.get(plateType, PlateOrientation.LANDSCAPE, BarcodePosition.TOP)
+         .getLabelForWell(wellIndex);
+   }
+
+   /**
+    * Converts an SBS label to a well index.
+    *
+    * @param plateType  The plate the label refers to.
+    *
+    * @param label  The label, for example {@code A1}.
+    *
+    * @return the well index of the well on the plate.
+    *
+    * @throws IllegalArgumentException if the label is not on the plate.
+    */
+   public static int getWellIndex(PlateType plateType, String label) {
+      return PlateLayout.get(plateType, PlateOrientation.LANDSCAPE, BarcodePosition.TOP)
+         .getWellIndex(label);
+   }
+
+   public PlateType getPlateType() {
+      return plateType;
+   }
+
+   /**
+    * @return the number of cells in the grid.
+    */
+   public int size() {
+      return wellIndex.length;
+   }
+
+   public double getX(int cell) {
+      return x[cell];
+   }
+
+   public double getY(int cell) {
+      return y[cell];
+   }
+
+   public double getWidth(int cell) {
+      return width[cell];
+   }
+
+   public double getHeight(int cell) {
+      return height[cell];
+   }
+
+   /**
+    * @param cell  The position of the cell in the grid.
+    *
+    * @return the well index of the cell's well on the plate.
+    */
+   public int getWellIndex(int cell) {
+      return wellIndex[cell];
+   }
+
+   /**
+    * Returns the SBS label of a cell.
+    *
+    * @param cell  The position of the cell in the grid.
+    *
+    * @return the label, for example {@code A1}.
+    */
+   public String getLabel(int cell) {
+      return getLabel(plateType, wellIndex[cell]);
+   }
+
+   /**
+    * Returns the X coordinate of a corner of a cell.
+    *
+    * @param cell  The position of the cell in the grid.
+    *
+    * @param cornerId  See {@link CellRectangle#getCornerX}.
+    *
+    * @return The X coordinate for the requested corner.
+    */
+   public double getCornerX(int cell, int cornerId) {
+      switch (cornerId) {
+         case 0:
+         case 1:
+            return x[cell];
+         case 2:
+         case 3:
+            return x[cell] + width[cell];
+      }
+      throw new IllegalArgumentException("invalid value for corner: " + cornerId);
+   }
+
+   /**
+    * Returns the Y coordinate of a corner of a cell.
+    *
+    * @param cell  The position of the cell in the grid.
+    *
+    * @param cornerId  See {@link CellRectangle#getCornerY}.
+    *
+    * @return The Y coordinate for the requested corner.
+    */
+   public double getCornerY(int cell, int cornerId) {
+      switch (cornerId) {
+         case 0:
+         case 3:
+            return y[cell];
+         case 1:
+         case 2:
+            return y[cell] + height[cell];
+      }
+      throw new IllegalArgumentException("invalid value for corner: " + cornerId);
+   }
+
+   /**
+    * Passes every cell to {@code consumer}, in grid order, without creating any objects.
+    *
+    * @param consumer  Receives the cells.
+    */
+   public void forEach(CellConsumer consumer) {
+      for (int i = 0; i < wellIndex.length; ++i) {
+         consumer.accept(i, wellIndex[i], x[i], y[i], width[i], height[i]);
+      }
+   }
+
+   /**
+    * Creates a grid with some of the cells of this grid.
+    *
+    * @param filter  Given the position of a cell in this grid, returns {@code true} if the cell is
+    *                kept.
+    *
+    * @return the new grid, with the cells in the same order.
+    */
+   public CellGrid select(IntPredicate filter) {
+      int [] kept = new int[wellIndex.length];
+      int count = 0;
+      for (int i = 0; i < wellIndex.length; ++i) {
+         if (filter.test(i)) {
+            kept[count++] = i;
+         }
+      }
+      if (count == wellIndex.length) {
+         return this;
+      }
+
+      double [] newX = new double[count];
+      double [] newY = new double[count];
+      double [] newWidth = new double[count];
+      double [] newHeight = new double[count];
+      int [] newWellIndex = new int[count];
+      for (int i = 0; i < count; ++i) {
+         int cell = kept[i];
+         newX[i] = x[cell];
+         newY[i] = y[cell];
+         newWidth[i] = width[cell];
+         newHeight[i] = height[cell];
+         newWellIndex[i] = wellIndex[cell];
+      }
+      return new CellGrid(plateType, newX, newY, newWidth, newHeight, newWellIndex);
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      buf.append(plateType.name());
+      buf.append(": ");
+      buf.append(size());
+      buf.append(" cells ");
+      buf.append(Arrays.toString(wellIndex));
+      return buf.toString();
+   }
+
+}
@@ -1,19 +1,20 @@
 package org.biobank.platedecoder.dmscanlib;
 
 import javafx.scene.shape.Rectangle;
+import javafx.geometry.BoundingBox;
 import javafx.geometry.Bounds;
-import javafx.util.Pair;
 
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.biobank.platedecoder.model.SbsLabeling;
+import org.biobank.platedecoder.model.PlateLayout;
 import org.biobank.platedecoder.model.PlateOrientation;
 import org.biobank.platedecoder.model.PlateType;
 import org.biobank.platedecoder.model.BarcodePosition;
@@ -35,7 +36,15 @@ public final class CellRectangle implements Comparable<CellRectangle> {
 
    private final String label;
 
-   private final Rectangle rectangle;
+   // plain values rather than a Rectangle, since creating a scene graph node starts the JavaFX
+   // renderer, which the command line tools and the decoder workers do not need
+   private final double x;
+
+   private final double y;
+
+   private final double width;
+
+   private final double height;
 
    /**
     * A region of the image that contains a single 2D barcode.
@@ -46,11 +55,32 @@ public final class CellRectangle implements Comparable<CellRectangle> {
     * within the image.
     */
    public CellRectangle(String label, Rectangle rectangle) {
+      this(label,
+           rectangle.getX(),
+           rectangle.getY(),
+           rectangle.getWidth(),
+           rectangle.getHeight());
+   }
+
+   /**
+    * A region of the image that contains a single 2D barcode.
+    *
+    * @param label the label to associate to this rectangle.
+    *
+    * @param x the X coordinate of the top left corner, in pixels.
+    *
+    * @param y the Y coordinate of the top left corner, in pixels.
+    *
+    * @param width the width, in pixels.
+    *
+    * @param height the height, in pixels.
+    */
+   public CellRectangle(String label, double x, double y, double width, double height) {
       this.label = label;
-      this.rectangle = new Rectangle(rectangle.getX(),
-                                     rectangle.getY(),
-                                     rectangle.getWidth(),
-                                     rectangle.getHeight());
+      this.x = x;
+      this.y = y;
+      this.width = width;
+      this.height = height;
    }
 
    /**
@@ -68,7 +98,7 @@ public final class CellRectangle implements Comparable<CellRectangle> {
     * @return the X coordinate of the top left corner of this rectangle.
     */
    public double getX() {
-      return rectangle.getX();
+      return x;
    }
 
    /**
@@ -77,7 +107,7 @@ public final class CellRectangle implements Comparable<CellRectangle> {
     * @return the Y coordinate of the top left corner of this rectangle.
     */
    public double getY() {
-      return rectangle.getY();
+      return y;
    }
 
    /**
@@ -86,7 +116,7 @@ public final class CellRectangle implements Comparable<CellRectangle> {
     * @return The width of this rectangle.
     */
    public double getWidth() {
-      return rectangle.getWidth();
+      return width;
    }
 
    /**
@@ -95,7 +125,7 @@ public final class CellRectangle implements Comparable<CellRectangle> {
     * @return The height of this rectangle.
     */
    public double getHeight() {
-      return rectangle.getHeight();
+      return height;
    }
 
    /**
@@ -108,7 +138,7 @@ public final class CellRectangle implements Comparable<CellRectangle> {
     * @return {@code true} if the point is inside the rectangle.
     */
    public boolean containsPoint(double x, double y) {
-      return rectangle.contains(x, y);
+      return getBoundsRectangle().contains(x, y);
    }
 
    /**
@@ -119,7 +149,7 @@ public final class CellRectangle implements Comparable<CellRectangle> {
     * @return the bounding box for this rectangle.
     */
    public Bounds getBoundsRectangle() {
-      return rectangle.getBoundsInParent();
+      return new BoundingBox(x, y, width, height);
    }
 
    /**
@@ -166,6 +196,25 @@ public final class CellRectangle implements Comparable<CellRectangle> {
       throw new IllegalArgumentException("invalid value for corner: " + cornerId);
    }
 
+   /**
+    * Used to determine if two rectangles cover nearly the same region of the image.
+    *
+    * @param that  The other rectangle.
+    *
+    * @param tolerance  How far the sides of the rectangles can be from each other, as a fraction of
+    *                   the smallest dimension of this rectangle.
+    *
+    * @return {@code true} if no side of {@code that} is further than the tolerance from the
+    * corresponding side of this rectangle.
+    */
+   public boolean isNear(CellRectangle that, double tolerance) {
+      double maxDistance = tolerance * Math.min(getWidth(), getHeight());
+      return (Math.abs(getX() - that.getX()) <= maxDistance)
+         && (Math.abs(getY() - that.getY()) <= maxDistance)
+         && (Math.abs(getX() + getWidth() - that.getX() - that.getWidth()) <= maxDistance)
+         && (Math.abs(getY() + getHeight() - that.getY() - that.getHeight()) <= maxDistance);
+   }
+
    /**
     * Compares two cell rectangles.
     *
@@ -175,23 +224,58 @@ public final class CellRectangle implements Comparable<CellRectangle> {
     */
    @Override
    public int compareTo(CellRectangle that) {
-      Pair<Integer, Integer> thisPos = SbsLabeling.toRowCol(this.label);
-      Pair<Integer, Integer> thatPos = SbsLabeling.toRowCol(that.label);
-      if (thisPos.getKey().equals(thatPos.getKey())) {
-         return thisPos.getValue().compareTo(thatPos.getValue());
-      }
-      return thisPos.getKey().compareTo(thatPos.getKey());
+      return PlateLayout.compareLabels(this.label, that.label);
    }
 
    @Override
    public String toString() {
       StringBuffer buf = new StringBuffer();
       buf.append(label);
-      buf.append(": ");
-      buf.append(rectangle.toString());
+      buf.append(": [x=").append(x);
+      buf.append(", y=").append(y);
+      buf.append(", width=").append(width);
+      buf.append(", height=").append(height);
+      buf.append("]");
       return buf.toString();
    }
 
+   /**
+    * Selects the cells that have to be decoded again after a previous decode.
+    *
+    * <p>A cell is selected if it does not have an inventory ID, or if it was decoded and has moved
+    * since. Cells that have an inventory ID but were not decoded, for example the ones entered with
+    * a hand held scanner, are not selected.
+    *
+    * @param cells  All the cells in the grid.
+    *
+    * @param labelsWithIds  The labels of the cells that have an inventory ID.
+    *
+    * @param decodedCells  The cells that were decoded, as they were at the time of the decode,
+    *                      mapped by label.
+    *
+    * @param tolerance  How far a cell can move before it is decoded again. See {@link #isNear}.
+    *
+    * @return The cells that have to be decoded.
+    */
+   public static Set<CellRectangle> getCellsToDecode(Set<CellRectangle>         cells,
+                                                     Set<String>                labelsWithIds,
+                                                     Map<String, CellRectangle> decodedCells,
+                                                     double                     tolerance) {
+      Set<CellRectangle> result = new HashSet<>();
+      for (CellRectangle cell : cells) {
+         if (!labelsWithIds.contains(cell.getLabel())) {
+            result.add(cell);
+            continue;
+         }
+
+         CellRectangle decodedCell = decodedCells.get(cell.getLabel());
+         if ((decodedCell != null) && !decodedCell.isNear(cell, tolerance)) {
+            result.add(cell);
+         }
+      }
+      return result;
+   }
+
    /**
     * Generates each cell of the grid based on the parameters passed in.
     *
@@ -212,59 +296,62 @@ public final class CellRectangle implements Comparable<CellRectangle> {
                                                            PlateOrientation orientation,
                                                            PlateType plateType,
                                                            BarcodePosition barcodePosition) {
-      int rows, cols;
-
-      switch (orientation) {
-         case LANDSCAPE:
-            rows = plateType.getRows();
-            cols = plateType.getCols();
-            break;
-         case PORTRAIT:
-            rows = plateType.getCols();
-            cols = plateType.getRows();
-            break;
-         default:
-            throw new IllegalArgumentException("invalid orientation value: " + orientation);
-      }
-
-      double bboxX = bbox.getX();
-      double xOffset = bbox.getX();
-      double yOffset = bbox.getY();
-
-      // make cells slightly smaller so that they all fit within the image
-      double cellWidth  = bbox.getWidth() / cols;
-      double cellHeight = bbox.getHeight() / rows;
-
-      double xInset = 0.0001 * cellWidth;
-      double yInset = 0.0001 * cellHeight;
-
-      double cellWidthInset = cellWidth - 2 * xInset;
-      double cellHeightInset = cellHeight - 2 * yInset;
-
-      // LOG.debug("getCellsForBoundingBox: {}, {}, {}, {}",
-      //           new Object [] {
-      //               xInset, yInset,  cellWidthInset, cellHeightInset
-      //           });
-
-      Rectangle cellRect = new Rectangle(bbox.getX(), bbox.getY(), cellWidthInset, cellHeightInset);
-
+      CellGrid grid = CellGrid.forBoundingBox(bbox.getX(),
+                                              bbox.getY(),
+                                              bbox.getWidth(),
+                                              bbox.getHeight(),
+                                              orientation,
+                                              plateType,
+                                              barcodePosition);
       Set<CellRectangle> cells = new HashSet<CellRectangle>();
-      for (int row = 0; row < rows; ++row) {
-         for (int col = 0; col < cols; ++col) {
-            String label = getLabelForPosition(row, col, orientation, plateType, barcodePosition);
-            cellRect.setX(xOffset + xInset);
-            cellRect.setY(yOffset + yInset);
-            CellRectangle cell = new CellRectangle(label, cellRect);
-            cells.add(cell);
-
-            xOffset += cellWidth;
-         }
+      Collections.addAll(cells, fromCellGrid(grid));
+      return cells;
+   }
 
-         yOffset += cellHeight;
-         xOffset = bboxX;
+   /**
+    * Creates a cell rectangle for each cell of a grid.
+    *
+    * @param grid  The cells.
+    *
+    * @return the cell rectangles, in the same order as the cells in the grid.
+    */
+   public static CellRectangle [] fromCellGrid(CellGrid grid) {
+      CellRectangle [] result = new CellRectangle[grid.size()];
+      for (int i = 0; i < result.length; ++i) {
+         result[i] = new CellRectangle(grid.getLabel(i),
+                                       grid.getX(i),
+                                       grid.getY(i),
+                                       grid.getWidth(i),
+                                       grid.getHeight(i));
       }
+      return result;
+   }
 
-      return cells;
+   /**
+    * Creates a grid from cell rectangles.
+    *
+    * @param plateType  The plate the labels of the cells refer to.
+    *
+    * @param cells  The cells.
+    *
+    * @return the grid, with the cells in the same order.
+    *
+    * @throws IllegalArgumentException if the label of a cell is not on the plate.
+    */
+   public static CellGrid toCellGrid(PlateType plateType, CellRectangle[] cells) {
+      double [] x = new double[cells.length];
+      double [] y = new double[cells.length];
+      double [] width = new double[cells.length];
+      double [] height = new double[cells.length];
+      int [] wellIndex = new int[cells.length];
+      for (int i = 0; i < cells.length; ++i) {
+         x[i] = cells[i].getX();
+         y[i] = cells[i].getY();
+         width[i] = cells[i].getWidth();
+         height[i] = cells[i].getHeight();
+         wellIndex[i] = CellGrid.getWellIndex(plateType, cells[i].getLabel());
+      }
+      return new CellGrid(plateType, x, y, width, height, wellIndex);
    }
 
    /**
@@ -287,33 +374,7 @@ public final class CellRectangle implements Comparable<CellRectangle> {
                                             PlateOrientation orientation,
                                             PlateType        plateType,
                                             BarcodePosition  barcodePosition) {
-      switch (barcodePosition) {
-         case TOP:
-            switch (orientation) {
-               case LANDSCAPE:
-                  return SbsLabeling.fromRowCol(row, col);
-               case PORTRAIT:
-                  return SbsLabeling.fromRowCol(plateType.getRows() - 1 - col, row);
-
-               default:
-                  throw new IllegalStateException("invalid value for orientation: " + orientation);
-            }
-
-         case BOTTOM:
-            switch (orientation) {
-               case LANDSCAPE:
-                  return SbsLabeling.fromRowCol(row, plateType.getCols() - 1 - col);
-               case PORTRAIT:
-                  return SbsLabeling.fromRowCol(col, row);
-
-               default:
-                  throw new IllegalStateException("invalid value for orientation: " + orientation);
-            }
-
-         default:
-            throw new IllegalStateException("invalid value for barcode position: "
-                                            + barcodePosition);
-      }
+      return PlateLayout.get(plateType, orientation, barcodePosition).getLabel(row, col);
    }
 
    /**
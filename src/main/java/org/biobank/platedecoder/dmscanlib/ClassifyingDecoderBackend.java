@@ -0,0 +1,121 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_NOTHING_DECODED;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Only decodes the wells that may contain a 2D barcode.
+ *
+ * <p>The wells are first classified by a {@link WellClassifier}, and only the {@link
+ * WellClass#CANDIDATE CANDIDATE} wells are passed to the backend. The class of every well is
+ * recorded in the result, see {@link DecodeResult#getWellClasses}. On plates that are partially
+ * filled, this avoids spending the full decode effort on each empty well.
+ *
+ */
+public class ClassifyingDecoderBackend implements DecoderBackend {
+
+   private static final Logger LOG = LoggerFactory.getLogger(ClassifyingDecoderBackend.class);
+
+   private final DecoderBackend backend;
+
+   private final WellClassifier classifier;
+
+   /**
+    * Adds well classification to a backend.
+    *
+    * @param backend  The backend that decodes the candidate wells.
+    *
+    * @param classifier  Classifies the wells.
+    */
+   public ClassifyingDecoderBackend(DecoderBackend backend, WellClassifier classifier) {
+      if ((backend == null) || (classifier == null)) {
+         throw new IllegalArgumentException("backend and classifier must not be null");
+      }
+      this.backend = backend;
+      this.classifier = classifier;
+   }
+
+   @Override
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      if ((filename == null) || !isValidRequest(wells)) {
+         return backend.decodeImage(verbose, filename, decodeOptions, wells);
+      }
+
+      LuminanceImage image;
+      try {
+         image = LuminanceImage.read(new File(filename));
+      } catch (IOException e) {
+         // let the backend report the error
+         return backend.decodeImage(verbose, filename, decodeOptions, wells);
+      }
+
+      return decode(image,
+                    wells,
+                    candidates -> backend.decodeImage(verbose,
+                                                      filename,
+                                                      decodeOptions,
+                                                      candidates));
+   }
+
+   @Override
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells) {
+      if ((image == null) || !isValidRequest(wells)) {
+         return backend.decodeImageBuffer(verbose, image, decodeOptions, wells);
+      }
+
+      return decode(LuminanceImage.fromImageBuffer(image),
+                    wells,
+                    candidates -> backend.decodeImageBuffer(verbose,
+                                                            image,
+                                                            decodeOptions,
+                                                            candidates));
+   }
+
+   @Override
+   public boolean isThreadSafe() {
+      return backend.isThreadSafe();
+   }
+
+   @Override
+   public boolean isImageBufferSupported() {
+      return backend.isImageBufferSupported();
+   }
+
+   private static boolean isValidRequest(CellRectangle[] wells) {
+      return (wells != null) && Arrays.stream(wells).allMatch(well -> well != null);
+   }
+
+   private DecodeResult decode(LuminanceImage                          image,
+                               CellRectangle[]                         wells,
+                               Function<CellRectangle[], DecodeResult> decoder) {
+      Map<String, WellClass> wellClasses = classifier.classify(image, wells);
+      CellRectangle [] candidates = Arrays.stream(wells)
+         .filter(well -> wellClasses.get(well.getLabel()) == WellClass.CANDIDATE)
+         .toArray(CellRectangle[]::new);
+
+      LOG.debug("decode: {} of {} wells are candidates", candidates.length, wells.length);
+
+      DecodeResult result;
+      if (candidates.length > 0) {
+         result = decoder.apply(candidates);
+      } else {
+         result = new DecodeResult(SC_INVALID_NOTHING_DECODED, SC_INVALID_NOTHING_DECODED, "");
+      }
+      wellClasses.forEach(result::setWellClass);
+      return result;
+   }
+
+}
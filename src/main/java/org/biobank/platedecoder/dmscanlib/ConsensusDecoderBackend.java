@@ -0,0 +1,188 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the image several times and only reports the wells that enough of the passes agree on.
+ * See {@link DecodeConsensus}.
+ *
+ * <p>The first pass uses the options given by the caller, the other passes use the options of
+ * each rung of a {@link DecodeOptionsLadder}. When the backend is thread safe the passes are run
+ * at the same time, otherwise they are run one after the other.
+ *
+ * <p>The wells where the passes disagree are recorded as conflicts in the result, see {@link
+ * DecodeResult#isConflict}.
+ *
+ */
+public class ConsensusDecoderBackend implements DecoderBackend {
+
+   private static final Logger LOG = LoggerFactory.getLogger(ConsensusDecoderBackend.class);
+
+   private final DecoderBackend backend;
+
+   private final DecodeOptionsLadder ladder;
+
+   private final int quorum;
+
+   private final ExecutorService executor;
+
+   /**
+    * Adds consensus decoding to a backend. The passes are run on a thread pool shared by the
+    * application.
+    *
+    * @param backend  The backend that decodes the image.
+    *
+    * @param ladder  The options used by the passes after the first one.
+    *
+    * @param quorum  The number of passes that must agree on the message of a well.
+    */
+   public ConsensusDecoderBackend(DecoderBackend      backend,
+                                  DecodeOptionsLadder ladder,
+                                  int                 quorum) {
+      this(backend, ladder, quorum, ExecutorHolder.INSTANCE);
+   }
+
+   /**
+    * Adds consensus decoding to a backend.
+    *
+    * @param backend  The backend that decodes the image.
+    *
+    * @param ladder  The options used by the passes after the first one.
+    *
+    * @param quorum  The number of passes that must agree on the message of a well.
+    *
+    * @param executor  Runs the passes when the backend is thread safe.
+    */
+   public ConsensusDecoderBackend(DecoderBackend      backend,
+                                  DecodeOptionsLadder ladder,
+                                  int                 quorum,
+                                  ExecutorService     executor) {
+      if ((backend == null) || (ladder == null) || (executor == null)) {
+         throw new IllegalArgumentException("backend, ladder and executor must not be null");
+      }
+      if (quorum < 1) {
+         throw new IllegalArgumentException("quorum must be at least 1: " + quorum);
+      }
+      this.backend = backend;
+      this.ladder = ladder;
+      this.quorum = quorum;
+      this.executor = executor;
+   }
+
+   private static class ExecutorHolder {
+      private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "decode-consensus");
+            thread.setDaemon(true);
+            return thread;
+         });
+   }
+
+   @Override
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      return decode(decodeOptions,
+                    options -> backend.decodeImage(verbose, filename, options, wells));
+   }
+
+   @Override
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells) {
+      return decode(decodeOptions,
+                    options -> backend.decodeImageBuffer(verbose, image, options, wells));
+   }
+
+   @Override
+   public boolean isThreadSafe() {
+      return backend.isThreadSafe();
+   }
+
+   @Override
+   public boolean isImageBufferSupported() {
+      return backend.isImageBufferSupported();
+   }
+
+   private DecodeResult decode(DecodeOptions                        decodeOptions,
+                               Function<DecodeOptions, DecodeResult> decoder) {
+      List<DecodeOptions> passOptions = new ArrayList<>();
+      passOptions.add(decodeOptions);
+      for (int i = 0; i < ladder.size(); ++i) {
+         passOptions.add(ladder.getRung(i).getOptions());
+      }
+
+      DecodeResult [] results = backend.isThreadSafe()
+         ? decodeConcurrently(passOptions, decoder)
+         : decodeSequentially(passOptions, decoder);
+
+      // errors in the first pass, for example a missing image, are reported as is
+      DecodeResult first = results[0];
+      if (first == null) {
+         return new DecodeResult(ScanLib.ResultCode.SC_FAIL, ScanLib.ResultCode.SC_FAIL, "");
+      }
+      ScanLibResult.Result code = first.getResultCode();
+      if ((code != ScanLibResult.Result.SUCCESS)
+          && (code != ScanLibResult.Result.INVALID_NOTHING_DECODED)) {
+         return first;
+      }
+
+      DecodeConsensus consensus = new DecodeConsensus(quorum);
+      for (DecodeResult result : results) {
+         consensus.addPass(result);
+      }
+
+      DecodeResult result = consensus.getResult();
+      first.getWellClasses().forEach(result::setWellClass);
+
+      LOG.debug("decode: {} passes, {} wells accepted, quorum {}",
+                consensus.getPassCount(),
+                result.getDecodedWellCount(),
+                quorum);
+      return result;
+   }
+
+   private DecodeResult [] decodeConcurrently(List<DecodeOptions>                   passOptions,
+                                              Function<DecodeOptions, DecodeResult> decoder) {
+      List<Future<DecodeResult>> futures = new ArrayList<>();
+      for (DecodeOptions options : passOptions) {
+         futures.add(executor.submit(() -> decoder.apply(options)));
+      }
+
+      DecodeResult [] results = new DecodeResult[passOptions.size()];
+      for (int i = 0; i < results.length; ++i) {
+         try {
+            results[i] = futures.get(i).get();
+         } catch (ExecutionException e) {
+            LOG.warn("decodeConcurrently: pass {} failed: {}", i, e.getCause());
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            break;
+         }
+      }
+      return results;
+   }
+
+   private DecodeResult [] decodeSequentially(List<DecodeOptions>                   passOptions,
+                                              Function<DecodeOptions, DecodeResult> decoder) {
+      DecodeResult [] results = new DecodeResult[passOptions.size()];
+      for (int i = 0; i < results.length; ++i) {
+         if (Thread.currentThread().isInterrupted()) {
+            break;
+         }
+         results[i] = decoder.apply(passOptions.get(i));
+      }
+      return results;
+   }
+
+}
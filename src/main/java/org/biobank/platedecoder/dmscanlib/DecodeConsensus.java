@@ -0,0 +1,208 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_NOTHING_DECODED;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import org.biobank.platedecoder.model.SbsLabeling;
+
+/**
+ * Combines the results of several decode passes over the same plate.
+ *
+ * <p>The passes can use different decode options, different image processing, or different scans
+ * of the plate. Each pass votes for the message it decoded in each well. A well is accepted when
+ * the leading message has at least {@code quorum} votes, and has at least {@code quorum} votes
+ * more than any other message. A well where the passes decoded different messages, and that is
+ * not accepted, is a conflict. Wells that are accepted with the same message are also conflicts,
+ * since an inventory ID can only be in one well.
+ *
+ * <p>Conflicts are reported well by well, so the other wells of the plate can still be used.
+ *
+ * <p>This class is thread safe.
+ *
+ */
+public class DecodeConsensus {
+
+   /**
+    * The state of a well after the passes that have been added.
+    */
+   public enum State {
+
+      /** No pass decoded the well, or not enough passes agree yet. */
+      UNDECIDED,
+
+      /** Enough passes agree on the message of the well. */
+      ACCEPTED,
+
+      /** The passes decoded different messages in the well. */
+      CONFLICT
+   }
+
+   private final int quorum;
+
+   // the votes for each message, by SBS position, created when a well gets its first vote
+   private final Map<String, Integer> [] tallies;
+
+   private int passes;
+
+   /**
+    * @param quorum  The number of passes that must agree on the message of a well before the well
+    *                is accepted.
+    */
+   public DecodeConsensus(int quorum) {
+      if (quorum < 1) {
+         throw new IllegalArgumentException("quorum must be at least 1: " + quorum);
+      }
+      this.quorum = quorum;
+
+      // generic arrays cannot be created, the array only ever holds maps of this type
+      @SuppressWarnings({ "unchecked", "rawtypes" })
+      Map<String, Integer> [] tallies = new Map[SbsLabeling.SBS_MAX_POSITIONS];
+      this.tallies = tallies;
+   }
+
+   public int getQuorum() {
+      return quorum;
+   }
+
+   /**
+    * @return the number of passes that have been added.
+    */
+   public synchronized int getPassCount() {
+      return passes;
+   }
+
+   /**
+    * Adds the votes of a decode pass. Wells with an empty message are ignored.
+    *
+    * @param result  The result of the pass. Only successful results are counted.
+    */
+   public synchronized void addPass(DecodeResult result) {
+      if ((result == null) || (result.getResultCode() != ScanLibResult.Result.SUCCESS)) {
+         return;
+      }
+
+      for (int i = result.nextDecodedPosition(0); i >= 0; i = result.nextDecodedPosition(i + 1)) {
+         String message = result.getInventoryId(i);
+         if (message.isEmpty()) {
+            continue;
+         }
+         if (tallies[i] == null) {
+            tallies[i] = new HashMap<>(2);
+         }
+         tallies[i].merge(message, 1, Integer::sum);
+      }
+      ++passes;
+   }
+
+   /**
+    * @param label  The SBS label of a well.
+    *
+    * @param message  A message decoded from the well.
+    *
+    * @return the number of passes that decoded {@code message} in the well.
+    */
+   public synchronized int getVotes(String label, String message) {
+      Map<String, Integer> tally = tallies[SbsLabeling.toPosition(label)];
+      if (tally == null) {
+         return 0;
+      }
+      return tally.getOrDefault(message, 0);
+   }
+
+   /**
+    * Returns the state of a well, without taking the other wells into account. See {@link
+    * #getResult} for the duplicated messages.
+    *
+    * @param label  The SBS label of a well.
+    *
+    * @return the state of the well.
+    */
+   public synchronized State getState(String label) {
+      return getState(tallies[SbsLabeling.toPosition(label)]);
+   }
+
+   /**
+    * Returns the wells that are accepted. The wells that are in conflict are recorded in the
+    * result, see {@link DecodeResult#isConflict}.
+    *
+    * @return the accepted wells. The result code is {@code SC_INVALID_NOTHING_DECODED} if no well
+    * is accepted.
+    */
+   public synchronized DecodeResult getResult() {
+      String [] accepted = new String[tallies.length];
+      BitSet conflicts = new BitSet(tallies.length);
+      Map<String, Integer> positions = new HashMap<>();
+
+      for (int i = 0; i < tallies.length; ++i) {
+         State state = getState(tallies[i]);
+         if (state == State.CONFLICT) {
+            conflicts.set(i);
+         } else if (state == State.ACCEPTED) {
+            accepted[i] = getLeader(tallies[i]);
+
+            // the same inventory ID can not be in two wells
+            Integer other = positions.putIfAbsent(accepted[i], i);
+            if (other != null) {
+               conflicts.set(i);
+               conflicts.set(other);
+            }
+         }
+      }
+
+      DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+      result.setConsensus(true);
+      for (int i = 0; i < accepted.length; ++i) {
+         if (conflicts.get(i)) {
+            result.addConflict(i);
+         } else if (accepted[i] != null) {
+            result.addWell(i, accepted[i]);
+         }
+      }
+
+      if (result.getDecodedWellCount() == 0) {
+         DecodeResult nothing =
+            new DecodeResult(SC_INVALID_NOTHING_DECODED, SC_INVALID_NOTHING_DECODED, "");
+         nothing.addWells(result);
+         return nothing;
+      }
+      return result;
+   }
+
+   private State getState(Map<String, Integer> tally) {
+      if (tally == null) {
+         return State.UNDECIDED;
+      }
+
+      int leader = 0;
+      int runnerUp = 0;
+      for (int votes : tally.values()) {
+         if (votes > leader) {
+            runnerUp = leader;
+            leader = votes;
+         } else if (votes > runnerUp) {
+            runnerUp = votes;
+         }
+      }
+
+      if ((leader >= quorum) && (leader - runnerUp >= quorum)) {
+         return State.ACCEPTED;
+      }
+      return (tally.size() > 1) ? State.CONFLICT : State.UNDECIDED;
+   }
+
+   private static String getLeader(Map<String, Integer> tally) {
+      String leader = null;
+      int leaderVotes = 0;
+      for (Map.Entry<String, Integer> entry : tally.entrySet()) {
+         if (entry.getValue() > leaderVotes) {
+            leader = entry.getKey();
+            leaderVotes = entry.getValue();
+         }
+      }
+      return leader;
+   }
+
+}
@@ -0,0 +1,276 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.IntStream;
+
+/**
+ * A sequence of alternative {@link DecodeOptions} used to decode wells that failed to decode with
+ * the user's settings.
+ *
+ * <p>Each step of the ladder, a {@link Rung}, has its own time budget. The ladder counts how many
+ * wells each rung decoded, and {@link #getOrder getOrder} returns the rungs that succeed most
+ * often first.
+ *
+ * <p>A ladder can be saved as a string with {@link #format} and restored with {@link #parse}. Each
+ * rung is saved as the values of its decode options followed by its time budget, separated by
+ * commas, and rungs are separated by semicolons. For example: {@code
+ * 0.1,0.4,0.1,10,5,10,1,2000;0.15,0.3,0.1,20,5,10,1,2000}.
+ *
+ * <p>This class is thread safe.
+ *
+ */
+public class DecodeOptionsLadder {
+
+   /** The time budget used by the rungs in the default ladder. */
+   public static final long DEFAULT_TIME_BUDGET_MILLIS = 2000;
+
+   private static final String RUNG_SEPARATOR = ";";
+
+   private static final String VALUE_SEPARATOR = ",";
+
+   /**
+    * One set of decode options in the ladder.
+    */
+   public static final class Rung {
+
+      private final DecodeOptions options;
+
+      private final long timeBudgetMillis;
+
+      /**
+       * @param options  The options used to decode the failed wells.
+       *
+       * @param timeBudgetMillis  How long, in milliseconds, the decode can take before its result
+       *                          is ignored.
+       */
+      public Rung(DecodeOptions options, long timeBudgetMillis) {
+         if (options == null) {
+            throw new IllegalArgumentException("options is null");
+         }
+         if (timeBudgetMillis <= 0) {
+            throw new IllegalArgumentException("invalid time budget: " + timeBudgetMillis);
+         }
+         this.options = options;
+         this.timeBudgetMillis = timeBudgetMillis;
+      }
+
+      public DecodeOptions getOptions() {
+         return options;
+      }
+
+      public long getTimeBudgetMillis() {
+         return timeBudgetMillis;
+      }
+
+      @Override
+      public String toString() {
+         StringBuffer buf = new StringBuffer();
+         buf.append(options.getMinEdgeFactor()).append(VALUE_SEPARATOR);
+         buf.append(options.getMaxEdgeFactor()).append(VALUE_SEPARATOR);
+         buf.append(options.getScanGapFactor()).append(VALUE_SEPARATOR);
+         buf.append(options.getSquareDev()).append(VALUE_SEPARATOR);
+         buf.append(options.getEdgeThresh()).append(VALUE_SEPARATOR);
+         buf.append(options.getCorrections()).append(VALUE_SEPARATOR);
+         buf.append(options.getShrink()).append(VALUE_SEPARATOR);
+         buf.append(timeBudgetMillis);
+         return buf.toString();
+      }
+   }
+
+   private final List<Rung> rungs;
+
+   private final AtomicLongArray successes;
+
+   /**
+    * Creates a ladder where no rung has succeeded yet.
+    *
+    * @param rungs  The rungs, in the order they are used until some have succeeded.
+    */
+   public DecodeOptionsLadder(List<Rung> rungs) {
+      this.rungs = Collections.unmodifiableList(new ArrayList<>(rungs));
+      this.successes = new AtomicLongArray(rungs.size());
+   }
+
+   /**
+    * A ladder that relaxes, one at a time, the settings that most often cause a 2D barcode not to
+    * be found.
+    *
+    * @return the default ladder.
+    */
+   public static DecodeOptionsLadder getDefaultLadder() {
+      double minEdge = DecodeOptions.DEFAULT_MIN_EDGE_FACTOR;
+      double maxEdge = DecodeOptions.DEFAULT_MAX_EDGE_FACTOR;
+      double scanGap = DecodeOptions.DEFAULT_SCAN_GAP_FACTOR;
+      long squareDev = DecodeOptions.DEFAULT_SQUARE_DEV;
+      long edgeThresh = DecodeOptions.DEFAULT_EDGE_THRESH;
+      long corrections = DecodeOptions.DEFAULT_CORRECTIONS;
+      long shrink = DecodeOptions.DEFAULT_SHRINK;
+
+      DecodeOptions [] options = new DecodeOptions [] {
+         // smaller and larger barcodes
+         new DecodeOptions(minEdge / 2, maxEdge * 1.5, scanGap, squareDev, edgeThresh, corrections,
+                           shrink),
+         // barcodes that are not square in the image
+         new DecodeOptions(minEdge, maxEdge, scanGap, squareDev * 2, edgeThresh, corrections,
+                           shrink),
+         // low contrast images
+         new DecodeOptions(minEdge, maxEdge, scanGap / 2, squareDev, Math.max(1, edgeThresh / 2),
+                           corrections, shrink),
+         // damaged barcodes
+         new DecodeOptions(minEdge, maxEdge, scanGap, squareDev, edgeThresh, corrections * 2,
+                           shrink)
+      };
+
+      List<Rung> rungs = new ArrayList<>();
+      for (DecodeOptions option : options) {
+         rungs.add(new Rung(option, DEFAULT_TIME_BUDGET_MILLIS));
+      }
+      return new DecodeOptionsLadder(rungs);
+   }
+
+   public int size() {
+      return rungs.size();
+   }
+
+   public Rung getRung(int index) {
+      return rungs.get(index);
+   }
+
+   /**
+    * The number of wells decoded by a rung.
+    *
+    * @param index  The index of the rung.
+    *
+    * @return the number of wells.
+    */
+   public long getSuccesses(int index) {
+      return successes.get(index);
+   }
+
+   /**
+    * Adds to the number of wells decoded by a rung.
+    *
+    * @param index  The index of the rung.
+    *
+    * @param count  The number of wells decoded.
+    */
+   public void addSuccesses(int index, long count) {
+      successes.addAndGet(index, count);
+   }
+
+   /**
+    * The indexes of the rungs, the ones that decoded the most wells first. Rungs with the same
+    * count keep the order they were given in.
+    *
+    * @return the indexes of the rungs.
+    */
+   public int [] getOrder() {
+      long [] counts = new long[rungs.size()];
+      for (int i = 0; i < counts.length; ++i) {
+         counts[i] = successes.get(i);
+      }
+      return IntStream.range(0, counts.length)
+         .boxed()
+         .sorted(Comparator.comparingLong((Integer i) -> counts[i]).reversed())
+         .mapToInt(Integer::intValue)
+         .toArray();
+   }
+
+   /**
+    * Converts the rungs to a string. The success counts are not included.
+    *
+    * @return the rungs as a string.
+    */
+   public String format() {
+      StringBuffer buf = new StringBuffer();
+      for (Rung rung : rungs) {
+         if (buf.length() > 0) {
+            buf.append(RUNG_SEPARATOR);
+         }
+         buf.append(rung);
+      }
+      return buf.toString();
+   }
+
+   /**
+    * Converts the success counts to a string.
+    *
+    * @return the counts, separated by commas, in the same order as the rungs.
+    */
+   public String formatSuccesses() {
+      StringBuffer buf = new StringBuffer();
+      for (int i = 0; i < successes.length(); ++i) {
+         if (i > 0) {
+            buf.append(VALUE_SEPARATOR);
+         }
+         buf.append(successes.get(i));
+      }
+      return buf.toString();
+   }
+
+   /**
+    * Restores the success counts saved with {@link #formatSuccesses}. Counts are ignored if the
+    * number of counts does not match the number of rungs.
+    *
+    * @param value  The saved counts.
+    */
+   public void parseSuccesses(String value) {
+      if ((value == null) || value.trim().isEmpty()) {
+         return;
+      }
+      String [] counts = value.split(VALUE_SEPARATOR);
+      if (counts.length != successes.length()) {
+         return;
+      }
+      try {
+         for (int i = 0; i < counts.length; ++i) {
+            successes.set(i, Long.parseLong(counts[i].trim()));
+         }
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("invalid success counts: " + value);
+      }
+   }
+
+   /**
+    * Creates a ladder from a string created with {@link #format}.
+    *
+    * @param value  The rungs as a string.
+    *
+    * @return the ladder.
+    *
+    * @throws IllegalArgumentException if the string is not valid.
+    */
+   public static DecodeOptionsLadder parse(String value) {
+      List<Rung> rungs = new ArrayList<>();
+      if ((value == null) || value.trim().isEmpty()) {
+         return new DecodeOptionsLadder(rungs);
+      }
+
+      for (String rungValue : value.split(RUNG_SEPARATOR)) {
+         String [] values = rungValue.split(VALUE_SEPARATOR);
+         if (values.length != 8) {
+            throw new IllegalArgumentException("invalid ladder rung: " + rungValue);
+         }
+         try {
+            double [] numbers = Arrays.stream(values).mapToDouble(Double::parseDouble).toArray();
+            DecodeOptions options = new DecodeOptions(numbers[0],
+                                                      numbers[1],
+                                                      numbers[2],
+                                                      (long) numbers[3],
+                                                      (long) numbers[4],
+                                                      (long) numbers[5],
+                                                      (long) numbers[6]);
+            rungs.add(new Rung(options, (long) numbers[7]));
+         } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid ladder rung: " + rungValue);
+         }
+      }
+      return new DecodeOptionsLadder(rungs);
+   }
+
+}
@@ -1,11 +1,20 @@
 package org.biobank.platedecoder.dmscanlib;
 
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+
+import java.util.AbstractSet;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
+import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.stream.Collectors;
+import org.biobank.platedecoder.model.SbsLabeling;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,6 +24,10 @@ import org.slf4j.LoggerFactory;
  * <p>The method {@link #getDecodedWells getDecodedWells} returns the set of wells that were
  * successfully decoded.
  *
+ * <p>The decoded messages are stored by SBS position (see {@link SbsLabeling#toPosition}), so a
+ * well is looked up in constant time, and results are merged and compared by scanning the
+ * positions in order.
+ *
  * @author Nelson Loyola
  *
  */
@@ -23,7 +36,21 @@ public class DecodeResult extends ScanLibResult {
    @SuppressWarnings("unused")
    private static final Logger LOG = LoggerFactory.getLogger(DecodeResult.class);
 
-   private final Set<DecodedWell> wells = new TreeSet<DecodedWell>();
+   // the message decoded from each well, by SBS position
+   private final String [] inventoryIds = new String[SbsLabeling.SBS_MAX_POSITIONS];
+
+   // the SBS positions of the wells that were decoded
+   private final BitSet decoded = new BitSet(SbsLabeling.SBS_MAX_POSITIONS);
+
+   // the SBS positions of the wells where decode passes disagreed, see DecodeConsensus
+   private final BitSet conflicts = new BitSet(SbsLabeling.SBS_MAX_POSITIONS);
+
+   // set when the wells were voted on by several decode passes, see DecodeConsensus
+   private boolean consensus;
+
+   private final Set<DecodedWell> decodedWellsView = new DecodedWellSet();
+
+   private final Map<String, WellClass> wellClasses = new HashMap<>();
 
    /**
     * Stores the results when an image of a plate is decoded.
@@ -42,37 +69,193 @@ public class DecodeResult extends ScanLibResult {
       super(resultCode, value, message);
    }
 
+   /**
+    * Records the message decoded from a well. If the well was already decoded, the previous message
+    * is kept.
+    *
+    * <p><em>Called by JNI.</em>
+    *
+    * @param label  The SBS label of the well.
+    *
+    * @param message  The message decoded from the 2D barcode.
+    */
    public void addWell(String label, String message) {
-      wells.add(new DecodedWell(label, message));
+      addWell(SbsLabeling.toPosition(label), message);
+   }
+
+   /**
+    * Records the message decoded from a well. If the well was already decoded, the previous message
+    * is kept.
+    *
+    * @param position  The SBS position of the well. See {@link SbsLabeling#toPosition}.
+    *
+    * @param message  The message decoded from the 2D barcode.
+    */
+   public void addWell(int position, String message) {
+      if (!decoded.get(position)) {
+         decoded.set(position);
+         inventoryIds[position] = (message == null) ? "" : message;
+      }
+   }
+
+   /**
+    * Adds the wells, and the conflicts, of another result. The wells that are already decoded in
+    * this result are kept. The result is a consensus if either result is.
+    *
+    * @param that  The other result.
+    */
+   public void addWells(DecodeResult that) {
+      for (int i = that.decoded.nextSetBit(0); i >= 0; i = that.decoded.nextSetBit(i + 1)) {
+         addWell(i, that.inventoryIds[i]);
+      }
+      conflicts.or(that.conflicts);
+      consensus |= that.consensus;
+   }
+
+   /**
+    * Records that the wells were voted on by several decode passes. See {@link DecodeConsensus}.
+    *
+    * @param consensus  {@code true} if the result is a consensus.
+    */
+   public void setConsensus(boolean consensus) {
+      this.consensus = consensus;
+   }
+
+   /**
+    * The wells of a consensus that are not decoded did not get enough votes. They must not be
+    * decoded again by a single pass, which would bypass the quorum.
+    *
+    * @return {@code true} if the result is the consensus of several decode passes.
+    */
+   public boolean isConsensus() {
+      return consensus;
+   }
+
+   /**
+    * Records that the decode passes did not agree on the message of a well. The well is not
+    * decoded. See {@link DecodeConsensus}.
+    *
+    * @param position  The SBS position of the well. See {@link SbsLabeling#toPosition}.
+    */
+   public void addConflict(int position) {
+      conflicts.set(position);
+   }
+
+   /**
+    * @param label  The SBS label of a well.
+    *
+    * @return {@code true} if the decode passes did not agree on the message of the well.
+    */
+   public boolean isConflict(String label) {
+      return conflicts.get(SbsLabeling.toPosition(label));
+   }
+
+   /**
+    * Used to iterate over the conflicting wells in the same way as {@link #nextDecodedPosition}.
+    *
+    * @param fromPosition  The SBS position to start from.
+    *
+    * @return the SBS position of the first conflicting well at or after {@code fromPosition}, or
+    * -1 if there is none.
+    */
+   public int nextConflictPosition(int fromPosition) {
+      return conflicts.nextSetBit(fromPosition);
    }
 
    /**
     * Gets the set of wells that were successfully decoded.
     *
+    * <p>The set is a read only view of this result, ordered by SBS position, so that {@code A2}
+    * comes before {@code A10}.
+    *
     * @return the set of wells that were successfully decoded.
     */
    public Set<DecodedWell> getDecodedWells() {
-      return wells;
+      return decodedWellsView;
    }
 
-   private static Map<String, String> labelToInventoryIdMap(Collection<DecodedWell> set) {
-      Map<String, String> result = new HashMap<>();
-      set.forEach(well -> {
-            if (!well.getMessage().isEmpty()) {
-               result.put(well.getLabel(), well.getMessage());
-            }
-         });
-      return result;
+   /**
+    * @return the number of wells that were successfully decoded.
+    */
+   public int getDecodedWellCount() {
+      return decoded.cardinality();
    }
 
-   private static Map<String, String> inventoryIdToLabelMap(Collection<DecodedWell> set) {
-      Map<String, String> result = new HashMap<>();
-      set.forEach(well -> {
-            if (!well.getMessage().isEmpty()) {
-               result.put(well.getMessage(), well.getLabel());
-            }
-         });
-      return result;
+   /**
+    * Used to iterate over the decoded wells without creating any objects, in the same way as
+    * {@link BitSet#nextSetBit}.
+    *
+    * @param fromPosition  The SBS position to start from.
+    *
+    * @return the SBS position of the first decoded well at or after {@code fromPosition}, or -1 if
+    * there is none.
+    */
+   public int nextDecodedPosition(int fromPosition) {
+      return decoded.nextSetBit(fromPosition);
+   }
+
+   /**
+    * @param position  The SBS position of a well. See {@link SbsLabeling#toPosition}.
+    *
+    * @return the message decoded from the well, or {@code null} if the well was not decoded.
+    */
+   public String getInventoryId(int position) {
+      return inventoryIds[position];
+   }
+
+   /**
+    * @param label  The SBS label of a well.
+    *
+    * @return the message decoded from the well, or {@code null} if the well was not decoded.
+    */
+   public String getInventoryId(String label) {
+      return inventoryIds[SbsLabeling.toPosition(label)];
+   }
+
+   /**
+    * Records what a well was classified as before it was decoded. See {@link WellClassifier}.
+    *
+    * @param label  The label of the well.
+    *
+    * @param wellClass  What the well contains.
+    */
+   public void setWellClass(String label, WellClass wellClass) {
+      wellClasses.put(label, wellClass);
+   }
+
+   /**
+    * Gets what the wells were classified as before they were decoded. Only the wells in the
+    * request are present, and only if they were classified.
+    *
+    * @return the class of each well, by label.
+    */
+   public Map<String, WellClass> getWellClasses() {
+      return Collections.unmodifiableMap(wellClasses);
+   }
+
+   /**
+    * @param label  The SBS label of a well.
+    *
+    * @return {@code true} if the well was not decoded because it was classified as not containing
+    * a 2D barcode. See {@link ClassifyingDecoderBackend}.
+    */
+   public boolean isSkipped(String label) {
+      WellClass wellClass = wellClasses.get(label);
+      return (wellClass != null) && (wellClass != WellClass.CANDIDATE);
+   }
+
+   /**
+    * Gets the wells that were not decoded because they were classified as not containing a 2D
+    * barcode. These wells were never passed to the decoder, so an empty inventory ID for them
+    * does not mean the decoder failed.
+    *
+    * @return the labels of the skipped wells, ordered by SBS position.
+    */
+   public List<String> getSkippedWells() {
+      return wellClasses.keySet().stream()
+         .filter(this::isSkipped)
+         .sorted(Comparator.comparingInt(SbsLabeling::toPosition))
+         .collect(Collectors.toList());
    }
 
    /**
@@ -90,29 +273,40 @@ public class DecodeResult extends ScanLibResult {
     */
    public static boolean compareDecodeResults(Collection<DecodedWell> former,
                                               Collection<DecodedWell> latter) {
-      // ensure each label contains the same inventory id
-      Map<String, String> formerLabelToInventoryId = labelToInventoryIdMap(former);
-      Map<String, String> latterLabelToInventoryId = labelToInventoryIdMap(latter);
-
-      for (Entry<String, String> entry : formerLabelToInventoryId.entrySet()) {
-         String formerLabel = entry.getKey();
-         String formerInventoryId = entry.getValue();
-         String latterInventoryId = latterLabelToInventoryId.get(formerLabel);
+      return compareDecodeResults(fromDecodedWells(former), fromDecodedWells(latter));
+   }
 
-         if ((latterInventoryId != null) && !formerInventoryId.equals(latterInventoryId)) {
+   /**
+    * Returns true if the two decode results can be merged. See {@link
+    * #compareDecodeResults(Collection, Collection)}.
+    *
+    * @param former  The former of the decode results.
+    *
+    * @param latter  The latter of the decode results.
+    *
+    * @return {@code true} if the results can be merged.
+    */
+   public static boolean compareDecodeResults(DecodeResult former, DecodeResult latter) {
+      // ensure each label contains the same inventory id
+      Map<String, Integer> latterPositions = new HashMap<>();
+      for (int i = latter.decoded.nextSetBit(0); i >= 0; i = latter.decoded.nextSetBit(i + 1)) {
+         String latterInventoryId = latter.inventoryIds[i];
+         if (latterInventoryId.isEmpty()) {
+            continue;
+         }
+         String formerInventoryId = former.inventoryIds[i];
+         if ((formerInventoryId != null)
+             && !formerInventoryId.isEmpty()
+             && !formerInventoryId.equals(latterInventoryId)) {
             return false;
          }
+         latterPositions.put(latterInventoryId, i);
       }
 
-      Map<String, String> formerInventoryIdToLabel = inventoryIdToLabelMap(former);
-      Map<String, String> latterInventoryIdToLabel = inventoryIdToLabelMap(latter);
-
-      for (Entry<String, String> entry : formerInventoryIdToLabel.entrySet()) {
-         String formerInventoryId = entry.getKey();
-         String formerLabel = entry.getValue();
-         String latterLabel = latterInventoryIdToLabel.get(formerInventoryId);
-
-         if ((latterLabel != null) && !latterLabel.equals(formerLabel)) {
+      // ensure each inventory id is at the same label
+      for (int i = former.decoded.nextSetBit(0); i >= 0; i = former.decoded.nextSetBit(i + 1)) {
+         Integer latterPosition = latterPositions.get(former.inventoryIds[i]);
+         if ((latterPosition != null) && (latterPosition != i)) {
             return false;
          }
       }
@@ -120,4 +314,53 @@ public class DecodeResult extends ScanLibResult {
       return true;
    }
 
+   private static DecodeResult fromDecodedWells(Collection<DecodedWell> wells) {
+      DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+      wells.forEach(well -> result.addWell(well.getLabel(), well.getMessage()));
+      return result;
+   }
+
+   // a read only view of the decoded wells
+   private class DecodedWellSet extends AbstractSet<DecodedWell> {
+
+      @Override
+      public Iterator<DecodedWell> iterator() {
+         return new Iterator<DecodedWell>() {
+
+            private int next = decoded.nextSetBit(0);
+
+            @Override
+            public boolean hasNext() {
+               return next >= 0;
+            }
+
+            @Override
+            public DecodedWell next() {
+               if (next < 0) {
+                  throw new NoSuchElementException();
+               }
+               DecodedWell well =
+                  new DecodedWell(SbsLabeling.fromPosition(next), inventoryIds[next]);
+               next = decoded.nextSetBit(next + 1);
+               return well;
+            }
+         };
+      }
+
+      @Override
+      public int size() {
+         return decoded.cardinality();
+      }
+
+      @Override
+      public boolean contains(Object obj) {
+         if (obj instanceof DecodedWell) {
+            DecodedWell well = (DecodedWell) obj;
+            int position = SbsLabeling.toPosition(well.getLabel());
+            return decoded.get(position) && inventoryIds[position].equals(well.getMessage());
+         }
+         return false;
+      }
+   }
+
 }
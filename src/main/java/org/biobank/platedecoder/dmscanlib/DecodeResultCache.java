@@ -0,0 +1,294 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.biobank.platedecoder.metrics.Metrics;
+import org.biobank.platedecoder.model.SbsLabeling;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stores successful decode results so that decoding the same image again returns immediately.
+ *
+ * <p>Results are kept in a small in-memory LRU map and also saved to a directory, so that they
+ * are still available after the application is restarted. The keys are created by {@link
+ * CachingDecoderBackend} from the contents of the image, the wells and the decode options.
+ *
+ * <p>This class is thread safe.
+ *
+ */
+public class DecodeResultCache {
+
+   private static final Logger LOG = LoggerFactory.getLogger(DecodeResultCache.class);
+
+   /** The default number of results kept in memory. */
+   public static final int DEFAULT_MEMORY_ENTRIES = 32;
+
+   /** The default number of results saved to disk. */
+   public static final int DEFAULT_DISK_ENTRIES = 1000;
+
+   private static final String FILE_EXTENSION = ".result";
+
+   // incremented when the format of the files changes, files with a different version are ignored
+   private static final int FILE_VERSION = 3;
+
+   private final File directory;
+
+   private final int maxDiskEntries;
+
+   private final Map<String, DecodeResult> memory;
+
+   /**
+    * Returns the cache shared by the application. Results are saved in the user's home directory.
+    *
+    * @return the shared cache.
+    */
+   public static DecodeResultCache getInstance() {
+      return DecodeResultCacheHolder.INSTANCE;
+   }
+
+   private static class DecodeResultCacheHolder {
+      private static final DecodeResultCache INSTANCE =
+         new DecodeResultCache(new File(System.getProperty("user.home"),
+                                        ".platedecoder" + File.separator + "decode-cache"),
+                               DEFAULT_MEMORY_ENTRIES,
+                               DEFAULT_DISK_ENTRIES);
+
+      static {
+         Metrics.getInstance().gauge("decode.cache.memoryEntries", INSTANCE::getMemoryEntryCount);
+      }
+   }
+
+   /**
+    * Creates a cache that saves results to {@code directory}.
+    *
+    * @param directory  Where results are saved. Created if it does not exist. If {@code null},
+    *                   results are only kept in memory.
+    *
+    * @param maxMemoryEntries  The number of results kept in memory.
+    *
+    * @param maxDiskEntries  The number of results saved to disk. When exceeded, the results used
+    *                        least recently are deleted.
+    */
+   @SuppressWarnings("serial")
+   public DecodeResultCache(File directory, final int maxMemoryEntries, int maxDiskEntries) {
+      if ((maxMemoryEntries <= 0) || (maxDiskEntries <= 0)) {
+         throw new IllegalArgumentException("cache sizes must be greater than zero");
+      }
+      this.directory = directory;
+      this.maxDiskEntries = maxDiskEntries;
+      this.memory = new LinkedHashMap<String, DecodeResult>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, DecodeResult> eldest) {
+               return size() > maxMemoryEntries;
+            }
+         };
+   }
+
+   /**
+    * Returns the result stored for {@code key}.
+    *
+    * @param key  The key created by {@link CachingDecoderBackend}.
+    *
+    * @return the stored result, or {@code null} if there is none.
+    */
+   public DecodeResult get(String key) {
+      synchronized (memory) {
+         DecodeResult result = memory.get(key);
+         if (result != null) {
+            return copy(result);
+         }
+      }
+
+      DecodeResult result = read(key);
+      if (result != null) {
+         synchronized (memory) {
+            memory.put(key, result);
+         }
+         return copy(result);
+      }
+      return null;
+   }
+
+   /**
+    * Stores a result. Only successful results are stored.
+    *
+    * @param key  The key created by {@link CachingDecoderBackend}.
+    *
+    * @param result  The result to store.
+    */
+   public void put(String key, DecodeResult result) {
+      if ((result == null) || (result.getResultCode() != ScanLibResult.Result.SUCCESS)) {
+         return;
+      }
+      DecodeResult stored = copy(result);
+      synchronized (memory) {
+         memory.put(key, stored);
+      }
+      write(key, stored);
+   }
+
+   /**
+    * @return the number of results kept in memory.
+    */
+   public int getMemoryEntryCount() {
+      synchronized (memory) {
+         return memory.size();
+      }
+   }
+
+   /**
+    * Removes all the results from memory and disk.
+    */
+   public void clear() {
+      synchronized (memory) {
+         memory.clear();
+      }
+      for (File file : listFiles()) {
+         if (!file.delete()) {
+            LOG.warn("could not delete cached result: {}", file);
+         }
+      }
+   }
+
+   private static DecodeResult copy(DecodeResult result) {
+      DecodeResult copy = new DecodeResult(SC_SUCCESS, SC_SUCCESS, result.getMessage());
+      copy.addWells(result);
+      result.getWellClasses().forEach(copy::setWellClass);
+      return copy;
+   }
+
+   private File getFile(String key) {
+      return new File(directory, key + FILE_EXTENSION);
+   }
+
+   private File [] listFiles() {
+      if (directory == null) {
+         return new File[0];
+      }
+      File [] files = directory.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+      return (files == null) ? new File[0] : files;
+   }
+
+   private DecodeResult read(String key) {
+      if (directory == null) {
+         return null;
+      }
+
+      File file = getFile(key);
+      if (!file.isFile()) {
+         return null;
+      }
+
+      try (DataInputStream in =
+              new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+         if (in.readInt() != FILE_VERSION) {
+            return null;
+         }
+         DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, in.readUTF());
+         for (int i = 0, n = in.readInt(); i < n; ++i) {
+            String label = in.readUTF();
+            String message = in.readUTF();
+            result.addWell(label, message);
+         }
+         for (int i = 0, n = in.readInt(); i < n; ++i) {
+            String label = in.readUTF();
+            result.setWellClass(label, WellClass.valueOf(in.readUTF()));
+         }
+         for (int i = 0, n = in.readInt(); i < n; ++i) {
+            result.addConflict(SbsLabeling.toPosition(in.readUTF()));
+         }
+
+         // used to find the results used least recently
+         if (!file.setLastModified(System.currentTimeMillis())) {
+            LOG.debug("could not update time stamp for cached result: {}", file);
+         }
+         return result;
+      } catch (IOException | IllegalArgumentException e) {
+         LOG.warn("could not read cached result {}: {}", file, e.getMessage());
+         return null;
+      }
+   }
+
+   private void write(String key, DecodeResult result) {
+      if (directory == null) {
+         return;
+      }
+
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         LOG.warn("could not create directory for cached results: {}", directory);
+         return;
+      }
+
+      File temp = null;
+      try {
+         temp = File.createTempFile(key, ".tmp", directory);
+         try (DataOutputStream out =
+                 new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(FILE_VERSION);
+            out.writeUTF(result.getMessage() == null ? "" : result.getMessage());
+            out.writeInt(result.getDecodedWellCount());
+            for (DecodedWell well : result.getDecodedWells()) {
+               out.writeUTF(well.getLabel());
+               out.writeUTF(well.getMessage());
+            }
+            out.writeInt(result.getWellClasses().size());
+            for (Map.Entry<String, WellClass> entry : result.getWellClasses().entrySet()) {
+               out.writeUTF(entry.getKey());
+               out.writeUTF(entry.getValue().name());
+            }
+            List<String> conflicts = new ArrayList<>();
+            for (int i = result.nextConflictPosition(0);
+                 i >= 0;
+                 i = result.nextConflictPosition(i + 1)) {
+               conflicts.add(SbsLabeling.fromPosition(i));
+            }
+            out.writeInt(conflicts.size());
+            for (String label : conflicts) {
+               out.writeUTF(label);
+            }
+         }
+         Files.move(temp.toPath(), getFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+         temp = null;
+      } catch (IOException e) {
+         LOG.warn("could not save cached result {}: {}", key, e.getMessage());
+      } finally {
+         if ((temp != null) && !temp.delete()) {
+            temp.deleteOnExit();
+         }
+      }
+
+      removeOldFiles();
+   }
+
+   private void removeOldFiles() {
+      File [] files = listFiles();
+      if (files.length <= maxDiskEntries) {
+         return;
+      }
+
+      Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+      for (int i = 0, n = files.length - maxDiskEntries; i < n; ++i) {
+         if (!files[i].delete()) {
+            LOG.warn("could not delete cached result: {}", files[i]);
+         }
+      }
+   }
+
+}
@@ -1,5 +1,6 @@
 package org.biobank.platedecoder.dmscanlib;
 
+import org.biobank.platedecoder.model.PlateLayout;
 import org.biobank.platedecoder.model.SbsLabeling;
 
 /**
@@ -85,11 +86,12 @@ public final class DecodedWell implements Comparable<DecodedWell> {
    }
 
    /**
-    * Used to sort decoded wells by label.
+    * Used to sort decoded wells by the rows and columns derived from their labels, so that {@code
+    * A2} comes before {@code A10}.
     */
    @Override
    public int compareTo(DecodedWell o) {
-      return label.compareTo(o.label);
+      return PlateLayout.compareLabels(label, o.label);
    }
 
    @Override
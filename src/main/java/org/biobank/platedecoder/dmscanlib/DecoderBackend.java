@@ -0,0 +1,179 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.util.function.Function;
+
+/**
+ * An implementation of the DataMatrix 2D barcode decoder.
+ *
+ * <p>The application selects the backend at runtime. See {@link DecoderBackendType}.
+ *
+ */
+public interface DecoderBackend {
+
+   /**
+    * Used to decode regions of an image containing 2D barcodes.
+    *
+    * <p>The regions of the image containing the barcodes are defined in {@code wells}.
+    *
+    * @param verbose  The amount of debug logging information to generate. 1 is minimal and 9 is very
+    *                 detailed. Using a value of 0 does not generate any logging information.
+    *
+    * @param filename The filename containing an image with 2D barcodes.
+    *
+    * @param decodeOptions See the {@link DecodeOptions} for a description of these settings.
+    *
+    * @param wells An array of {@link CellRectangle} objects defining the the regions of the image
+    *              containing 2D barcode tubes.
+    *
+    * @return The results of the decode in a {@link DecodeResult} object.
+    *
+    * @see ScanLib#decodeImage
+    */
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells);
+
+   /**
+    * Used to decode regions of an image, held in memory, containing 2D barcodes.
+    *
+    * <p>Avoids saving the image to a file and reading it back when the image has already been
+    * loaded.
+    *
+    * @param verbose  The amount of debug logging information to generate. 1 is minimal and 9 is very
+    *                 detailed. Using a value of 0 does not generate any logging information.
+    *
+    * @param image The pixels of an image with 2D barcodes.
+    *
+    * @param decodeOptions See the {@link DecodeOptions} for a description of these settings.
+    *
+    * @param wells An array of {@link CellRectangle} objects defining the the regions of the image
+    *              containing 2D barcode tubes.
+    *
+    * @return The results of the decode in a {@link DecodeResult} object.
+    *
+    * @see ScanLib#decodeImageBuffer
+    */
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells);
+
+   /**
+    * Same as {@link #decodeImage(long, String, DecodeOptions, CellRectangle[])} but with the
+    * regions of the image held in a {@link CellGrid}.
+    *
+    * <p>The default implementation converts the grid to {@link CellRectangle} objects. Backends
+    * that can work with the grid directly should override it.
+    *
+    * @param verbose  The amount of debug logging information to generate. 1 is minimal and 9 is very
+    *                 detailed. Using a value of 0 does not generate any logging information.
+    *
+    * @param filename The filename containing an image with 2D barcodes.
+    *
+    * @param decodeOptions See the {@link DecodeOptions} for a description of these settings.
+    *
+    * @param cells The regions of the image containing 2D barcode tubes.
+    *
+    * @return The results of the decode in a {@link DecodeResult} object.
+    */
+   public default DecodeResult decodeImage(long          verbose,
+                                           String        filename,
+                                           DecodeOptions decodeOptions,
+                                           CellGrid      cells) {
+      return decodeImage(verbose,
+                         filename,
+                         decodeOptions,
+                         (cells == null) ? null : CellRectangle.fromCellGrid(cells));
+   }
+
+   /**
+    * Same as {@link #decodeImageBuffer(long, ImageBuffer, DecodeOptions, CellRectangle[])} but with
+    * the regions of the image held in a {@link CellGrid}.
+    *
+    * <p>The default implementation converts the grid to {@link CellRectangle} objects. Backends
+    * that can work with the grid directly should override it.
+    *
+    * @param verbose  The amount of debug logging information to generate. 1 is minimal and 9 is very
+    *                 detailed. Using a value of 0 does not generate any logging information.
+    *
+    * @param image The pixels of an image with 2D barcodes.
+    *
+    * @param decodeOptions See the {@link DecodeOptions} for a description of these settings.
+    *
+    * @param cells The regions of the image containing 2D barcode tubes.
+    *
+    * @return The results of the decode in a {@link DecodeResult} object.
+    */
+   public default DecodeResult decodeImageBuffer(long          verbose,
+                                                 ImageBuffer   image,
+                                                 DecodeOptions decodeOptions,
+                                                 CellGrid      cells) {
+      return decodeImageBuffer(verbose,
+                               image,
+                               decodeOptions,
+                               (cells == null) ? null : CellRectangle.fromCellGrid(cells));
+   }
+
+   /**
+    * Prepares an image whose wells are decoded in several calls, for example one per chunk by
+    * {@link ParallelDecoderBackend}.
+    *
+    * <p>The default implementation decodes each subset of the wells from the file. Backends that
+    * load the image themselves should override it so that the image is only loaded once.
+    *
+    * @param verbose  The amount of debug logging information to generate.
+    *
+    * @param filename The filename containing an image with 2D barcodes.
+    *
+    * @param decodeOptions See the {@link DecodeOptions} for a description of these settings.
+    *
+    * @return a function that decodes a subset of the wells of the image.
+    */
+   public default Function<CellRectangle[], DecodeResult> prepareImage(
+      long          verbose,
+      String        filename,
+      DecodeOptions decodeOptions) {
+      return wells -> decodeImage(verbose, filename, decodeOptions, wells);
+   }
+
+   /**
+    * Same as {@link #prepareImage prepareImage} for an image held in memory.
+    *
+    * @param verbose  The amount of debug logging information to generate.
+    *
+    * @param image The pixels of an image with 2D barcodes.
+    *
+    * @param decodeOptions See the {@link DecodeOptions} for a description of these settings.
+    *
+    * @return a function that decodes a subset of the wells of the image.
+    */
+   public default Function<CellRectangle[], DecodeResult> prepareImageBuffer(
+      long          verbose,
+      ImageBuffer   image,
+      DecodeOptions decodeOptions) {
+      return wells -> decodeImageBuffer(verbose, image, decodeOptions, wells);
+   }
+
+   /**
+    * Returns {@code false} if {@link #decodeImageBuffer decodeImageBuffer} has to save the image
+    * to a file to decode it. Callers that have the image in a file should then decode the file
+    * with {@link #decodeImage decodeImage} instead of loading it.
+    *
+    * <p>The default implementation returns {@code true}.
+    *
+    * @return {@code true} if images held in memory are decoded without saving them to a file.
+    */
+   public default boolean isImageBufferSupported() {
+      return true;
+   }
+
+   /**
+    * Returns {@code true} if {@link #decodeImage decodeImage} and {@link #decodeImageBuffer
+    * decodeImageBuffer} can be called concurrently from multiple threads.
+    *
+    * @return {@code true} if the backend is thread safe.
+    */
+   public boolean isThreadSafe();
+
+}
@@ -0,0 +1,63 @@
+package org.biobank.platedecoder.dmscanlib;
+
+/**
+ * The DataMatrix decoder implementations the user can choose from.
+ *
+ */
+public enum DecoderBackendType {
+
+   /** The decoder in the native scanning library. */
+   NATIVE("Native library"),
+
+   /** The decoder written in Java. */
+   JAVA("Java"),
+
+   /** The native library, run in separate processes. See {@link DecoderWorkerPool}. */
+   WORKERS("Native library in worker processes");
+
+   private final String label;
+
+   private DecoderBackendType(String label) {
+      this.label = label;
+   }
+
+   /**
+    * Returns the decoder for this type.
+    *
+    * @return the decoder.
+    */
+   public DecoderBackend getBackend() {
+      switch (this) {
+      case JAVA:
+         return JavaDecoderBackend.getInstance();
+      case NATIVE:
+         return NativeDecoderBackend.getInstance();
+      case WORKERS:
+         return DecoderWorkerPool.getInstance();
+      default:
+         throw new IllegalStateException("invalid decoder backend type: " + this);
+      }
+   }
+
+   /**
+    * Returns the decoder for this type.
+    *
+    * @param parallel  When {@code true} the wells are decoded concurrently. See {@link
+    *                  ParallelDecoderBackend}.
+    *
+    * @return the decoder.
+    */
+   public DecoderBackend getBackend(boolean parallel) {
+      DecoderBackend backend = getBackend();
+      if (parallel) {
+         backend = new ParallelDecoderBackend(backend);
+      }
+      return backend;
+   }
+
+   @Override
+   public String toString() {
+      return label;
+   }
+
+}
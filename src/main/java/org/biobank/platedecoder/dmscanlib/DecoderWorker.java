@@ -0,0 +1,142 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The main class of a decoder worker process, started by {@link DecoderWorkerPool}.
+ *
+ * <p>The worker decodes images with the backend named on its command line, usually the native
+ * library, one request at a time. Requests are read from standard input and results are written
+ * to standard output, see {@link DecoderWorkerProtocol}. If the native library crashes, only
+ * this process is lost.
+ *
+ * <p>The worker exits when it receives a shutdown request or when its standard input is closed,
+ * which happens when the application exits.
+ */
+public final class DecoderWorker {
+
+   private final DecoderBackend backend;
+
+   private final DataInputStream in;
+
+   private final DataOutputStream out;
+
+   // the file last mapped for in memory images, kept while its size does not change
+   private String pixelPath;
+
+   private MappedByteBuffer pixels;
+
+   private DecoderWorker(DecoderBackend backend, DataInputStream in, DataOutputStream out) {
+      this.backend = backend;
+      this.in = in;
+      this.out = out;
+   }
+
+   /**
+    * @param args  The name of the {@link DecoderBackendType} used to decode, {@code NATIVE} or
+    *              {@code JAVA}.
+    *
+    * @throws IOException if the pipe to the application fails.
+    */
+   public static void main(String [] args) throws IOException {
+      // standard output carries the responses, so anything else printed must go elsewhere; this
+      // is done before the logger is created so that its console appender writes to stderr
+      PrintStream responses = System.out;
+      System.setOut(System.err);
+      Logger log = LoggerFactory.getLogger(DecoderWorker.class);
+
+      DecoderBackendType type = DecoderBackendType.valueOf(args[0]);
+      if (type == DecoderBackendType.WORKERS) {
+         throw new IllegalArgumentException("a worker cannot use worker processes");
+      }
+      if (type == DecoderBackendType.NATIVE) {
+         LibraryLoader.load();
+      }
+
+      DataInputStream in = new DataInputStream(new BufferedInputStream(System.in));
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(responses));
+      out.writeInt(DecoderWorkerProtocol.VERSION);
+      out.flush();
+
+      try {
+         new DecoderWorker(type.getBackend(), in, out).run();
+      } catch (EOFException e) {
+         log.debug("application closed the pipe");
+      }
+   }
+
+   private void run() throws IOException {
+      while (true) {
+         int op = in.readInt();
+         switch (op) {
+         case DecoderWorkerProtocol.OP_SHUTDOWN:
+            return;
+
+         case DecoderWorkerProtocol.OP_DECODE_FILE: {
+            long verbose = in.readLong();
+            DecodeOptions options = DecoderWorkerProtocol.readOptions(in);
+            String filename = in.readUTF();
+            CellRectangle [] wells = DecoderWorkerProtocol.readCells(in);
+            respond(backend.decodeImage(verbose, filename, options, wells));
+            break;
+         }
+
+         case DecoderWorkerProtocol.OP_DECODE_BUFFER: {
+            long verbose = in.readLong();
+            DecodeOptions options = DecoderWorkerProtocol.readOptions(in);
+            String path = in.readUTF();
+            int width = in.readInt();
+            int height = in.readInt();
+            int stride = in.readInt();
+            ImageBuffer.Format format = getFormat(in.readInt());
+            CellRectangle [] wells = DecoderWorkerProtocol.readCells(in);
+            ImageBuffer image =
+               new ImageBuffer(mapPixels(path, stride * height), width, height, stride, format);
+            respond(backend.decodeImageBuffer(verbose, image, options, wells));
+            break;
+         }
+
+         default:
+            throw new IOException("invalid operation: " + op);
+         }
+      }
+   }
+
+   private void respond(DecodeResult result) throws IOException {
+      DecoderWorkerProtocol.writeResult(out, result);
+      out.flush();
+   }
+
+   private MappedByteBuffer mapPixels(String path, int size) throws IOException {
+      if (!path.equals(pixelPath) || (pixels == null) || (pixels.capacity() < size)) {
+         try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            pixels = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            pixels.order(ByteOrder.nativeOrder());
+         }
+         pixelPath = path;
+      }
+      return pixels;
+   }
+
+   private static ImageBuffer.Format getFormat(int value) throws IOException {
+      for (ImageBuffer.Format format : ImageBuffer.Format.values()) {
+         if (format.getValue() == value) {
+            return format;
+         }
+      }
+      throw new IOException("invalid image format: " + value);
+   }
+
+}
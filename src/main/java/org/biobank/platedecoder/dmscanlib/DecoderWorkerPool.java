@@ -0,0 +1,303 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_FAIL;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.biobank.platedecoder.metrics.Counter;
+import org.biobank.platedecoder.metrics.Metrics;
+import org.biobank.platedecoder.model.PlateDecoderDefaults;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes images in separate worker processes, so that a crash in the native library does not
+ * take down the application.
+ *
+ * <p>Each worker is a JVM running {@link DecoderWorker} that decodes one image at a time. Calls
+ * from different threads are given to different workers, so whole plates, or the chunks of a
+ * plate when wrapped in a {@link ParallelDecoderBackend}, are decoded concurrently. Workers are
+ * started when they are first needed, up to the size of the pool. A worker that dies is replaced
+ * by a new one on the next call, and the call that was running on it returns {@link
+ * ScanLib.ResultCode#SC_FAIL}. So does a call that the worker does not answer in time, see {@link
+ * #setRequestTimeout}; the worker is killed and replaced.
+ *
+ * <p>Images in memory are passed to the workers through a memory mapped file; images on disk are
+ * read by the worker from their file.
+ */
+public class DecoderWorkerPool implements DecoderBackend {
+
+   private static final Logger LOG = LoggerFactory.getLogger(DecoderWorkerPool.class);
+
+   private static final Counter RESTARTS = Metrics.getInstance().counter("decode.worker.restarts");
+
+   // how often a thread waiting for a worker checks whether it may start one
+   private static final long POLL_MILLIS = 100;
+
+   private final List<String> command;
+
+   private final BlockingQueue<DecoderWorkerProcess> idle = new LinkedBlockingQueue<>();
+
+   // guarded by this
+   private int size;
+
+   // the number of workers running or being started, guarded by this
+   private int started;
+
+   // guarded by this
+   private boolean shutdown;
+
+   // guarded by this
+   private long requestTimeoutMillis = PlateDecoderDefaults.DEFAULT_DECODER_WORKER_TIMEOUT_MILLIS;
+
+   /**
+    * Returns the pool used by {@link DecoderBackendType#WORKERS}, where the workers use the
+    * native library.
+    *
+    * @return the pool.
+    */
+   public static DecoderWorkerPool getInstance() {
+      return DecoderWorkerPoolHolder.INSTANCE;
+   }
+
+   private static class DecoderWorkerPoolHolder {
+      private static final DecoderWorkerPool INSTANCE =
+         new DecoderWorkerPool(DecoderBackendType.NATIVE,
+                               PlateDecoderDefaults.DEFAULT_DECODER_WORKERS);
+
+      static {
+         Runtime.getRuntime().addShutdownHook(new Thread(INSTANCE::shutdown, "decoder-workers"));
+      }
+   }
+
+   /**
+    * Creates a pool of workers started with the same class path and library path as this JVM.
+    *
+    * @param workerType  The backend the workers decode with. Must be {@link
+    *                    DecoderBackendType#NATIVE} or {@link DecoderBackendType#JAVA}.
+    *
+    * @param size  The maximum number of workers.
+    */
+   public DecoderWorkerPool(DecoderBackendType workerType, int size) {
+      this(getWorkerCommand(workerType), size);
+   }
+
+   DecoderWorkerPool(List<String> command, int size) {
+      if (size < 1) {
+         throw new IllegalArgumentException("invalid pool size: " + size);
+      }
+      this.command = command;
+      this.size = size;
+   }
+
+   private static List<String> getWorkerCommand(DecoderBackendType workerType) {
+      if ((workerType == null) || (workerType == DecoderBackendType.WORKERS)) {
+         throw new IllegalArgumentException("invalid worker type: " + workerType);
+      }
+      List<String> command = new ArrayList<>();
+      command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator
+                  + "java");
+      command.add("-cp");
+      command.add(System.getProperty("java.class.path"));
+      command.add("-Djava.library.path=" + System.getProperty("java.library.path"));
+      command.add(DecoderWorker.class.getName());
+      command.add(workerType.name());
+      return command;
+   }
+
+   public synchronized int getSize() {
+      return size;
+   }
+
+   /**
+    * Changes the maximum number of workers. When the pool shrinks, the extra workers exit once
+    * they finish their current image.
+    *
+    * @param size  The maximum number of workers.
+    */
+   public void setSize(int size) {
+      if (size < 1) {
+         throw new IllegalArgumentException("invalid pool size: " + size);
+      }
+      synchronized (this) {
+         this.size = size;
+      }
+      DecoderWorkerProcess worker;
+      while (isOverSize() && ((worker = idle.poll()) != null)) {
+         retire(worker);
+      }
+   }
+
+   public synchronized long getRequestTimeout() {
+      return requestTimeoutMillis;
+   }
+
+   /**
+    * Changes the time a worker is given to decode one image. A worker that takes longer, usually
+    * because the native library hangs, is killed and the call returns {@link
+    * ScanLib.ResultCode#SC_FAIL}.
+    *
+    * @param millis  The timeout in milliseconds.
+    */
+   public synchronized void setRequestTimeout(long millis) {
+      if (millis < 1) {
+         throw new IllegalArgumentException("invalid request timeout: " + millis);
+      }
+      requestTimeoutMillis = millis;
+   }
+
+   /**
+    * Stops all the idle workers, and the busy ones once they finish. The pool cannot be used
+    * afterwards.
+    */
+   public void shutdown() {
+      synchronized (this) {
+         shutdown = true;
+      }
+      DecoderWorkerProcess worker;
+      while ((worker = idle.poll()) != null) {
+         retire(worker);
+      }
+   }
+
+   @Override
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      if ((filename == null) || (decodeOptions == null) || (wells == null)) {
+         return new DecodeResult(SC_FAIL, SC_FAIL, "");
+      }
+      long timeout = getRequestTimeout();
+      return execute(
+         worker -> worker.decodeImage(verbose, filename, decodeOptions, wells, timeout));
+   }
+
+   @Override
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells) {
+      if ((image == null) || (decodeOptions == null) || (wells == null)) {
+         return new DecodeResult(SC_FAIL, SC_FAIL, "");
+      }
+      long timeout = getRequestTimeout();
+      return execute(
+         worker -> worker.decodeImageBuffer(verbose, image, decodeOptions, wells, timeout));
+   }
+
+   @Override
+   public boolean isThreadSafe() {
+      return true;
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>A worker reads a file itself, which is cheaper than sending it the pixels.
+    */
+   @Override
+   public boolean isImageBufferSupported() {
+      return false;
+   }
+
+   private interface WorkerCall {
+      DecodeResult call(DecoderWorkerProcess worker) throws IOException;
+   }
+
+   private DecodeResult execute(WorkerCall call) {
+      DecoderWorkerProcess worker;
+      try {
+         worker = acquire();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return new DecodeResult(SC_FAIL, SC_FAIL, "interrupted");
+      } catch (IOException e) {
+         LOG.error("could not start decoder worker: {}", e.getMessage());
+         return new DecodeResult(SC_FAIL, SC_FAIL, "could not start decoder worker");
+      }
+
+      try {
+         DecodeResult result = call.call(worker);
+         release(worker);
+         return result;
+      } catch (IOException e) {
+         // a crash or a hang in the native library, the worker is replaced on the next call
+         LOG.error("decoder worker failed: {}", e.getMessage());
+         RESTARTS.increment();
+         discard(worker);
+         return new DecodeResult(SC_FAIL, SC_FAIL, "decoder worker failed");
+      }
+   }
+
+   private DecoderWorkerProcess acquire() throws IOException, InterruptedException {
+      DecoderWorkerProcess worker = idle.poll();
+      while (true) {
+         if (worker != null) {
+            if (worker.isAlive()) {
+               return worker;
+            }
+            // died while idle
+            RESTARTS.increment();
+            discard(worker);
+         }
+
+         boolean start = false;
+         synchronized (this) {
+            if (shutdown) {
+               throw new IOException("decoder worker pool is shut down");
+            }
+            if (started < size) {
+               ++started;
+               start = true;
+            }
+         }
+
+         if (start) {
+            try {
+               return new DecoderWorkerProcess(command);
+            } catch (IOException e) {
+               synchronized (this) {
+                  --started;
+               }
+               throw e;
+            }
+         }
+
+         // the pool is full, wait for a worker to be released or for a slot to free up
+         worker = idle.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+      }
+   }
+
+   private void release(DecoderWorkerProcess worker) {
+      if (isOverSize()) {
+         retire(worker);
+      } else {
+         idle.add(worker);
+      }
+   }
+
+   private synchronized boolean isOverSize() {
+      return shutdown || (started > size);
+   }
+
+   private void retire(DecoderWorkerProcess worker) {
+      synchronized (this) {
+         --started;
+      }
+      worker.shutdown();
+   }
+
+   private void discard(DecoderWorkerProcess worker) {
+      synchronized (this) {
+         --started;
+      }
+      worker.destroy();
+   }
+
+}
@@ -0,0 +1,191 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One decoder worker process, as seen by {@link DecoderWorkerPool}.
+ *
+ * <p>Objects of this class are used by one thread at a time. If a call fails with an {@link
+ * IOException} the process has died, or is no longer in step with the pool, and must be
+ * destroyed. A worker that does not answer a request in time, because the native library hangs,
+ * is killed and the call fails in the same way.
+ */
+final class DecoderWorkerProcess {
+
+   // the time given to a worker to exit before it is killed
+   private static final long SHUTDOWN_MILLIS = 1000;
+
+   // kills the workers that miss their deadline
+   private static final ScheduledExecutorService WATCHDOG =
+      Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "decoder-worker-watchdog");
+            thread.setDaemon(true);
+            return thread;
+         });
+
+   private final Process process;
+
+   private final DataOutputStream out;
+
+   private final DataInputStream in;
+
+   // holds the pixels of in memory images, shared with the worker
+   private File pixelFile;
+
+   private MappedByteBuffer pixels;
+
+   /**
+    * Starts a worker and waits until it is ready.
+    *
+    * @param command  The command that starts the worker.
+    *
+    * @throws IOException if the worker cannot be started, or exits before it is ready.
+    */
+   DecoderWorkerProcess(List<String> command) throws IOException {
+      ProcessBuilder builder = new ProcessBuilder(command);
+      // the worker's log goes to its standard error
+      builder.redirectError(ProcessBuilder.Redirect.INHERIT);
+      process = builder.start();
+      out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+      in = new DataInputStream(new BufferedInputStream(process.getInputStream()));
+
+      try {
+         int version = in.readInt();
+         if (version != DecoderWorkerProtocol.VERSION) {
+            throw new IOException("unexpected decoder worker version: " + version);
+         }
+      } catch (IOException e) {
+         destroy();
+         throw e;
+      }
+   }
+
+   DecodeResult decodeImage(long            verbose,
+                            String          filename,
+                            DecodeOptions   decodeOptions,
+                            CellRectangle[] wells,
+                            long            timeoutMillis) throws IOException {
+      out.writeInt(DecoderWorkerProtocol.OP_DECODE_FILE);
+      out.writeLong(verbose);
+      DecoderWorkerProtocol.writeOptions(out, decodeOptions);
+      out.writeUTF(filename);
+      DecoderWorkerProtocol.writeCells(out, wells);
+      out.flush();
+      return readResult(timeoutMillis);
+   }
+
+   DecodeResult decodeImageBuffer(long            verbose,
+                                  ImageBuffer     image,
+                                  DecodeOptions   decodeOptions,
+                                  CellRectangle[] wells,
+                                  long            timeoutMillis) throws IOException {
+      int size = image.getStride() * image.getHeight();
+      ByteBuffer shared = getPixelBuffer(size);
+      ByteBuffer src = image.getPixels().duplicate();
+      src.clear().limit(size);
+      shared.clear();
+      shared.put(src);
+
+      out.writeInt(DecoderWorkerProtocol.OP_DECODE_BUFFER);
+      out.writeLong(verbose);
+      DecoderWorkerProtocol.writeOptions(out, decodeOptions);
+      out.writeUTF(pixelFile.getAbsolutePath());
+      out.writeInt(image.getWidth());
+      out.writeInt(image.getHeight());
+      out.writeInt(image.getStride());
+      out.writeInt(image.getFormat().getValue());
+      DecoderWorkerProtocol.writeCells(out, wells);
+      out.flush();
+      return readResult(timeoutMillis);
+   }
+
+   // the worker is killed if it has not answered by the deadline, which ends the read
+   private DecodeResult readResult(long timeoutMillis) throws IOException {
+      ScheduledFuture<?> deadline =
+         WATCHDOG.schedule(process::destroyForcibly, timeoutMillis, TimeUnit.MILLISECONDS);
+      DecodeResult result;
+      try {
+         result = DecoderWorkerProtocol.readResult(in);
+      } catch (IOException e) {
+         if (deadline.cancel(false)) {
+            throw e;
+         }
+         throw new IOException("decoder worker timed out after " + timeoutMillis + " ms", e);
+      }
+      if (!deadline.cancel(false)) {
+         // answered just as it was being killed
+         throw new IOException("decoder worker timed out after " + timeoutMillis + " ms");
+      }
+      return result;
+   }
+
+   // the mapping only grows, so that plates of the same size reuse it
+   private ByteBuffer getPixelBuffer(int size) throws IOException {
+      if ((pixels == null) || (pixels.capacity() < size)) {
+         if (pixelFile == null) {
+            pixelFile = File.createTempFile("decoder-worker", ".pixels");
+            pixelFile.deleteOnExit();
+         }
+         try (RandomAccessFile file = new RandomAccessFile(pixelFile, "rw")) {
+            file.setLength(size);
+            pixels = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+         }
+      }
+      return pixels;
+   }
+
+   boolean isAlive() {
+      return process.isAlive();
+   }
+
+   /**
+    * Asks the worker to exit, and kills it if it does not.
+    */
+   void shutdown() {
+      try {
+         out.writeInt(DecoderWorkerProtocol.OP_SHUTDOWN);
+         out.flush();
+         if (process.waitFor(SHUTDOWN_MILLIS, TimeUnit.MILLISECONDS)) {
+            deletePixelFile();
+            return;
+         }
+      } catch (IOException e) {
+         // the worker has already exited
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      destroy();
+   }
+
+   /**
+    * Kills the worker.
+    */
+   void destroy() {
+      process.destroyForcibly();
+      deletePixelFile();
+   }
+
+   private void deletePixelFile() {
+      pixels = null;
+      if (pixelFile != null) {
+         // may fail on MS Windows while the buffer is mapped, then it is deleted on exit
+         pixelFile.delete();
+         pixelFile = null;
+      }
+   }
+
+}
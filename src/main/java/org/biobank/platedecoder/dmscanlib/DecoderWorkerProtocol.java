@@ -0,0 +1,122 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_FAIL;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * The messages exchanged between a {@link DecoderWorkerPool} and its {@link DecoderWorker}
+ * processes over the worker's standard input and output.
+ *
+ * <p>The worker first writes {@link #VERSION} once it is ready. Each request then starts with an
+ * operation code and is followed by one response:
+ *
+ * <ul>
+ * <li>{@link #OP_DECODE_FILE}: the verbose level, the decode options, the image file name and
+ *     the cells. The response is a decode result.</li>
+ * <li>{@link #OP_DECODE_BUFFER}: the same, but instead of a file name the path of a memory
+ *     mapped file holding the pixels, followed by the width, height, stride and format of the
+ *     image.</li>
+ * <li>{@link #OP_SHUTDOWN}: the worker exits without responding.</li>
+ * </ul>
+ *
+ * <p>The pixels of in memory images are not sent through the pipe. The pool copies them to a file
+ * that both processes map into memory.
+ */
+final class DecoderWorkerProtocol {
+
+   /** Written by the worker when it is ready, and checked by the pool. */
+   static final int VERSION = 1;
+
+   static final int OP_SHUTDOWN = 0;
+
+   static final int OP_DECODE_FILE = 1;
+
+   static final int OP_DECODE_BUFFER = 2;
+
+   private DecoderWorkerProtocol() {
+      // static methods only
+   }
+
+   static void writeOptions(DataOutputStream out, DecodeOptions options) throws IOException {
+      out.writeDouble(options.getMinEdgeFactor());
+      out.writeDouble(options.getMaxEdgeFactor());
+      out.writeDouble(options.getScanGapFactor());
+      out.writeLong(options.getSquareDev());
+      out.writeLong(options.getEdgeThresh());
+      out.writeLong(options.getCorrections());
+      out.writeLong(options.getShrink());
+   }
+
+   static DecodeOptions readOptions(DataInputStream in) throws IOException {
+      return new DecodeOptions(in.readDouble(),
+                               in.readDouble(),
+                               in.readDouble(),
+                               in.readLong(),
+                               in.readLong(),
+                               in.readLong(),
+                               in.readLong());
+   }
+
+   static void writeCells(DataOutputStream out, CellRectangle [] cells) throws IOException {
+      out.writeInt(cells.length);
+      for (CellRectangle cell : cells) {
+         out.writeUTF(cell.getLabel());
+         out.writeDouble(cell.getX());
+         out.writeDouble(cell.getY());
+         out.writeDouble(cell.getWidth());
+         out.writeDouble(cell.getHeight());
+      }
+   }
+
+   static CellRectangle [] readCells(DataInputStream in) throws IOException {
+      CellRectangle [] cells = new CellRectangle[in.readInt()];
+      for (int i = 0; i < cells.length; ++i) {
+         cells[i] = new CellRectangle(in.readUTF(),
+                                      in.readDouble(),
+                                      in.readDouble(),
+                                      in.readDouble(),
+                                      in.readDouble());
+      }
+      return cells;
+   }
+
+   static void writeResult(DataOutputStream out, DecodeResult result) throws IOException {
+      ScanLibResult.Result code = result.getResultCode();
+      out.writeInt((code == null) ? SC_FAIL : code.getValue());
+      out.writeInt(result.getValue());
+      out.writeUTF((result.getMessage() == null) ? "" : result.getMessage());
+
+      out.writeInt(result.getDecodedWellCount());
+      for (DecodedWell well : result.getDecodedWells()) {
+         out.writeUTF(well.getLabel());
+         out.writeUTF(well.getMessage());
+      }
+
+      Map<String, WellClass> wellClasses = result.getWellClasses();
+      out.writeInt(wellClasses.size());
+      for (Map.Entry<String, WellClass> entry : wellClasses.entrySet()) {
+         out.writeUTF(entry.getKey());
+         out.writeUTF(entry.getValue().name());
+      }
+   }
+
+   static DecodeResult readResult(DataInputStream in) throws IOException {
+      int resultCode = in.readInt();
+      int value = in.readInt();
+      DecodeResult result = new DecodeResult(resultCode, value, in.readUTF());
+
+      for (int i = 0, n = in.readInt(); i < n; ++i) {
+         result.addWell(in.readUTF(), in.readUTF());
+      }
+      for (int i = 0, n = in.readInt(); i < n; ++i) {
+         String label = in.readUTF();
+         result.setWellClass(label, WellClass.valueOf(in.readUTF()));
+      }
+      return result;
+   }
+
+}
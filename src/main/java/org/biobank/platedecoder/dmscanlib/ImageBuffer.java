@@ -0,0 +1,205 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.WritablePixelFormat;
+
+/**
+ * Pixel data held in memory that can be decoded without writing it to a file first.
+ *
+ * <p>The pixels are stored in a direct {@link ByteBuffer} so that the scanning library can access
+ * them without a copy. Rows start every {@code stride} bytes.
+ *
+ */
+public final class ImageBuffer {
+
+   /**
+    * The layout of a pixel in the buffer.
+    *
+    * <p>The values must match the ones used by the scanning library.
+    */
+   public enum Format {
+      /** One byte per pixel, 0 is black and 255 is white. */
+      GRAY(0, 1),
+
+      /** Four bytes per pixel in the order blue, green, red and alpha. */
+      BGRA(1, 4);
+
+      private final int value;
+
+      private final int bytesPerPixel;
+
+      private Format(int value, int bytesPerPixel) {
+         this.value = value;
+         this.bytesPerPixel = bytesPerPixel;
+      }
+
+      /**
+       * The value passed to the scanning library for this format.
+       *
+       * @return the value for this format.
+       */
+      public int getValue() {
+         return value;
+      }
+
+      public int getBytesPerPixel() {
+         return bytesPerPixel;
+      }
+   }
+
+   private static final LatencyHistogram FROM_IMAGE_TIME =
+      Metrics.getInstance().histogram("image.toBuffer");
+
+   private final ByteBuffer pixels;
+
+   private final int width;
+
+   private final int height;
+
+   private final int stride;
+
+   private final Format format;
+
+   /**
+    * Wraps existing pixel data.
+    *
+    * @param pixels  The pixel data. Must be a direct buffer holding at least {@code stride *
+    *                height} bytes.
+    *
+    * @param width  The width of the image in pixels.
+    *
+    * @param height  The height of the image in pixels.
+    *
+    * @param stride  The number of bytes between the start of two consecutive rows.
+    *
+    * @param format  The layout of each pixel.
+    */
+   public ImageBuffer(ByteBuffer pixels, int width, int height, int stride, Format format) {
+      if ((pixels == null) || (format == null)) {
+         throw new IllegalArgumentException("pixels and format must not be null");
+      }
+      if (!pixels.isDirect()) {
+         throw new IllegalArgumentException("pixel buffer must be a direct buffer");
+      }
+      if ((width <= 0) || (height <= 0)) {
+         throw new IllegalArgumentException("invalid dimensions: " + width + "x" + height);
+      }
+      if (stride < width * format.getBytesPerPixel()) {
+         throw new IllegalArgumentException("stride is too small for image width: " + stride);
+      }
+      if (pixels.capacity() < (long) stride * height) {
+         throw new IllegalArgumentException("pixel buffer is too small for image dimensions");
+      }
+      this.pixels = pixels;
+      this.width = width;
+      this.height = height;
+      this.stride = stride;
+      this.format = format;
+   }
+
+   /**
+    * Returns the pixel data. The buffer is shared, not copied, and must not be modified.
+    *
+    * @return the pixel data.
+    */
+   public ByteBuffer getPixels() {
+      return pixels;
+   }
+
+   public int getWidth() {
+      return width;
+   }
+
+   public int getHeight() {
+      return height;
+   }
+
+   public int getStride() {
+      return stride;
+   }
+
+   public Format getFormat() {
+      return format;
+   }
+
+   /**
+    * Copies the pixels of a JavaFX image into a new buffer.
+    *
+    * @param image  The image to copy. It must be fully loaded.
+    *
+    * @return the buffer holding the pixels in {@link Format#BGRA BGRA} format.
+    */
+   public static ImageBuffer fromImage(Image image) {
+      long start = System.nanoTime();
+      PixelReader reader = image.getPixelReader();
+      if (reader == null) {
+         throw new IllegalArgumentException("image pixels cannot be read");
+      }
+
+      int width = (int) image.getWidth();
+      int height = (int) image.getHeight();
+      int stride = width * Format.BGRA.getBytesPerPixel();
+      ByteBuffer pixels = ByteBuffer.allocateDirect(stride * height).order(ByteOrder.nativeOrder());
+      WritablePixelFormat<ByteBuffer> pixelFormat = PixelFormat.getByteBgraPreInstance();
+      reader.getPixels(0, 0, width, height, pixelFormat, pixels, stride);
+      pixels.rewind();
+      FROM_IMAGE_TIME.recordSince(start);
+      return new ImageBuffer(pixels, width, height, stride, Format.BGRA);
+   }
+
+   /**
+    * Copies the pixels into an AWT image.
+    *
+    * @return the image, {@link BufferedImage#TYPE_BYTE_GRAY TYPE_BYTE_GRAY} for {@link
+    * Format#GRAY GRAY} pixels and {@link BufferedImage#TYPE_INT_RGB TYPE_INT_RGB} otherwise.
+    */
+   public BufferedImage toBufferedImage() {
+      BufferedImage image;
+      ByteBuffer src = pixels.duplicate();
+
+      if (format == Format.GRAY) {
+         image = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_GRAY);
+         byte [] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+         for (int y = 0; y < height; ++y) {
+            src.position(y * stride);
+            src.get(data, y * width, width);
+         }
+         return image;
+      }
+
+      image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      int [] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+      for (int y = 0; y < height; ++y) {
+         int offset = y * stride;
+         for (int x = 0; x < width; ++x, offset += 4) {
+            int b = src.get(offset) & 0xff;
+            int g = src.get(offset + 1) & 0xff;
+            int r = src.get(offset + 2) & 0xff;
+            data[y * width + x] = (r << 16) | (g << 8) | b;
+         }
+      }
+      return image;
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      buf.append("[ width: ").append(width);
+      buf.append(", height: ").append(height);
+      buf.append(", stride: ").append(stride);
+      buf.append(", format: ").append(format);
+      buf.append(" ]");
+      return buf.toString();
+   }
+
+}
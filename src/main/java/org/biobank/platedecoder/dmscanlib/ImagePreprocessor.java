@@ -0,0 +1,567 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import javax.imageio.ImageIO;
+
+/**
+ * Reduces an image to the pixels the decoder needs before it is decoded.
+ *
+ * <p>The image is cropped to the bounding box of the cells plus a margin, converted to 8 bit
+ * grayscale and, when the cells are larger than needed, downsampled by an integer factor so that
+ * the cells are close to the target size. The rows of the new image are computed in parallel on a
+ * {@link ForkJoinPool}.
+ *
+ * <p>A flatbed scan at 600 dpi is stored as 4 bytes per pixel for the whole scanner bed, while the
+ * decoder only looks at the luminance of the pixels inside the well grid. Cropping and converting
+ * the image, and halving its resolution, reduces the size of the decoder input by more than 16
+ * times.
+ *
+ * <p>Bitmap files are memory mapped, so a high resolution scan is reduced without being loaded on
+ * the heap. The memory used for the new image is bounded by the size of the plate and the target
+ * cell size, whatever the resolution of the scan.
+ *
+ * <p>The cells passed to the decoder must be moved to the coordinates of the new image with
+ * {@link PreprocessedImage#rebase(CellGrid)} or {@link PreprocessedImage#rebase(CellRectangle[])}.
+ */
+public final class ImagePreprocessor {
+
+   /** The margin added around the cells, as a fraction of the size of a cell. */
+   public static final double DEFAULT_MARGIN = 0.25;
+
+   /**
+    * The smallest size of a cell, in pixels, after downsampling. A 96 well plate scanned at
+    * 300 dpi is not downsampled, while one scanned at 600 dpi is reduced to half its resolution.
+    */
+   public static final int DEFAULT_TARGET_CELL_SIZE = 100;
+
+   // the number of output rows below which a task is not split
+   private static final int ROWS_PER_TASK = 16;
+
+   private final double margin;
+
+   private final int targetCellSize;
+
+   private final ForkJoinPool pool;
+
+   /**
+    * A preprocessor using {@link #DEFAULT_MARGIN} and {@link #DEFAULT_TARGET_CELL_SIZE}.
+    */
+   public ImagePreprocessor() {
+      this(DEFAULT_MARGIN, DEFAULT_TARGET_CELL_SIZE, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * @param margin  The margin added around the cells, as a fraction of the size of a cell.
+    *
+    * @param targetCellSize  The smallest size of a cell, in pixels, after downsampling. Use 0 to
+    *                        never downsample.
+    *
+    * @param pool  Runs the tasks that compute the rows of the new image.
+    */
+   public ImagePreprocessor(double margin, int targetCellSize, ForkJoinPool pool) {
+      if ((margin < 0) || (targetCellSize < 0)) {
+         throw new IllegalArgumentException("invalid margin or cell size: " + margin + ", "
+                                            + targetCellSize);
+      }
+      if (pool == null) {
+         throw new IllegalArgumentException("pool is null");
+      }
+      this.margin = margin;
+      this.targetCellSize = targetCellSize;
+      this.pool = pool;
+   }
+
+   /**
+    * An image produced by an {@link ImagePreprocessor}, and the transform from the coordinates of
+    * the original image.
+    */
+   public static final class PreprocessedImage {
+
+      private final ImageBuffer image;
+
+      private final int offsetX;
+
+      private final int offsetY;
+
+      private final int scale;
+
+      private final long sourceBytes;
+
+      private PreprocessedImage(ImageBuffer image,
+                                int         offsetX,
+                                int         offsetY,
+                                int         scale,
+                                long        sourceBytes) {
+         this.image = image;
+         this.offsetX = offsetX;
+         this.offsetY = offsetY;
+         this.scale = scale;
+         this.sourceBytes = sourceBytes;
+      }
+
+      /**
+       * @return the pixels in {@link ImageBuffer.Format#GRAY GRAY} format.
+       */
+      public ImageBuffer getImage() {
+         return image;
+      }
+
+      /**
+       * @return the column, in the original image, of the first column of this image.
+       */
+      public int getOffsetX() {
+         return offsetX;
+      }
+
+      /**
+       * @return the row, in the original image, of the first row of this image.
+       */
+      public int getOffsetY() {
+         return offsetY;
+      }
+
+      /**
+       * @return the number of pixels of the original image, in each direction, averaged into one
+       * pixel of this image.
+       */
+      public int getScale() {
+         return scale;
+      }
+
+      // the size of the original image in memory, or of its pixels when it was memory mapped
+      long getSourceBytes() {
+         return sourceBytes;
+      }
+
+      /**
+       * Moves cells to the coordinates of this image.
+       *
+       * @param cells  The cells, in the coordinates of the original image.
+       *
+       * @return a new grid with the same wells.
+       */
+      public CellGrid rebase(CellGrid cells) {
+         int size = cells.size();
+         double [] x = new double[size];
+         double [] y = new double[size];
+         double [] width = new double[size];
+         double [] height = new double[size];
+         int [] wellIndex = new int[size];
+         cells.forEach((cell, index, cellX, cellY, cellWidth, cellHeight) -> {
+               x[cell] = (cellX - offsetX) / scale;
+               y[cell] = (cellY - offsetY) / scale;
+               width[cell] = cellWidth / scale;
+               height[cell] = cellHeight / scale;
+               wellIndex[cell] = index;
+            });
+         return new CellGrid(cells.getPlateType(), x, y, width, height, wellIndex);
+      }
+
+      /**
+       * Moves cells to the coordinates of this image.
+       *
+       * @param wells  The cells, in the coordinates of the original image.
+       *
+       * @return new cells with the same labels.
+       */
+      public CellRectangle [] rebase(CellRectangle[] wells) {
+         CellRectangle [] rebased = new CellRectangle[wells.length];
+         for (int i = 0; i < wells.length; ++i) {
+            CellRectangle well = wells[i];
+            rebased[i] = new CellRectangle(well.getLabel(),
+                                           (well.getX() - offsetX) / scale,
+                                           (well.getY() - offsetY) / scale,
+                                           well.getWidth() / scale,
+                                           well.getHeight() / scale);
+         }
+         return rebased;
+      }
+
+      @Override
+      public String toString() {
+         StringBuffer buf = new StringBuffer();
+         buf.append(image);
+         buf.append(", offset: ").append(offsetX).append(",").append(offsetY);
+         buf.append(", scale: ").append(scale);
+         return buf.toString();
+      }
+   }
+
+   /**
+    * Preprocesses pixel data held in memory.
+    *
+    * @param image  The pixels of the image.
+    *
+    * @param cells  The regions of the image holding the tubes.
+    *
+    * @return the new image, or {@code null} if none of the cells are inside the image. The image
+    * is returned without a copy when it is already reduced.
+    */
+   public PreprocessedImage preprocess(ImageBuffer image, CellGrid cells) {
+      return preprocess(new BufferRows(image), bounds(cells));
+   }
+
+   /**
+    * Same as {@link #preprocess(ImageBuffer, CellGrid)} with the cells held in {@link
+    * CellRectangle} objects.
+    *
+    * @param image  The pixels of the image.
+    *
+    * @param wells  The regions of the image holding the tubes.
+    *
+    * @return the new image, or {@code null} if none of the cells are inside the image.
+    */
+   public PreprocessedImage preprocess(ImageBuffer image, CellRectangle[] wells) {
+      return preprocess(new BufferRows(image), bounds(wells));
+   }
+
+   /**
+    * Preprocesses a memory mapped image. Only the pixels inside the crop are read from the file.
+    *
+    * @param image  The image.
+    *
+    * @param cells  The regions of the image holding the tubes.
+    *
+    * @return the new image, or {@code null} if none of the cells are inside the image.
+    */
+   public PreprocessedImage preprocess(MappedImage image, CellGrid cells) {
+      return preprocess(new MappedRows(image), bounds(cells));
+   }
+
+   /**
+    * Same as {@link #preprocess(MappedImage, CellGrid)} with the cells held in {@link
+    * CellRectangle} objects.
+    *
+    * @param image  The image.
+    *
+    * @param wells  The regions of the image holding the tubes.
+    *
+    * @return the new image, or {@code null} if none of the cells are inside the image.
+    */
+   public PreprocessedImage preprocess(MappedImage image, CellRectangle[] wells) {
+      return preprocess(new MappedRows(image), bounds(wells));
+   }
+
+   /**
+    * Preprocesses an image file.
+    *
+    * <p>Bitmaps are memory mapped, see {@link MappedImage}, so that they are never loaded on the
+    * heap. Other formats are read with {@link ImageIO} and only the pixels inside the crop are
+    * converted.
+    *
+    * @param file  The image file.
+    *
+    * @param cells  The regions of the image holding the tubes.
+    *
+    * @return the new image, or {@code null} if none of the cells are inside the image.
+    *
+    * @throws IOException if the file could not be read or is not an image.
+    */
+   public PreprocessedImage preprocess(File file, CellGrid cells) throws IOException {
+      return preprocess(file, bounds(cells));
+   }
+
+   /**
+    * Same as {@link #preprocess(File, CellGrid)} with the cells held in {@link CellRectangle}
+    * objects.
+    *
+    * @param file  The image file.
+    *
+    * @param wells  The regions of the image holding the tubes.
+    *
+    * @return the new image, or {@code null} if none of the cells are inside the image.
+    *
+    * @throws IOException if the file could not be read or is not an image.
+    */
+   public PreprocessedImage preprocess(File file, CellRectangle[] wells) throws IOException {
+      return preprocess(file, bounds(wells));
+   }
+
+   private PreprocessedImage preprocess(File file, Bounds bounds) throws IOException {
+      if (MappedImage.isBitmap(file)) {
+         try (MappedImage image = MappedImage.open(file)) {
+            return preprocess(new MappedRows(image), bounds);
+         }
+      }
+
+      BufferedImage image = ImageIO.read(file);
+      if (image == null) {
+         throw new IOException("not a supported image format: " + file);
+      }
+      return preprocess(new BufferedImageRows(image), bounds);
+   }
+
+   private static Bounds bounds(CellGrid cells) {
+      Bounds bounds = new Bounds();
+      cells.forEach((cell, index, x, y, width, height) -> bounds.add(x, y, width, height));
+      return bounds;
+   }
+
+   private static Bounds bounds(CellRectangle[] wells) {
+      Bounds bounds = new Bounds();
+      for (CellRectangle well : wells) {
+         bounds.add(well.getX(), well.getY(), well.getWidth(), well.getHeight());
+      }
+      return bounds;
+   }
+
+   private PreprocessedImage preprocess(SourceRows source, Bounds bounds) {
+      if (bounds.cells == 0) {
+         return null;
+      }
+
+      double cellSize = Math.min(bounds.totalCellWidth, bounds.totalCellHeight) / bounds.cells;
+      int pad = (int) Math.ceil(cellSize * margin);
+      int left = Math.max(0, (int) Math.floor(bounds.minX) - pad);
+      int top = Math.max(0, (int) Math.floor(bounds.minY) - pad);
+      int right = Math.min(source.width, (int) Math.ceil(bounds.maxX) + pad);
+      int bottom = Math.min(source.height, (int) Math.ceil(bounds.maxY) + pad);
+
+      int scale = 1;
+      if (targetCellSize > 0) {
+         scale = Math.max(1, (int) (Math.min(bounds.minCellWidth, bounds.minCellHeight)
+                                    / targetCellSize));
+      }
+      int width = (right - left) / scale;
+      int height = (bottom - top) / scale;
+      if ((width <= 0) || (height <= 0)) {
+         return null;
+      }
+
+      ImageBuffer reduced = source.unchanged(left, top, width, height, scale);
+      if (reduced == null) {
+         ByteBuffer pixels = ByteBuffer.allocateDirect(width * height);
+         pool.invoke(new RowsTask(source, pixels, left, top, width, scale, 0, height));
+         reduced = new ImageBuffer(pixels, width, height, width, ImageBuffer.Format.GRAY);
+      }
+      return new PreprocessedImage(reduced, left, top, scale, source.bytes);
+   }
+
+   // the bounding box of the cells and the size of the smallest cell
+   private static final class Bounds {
+      private double minX = Double.MAX_VALUE;
+      private double minY = Double.MAX_VALUE;
+      private double maxX = -Double.MAX_VALUE;
+      private double maxY = -Double.MAX_VALUE;
+      private double minCellWidth = Double.MAX_VALUE;
+      private double minCellHeight = Double.MAX_VALUE;
+      private double totalCellWidth;
+      private double totalCellHeight;
+      private int cells;
+
+      private void add(double x, double y, double width, double height) {
+         minX = Math.min(minX, x);
+         minY = Math.min(minY, y);
+         maxX = Math.max(maxX, x + width);
+         maxY = Math.max(maxY, y + height);
+         minCellWidth = Math.min(minCellWidth, width);
+         minCellHeight = Math.min(minCellHeight, height);
+         totalCellWidth += width;
+         totalCellHeight += height;
+         ++cells;
+      }
+   }
+
+   // computes the output rows [first, last), splitting the range while it is large
+   private static final class RowsTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private final SourceRows source;
+
+      private final ByteBuffer pixels;
+
+      private final int left;
+
+      private final int top;
+
+      private final int width;
+
+      private final int scale;
+
+      private final int first;
+
+      private final int last;
+
+      private RowsTask(SourceRows source,
+                       ByteBuffer pixels,
+                       int        left,
+                       int        top,
+                       int        width,
+                       int        scale,
+                       int        first,
+                       int        last) {
+         this.source = source;
+         this.pixels = pixels;
+         this.left = left;
+         this.top = top;
+         this.width = width;
+         this.scale = scale;
+         this.first = first;
+         this.last = last;
+      }
+
+      @Override
+      protected void compute() {
+         if (last - first > ROWS_PER_TASK) {
+            int middle = (first + last) >>> 1;
+            invokeAll(new RowsTask(source, pixels, left, top, width, scale, first, middle),
+                      new RowsTask(source, pixels, left, top, width, scale, middle, last));
+            return;
+         }
+
+         int sourceWidth = width * scale;
+         int area = scale * scale;
+         int [] gray = new int[sourceWidth];
+         int [] sums = new int[width];
+         byte [] row = new byte[width];
+         ByteBuffer dst = pixels.duplicate();
+
+         for (int y = first; y < last; ++y) {
+            if (scale == 1) {
+               source.read(left, top + y, sourceWidth, gray);
+               for (int x = 0; x < width; ++x) {
+                  row[x] = (byte) gray[x];
+               }
+            } else {
+               Arrays.fill(sums, 0);
+               for (int dy = 0; dy < scale; ++dy) {
+                  source.read(left, top + y * scale + dy, sourceWidth, gray);
+                  for (int x = 0, i = 0; x < width; ++x) {
+                     int sum = 0;
+                     for (int dx = 0; dx < scale; ++dx, ++i) {
+                        sum += gray[i];
+                     }
+                     sums[x] += sum;
+                  }
+               }
+               for (int x = 0; x < width; ++x) {
+                  row[x] = (byte) ((sums[x] + area / 2) / area);
+               }
+            }
+            dst.position(y * width);
+            dst.put(row);
+         }
+      }
+   }
+
+   // reads the luminance of the pixels of a row, from any thread
+   private abstract static class SourceRows {
+
+      protected final int width;
+
+      protected final int height;
+
+      // the size of the source image in memory, for the metrics
+      protected final long bytes;
+
+      protected SourceRows(int width, int height, long bytes) {
+         this.width = width;
+         this.height = height;
+         this.bytes = bytes;
+      }
+
+      // returns the source when it does not need to be converted, cropped or downsampled
+      protected ImageBuffer unchanged(int left, int top, int width, int height, int scale) {
+         return null;
+      }
+
+      protected abstract void read(int x, int y, int count, int [] gray);
+   }
+
+   private static final class BufferRows extends SourceRows {
+
+      private final ImageBuffer image;
+
+      private BufferRows(ImageBuffer image) {
+         super(image.getWidth(), image.getHeight(), (long) image.getStride() * image.getHeight());
+         this.image = image;
+      }
+
+      @Override
+      protected ImageBuffer unchanged(int left, int top, int width, int height, int scale) {
+         if ((image.getFormat() == ImageBuffer.Format.GRAY) && (left == 0) && (top == 0)
+             && (width == this.width) && (height == this.height) && (scale == 1)) {
+            return image;
+         }
+         return null;
+      }
+
+      @Override
+      protected void read(int x, int y, int count, int [] gray) {
+         ByteBuffer src = image.getPixels().duplicate();
+         int bytesPerPixel = image.getFormat().getBytesPerPixel();
+         src.position(y * image.getStride() + x * bytesPerPixel);
+
+         if (image.getFormat() == ImageBuffer.Format.GRAY) {
+            for (int i = 0; i < count; ++i) {
+               gray[i] = src.get() & 0xff;
+            }
+            return;
+         }
+
+         for (int i = 0; i < count; ++i) {
+            int b = src.get() & 0xff;
+            int g = src.get() & 0xff;
+            int r = src.get() & 0xff;
+            src.get();
+            // same weights as LuminanceImage
+            gray[i] = (r * 77 + g * 150 + b * 29) >> 8;
+         }
+      }
+   }
+
+   private static final class BufferedImageRows extends SourceRows {
+
+      private final BufferedImage image;
+
+      private final boolean isGray;
+
+      private BufferedImageRows(BufferedImage image) {
+         super(image.getWidth(), image.getHeight(), 4L * image.getWidth() * image.getHeight());
+         this.image = image;
+         this.isGray = (image.getType() == BufferedImage.TYPE_BYTE_GRAY);
+      }
+
+      @Override
+      protected void read(int x, int y, int count, int [] gray) {
+         if (isGray) {
+            Raster raster = image.getRaster();
+            raster.getSamples(x, y, count, 1, 0, gray);
+            return;
+         }
+
+         image.getRGB(x, y, count, 1, gray, 0, count);
+         for (int i = 0; i < count; ++i) {
+            int rgb = gray[i];
+            int r = (rgb >> 16) & 0xff;
+            int g = (rgb >> 8) & 0xff;
+            int b = rgb & 0xff;
+            gray[i] = (r * 77 + g * 150 + b * 29) >> 8;
+         }
+      }
+   }
+
+   private static final class MappedRows extends SourceRows {
+
+      private final MappedImage image;
+
+      private MappedRows(MappedImage image) {
+         super(image.getWidth(), image.getHeight(), image.getSizeInBytes());
+         this.image = image;
+      }
+
+      @Override
+      protected void read(int x, int y, int count, int [] gray) {
+         image.getRow(x, y, count, gray);
+      }
+   }
+
+}
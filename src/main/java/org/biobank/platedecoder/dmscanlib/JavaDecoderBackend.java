@@ -0,0 +1,298 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_FAIL;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_IMAGE;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_NOTHING_DECODED;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_NOTHING_TO_DECODE;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Function;
+import org.biobank.platedecoder.dmscanlib.datamatrix.DataMatrixReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes images using the DataMatrix decoder written in Java.
+ *
+ * <p>This backend does not require the native scanning library and can be used on any platform.
+ * It is thread safe.
+ *
+ */
+public class JavaDecoderBackend implements DecoderBackend {
+
+   private static final Logger LOG = LoggerFactory.getLogger(JavaDecoderBackend.class);
+
+   public static JavaDecoderBackend getInstance() {
+      return JavaDecoderBackendHolder.INSTANCE;
+   }
+
+   private static class JavaDecoderBackendHolder {
+      private static final JavaDecoderBackend INSTANCE = new JavaDecoderBackend();
+   }
+
+   private JavaDecoderBackend() {}
+
+   @Override
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      if ((filename == null) || (decodeOptions == null) || (wells == null)) {
+         return new DecodeResult(SC_FAIL, SC_FAIL, "");
+      }
+
+      if (!validWells(wells)) {
+         return new DecodeResult(SC_INVALID_NOTHING_TO_DECODE, SC_INVALID_NOTHING_TO_DECODE, "");
+      }
+
+      LuminanceImage image;
+      try {
+         image = LuminanceImage.read(new File(filename));
+      } catch (IOException e) {
+         if (verbose > 0) {
+            LOG.error("could not read image {}: {}", filename, e.getMessage());
+         }
+         return new DecodeResult(SC_INVALID_IMAGE, SC_INVALID_IMAGE, "");
+      }
+
+      return decodeImage(verbose, image, decodeOptions, wells);
+   }
+
+   @Override
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells) {
+      if ((image == null) || (decodeOptions == null) || (wells == null)) {
+         return new DecodeResult(SC_FAIL, SC_FAIL, "");
+      }
+
+      if (!validWells(wells)) {
+         return new DecodeResult(SC_INVALID_NOTHING_TO_DECODE, SC_INVALID_NOTHING_TO_DECODE, "");
+      }
+
+      return decodeImage(verbose, LuminanceImage.fromImageBuffer(image), decodeOptions, wells);
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>The cells are decoded directly from the grid.
+    */
+   @Override
+   public DecodeResult decodeImage(long          verbose,
+                                   String        filename,
+                                   DecodeOptions decodeOptions,
+                                   CellGrid      cells) {
+      if ((filename == null) || (decodeOptions == null) || (cells == null)) {
+         return new DecodeResult(SC_FAIL, SC_FAIL, "");
+      }
+
+      if (cells.size() == 0) {
+         return new DecodeResult(SC_INVALID_NOTHING_TO_DECODE, SC_INVALID_NOTHING_TO_DECODE, "");
+      }
+
+      LuminanceImage image;
+      try {
+         image = LuminanceImage.read(new File(filename));
+      } catch (IOException e) {
+         if (verbose > 0) {
+            LOG.error("could not read image {}: {}", filename, e.getMessage());
+         }
+         return new DecodeResult(SC_INVALID_IMAGE, SC_INVALID_IMAGE, "");
+      }
+
+      return decodeImage(verbose, image, decodeOptions, cells);
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>The cells are decoded directly from the grid.
+    */
+   @Override
+   public DecodeResult decodeImageBuffer(long          verbose,
+                                         ImageBuffer   image,
+                                         DecodeOptions decodeOptions,
+                                         CellGrid      cells) {
+      if ((image == null) || (decodeOptions == null) || (cells == null)) {
+         return new DecodeResult(SC_FAIL, SC_FAIL, "");
+      }
+
+      if (cells.size() == 0) {
+         return new DecodeResult(SC_INVALID_NOTHING_TO_DECODE, SC_INVALID_NOTHING_TO_DECODE, "");
+      }
+
+      return decodeImage(verbose, LuminanceImage.fromImageBuffer(image), decodeOptions, cells);
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>The image is read once, and each subset of the wells is decoded from the loaded image.
+    */
+   @Override
+   public Function<CellRectangle[], DecodeResult> prepareImage(long          verbose,
+                                                               String        filename,
+                                                               DecodeOptions decodeOptions) {
+      LuminanceImage image;
+      try {
+         image = LuminanceImage.read(new File(filename));
+      } catch (IOException e) {
+         if (verbose > 0) {
+            LOG.error("could not read image {}: {}", filename, e.getMessage());
+         }
+         return wells -> new DecodeResult(SC_INVALID_IMAGE, SC_INVALID_IMAGE, "");
+      }
+      return wells -> decodeImage(verbose, image, decodeOptions, wells);
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>The image is converted once, and each subset of the wells is decoded from the converted
+    * image.
+    */
+   @Override
+   public Function<CellRectangle[], DecodeResult> prepareImageBuffer(long          verbose,
+                                                                     ImageBuffer   image,
+                                                                     DecodeOptions decodeOptions) {
+      LuminanceImage luminance = LuminanceImage.fromImageBuffer(image);
+      return wells -> decodeImage(verbose, luminance, decodeOptions, wells);
+   }
+
+   /**
+    * Decodes the regions of an image that has already been loaded.
+    *
+    * @param verbose  The amount of debug logging information to generate. Using a value of 0 does
+    *                 not generate any logging information.
+    *
+    * @param image  The image containing the 2D barcodes.
+    *
+    * @param decodeOptions See the {@link DecodeOptions} for a description of these settings.
+    *
+    * @param wells An array of {@link CellRectangle} objects defining the the regions of the image
+    *              containing 2D barcode tubes.
+    *
+    * @return The results of the decode in a {@link DecodeResult} object.
+    */
+   public DecodeResult decodeImage(long            verbose,
+                                   LuminanceImage  image,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      DataMatrixReader reader = new DataMatrixReader(decodeOptions);
+      DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+      int decoded = 0;
+
+      for (CellRectangle well : wells) {
+         if (Thread.currentThread().isInterrupted()) {
+            // the caller no longer wants the result, see RetryLadderDecoderBackend
+            break;
+         }
+
+         if (decodeCell(verbose,
+                        reader,
+                        image,
+                        well.getLabel(),
+                        well.getX(),
+                        well.getY(),
+                        well.getWidth(),
+                        well.getHeight(),
+                        result)) {
+            ++decoded;
+         }
+      }
+
+      if (decoded == 0) {
+         return new DecodeResult(SC_INVALID_NOTHING_DECODED, SC_INVALID_NOTHING_DECODED, "");
+      }
+      return result;
+   }
+
+   /**
+    * Decodes the cells of an image that has already been loaded.
+    *
+    * @param verbose  The amount of debug logging information to generate. Using a value of 0 does
+    *                 not generate any logging information.
+    *
+    * @param image  The image containing the 2D barcodes.
+    *
+    * @param decodeOptions See the {@link DecodeOptions} for a description of these settings.
+    *
+    * @param cells The regions of the image containing 2D barcode tubes.
+    *
+    * @return The results of the decode in a {@link DecodeResult} object.
+    */
+   public DecodeResult decodeImage(long           verbose,
+                                   LuminanceImage image,
+                                   DecodeOptions  decodeOptions,
+                                   CellGrid       cells) {
+      DataMatrixReader reader = new DataMatrixReader(decodeOptions);
+      DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+      int decoded = 0;
+
+      for (int i = 0, n = cells.size(); i < n; ++i) {
+         if (Thread.currentThread().isInterrupted()) {
+            break;
+         }
+
+         if (decodeCell(verbose,
+                        reader,
+                        image,
+                        cells.getLabel(i),
+                        cells.getX(i),
+                        cells.getY(i),
+                        cells.getWidth(i),
+                        cells.getHeight(i),
+                        result)) {
+            ++decoded;
+         }
+      }
+
+      if (decoded == 0) {
+         return new DecodeResult(SC_INVALID_NOTHING_DECODED, SC_INVALID_NOTHING_DECODED, "");
+      }
+      return result;
+   }
+
+   @Override
+   public boolean isThreadSafe() {
+      return true;
+   }
+
+   // adds the message to the result when the cell is decoded
+   private static boolean decodeCell(long             verbose,
+                                     DataMatrixReader reader,
+                                     LuminanceImage   image,
+                                     String           label,
+                                     double           x,
+                                     double           y,
+                                     double           width,
+                                     double           height,
+                                     DecodeResult     result) {
+      String message = reader.decode(image, x, y, width, height);
+      if (verbose > 4) {
+         LOG.debug("decodeImage: well {}: {}", label, message);
+      }
+      if (message == null) {
+         return false;
+      }
+      result.addWell(label, message);
+      return true;
+   }
+
+   private static boolean validWells(CellRectangle[] wells) {
+      if (wells.length == 0) {
+         return false;
+      }
+      for (CellRectangle well : wells) {
+         if (well == null) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+}
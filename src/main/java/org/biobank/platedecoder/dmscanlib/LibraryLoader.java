@@ -1,5 +1,6 @@
 package org.biobank.platedecoder.dmscanlib;
 
+import java.io.File;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -14,6 +15,10 @@ public class LibraryLoader {
 
    private static final boolean IS_ARCH_64_BIT = System.getProperty("os.arch").equals("amd64");
 
+   // null if there is no native library for this platform
+   private static final String LIBRARY_NAME =
+      IS_MS_WINDOWS ? "dmscanlib" : ((IS_LINUX && IS_ARCH_64_BIT) ? "dmscanlib64" : null);
+
    /**
     * Loads the native library for scanning and decoding.
     */
@@ -21,10 +26,8 @@ public class LibraryLoader {
       //LOG.debug("java.library.path: {}", System.getProperty("java.library.path"));
 
       try {
-         if (IS_MS_WINDOWS) {
-            System.loadLibrary("dmscanlib");
-         } else if (IS_LINUX && IS_ARCH_64_BIT) {
-            System.loadLibrary("dmscanlib64");
+         if (LIBRARY_NAME != null) {
+            System.loadLibrary(LIBRARY_NAME);
          }
       } catch (UnsatisfiedLinkError e) {
          System.err.println("Could not load native code library.\n" + e);
@@ -32,6 +35,25 @@ public class LibraryLoader {
       }
    }
 
+   /**
+    * Finds the file of the native library in the library path, the same way {@link #load} does.
+    *
+    * @return the file, or {@code null} if there is none.
+    */
+   public static File findLibrary() {
+      if (LIBRARY_NAME == null) {
+         return null;
+      }
+      String fileName = System.mapLibraryName(LIBRARY_NAME);
+      for (String dir : System.getProperty("java.library.path", "").split(File.pathSeparator)) {
+         File file = new File(dir, fileName);
+         if (!dir.isEmpty() && file.isFile()) {
+            return file;
+         }
+      }
+      return null;
+   }
+
    /**
     * Returns true if running on MS Windows.
     *
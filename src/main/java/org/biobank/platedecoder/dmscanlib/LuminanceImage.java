@@ -0,0 +1,184 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.imageio.ImageIO;
+
+/**
+ * An 8 bit grayscale image used by the Java decoder.
+ *
+ * <p>The pixels are stored one byte per pixel, row by row, with no padding between rows. A value
+ * of 0 is black and 255 is white.
+ */
+public final class LuminanceImage {
+
+   private final int width;
+
+   private final int height;
+
+   private final byte [] pixels;
+
+   /**
+    * Wraps existing pixel data.
+    *
+    * @param width  The width of the image in pixels.
+    *
+    * @param height  The height of the image in pixels.
+    *
+    * @param pixels  The pixel data, {@code width * height} bytes. The array is not copied.
+    */
+   public LuminanceImage(int width, int height, byte [] pixels) {
+      if ((width <= 0) || (height <= 0)) {
+         throw new IllegalArgumentException("invalid dimensions: " + width + "x" + height);
+      }
+      if (pixels.length < width * height) {
+         throw new IllegalArgumentException("pixel data is too small for image dimensions");
+      }
+      this.width = width;
+      this.height = height;
+      this.pixels = pixels;
+   }
+
+   public int getWidth() {
+      return width;
+   }
+
+   public int getHeight() {
+      return height;
+   }
+
+   /**
+    * Returns the pixel data. The array is shared, not copied, and must not be modified.
+    *
+    * @return the pixels, one byte per pixel, row by row.
+    */
+   public byte [] getPixels() {
+      return pixels;
+   }
+
+   /**
+    * @param x  The column of the pixel.
+    *
+    * @param y  The row of the pixel.
+    *
+    * @return the luminance of the pixel, between 0 and 255.
+    */
+   public int get(int x, int y) {
+      return pixels[y * width + x] & 0xff;
+   }
+
+   /**
+    * Converts an AWT image to grayscale.
+    *
+    * @param image  The image to convert.
+    *
+    * @return the grayscale image.
+    */
+   public static LuminanceImage fromBufferedImage(BufferedImage image) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      byte [] pixels = new byte[width * height];
+
+      if ((image.getType() == BufferedImage.TYPE_BYTE_GRAY)
+          && (image.getRaster().getDataBuffer() instanceof DataBufferByte)
+          && (image.getRaster().getParent() == null)) {
+         byte [] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+         System.arraycopy(data, 0, pixels, 0, pixels.length);
+      } else {
+         int [] row = new int[width];
+         for (int y = 0; y < height; ++y) {
+            image.getRGB(0, y, width, 1, row, 0, width);
+            int offset = y * width;
+            for (int x = 0; x < width; ++x) {
+               int rgb = row[x];
+               int r = (rgb >> 16) & 0xff;
+               int g = (rgb >> 8) & 0xff;
+               int b = rgb & 0xff;
+               // ITU-R BT.601 weights, scaled by 256
+               pixels[offset + x] = (byte) ((r * 77 + g * 150 + b * 29) >> 8);
+            }
+         }
+      }
+      return new LuminanceImage(width, height, pixels);
+   }
+
+   /**
+    * Copies the pixels into a buffer that can be passed to {@link
+    * DecoderBackend#decodeImageBuffer(long, ImageBuffer, DecodeOptions, CellRectangle[])
+    * decodeImageBuffer}.
+    *
+    * @return the buffer holding the pixels in {@link ImageBuffer.Format#GRAY GRAY} format.
+    */
+   public ImageBuffer toImageBuffer() {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(width * height);
+      buffer.put(pixels, 0, width * height);
+      buffer.rewind();
+      return new ImageBuffer(buffer, width, height, width, ImageBuffer.Format.GRAY);
+   }
+
+   /**
+    * Converts pixel data held in memory to grayscale.
+    *
+    * @param image  The pixel data to convert.
+    *
+    * @return the grayscale image.
+    */
+   public static LuminanceImage fromImageBuffer(ImageBuffer image) {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int stride = image.getStride();
+      ByteBuffer buffer = image.getPixels();
+      byte [] pixels = new byte[width * height];
+
+      switch (image.getFormat()) {
+      case GRAY:
+         for (int y = 0; y < height; ++y) {
+            ByteBuffer src = buffer.duplicate();
+            src.position(y * stride);
+            src.get(pixels, y * width, width);
+         }
+         break;
+
+      case BGRA:
+         byte [] row = new byte[width * 4];
+         for (int y = 0; y < height; ++y) {
+            ByteBuffer src = buffer.duplicate();
+            src.position(y * stride);
+            src.get(row);
+            int offset = y * width;
+            for (int x = 0, i = 0; x < width; ++x, i += 4) {
+               int b = row[i] & 0xff;
+               int g = row[i + 1] & 0xff;
+               int r = row[i + 2] & 0xff;
+               pixels[offset + x] = (byte) ((r * 77 + g * 150 + b * 29) >> 8);
+            }
+         }
+         break;
+
+      default:
+         throw new IllegalArgumentException("invalid image format: " + image.getFormat());
+      }
+      return new LuminanceImage(width, height, pixels);
+   }
+
+   /**
+    * Reads an image file and converts it to grayscale.
+    *
+    * @param file  The image file. Any format supported by {@link ImageIO} can be used.
+    *
+    * @return the grayscale image.
+    *
+    * @throws IOException if the file could not be read or is not an image.
+    */
+   public static LuminanceImage read(File file) throws IOException {
+      BufferedImage image = ImageIO.read(file);
+      if (image == null) {
+         throw new IOException("not a supported image format: " + file);
+      }
+      return fromBufferedImage(image);
+   }
+
+}
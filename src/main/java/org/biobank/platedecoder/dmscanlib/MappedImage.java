@@ -0,0 +1,331 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An uncompressed image file read through a memory mapping instead of being loaded on the heap.
+ *
+ * <p>Windows bitmaps with 8 bit palette, 24 bit or 32 bit pixels, and raw rasters in one of the
+ * {@link ImageBuffer.Format formats}, are supported. The pixels are only read from the file, by
+ * the operating system, when they are accessed. The luminance of a pixel, of part of a row, or of
+ * a tile of the image can be read, so that an image larger than the heap can be processed one
+ * tile at a time.
+ *
+ * <p>The pixels can be read concurrently from several threads. Closing the image releases the
+ * file. The mapping itself is released when the object is garbage collected.
+ */
+public final class MappedImage implements Closeable {
+
+   private static final int BMP_FILE_HEADER_SIZE = 14;
+
+   private static final int BMP_INFO_HEADER_SIZE = 40;
+
+   private static final int BI_RGB = 0;
+
+   private static final int BI_BITFIELDS = 3;
+
+   private final FileChannel channel;
+
+   private final MappedByteBuffer pixels;
+
+   private final int width;
+
+   private final int height;
+
+   private final int stride;
+
+   private final int bytesPerPixel;
+
+   // bitmaps are usually stored with the bottom row first
+   private final boolean bottomUp;
+
+   // the luminance of each palette entry, or null if the pixels are not indexed
+   private final int [] palette;
+
+   private MappedImage(FileChannel channel,
+                       long        offset,
+                       int         width,
+                       int         height,
+                       int         stride,
+                       int         bytesPerPixel,
+                       boolean     bottomUp,
+                       int []      palette) throws IOException {
+      long size = (long) stride * height;
+      if (size > Integer.MAX_VALUE) {
+         throw new IOException("image is too large to be mapped: " + width + "x" + height);
+      }
+      if (offset + size > channel.size()) {
+         throw new IOException("file is too small for image dimensions: " + width + "x" + height);
+      }
+      this.channel = channel;
+      this.pixels = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+      this.width = width;
+      this.height = height;
+      this.stride = stride;
+      this.bytesPerPixel = bytesPerPixel;
+      this.bottomUp = bottomUp;
+      this.palette = palette;
+   }
+
+   /**
+    * Returns {@code true} if the file starts with the signature of a Windows bitmap.
+    *
+    * @param file  The image file.
+    *
+    * @return {@code true} if the file can be opened with {@link #open}.
+    */
+   public static boolean isBitmap(File file) {
+      if (!file.isFile()) {
+         return false;
+      }
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         ByteBuffer signature = ByteBuffer.allocate(2);
+         channel.read(signature, 0);
+         return (signature.get(0) == 'B') && (signature.get(1) == 'M');
+      } catch (IOException e) {
+         return false;
+      }
+   }
+
+   /**
+    * Maps a Windows bitmap.
+    *
+    * @param file  The bitmap file.
+    *
+    * @return the image. It must be closed once it is no longer used.
+    *
+    * @throws IOException if the file could not be read, or is not an uncompressed bitmap.
+    */
+   public static MappedImage open(File file) throws IOException {
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+         return openBitmap(channel, file);
+      } catch (IOException | RuntimeException e) {
+         channel.close();
+         throw e;
+      }
+   }
+
+   /**
+    * Maps a raw raster: the rows of pixels one after the other, with no header and no padding.
+    *
+    * @param file  The raster file.
+    *
+    * @param width  The width of the image in pixels.
+    *
+    * @param height  The height of the image in pixels.
+    *
+    * @param format  The layout of each pixel.
+    *
+    * @return the image. It must be closed once it is no longer used.
+    *
+    * @throws IOException if the file could not be read or is too small.
+    */
+   public static MappedImage openRaw(File               file,
+                                     int                width,
+                                     int                height,
+                                     ImageBuffer.Format format) throws IOException {
+      if ((width <= 0) || (height <= 0)) {
+         throw new IllegalArgumentException("invalid dimensions: " + width + "x" + height);
+      }
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+      try {
+         int bytesPerPixel = format.getBytesPerPixel();
+         return new MappedImage(channel,
+                                0,
+                                width,
+                                height,
+                                width * bytesPerPixel,
+                                bytesPerPixel,
+                                false,
+                                null);
+      } catch (IOException | RuntimeException e) {
+         channel.close();
+         throw e;
+      }
+   }
+
+   private static MappedImage openBitmap(FileChannel channel, File file) throws IOException {
+      ByteBuffer header = ByteBuffer.allocate(BMP_FILE_HEADER_SIZE + BMP_INFO_HEADER_SIZE + 12)
+         .order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(header, 0);
+      if ((header.position() < BMP_FILE_HEADER_SIZE + BMP_INFO_HEADER_SIZE)
+          || (header.get(0) != 'B') || (header.get(1) != 'M')) {
+         throw new IOException("not a bitmap: " + file);
+      }
+
+      long pixelOffset = header.getInt(10) & 0xffffffffL;
+      int infoSize = header.getInt(14);
+      int width = header.getInt(18);
+      int height = header.getInt(22);
+      int bitsPerPixel = header.getShort(28);
+      int compression = header.getInt(30);
+      int colorsUsed = header.getInt(46);
+
+      if ((infoSize < BMP_INFO_HEADER_SIZE) || (width <= 0) || (height == 0)) {
+         throw new IOException("invalid bitmap header: " + file);
+      }
+      if ((bitsPerPixel != 8) && (bitsPerPixel != 24) && (bitsPerPixel != 32)) {
+         throw new IOException("unsupported bitmap depth: " + bitsPerPixel + " bits: " + file);
+      }
+      if (compression == BI_BITFIELDS) {
+         // only the usual layout of 32 bit pixels, where the masks are the same as BI_RGB
+         int masks = BMP_FILE_HEADER_SIZE + BMP_INFO_HEADER_SIZE;
+         if ((bitsPerPixel != 32) || (header.getInt(masks) != 0x00ff0000)
+             || (header.getInt(masks + 4) != 0x0000ff00) || (header.getInt(masks + 8) != 0xff)) {
+            throw new IOException("unsupported bitmap pixel layout: " + file);
+         }
+      } else if (compression != BI_RGB) {
+         throw new IOException("compressed bitmaps are not supported: " + file);
+      }
+
+      int [] palette = null;
+      if (bitsPerPixel == 8) {
+         int entries = (colorsUsed > 0) ? Math.min(colorsUsed, 256) : 256;
+         ByteBuffer colors = ByteBuffer.allocate(entries * 4);
+         channel.read(colors, BMP_FILE_HEADER_SIZE + infoSize);
+         // pixels outside the palette are black
+         palette = new int[256];
+         for (int i = 0; i < entries; ++i) {
+            int b = colors.get(i * 4) & 0xff;
+            int g = colors.get(i * 4 + 1) & 0xff;
+            int r = colors.get(i * 4 + 2) & 0xff;
+            palette[i] = luminance(r, g, b);
+         }
+      }
+
+      // each row is padded to a multiple of 4 bytes
+      int stride = (int) ((((long) bitsPerPixel * width + 31) / 32) * 4);
+      return new MappedImage(channel,
+                             pixelOffset,
+                             width,
+                             Math.abs(height),
+                             stride,
+                             bitsPerPixel / 8,
+                             height > 0,
+                             palette);
+   }
+
+   private static int luminance(int r, int g, int b) {
+      // same weights as LuminanceImage
+      return (r * 77 + g * 150 + b * 29) >> 8;
+   }
+
+   public int getWidth() {
+      return width;
+   }
+
+   public int getHeight() {
+      return height;
+   }
+
+   /**
+    * @return the number of bytes of the file holding the pixels.
+    */
+   public long getSizeInBytes() {
+      return (long) stride * height;
+   }
+
+   private int offset(int x, int y) {
+      int row = bottomUp ? height - 1 - y : y;
+      return row * stride + x * bytesPerPixel;
+   }
+
+   private int luminanceAt(int offset) {
+      if (bytesPerPixel == 1) {
+         int value = pixels.get(offset) & 0xff;
+         return (palette == null) ? value : palette[value];
+      }
+      return luminance(pixels.get(offset + 2) & 0xff,
+                       pixels.get(offset + 1) & 0xff,
+                       pixels.get(offset) & 0xff);
+   }
+
+   /**
+    * @param x  The column of the pixel.
+    *
+    * @param y  The row of the pixel, 0 is the top row.
+    *
+    * @return the luminance of the pixel, between 0 and 255.
+    */
+   public int get(int x, int y) {
+      return luminanceAt(offset(x, y));
+   }
+
+   /**
+    * Reads the luminance of consecutive pixels of a row.
+    *
+    * @param x  The column of the first pixel.
+    *
+    * @param y  The row, 0 is the top row.
+    *
+    * @param count  The number of pixels.
+    *
+    * @param gray  Receives the luminance of the pixels, between 0 and 255.
+    */
+   public void getRow(int x, int y, int count, int [] gray) {
+      if ((x < 0) || (y < 0) || (count < 0) || (x + count > width) || (y >= height)) {
+         throw new IllegalArgumentException("invalid row: " + x + "," + y + " +" + count);
+      }
+      int offset = offset(x, y);
+      for (int i = 0; i < count; ++i, offset += bytesPerPixel) {
+         gray[i] = luminanceAt(offset);
+      }
+   }
+
+   /**
+    * Copies part of the image into a buffer. Only the memory for the tile is allocated, and it is
+    * not on the heap.
+    *
+    * @param x  The column of the left edge of the tile.
+    *
+    * @param y  The row of the top edge of the tile.
+    *
+    * @param tileWidth  The width of the tile in pixels.
+    *
+    * @param tileHeight  The height of the tile in pixels.
+    *
+    * @return the tile in {@link ImageBuffer.Format#GRAY GRAY} format.
+    */
+   public ImageBuffer getTile(int x, int y, int tileWidth, int tileHeight) {
+      if ((x < 0) || (y < 0) || (tileWidth <= 0) || (tileHeight <= 0)
+          || (x + tileWidth > width) || (y + tileHeight > height)) {
+         throw new IllegalArgumentException("invalid tile: " + x + "," + y + " "
+                                            + tileWidth + "x" + tileHeight);
+      }
+      ByteBuffer tile = ByteBuffer.allocateDirect(tileWidth * tileHeight);
+      int [] gray = new int[tileWidth];
+      for (int row = 0; row < tileHeight; ++row) {
+         getRow(x, y + row, tileWidth, gray);
+         for (int i = 0; i < tileWidth; ++i) {
+            tile.put((byte) gray[i]);
+         }
+      }
+      tile.rewind();
+      return new ImageBuffer(tile, tileWidth, tileHeight, tileWidth, ImageBuffer.Format.GRAY);
+   }
+
+   @Override
+   public void close() throws IOException {
+      channel.close();
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      buf.append("[ width: ").append(width);
+      buf.append(", height: ").append(height);
+      buf.append(", bytesPerPixel: ").append(bytesPerPixel);
+      buf.append(", bottomUp: ").append(bottomUp);
+      buf.append(" ]");
+      return buf.toString();
+   }
+
+}
@@ -0,0 +1,134 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_FAIL;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_IMAGE;
+
+import java.io.File;
+import java.io.IOException;
+import javax.imageio.ImageIO;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes images using the native scanning library.
+ *
+ * <p>The native library keeps global state while decoding, so calls must not be made
+ * concurrently.
+ *
+ */
+public class NativeDecoderBackend implements DecoderBackend {
+
+   private static final Logger LOG = LoggerFactory.getLogger(NativeDecoderBackend.class);
+
+   // only the calls into the native library, see ScanAndDecodeImageTask for the whole decode
+   private static final LatencyHistogram NATIVE_DECODE_TIME =
+      Metrics.getInstance().histogram("scanlib.decodeImage");
+
+   // set to false when the loaded native library is too old to decode images held in memory
+   private volatile boolean imageBufferSupported = true;
+
+   public static NativeDecoderBackend getInstance() {
+      return NativeDecoderBackendHolder.INSTANCE;
+   }
+
+   private static class NativeDecoderBackendHolder {
+      private static final NativeDecoderBackend INSTANCE = new NativeDecoderBackend();
+   }
+
+   private NativeDecoderBackend() {
+   }
+
+   @Override
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      long start = System.nanoTime();
+      DecodeResult result =
+         ScanLib.getInstance().decodeImage(verbose, filename, decodeOptions, wells);
+      NATIVE_DECODE_TIME.recordSince(start);
+      return result;
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>If the native library does not provide {@link ScanLib#decodeImageBuffer
+    * decodeImageBuffer}, the image is saved to a temporary file and decoded from there. See
+    * {@link #isImageBufferSupported}.
+    */
+   @Override
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells) {
+      if (image == null) {
+         return new DecodeResult(SC_FAIL, SC_FAIL, "");
+      }
+
+      if (imageBufferSupported) {
+         // native methods are bound on their first call, an older library fails to link here
+         // before any of its code runs
+         try {
+            long start = System.nanoTime();
+            DecodeResult result =
+               ScanLib.getInstance().decodeImageBuffer(verbose,
+                                                       image.getPixels(),
+                                                       image.getWidth(),
+                                                       image.getHeight(),
+                                                       image.getStride(),
+                                                       image.getFormat().getValue(),
+                                                       decodeOptions,
+                                                       wells);
+            NATIVE_DECODE_TIME.recordSince(start);
+            return result;
+         } catch (UnsatisfiedLinkError e) {
+            LOG.warn("native library cannot decode images in memory, using temporary files");
+            imageBufferSupported = false;
+         }
+      }
+      return decodeFromTemporaryFile(verbose, image, decodeOptions, wells);
+   }
+
+   @Override
+   public boolean isThreadSafe() {
+      return false;
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>The native library is assumed to provide {@link ScanLib#decodeImageBuffer
+    * decodeImageBuffer} until the first call to it fails to link. From then on this returns
+    * {@code false}.
+    */
+   @Override
+   public boolean isImageBufferSupported() {
+      return imageBufferSupported;
+   }
+
+   private DecodeResult decodeFromTemporaryFile(long            verbose,
+                                                ImageBuffer     image,
+                                                DecodeOptions   decodeOptions,
+                                                CellRectangle[] wells) {
+      File file = null;
+      try {
+         // BMP is used since it is not compressed and is the fastest to write and read back
+         file = File.createTempFile("platedecoder", ".bmp");
+         if (!ImageIO.write(image.toBufferedImage(), "bmp", file)) {
+            throw new IOException("no image writer for BMP format");
+         }
+         return decodeImage(verbose, file.getAbsolutePath(), decodeOptions, wells);
+      } catch (IOException e) {
+         LOG.error("could not save image to temporary file: {}", e.getMessage());
+         return new DecodeResult(SC_INVALID_IMAGE, SC_INVALID_IMAGE, "");
+      } finally {
+         if ((file != null) && !file.delete()) {
+            file.deleteOnExit();
+         }
+      }
+   }
+
+}
@@ -0,0 +1,208 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_FAIL;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_NOTHING_DECODED;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Function;
+
+/**
+ * Decodes the wells of an image concurrently.
+ *
+ * <p>The wells are partitioned into chunks that are decoded on a fork-join pool by the backend
+ * being wrapped, and the results for each chunk are merged into a single {@link DecodeResult}.
+ *
+ * <p>If the wrapped backend is not thread safe, the wells are decoded in a single call and calls
+ * made from different threads are serialised. The wrapper is then not thread safe either, so that
+ * callers do not make concurrent calls that would only wait for each other.
+ *
+ */
+public class ParallelDecoderBackend implements DecoderBackend {
+
+   // used to serialise calls to backends that are not thread safe
+   private static final Object LOCK = new Object();
+
+   // chunks are never split to hold less than this many wells
+   private static final int MIN_CHUNK_SIZE = 4;
+
+   // the number of chunks created for each worker thread, so that idle workers can steal work
+   // when some wells take longer to decode than others
+   private static final int CHUNKS_PER_WORKER = 4;
+
+   private final DecoderBackend backend;
+
+   private final ForkJoinPool pool;
+
+   /**
+    * Wraps a backend so that wells are decoded on the common fork-join pool.
+    *
+    * @param backend  The backend used to decode each chunk of wells.
+    */
+   public ParallelDecoderBackend(DecoderBackend backend) {
+      this(backend, ForkJoinPool.commonPool());
+   }
+
+   /**
+    * Wraps a backend so that wells are decoded on {@code pool}.
+    *
+    * @param backend  The backend used to decode each chunk of wells.
+    *
+    * @param pool  The pool the chunks are decoded on.
+    */
+   public ParallelDecoderBackend(DecoderBackend backend, ForkJoinPool pool) {
+      if ((backend == null) || (pool == null)) {
+         throw new IllegalArgumentException("backend and pool must not be null");
+      }
+      this.backend = backend;
+      this.pool = pool;
+   }
+
+   @Override
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      if (!backend.isThreadSafe()) {
+         synchronized (LOCK) {
+            return backend.decodeImage(verbose, filename, decodeOptions, wells);
+         }
+      }
+
+      if ((filename == null) || (decodeOptions == null) || (wells == null) || (wells.length == 0)) {
+         return backend.decodeImage(verbose, filename, decodeOptions, wells);
+      }
+
+      return decodeChunks(wells, backend.prepareImage(verbose, filename, decodeOptions));
+   }
+
+   @Override
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells) {
+      if (!backend.isThreadSafe()) {
+         synchronized (LOCK) {
+            return backend.decodeImageBuffer(verbose, image, decodeOptions, wells);
+         }
+      }
+
+      if ((image == null) || (decodeOptions == null) || (wells == null) || (wells.length == 0)) {
+         return backend.decodeImageBuffer(verbose, image, decodeOptions, wells);
+      }
+
+      return decodeChunks(wells, backend.prepareImageBuffer(verbose, image, decodeOptions));
+   }
+
+   /**
+    * Decodes {@code wells} in parallel using {@code chunkDecoder} to decode each chunk.
+    *
+    * @param wells  The wells to decode.
+    *
+    * @param chunkDecoder  Decodes a subset of the wells.
+    *
+    * @return The merged results of all the chunks.
+    */
+   private DecodeResult decodeChunks(CellRectangle[]                         wells,
+                                     Function<CellRectangle[], DecodeResult> chunkDecoder) {
+      int chunks = CHUNKS_PER_WORKER * pool.getParallelism();
+      int chunkSize = Math.max(MIN_CHUNK_SIZE, (wells.length + chunks - 1) / chunks);
+      return pool.invoke(new DecodeChunkTask(wells, 0, wells.length, chunkSize, chunkDecoder));
+   }
+
+   @Override
+   public boolean isThreadSafe() {
+      return backend.isThreadSafe();
+   }
+
+   @Override
+   public boolean isImageBufferSupported() {
+      return backend.isImageBufferSupported();
+   }
+
+   /**
+    * Merges the results of two chunks.
+    *
+    * <p>A chunk where nothing was decoded does not cause the merged result to fail. Any other
+    * failure is returned as is.
+    *
+    * @param first  The result for the first chunk.
+    *
+    * @param second  The result for the second chunk.
+    *
+    * @return The merged result.
+    */
+   static DecodeResult merge(DecodeResult first, DecodeResult second) {
+      if (isFailure(first)) {
+         return first;
+      }
+      if (isFailure(second)) {
+         return second;
+      }
+
+      DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+      result.addWells(first);
+      result.addWells(second);
+
+      if (result.getDecodedWellCount() == 0) {
+         return new DecodeResult(SC_INVALID_NOTHING_DECODED, SC_INVALID_NOTHING_DECODED, "");
+      }
+      return result;
+   }
+
+   private static boolean isFailure(DecodeResult result) {
+      if (result == null) {
+         return true;
+      }
+      ScanLibResult.Result code = result.getResultCode();
+      return (code != ScanLibResult.Result.SUCCESS)
+         && (code != ScanLibResult.Result.INVALID_NOTHING_DECODED);
+   }
+
+   @SuppressWarnings("serial")
+   private static class DecodeChunkTask extends RecursiveTask<DecodeResult> {
+
+      private final CellRectangle[] wells;
+
+      private final int start;
+
+      private final int end;
+
+      private final int chunkSize;
+
+      private final Function<CellRectangle[], DecodeResult> chunkDecoder;
+
+      DecodeChunkTask(CellRectangle[]                         wells,
+                      int                                     start,
+                      int                                     end,
+                      int                                     chunkSize,
+                      Function<CellRectangle[], DecodeResult> chunkDecoder) {
+         this.wells        = wells;
+         this.start        = start;
+         this.end          = end;
+         this.chunkSize    = chunkSize;
+         this.chunkDecoder = chunkDecoder;
+      }
+
+      @Override
+      protected DecodeResult compute() {
+         if (end - start <= chunkSize) {
+            DecodeResult result = chunkDecoder.apply(Arrays.copyOfRange(wells, start, end));
+            if (result == null) {
+               return new DecodeResult(SC_FAIL, SC_FAIL, "");
+            }
+            return result;
+         }
+
+         int middle = (start + end) >>> 1;
+         DecodeChunkTask left = new DecodeChunkTask(wells, start, middle, chunkSize, chunkDecoder);
+         DecodeChunkTask right = new DecodeChunkTask(wells, middle, end, chunkSize, chunkDecoder);
+         left.fork();
+         DecodeResult rightResult = right.compute();
+         return merge(left.join(), rightResult);
+      }
+   }
+
+}
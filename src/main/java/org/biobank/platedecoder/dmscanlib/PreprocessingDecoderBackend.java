@@ -0,0 +1,177 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import org.biobank.platedecoder.metrics.Counter;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Passes a reduced image to a backend.
+ *
+ * <p>The image is cropped to the wells, converted to grayscale and downsampled by an {@link
+ * ImagePreprocessor}, and the wells are moved to the coordinates of the new image. Images read
+ * from a file are passed to the backend as an {@link ImageBuffer}. Bitmap files are memory mapped
+ * rather than loaded on the heap.
+ *
+ * <p>Images read from a file are only reduced if the backend decodes images from memory, see
+ * {@link DecoderBackend#isImageBufferSupported}. Otherwise the original file is decoded and this
+ * class does nothing. The dmscanlib library shipped with the application only decodes files, so
+ * with the native backend preprocessing has no effect once the first decode has found that out.
+ *
+ * <p>The results only refer to wells by their labels, so they are returned unchanged.
+ */
+public class PreprocessingDecoderBackend implements DecoderBackend {
+
+   private static final Logger LOG = LoggerFactory.getLogger(PreprocessingDecoderBackend.class);
+
+   private static final LatencyHistogram PREPROCESS_TIME =
+      Metrics.getInstance().histogram("decode.preprocess");
+
+   private static final Counter INPUT_BYTES =
+      Metrics.getInstance().counter("decode.preprocess.inputBytes");
+
+   private static final Counter OUTPUT_BYTES =
+      Metrics.getInstance().counter("decode.preprocess.outputBytes");
+
+   private final DecoderBackend backend;
+
+   private final ImagePreprocessor preprocessor;
+
+   /**
+    * Adds preprocessing to a backend.
+    *
+    * @param backend  The backend that decodes the reduced images.
+    *
+    * @param preprocessor  Reduces the images.
+    */
+   public PreprocessingDecoderBackend(DecoderBackend backend, ImagePreprocessor preprocessor) {
+      if ((backend == null) || (preprocessor == null)) {
+         throw new IllegalArgumentException("backend and preprocessor must not be null");
+      }
+      this.backend = backend;
+      this.preprocessor = preprocessor;
+   }
+
+   @Override
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      if ((filename == null) || !isValidRequest(wells) || !backend.isImageBufferSupported()) {
+         return backend.decodeImage(verbose, filename, decodeOptions, wells);
+      }
+
+      long start = System.nanoTime();
+      ImagePreprocessor.PreprocessedImage reduced;
+      try {
+         reduced = preprocessor.preprocess(new File(filename), wells);
+      } catch (IOException e) {
+         // let the backend report the error
+         return backend.decodeImage(verbose, filename, decodeOptions, wells);
+      }
+      if (reduced == null) {
+         return backend.decodeImage(verbose, filename, decodeOptions, wells);
+      }
+      record(start, reduced);
+      return backend.decodeImageBuffer(verbose,
+                                       reduced.getImage(),
+                                       decodeOptions,
+                                       reduced.rebase(wells));
+   }
+
+   @Override
+   public DecodeResult decodeImage(long          verbose,
+                                   String        filename,
+                                   DecodeOptions decodeOptions,
+                                   CellGrid      cells) {
+      if ((filename == null) || (cells == null) || !backend.isImageBufferSupported()) {
+         return backend.decodeImage(verbose, filename, decodeOptions, cells);
+      }
+
+      long start = System.nanoTime();
+      ImagePreprocessor.PreprocessedImage reduced;
+      try {
+         reduced = preprocessor.preprocess(new File(filename), cells);
+      } catch (IOException e) {
+         return backend.decodeImage(verbose, filename, decodeOptions, cells);
+      }
+      if (reduced == null) {
+         return backend.decodeImage(verbose, filename, decodeOptions, cells);
+      }
+      record(start, reduced);
+      return backend.decodeImageBuffer(verbose,
+                                       reduced.getImage(),
+                                       decodeOptions,
+                                       reduced.rebase(cells));
+   }
+
+   @Override
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells) {
+      if ((image == null) || !isValidRequest(wells)) {
+         return backend.decodeImageBuffer(verbose, image, decodeOptions, wells);
+      }
+
+      long start = System.nanoTime();
+      ImagePreprocessor.PreprocessedImage reduced = preprocessor.preprocess(image, wells);
+      if (reduced == null) {
+         return backend.decodeImageBuffer(verbose, image, decodeOptions, wells);
+      }
+      record(start, reduced);
+      return backend.decodeImageBuffer(verbose,
+                                       reduced.getImage(),
+                                       decodeOptions,
+                                       reduced.rebase(wells));
+   }
+
+   @Override
+   public DecodeResult decodeImageBuffer(long          verbose,
+                                         ImageBuffer   image,
+                                         DecodeOptions decodeOptions,
+                                         CellGrid      cells) {
+      if ((image == null) || (cells == null)) {
+         return backend.decodeImageBuffer(verbose, image, decodeOptions, cells);
+      }
+
+      long start = System.nanoTime();
+      ImagePreprocessor.PreprocessedImage reduced = preprocessor.preprocess(image, cells);
+      if (reduced == null) {
+         return backend.decodeImageBuffer(verbose, image, decodeOptions, cells);
+      }
+      record(start, reduced);
+      return backend.decodeImageBuffer(verbose,
+                                       reduced.getImage(),
+                                       decodeOptions,
+                                       reduced.rebase(cells));
+   }
+
+   @Override
+   public boolean isThreadSafe() {
+      return backend.isThreadSafe();
+   }
+
+   @Override
+   public boolean isImageBufferSupported() {
+      return backend.isImageBufferSupported();
+   }
+
+   private static boolean isValidRequest(CellRectangle[] wells) {
+      return (wells != null) && Arrays.stream(wells).allMatch(well -> well != null);
+   }
+
+   private static void record(long start, ImagePreprocessor.PreprocessedImage reduced) {
+      PREPROCESS_TIME.recordSince(start);
+      long inputBytes = reduced.getSourceBytes();
+      long outputBytes = (long) reduced.getImage().getStride() * reduced.getImage().getHeight();
+      INPUT_BYTES.add(inputBytes);
+      OUTPUT_BYTES.add(outputBytes);
+      LOG.debug("preprocess: {} bytes reduced to {}", inputBytes, reduced);
+   }
+
+}
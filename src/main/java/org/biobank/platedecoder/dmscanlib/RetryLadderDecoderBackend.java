@@ -0,0 +1,317 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiFunction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the wells that failed to decode again, using the alternative settings in a {@link
+ * DecodeOptionsLadder}.
+ *
+ * <p>The image is first decoded with the options given by the caller. The wells that were not
+ * decoded are then decoded with each rung of the ladder. When the backend is thread safe, all the
+ * rungs are started at the same time and the result of a rung is ignored if it is not available
+ * within its time budget. Otherwise the rungs are used one after the other, and each rung is only
+ * given the wells that are still not decoded.
+ *
+ * <p>A decode that has started cannot be interrupted, the native library and the fork-join pool
+ * of a {@link ParallelDecoderBackend} both ignore interrupts. So each rung decodes the wells in
+ * batches and stops once its time budget is used up, instead of running on after its result has
+ * been ignored.
+ *
+ * <p>The wells of a {@link DecodeResult#isConsensus consensus} are not retried: the wells it
+ * did not decode did not get enough votes, and a single rung would bypass the quorum.
+ *
+ * <p>When more than one rung decodes a well, the message from the rung that has succeeded most
+ * often is used. The number of wells decoded by each rung is added to the ladder, and the listener
+ * is informed, so that the counts can be saved.
+ *
+ */
+public class RetryLadderDecoderBackend implements DecoderBackend {
+
+   private static final Logger LOG = LoggerFactory.getLogger(RetryLadderDecoderBackend.class);
+
+   // the number of wells a rung decodes before checking its time budget, enough to keep all the
+   // workers of a ParallelDecoderBackend busy
+   static final int BATCH_SIZE = 4 * Runtime.getRuntime().availableProcessors();
+
+   private final DecoderBackend backend;
+
+   private final DecodeOptionsLadder ladder;
+
+   private final ExecutorService executor;
+
+   private final Runnable ladderListener;
+
+   /**
+    * Adds a retry ladder to a backend. The rungs are run on a thread pool shared by the
+    * application.
+    *
+    * @param backend  The backend that decodes the image.
+    *
+    * @param ladder  The options used to decode the wells that failed to decode.
+    *
+    * @param ladderListener  Called after the success counts of the ladder change. Can be {@code
+    *                        null}.
+    */
+   public RetryLadderDecoderBackend(DecoderBackend      backend,
+                                    DecodeOptionsLadder ladder,
+                                    Runnable            ladderListener) {
+      this(backend, ladder, ExecutorHolder.INSTANCE, ladderListener);
+   }
+
+   /**
+    * Adds a retry ladder to a backend.
+    *
+    * @param backend  The backend that decodes the image.
+    *
+    * @param ladder  The options used to decode the wells that failed to decode.
+    *
+    * @param executor  Runs the rungs of the ladder when the backend is thread safe.
+    *
+    * @param ladderListener  Called after the success counts of the ladder change. Can be {@code
+    *                        null}.
+    */
+   public RetryLadderDecoderBackend(DecoderBackend      backend,
+                                    DecodeOptionsLadder ladder,
+                                    ExecutorService     executor,
+                                    Runnable            ladderListener) {
+      if ((backend == null) || (ladder == null) || (executor == null)) {
+         throw new IllegalArgumentException("backend, ladder and executor must not be null");
+      }
+      this.backend = backend;
+      this.ladder = ladder;
+      this.executor = executor;
+      this.ladderListener = ladderListener;
+   }
+
+   private static class ExecutorHolder {
+      private static final ExecutorService INSTANCE = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "decode-retry");
+            thread.setDaemon(true);
+            return thread;
+         });
+   }
+
+   @Override
+   public DecodeResult decodeImage(long            verbose,
+                                   String          filename,
+                                   DecodeOptions   decodeOptions,
+                                   CellRectangle[] wells) {
+      DecodeResult result = backend.decodeImage(verbose, filename, decodeOptions, wells);
+      return retry(result,
+                   wells,
+                   (options, failed) -> backend.decodeImage(verbose, filename, options, failed));
+   }
+
+   @Override
+   public DecodeResult decodeImageBuffer(long            verbose,
+                                         ImageBuffer     image,
+                                         DecodeOptions   decodeOptions,
+                                         CellRectangle[] wells) {
+      DecodeResult result = backend.decodeImageBuffer(verbose, image, decodeOptions, wells);
+      return retry(result,
+                   wells,
+                   (options, failed) -> backend.decodeImageBuffer(verbose, image, options, failed));
+   }
+
+   @Override
+   public boolean isThreadSafe() {
+      return backend.isThreadSafe();
+   }
+
+   @Override
+   public boolean isImageBufferSupported() {
+      return backend.isImageBufferSupported();
+   }
+
+   private DecodeResult retry(DecodeResult                                               result,
+                              CellRectangle[]                                            wells,
+                              BiFunction<DecodeOptions, CellRectangle[], DecodeResult> decoder) {
+      ScanLibResult.Result code = result.getResultCode();
+      if ((ladder.size() == 0)
+          || (wells == null)
+          || result.isConsensus()
+          || ((code != ScanLibResult.Result.SUCCESS)
+              && (code != ScanLibResult.Result.INVALID_NOTHING_DECODED))) {
+         return result;
+      }
+
+      Set<String> decodedLabels = new HashSet<>();
+      for (DecodedWell well : result.getDecodedWells()) {
+         decodedLabels.add(well.getLabel());
+      }
+
+      // wells where decode passes disagreed are not retried, another message would not settle them
+      List<CellRectangle> failed = new ArrayList<>();
+      for (CellRectangle well : wells) {
+         if ((well != null)
+             && !decodedLabels.contains(well.getLabel())
+             && !result.isConflict(well.getLabel())) {
+            failed.add(well);
+         }
+      }
+      if (failed.isEmpty()) {
+         return result;
+      }
+
+      int [] order = ladder.getOrder();
+      DecodeResult [] rungResults = backend.isThreadSafe()
+         ? decodeConcurrently(order, failed, decoder)
+         : decodeSequentially(order, failed, decoder);
+
+      // the rungs that succeed most often have precedence
+      Map<String, String> retried = new HashMap<>();
+      long [] successes = new long[ladder.size()];
+      for (int index : order) {
+         DecodeResult rungResult = rungResults[index];
+         if ((rungResult == null)
+             || (rungResult.getResultCode() != ScanLibResult.Result.SUCCESS)) {
+            continue;
+         }
+         for (DecodedWell well : rungResult.getDecodedWells()) {
+            if (!decodedLabels.contains(well.getLabel())
+                && !retried.containsKey(well.getLabel())) {
+               retried.put(well.getLabel(), well.getMessage());
+               ++successes[index];
+            }
+         }
+      }
+
+      LOG.debug("retry: {} of {} failed wells decoded by the ladder",
+                retried.size(),
+                failed.size());
+
+      if (retried.isEmpty()) {
+         return result;
+      }
+
+      for (int i = 0; i < successes.length; ++i) {
+         if (successes[i] > 0) {
+            ladder.addSuccesses(i, successes[i]);
+         }
+      }
+      if (ladderListener != null) {
+         ladderListener.run();
+      }
+
+      DecodeResult merged = new DecodeResult(SC_SUCCESS, SC_SUCCESS, result.getMessage());
+      merged.addWells(result);
+      result.getWellClasses().forEach(merged::setWellClass);
+      for (Map.Entry<String, String> entry : retried.entrySet()) {
+         merged.addWell(entry.getKey(), entry.getValue());
+      }
+      return merged;
+   }
+
+   private DecodeResult [] decodeConcurrently(
+      int []                                                   order,
+      List<CellRectangle>                                      failed,
+      BiFunction<DecodeOptions, CellRectangle[], DecodeResult> decoder) {
+      CellRectangle [] wells = failed.toArray(new CellRectangle[failed.size()]);
+
+      // the budgets are measured from when the rungs were started
+      long start = System.nanoTime();
+      List<Future<DecodeResult>> futures = new ArrayList<>();
+      for (int i = 0; i < ladder.size(); ++i) {
+         DecodeOptionsLadder.Rung rung = ladder.getRung(i);
+         long deadline = start + TimeUnit.MILLISECONDS.toNanos(rung.getTimeBudgetMillis());
+         futures.add(executor.submit(() -> {
+               return decodeRung(rung.getOptions(), wells, deadline, decoder);
+            }));
+      }
+
+      DecodeResult [] results = new DecodeResult[ladder.size()];
+      for (int index : order) {
+         Future<DecodeResult> future = futures.get(index);
+         long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+         long remaining = ladder.getRung(index).getTimeBudgetMillis() - elapsed;
+         try {
+            results[index] = future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+         } catch (TimeoutException e) {
+            LOG.debug("decodeConcurrently: rung {} exceeded its time budget", index);
+            future.cancel(true);
+         } catch (ExecutionException e) {
+            LOG.warn("decodeConcurrently: rung {} failed: {}", index, e.getCause());
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            futures.forEach(f -> f.cancel(true));
+            break;
+         }
+      }
+      return results;
+   }
+
+   private DecodeResult [] decodeSequentially(
+      int []                                                   order,
+      List<CellRectangle>                                      failed,
+      BiFunction<DecodeOptions, CellRectangle[], DecodeResult> decoder) {
+      List<CellRectangle> remaining = new ArrayList<>(failed);
+      DecodeResult [] results = new DecodeResult[ladder.size()];
+      for (int index : order) {
+         if (remaining.isEmpty() || Thread.currentThread().isInterrupted()) {
+            break;
+         }
+
+         DecodeOptionsLadder.Rung rung = ladder.getRung(index);
+         long deadline =
+            System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(rung.getTimeBudgetMillis());
+         DecodeResult result = decodeRung(rung.getOptions(),
+                                          remaining.toArray(new CellRectangle[remaining.size()]),
+                                          deadline,
+                                          decoder);
+         results[index] = result;
+
+         if (result.getResultCode() == ScanLibResult.Result.SUCCESS) {
+            Set<String> labels = new HashSet<>();
+            for (DecodedWell well : result.getDecodedWells()) {
+               labels.add(well.getLabel());
+            }
+            remaining.removeIf(well -> labels.contains(well.getLabel()));
+         }
+      }
+      return results;
+   }
+
+   /*
+    * Decodes the wells in batches until they are all decoded or the deadline, a System.nanoTime()
+    * value, has passed.
+    */
+   private static DecodeResult decodeRung(
+      DecodeOptions                                            options,
+      CellRectangle[]                                          wells,
+      long                                                     deadline,
+      BiFunction<DecodeOptions, CellRectangle[], DecodeResult> decoder) {
+      DecodeResult result = null;
+      for (int start = 0; start < wells.length; start += BATCH_SIZE) {
+         if ((start > 0)
+             && ((System.nanoTime() - deadline >= 0) || Thread.currentThread().isInterrupted())) {
+            LOG.debug("decodeRung: time budget used up after {} of {} wells", start, wells.length);
+            break;
+         }
+         CellRectangle [] batch =
+            Arrays.copyOfRange(wells, start, Math.min(start + BATCH_SIZE, wells.length));
+         DecodeResult batchResult = decoder.apply(options, batch);
+         result = (result == null)
+            ? batchResult
+            : ParallelDecoderBackend.merge(result, batchResult);
+      }
+      return result;
+   }
+
+}
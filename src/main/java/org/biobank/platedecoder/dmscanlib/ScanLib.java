@@ -1,5 +1,7 @@
 package org.biobank.platedecoder.dmscanlib;
 
+import java.nio.ByteBuffer;
+
 public class ScanLib {
 
    public static class ResultCode {
@@ -229,4 +231,42 @@ public class ScanLib {
                                           DecodeOptions   decodeOptions,
                                           CellRectangle[] wells);
 
+   /**
+    * Used to decode regions of an image, held in memory, containing 2D barcodes.
+    *
+    * <p>Same as {@link #decodeImage decodeImage} but the pixels are read directly from {@code
+    * pixels}, so the image does not have to be saved to a file and decoded from it again.
+    *
+    * <p>The prebuilt dmscanlib libraries do not export this function yet, and calling it with them
+    * throws an {@link UnsatisfiedLinkError}. See {@link NativeDecoderBackend#decodeImageBuffer}.
+    *
+    * @param verbose  The amount of debug logging information to generate. 1 is minimal and 9 is very
+    *                 detailed. Using a value of 0 does not generate any logging information.
+    *
+    * @param pixels  A direct buffer holding the pixels of the image.
+    *
+    * @param width  The width of the image in pixels.
+    *
+    * @param height  The height of the image in pixels.
+    *
+    * @param stride  The number of bytes between the start of two consecutive rows.
+    *
+    * @param format  The layout of a pixel. See {@link ImageBuffer.Format#getValue}.
+    *
+    * @param decodeOptions See the {@link DecodeOptions} for a description of these settings.
+    *
+    * @param wells An array of {@link CellRectangle} objects defining the the regions of the image
+    *              containing 2D barcode tubes.
+    *
+    * @return The results of the decode in a {@link DecodeResult} object.
+    */
+   public native DecodeResult decodeImageBuffer(long            verbose,
+                                                ByteBuffer      pixels,
+                                                int             width,
+                                                int             height,
+                                                int             stride,
+                                                int             format,
+                                                DecodeOptions   decodeOptions,
+                                                CellRectangle[] wells);
+
 }
@@ -0,0 +1,29 @@
+package org.biobank.platedecoder.dmscanlib;
+
+/**
+ * What a well in the image of a plate contains, as found by {@link WellClassifier}.
+ *
+ */
+public enum WellClass {
+
+   /** There is no tube in the well. */
+   EMPTY("Empty"),
+
+   /** There is a tube in the well, but it does not appear to have a 2D barcode. */
+   TUBE_NO_CODE("Tube without barcode"),
+
+   /** The well may contain a 2D barcode and is decoded. */
+   CANDIDATE("Candidate");
+
+   private final String label;
+
+   private WellClass(String label) {
+      this.label = label;
+   }
+
+   @Override
+   public String toString() {
+      return label;
+   }
+
+}
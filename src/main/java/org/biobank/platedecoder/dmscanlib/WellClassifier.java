@@ -0,0 +1,153 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Finds the wells in an image that may contain a 2D barcode, so that the other wells do not have to
+ * be decoded.
+ *
+ * <p>Two statistics are taken from a sparse grid of samples in each well:
+ *
+ * <ul>
+ * <li>The <em>texture</em>, the mean absolute difference between neighbouring samples in the
+ * middle half of the well. The modules of a 2D barcode give a high texture.</li>
+ *
+ * <li>The <em>contrast</em>, the standard deviation of the samples over the whole well. The edge
+ * of a tube gives a high contrast, while an empty well is mostly uniform.</li>
+ * </ul>
+ *
+ * <p>A well with enough texture is a {@link WellClass#CANDIDATE CANDIDATE}. Otherwise, it is a
+ * {@link WellClass#TUBE_NO_CODE TUBE_NO_CODE} if it has enough contrast, and {@link WellClass#EMPTY
+ * EMPTY} if it does not. The thresholds are low on purpose: decoding an empty well wastes time,
+ * but skipping a well with a barcode loses a result.
+ *
+ */
+public class WellClassifier {
+
+   /** The default texture, in grey levels, above which a well may contain a 2D barcode. */
+   public static final double DEFAULT_TEXTURE_THRESHOLD = 5.0;
+
+   /** The default contrast, in grey levels, above which a well contains a tube. */
+   public static final double DEFAULT_CONTRAST_THRESHOLD = 12.0;
+
+   // the number of samples taken across the width of a well
+   private static final int SAMPLES_PER_WELL = 64;
+
+   private final double textureThreshold;
+
+   private final double contrastThreshold;
+
+   /**
+    * Creates a classifier that uses the default thresholds.
+    */
+   public WellClassifier() {
+      this(DEFAULT_TEXTURE_THRESHOLD, DEFAULT_CONTRAST_THRESHOLD);
+   }
+
+   /**
+    * @param textureThreshold  See {@link #DEFAULT_TEXTURE_THRESHOLD}.
+    *
+    * @param contrastThreshold  See {@link #DEFAULT_CONTRAST_THRESHOLD}.
+    */
+   public WellClassifier(double textureThreshold, double contrastThreshold) {
+      if ((textureThreshold < 0) || (contrastThreshold < 0)) {
+         throw new IllegalArgumentException("thresholds must not be negative");
+      }
+      this.textureThreshold = textureThreshold;
+      this.contrastThreshold = contrastThreshold;
+   }
+
+   /**
+    * Classifies the wells of a plate.
+    *
+    * @param image  The image of the plate.
+    *
+    * @param wells  The wells to classify.
+    *
+    * @return the class of each well, by label.
+    */
+   public Map<String, WellClass> classify(LuminanceImage image, CellRectangle[] wells) {
+      Map<String, WellClass> result = new HashMap<>();
+      for (CellRectangle well : wells) {
+         result.put(well.getLabel(), classify(image, well));
+      }
+      return result;
+   }
+
+   /**
+    * Classifies a single well.
+    *
+    * @param image  The image of the plate.
+    *
+    * @param well  The region of the image to classify.
+    *
+    * @return the class of the well. Wells that are outside the image are {@link WellClass#EMPTY
+    * EMPTY}.
+    */
+   public WellClass classify(LuminanceImage image, CellRectangle well) {
+      int left = Math.max(0, (int) Math.floor(well.getX()));
+      int top = Math.max(0, (int) Math.floor(well.getY()));
+      int right = Math.min(image.getWidth(), (int) Math.ceil(well.getX() + well.getWidth()));
+      int bottom = Math.min(image.getHeight(), (int) Math.ceil(well.getY() + well.getHeight()));
+      int width = right - left;
+      int height = bottom - top;
+      if ((width <= 0) || (height <= 0)) {
+         return WellClass.EMPTY;
+      }
+
+      int step = Math.max(1, Math.min(width, height) / SAMPLES_PER_WELL);
+
+      if (texture(image, left + width / 4, top + height / 4, width / 2, height / 2, step)
+          >= textureThreshold) {
+         return WellClass.CANDIDATE;
+      }
+      if (contrast(image, left, top, width, height, 2 * step) >= contrastThreshold) {
+         return WellClass.TUBE_NO_CODE;
+      }
+      return WellClass.EMPTY;
+   }
+
+   // the mean absolute difference between each sample and its right and lower neighbours
+   private static double texture(LuminanceImage image,
+                                 int            left,
+                                 int            top,
+                                 int            width,
+                                 int            height,
+                                 int            step) {
+      long sum = 0;
+      int count = 0;
+      for (int y = top; y + step < top + height; y += step) {
+         for (int x = left; x + step < left + width; x += step) {
+            int value = image.get(x, y);
+            sum += Math.abs(image.get(x + step, y) - value);
+            sum += Math.abs(image.get(x, y + step) - value);
+            count += 2;
+         }
+      }
+      return (count == 0) ? 0 : (double) sum / count;
+   }
+
+   // the standard deviation of the samples
+   private static double contrast(LuminanceImage image,
+                                  int            left,
+                                  int            top,
+                                  int            width,
+                                  int            height,
+                                  int            step) {
+      long sum = 0;
+      long sumSquares = 0;
+      int count = 0;
+      for (int y = top; y < top + height; y += step) {
+         for (int x = left; x < left + width; x += step) {
+            int value = image.get(x, y);
+            sum += value;
+            sumSquares += value * value;
+            ++count;
+         }
+      }
+      double mean = (double) sum / count;
+      return Math.sqrt(Math.max(0, (double) sumSquares / count - mean * mean));
+   }
+
+}
@@ -0,0 +1,400 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+
+/**
+ * Finds the rectangle enclosing the tubes of a plate in an image.
+ *
+ * <p>The image is first reduced to a small "texture" image where each pixel holds the standard
+ * deviation of the luminance of a block of the original image. 2D barcodes and tube edges have a
+ * lot of texture, while the gaps between the tubes do not. The texture is projected onto the X
+ * axis, and the column lattice of the plate is found by searching for the period and offset where
+ * the middle of the cells has the most texture compared to the boundaries between the cells. The
+ * rows are then found the same way, using only the columns inside the lattice, and finally the
+ * columns are found again using only the rows inside the lattice.
+ *
+ * <p>Only a few samples are taken from each block of the original image, so a 600 dpi scan of a
+ * plate is located in a few milliseconds.
+ *
+ */
+public class WellGridLocator {
+
+   private static final Logger LOG = LoggerFactory.getLogger(WellGridLocator.class);
+
+   /** The approximate size, in pixels, of the longest side of the texture image. */
+   public static final int TEXTURE_IMAGE_SIZE = 400;
+
+   // the number of samples taken along each side of a block of the original image
+   private static final int SAMPLES_PER_BLOCK = 4;
+
+   // a lattice is rejected if the texture in its cells is not this much higher than the texture on
+   // its cell boundaries, relative to the average texture
+   private static final double MIN_CONTRAST = 0.25;
+
+   // the lattice is searched for with this resolution, in texture image pixels, and then refined
+   // around the best match with the fine resolution
+   private static final double COARSE_STEP = 1.0;
+
+   private static final double FINE_STEP = 0.125;
+
+   // the smallest fraction of the image a lattice can span
+   private static final double MIN_COVERAGE = 0.25;
+
+   /**
+    * Reads the luminance of a pixel.
+    */
+   private interface LuminanceSource {
+      int get(int x, int y);
+   }
+
+   private final int width;
+
+   private final int height;
+
+   private final int blockSize;
+
+   private final int textureWidth;
+
+   private final int textureHeight;
+
+   private final float [] texture;
+
+   private WellGridLocator(int width, int height, LuminanceSource source) {
+      this.width = width;
+      this.height = height;
+      this.blockSize = Math.max(1, (int) Math.ceil(
+         (double) Math.max(width, height) / TEXTURE_IMAGE_SIZE));
+      this.textureWidth = width / blockSize;
+      this.textureHeight = height / blockSize;
+      this.texture = new float[textureWidth * textureHeight];
+      createTexture(source);
+   }
+
+   /**
+    * Finds the rectangle enclosing the tubes in an image.
+    *
+    * @param image  The image of the plate.
+    *
+    * @param plateType  The number of rows and columns on the plate.
+    *
+    * @param orientation  The orientation of the plate in the image.
+    *
+    * @return the bounds of the rectangle, in image coordinates, or an empty value if no lattice
+    * with the plate's dimensions could be found.
+    */
+   public static Optional<Bounds> locate(ImageBuffer      image,
+                                         PlateType        plateType,
+                                         PlateOrientation orientation) {
+      ByteBuffer pixels = image.getPixels();
+      int stride = image.getStride();
+      LuminanceSource source;
+
+      switch (image.getFormat()) {
+      case GRAY:
+         source = (x, y) -> pixels.get(y * stride + x) & 0xff;
+         break;
+
+      case BGRA:
+         // green is a good enough approximation of the luminance
+         source = (x, y) -> pixels.get(y * stride + 4 * x + 1) & 0xff;
+         break;
+
+      default:
+         throw new IllegalArgumentException("invalid image format: " + image.getFormat());
+      }
+
+      return new WellGridLocator(image.getWidth(), image.getHeight(), source)
+         .locate(plateType, orientation);
+   }
+
+   /**
+    * Finds the rectangle enclosing the tubes in an image.
+    *
+    * @param image  The image of the plate.
+    *
+    * @param plateType  The number of rows and columns on the plate.
+    *
+    * @param orientation  The orientation of the plate in the image.
+    *
+    * @return the bounds of the rectangle, in image coordinates, or an empty value if no lattice
+    * with the plate's dimensions could be found.
+    */
+   public static Optional<Bounds> locate(LuminanceImage   image,
+                                         PlateType        plateType,
+                                         PlateOrientation orientation) {
+      return new WellGridLocator(image.getWidth(), image.getHeight(), image::get)
+         .locate(plateType, orientation);
+   }
+
+   /**
+    * Finds the rectangle enclosing the tubes in a memory mapped image. Only the pixels sampled for
+    * the texture image are read from the file.
+    *
+    * @param image  The image of the plate.
+    *
+    * @param plateType  The number of rows and columns on the plate.
+    *
+    * @param orientation  The orientation of the plate in the image.
+    *
+    * @return the bounds of the rectangle, in image coordinates, or an empty value if no lattice
+    * with the plate's dimensions could be found.
+    */
+   public static Optional<Bounds> locate(MappedImage      image,
+                                         PlateType        plateType,
+                                         PlateOrientation orientation) {
+      return new WellGridLocator(image.getWidth(), image.getHeight(), image::get)
+         .locate(plateType, orientation);
+   }
+
+   private Optional<Bounds> locate(PlateType plateType, PlateOrientation orientation) {
+      int rows, cols;
+      switch (orientation) {
+      case LANDSCAPE:
+         rows = plateType.getRows();
+         cols = plateType.getCols();
+         break;
+      case PORTRAIT:
+         rows = plateType.getCols();
+         cols = plateType.getRows();
+         break;
+      default:
+         throw new IllegalArgumentException("invalid orientation value: " + orientation);
+      }
+
+      if ((textureWidth < 2 * cols) || (textureHeight < 2 * rows)) {
+         return Optional.empty();
+      }
+
+      Lattice x = findLattice(projectX(0, textureHeight), cols);
+      if (x == null) {
+         return Optional.empty();
+      }
+
+      Lattice y = findLattice(projectY(x.start(), x.end()), rows);
+      if (y == null) {
+         return Optional.empty();
+      }
+
+      x = findLattice(projectX(y.start(), y.end()), cols);
+      if (x == null) {
+         return Optional.empty();
+      }
+
+      LOG.debug("locate: columns: {}, rows: {}", x, y);
+
+      double left = Math.max(0, x.offset * blockSize);
+      double top = Math.max(0, y.offset * blockSize);
+      double right = Math.min(width, (x.offset + x.count * x.period) * blockSize);
+      double bottom = Math.min(height, (y.offset + y.count * y.period) * blockSize);
+      return Optional.of(new BoundingBox(left, top, right - left, bottom - top));
+   }
+
+   /**
+    * Each pixel of the texture image is the standard deviation of a few samples taken from a block
+    * of the original image.
+    */
+   private void createTexture(LuminanceSource source) {
+      int samples = Math.min(SAMPLES_PER_BLOCK, blockSize);
+      int step = blockSize / samples;
+      int count = samples * samples;
+
+      for (int ty = 0, i = 0; ty < textureHeight; ++ty) {
+         int y0 = ty * blockSize + step / 2;
+         for (int tx = 0; tx < textureWidth; ++tx, ++i) {
+            int x0 = tx * blockSize + step / 2;
+            int sum = 0;
+            int sumSquares = 0;
+            for (int sy = 0, y = y0; sy < samples; ++sy, y += step) {
+               for (int sx = 0, x = x0; sx < samples; ++sx, x += step) {
+                  int value = source.get(x, y);
+                  sum += value;
+                  sumSquares += value * value;
+               }
+            }
+            double mean = (double) sum / count;
+            texture[i] = (float) Math.sqrt(Math.max(0, (double) sumSquares / count - mean * mean));
+         }
+      }
+   }
+
+   // the texture summed over each column, using only rows [top, bottom)
+   private double [] projectX(int top, int bottom) {
+      double [] profile = new double[textureWidth];
+      for (int y = top; y < bottom; ++y) {
+         for (int x = 0, i = y * textureWidth; x < textureWidth; ++x, ++i) {
+            profile[x] += texture[i];
+         }
+      }
+      return profile;
+   }
+
+   // the texture summed over each row, using only columns [left, right)
+   private double [] projectY(int left, int right) {
+      double [] profile = new double[textureHeight];
+      for (int y = 0; y < textureHeight; ++y) {
+         double sum = 0;
+         for (int x = left, i = y * textureWidth + left; x < right; ++x, ++i) {
+            sum += texture[i];
+         }
+         profile[y] = sum;
+      }
+      return profile;
+   }
+
+   /**
+    * A sequence of {@code count} cells, each {@code period} pixels long, starting at {@code
+    * offset}. The values are in texture image pixels.
+    */
+   private static final class Lattice {
+
+      final int count;
+
+      final double period;
+
+      final double offset;
+
+      final double contrast;
+
+      Lattice(int count, double period, double offset, double contrast) {
+         this.count = count;
+         this.period = period;
+         this.offset = offset;
+         this.contrast = contrast;
+      }
+
+      int start() {
+         return (int) Math.floor(offset);
+      }
+
+      int end() {
+         return (int) Math.ceil(offset + count * period);
+      }
+
+      @Override
+      public String toString() {
+         StringBuffer buf = new StringBuffer();
+         buf.append("[ count: ").append(count);
+         buf.append(", period: ").append(period);
+         buf.append(", offset: ").append(offset);
+         buf.append(", contrast: ").append(contrast);
+         buf.append(" ]");
+         return buf.toString();
+      }
+   }
+
+   /**
+    * Searches for the lattice of {@code count} cells with the highest contrast between the middle
+    * of the cells and the boundaries between the cells.
+    *
+    * @return the lattice, or {@code null} if none has enough contrast.
+    */
+   private static Lattice findLattice(double [] profile, int count) {
+      int length = profile.length;
+
+      // prefix sums, so that the mean over any range takes constant time
+      double [] sums = new double[length + 1];
+      for (int i = 0; i < length; ++i) {
+         sums[i + 1] = sums[i] + profile[i];
+      }
+      double average = sums[length] / length;
+      if (average <= 0) {
+         return null;
+      }
+
+      double minPeriod = Math.max(2.0, MIN_COVERAGE * length / count);
+      double maxPeriod = (double) length / count;
+
+      Lattice best = search(sums, count, minPeriod, maxPeriod, 0, length, COARSE_STEP);
+      if (best != null) {
+         best = search(sums,
+                       count,
+                       Math.max(minPeriod, best.period - COARSE_STEP),
+                       Math.min(maxPeriod, best.period + COARSE_STEP),
+                       best.offset - COARSE_STEP,
+                       best.offset + COARSE_STEP,
+                       FINE_STEP);
+      }
+      if (best != null) {
+         best = new Lattice(count, best.period, best.offset, best.contrast / average);
+      }
+
+      if ((best == null) || (best.contrast < MIN_CONTRAST)) {
+         LOG.debug("findLattice: no lattice found: {}", best);
+         return null;
+      }
+      return best;
+   }
+
+   // the lattice with the highest score, the contrast of the lattice returned is not normalized
+   private static Lattice search(double [] sums,
+                                 int       count,
+                                 double    minPeriod,
+                                 double    maxPeriod,
+                                 double    minOffset,
+                                 double    maxOffset,
+                                 double    step) {
+      int length = sums.length - 1;
+      Lattice best = null;
+      double bestScore = Double.NEGATIVE_INFINITY;
+
+      for (double period = minPeriod; period <= maxPeriod; period += step) {
+         double lastOffset = Math.min(maxOffset, length - count * period);
+         for (double offset = Math.max(0, minOffset); offset <= lastOffset; offset += step) {
+            double score = score(sums, count, period, offset);
+            if (score > bestScore) {
+               bestScore = score;
+               best = new Lattice(count, period, offset, score);
+            }
+         }
+      }
+      return best;
+   }
+
+   // the mean texture in the middle half of the cells minus the mean texture on the boundaries
+   private static double score(double [] sums, int count, double period, double offset) {
+      double quarter = period / 4;
+      double eighth = period / 8;
+      double cells = 0;
+      double boundaries = 0;
+
+      for (int i = 0; i < count; ++i) {
+         double start = offset + i * period;
+         cells += mean(sums, start + quarter, start + 3 * quarter);
+         boundaries += mean(sums, start - eighth, start + eighth);
+      }
+      double end = offset + count * period;
+      boundaries += mean(sums, end - eighth, end + eighth);
+
+      return cells / count - boundaries / (count + 1);
+   }
+
+   // the mean of the profile between two positions, interpolating at fractional positions
+   private static double mean(double [] sums, double from, double to) {
+      int length = sums.length - 1;
+      from = Math.max(0, from);
+      to = Math.min(length, to);
+      if (to - from < 1e-6) {
+         return 0;
+      }
+      return (sum(sums, to) - sum(sums, from)) / (to - from);
+   }
+
+   private static double sum(double [] sums, double position) {
+      int index = (int) position;
+      if (index >= sums.length - 1) {
+         return sums[sums.length - 1];
+      }
+      double fraction = position - index;
+      return sums[index] + fraction * (sums[index + 1] - sums[index]);
+   }
+
+}
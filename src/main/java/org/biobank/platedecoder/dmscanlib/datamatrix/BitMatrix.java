@@ -0,0 +1,93 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+/**
+ * A two dimensional matrix of modules, where each module is either dark or light.
+ *
+ * <p>The modules are packed into an array of {@code int}s, one bit per module.
+ */
+public final class BitMatrix {
+
+   private final int rows;
+
+   private final int cols;
+
+   private final int rowWords;
+
+   private final int [] bits;
+
+   /**
+    * Creates a matrix where all the modules are light.
+    *
+    * @param rows  The number of rows.
+    *
+    * @param cols  The number of columns.
+    */
+   public BitMatrix(int rows, int cols) {
+      if ((rows <= 0) || (cols <= 0)) {
+         throw new IllegalArgumentException("invalid dimensions: " + rows + "x" + cols);
+      }
+      this.rows = rows;
+      this.cols = cols;
+      this.rowWords = (cols + 31) / 32;
+      this.bits = new int[rows * rowWords];
+   }
+
+   public int getRows() {
+      return rows;
+   }
+
+   public int getCols() {
+      return cols;
+   }
+
+   /**
+    * @param row  The row of the module.
+    *
+    * @param col  The column of the module.
+    *
+    * @return {@code true} if the module is dark.
+    */
+   public boolean get(int row, int col) {
+      return ((bits[row * rowWords + (col >> 5)] >>> (col & 0x1f)) & 1) != 0;
+   }
+
+   /**
+    * @param row  The row of the module.
+    *
+    * @param col  The column of the module.
+    *
+    * @param dark  {@code true} if the module should be dark.
+    */
+   public void set(int row, int col, boolean dark) {
+      int index = row * rowWords + (col >> 5);
+      if (dark) {
+         bits[index] |= 1 << (col & 0x1f);
+      } else {
+         bits[index] &= ~(1 << (col & 0x1f));
+      }
+   }
+
+   /**
+    * Toggles the colour of a module.
+    *
+    * @param row  The row of the module.
+    *
+    * @param col  The column of the module.
+    */
+   public void flip(int row, int col) {
+      bits[row * rowWords + (col >> 5)] ^= 1 << (col & 0x1f);
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      for (int row = 0; row < rows; ++row) {
+         for (int col = 0; col < cols; ++col) {
+            buf.append(get(row, col) ? 'X' : '.');
+         }
+         buf.append('\n');
+      }
+      return buf.toString();
+   }
+
+}
@@ -0,0 +1,354 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts the data codewords of an ECC 200 symbol to the encoded message.
+ *
+ * <p>Supports the ASCII, C40, Text, ANSI X12, EDIFACT and Base 256 encodation schemes. ECI,
+ * structured append and reader programming are not supported since they are not used on
+ * specimen tubes.
+ */
+final class CodewordDecoder {
+
+   private static final int PAD = 129;
+
+   private static final int LATCH_C40 = 230;
+
+   private static final int LATCH_BASE256 = 231;
+
+   private static final int FNC1 = 232;
+
+   private static final int UPPER_SHIFT = 235;
+
+   private static final int MACRO_05 = 236;
+
+   private static final int MACRO_06 = 237;
+
+   private static final int LATCH_X12 = 238;
+
+   private static final int LATCH_TEXT = 239;
+
+   private static final int LATCH_EDIFACT = 240;
+
+   private static final int UNLATCH = 254;
+
+   private static final char GROUP_SEPARATOR = 29;
+
+   private static final String MACRO_05_HEADER = "[)>\u001E05\u001D";
+
+   private static final String MACRO_06_HEADER = "[)>\u001E06\u001D";
+
+   private static final String MACRO_TRAILER = "\u001E\u0004";
+
+   private static final char [] C40_BASIC_SET = {
+      '*', '*', '*', ' ', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+      'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N',
+      'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z'
+   };
+
+   private static final char [] TEXT_BASIC_SET = {
+      '*', '*', '*', ' ', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+      'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n',
+      'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z'
+   };
+
+   private static final char [] SHIFT2_SET = {
+      '!', '"', '#', '$', '%', '&', '\'', '(', ')', '*', '+', ',', '-', '.',
+      '/', ':', ';', '<', '=', '>', '?', '@', '[', '\\', ']', '^', '_'
+   };
+
+   private static final char [] TEXT_SHIFT3_SET = {
+      '`', 'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N',
+      'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z', '{', '|', '}', '~',
+      (char) 127
+   };
+
+   private static final char [] X12_SET = {
+      '\r', '*', '>', ' ', '0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
+      'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N',
+      'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X', 'Y', 'Z'
+   };
+
+   private enum Mode { ASCII, C40, TEXT, X12, EDIFACT, BASE256, DONE }
+
+   private final int [] codewords;
+
+   private final StringBuilder result = new StringBuilder();
+
+   private String trailer = "";
+
+   private int pos = 0;
+
+   private CodewordDecoder(int [] codewords) {
+      this.codewords = codewords;
+   }
+
+   /**
+    * Decodes the message held in the data codewords.
+    *
+    * @param codewords  The data codewords, after error correction.
+    *
+    * @return the message, or {@code null} if the codewords do not hold a valid message.
+    */
+   static String decode(int [] codewords) {
+      return new CodewordDecoder(codewords).decode();
+   }
+
+   private String decode() {
+      Mode mode = Mode.ASCII;
+      while ((mode != Mode.DONE) && (pos < codewords.length)) {
+         switch (mode) {
+         case ASCII:
+            mode = decodeAscii();
+            break;
+         case C40:
+            mode = decodeC40OrText(false);
+            break;
+         case TEXT:
+            mode = decodeC40OrText(true);
+            break;
+         case X12:
+            mode = decodeX12();
+            break;
+         case EDIFACT:
+            mode = decodeEdifact();
+            break;
+         case BASE256:
+            mode = decodeBase256();
+            break;
+         default:
+            throw new IllegalStateException("invalid mode: " + mode);
+         }
+         if (mode == null) {
+            return null;
+         }
+      }
+      result.append(trailer);
+      return result.toString();
+   }
+
+   private Mode decodeAscii() {
+      boolean upperShift = false;
+      while (pos < codewords.length) {
+         int codeword = codewords[pos++];
+         if (codeword == 0) {
+            return null;
+         } else if (codeword <= 128) {
+            if (upperShift) {
+               codeword += 128;
+            }
+            result.append((char) (codeword - 1));
+            return Mode.ASCII;
+         } else if (codeword == PAD) {
+            return Mode.DONE;
+         } else if (codeword <= 229) {
+            int value = codeword - 130;
+            if (value < 10) {
+               result.append('0');
+            }
+            result.append(value);
+            return Mode.ASCII;
+         }
+
+         switch (codeword) {
+         case LATCH_C40:
+            return Mode.C40;
+         case LATCH_BASE256:
+            return Mode.BASE256;
+         case FNC1:
+            result.append(GROUP_SEPARATOR);
+            return Mode.ASCII;
+         case UPPER_SHIFT:
+            upperShift = true;
+            break;
+         case MACRO_05:
+            result.append(MACRO_05_HEADER);
+            trailer = MACRO_TRAILER;
+            return Mode.ASCII;
+         case MACRO_06:
+            result.append(MACRO_06_HEADER);
+            trailer = MACRO_TRAILER;
+            return Mode.ASCII;
+         case LATCH_X12:
+            return Mode.X12;
+         case LATCH_TEXT:
+            return Mode.TEXT;
+         case LATCH_EDIFACT:
+            return Mode.EDIFACT;
+         case UNLATCH:
+            // ignored in ASCII mode
+            return Mode.ASCII;
+         default:
+            // structured append, reader programming, ECI and invalid values are not supported
+            return null;
+         }
+      }
+      return Mode.ASCII;
+   }
+
+   private Mode decodeC40OrText(boolean text) {
+      char [] basicSet = text ? TEXT_BASIC_SET : C40_BASIC_SET;
+      int [] values = new int[3];
+      int shift = 0;
+      boolean upperShift = false;
+
+      while (pos < codewords.length) {
+         // a single remaining codeword is encoded in ASCII
+         if (pos == codewords.length - 1) {
+            return Mode.ASCII;
+         }
+         int first = codewords[pos++];
+         if (first == UNLATCH) {
+            return Mode.ASCII;
+         }
+         unpackTriplet(first, codewords[pos++], values);
+
+         for (int value : values) {
+            char ch;
+            switch (shift) {
+            case 0:
+               if (value < 3) {
+                  shift = value + 1;
+                  continue;
+               } else if (value >= basicSet.length) {
+                  return null;
+               }
+               ch = basicSet[value];
+               break;
+            case 1:
+               ch = (char) value;
+               break;
+            case 2:
+               if (value < SHIFT2_SET.length) {
+                  ch = SHIFT2_SET[value];
+               } else if (value == 27) {
+                  ch = GROUP_SEPARATOR;
+               } else if (value == 30) {
+                  upperShift = true;
+                  shift = 0;
+                  continue;
+               } else {
+                  return null;
+               }
+               break;
+            case 3:
+               if (!text) {
+                  // C40 shift 3 holds the lower case letters and the remaining ASCII symbols
+                  ch = (char) (value + 96);
+               } else if (value < TEXT_SHIFT3_SET.length) {
+                  ch = TEXT_SHIFT3_SET[value];
+               } else {
+                  return null;
+               }
+               break;
+            default:
+               return null;
+            }
+            if (upperShift) {
+               ch += 128;
+               upperShift = false;
+            }
+            result.append(ch);
+            shift = 0;
+         }
+      }
+      return Mode.ASCII;
+   }
+
+   private Mode decodeX12() {
+      int [] values = new int[3];
+      while (pos < codewords.length) {
+         if (pos == codewords.length - 1) {
+            return Mode.ASCII;
+         }
+         int first = codewords[pos++];
+         if (first == UNLATCH) {
+            return Mode.ASCII;
+         }
+         unpackTriplet(first, codewords[pos++], values);
+         for (int value : values) {
+            if (value >= X12_SET.length) {
+               return null;
+            }
+            result.append(X12_SET[value]);
+         }
+      }
+      return Mode.ASCII;
+   }
+
+   private Mode decodeEdifact() {
+      // 4 values of 6 bits are packed in 3 codewords
+      while (pos < codewords.length) {
+         int available = Math.min(3, codewords.length - pos);
+         int packed = 0;
+         for (int i = 0; i < 3; ++i) {
+            packed <<= 8;
+            if (i < available) {
+               packed |= codewords[pos + i];
+            }
+         }
+
+         for (int i = 0; i < 4; ++i) {
+            int bitsUsed = 6 * (i + 1);
+            int value = (packed >> (24 - bitsUsed)) & 0x3f;
+            if (value == 0x1f) {
+               // unlatch, the remaining bits of the current codeword are discarded
+               pos += (bitsUsed + 7) / 8;
+               return Mode.ASCII;
+            }
+            if (bitsUsed > available * 8) {
+               pos += available;
+               return Mode.ASCII;
+            }
+            if ((value & 0x20) == 0) {
+               value |= 0x40;
+            }
+            result.append((char) value);
+         }
+         pos += 3;
+      }
+      return Mode.ASCII;
+   }
+
+   private Mode decodeBase256() {
+      int length = unrandomize255(codewords[pos], pos + 1);
+      ++pos;
+      if (length == 0) {
+         length = codewords.length - pos;
+      } else if (length >= 250) {
+         if (pos >= codewords.length) {
+            return null;
+         }
+         length = 250 * (length - 249) + unrandomize255(codewords[pos], pos + 1);
+         ++pos;
+      }
+      if ((length < 0) || (pos + length > codewords.length)) {
+         return null;
+      }
+
+      byte [] bytes = new byte[length];
+      for (int i = 0; i < length; ++i) {
+         bytes[i] = (byte) unrandomize255(codewords[pos], pos + 1);
+         ++pos;
+      }
+      result.append(new String(bytes, StandardCharsets.ISO_8859_1));
+      return Mode.ASCII;
+   }
+
+   private static void unpackTriplet(int first, int second, int [] values) {
+      int full = (first << 8) + second - 1;
+      values[0] = full / 1600;
+      full -= values[0] * 1600;
+      values[1] = full / 40;
+      values[2] = full - values[1] * 40;
+   }
+
+   // position is the 1 based position of the codeword in the data stream
+   private static int unrandomize255(int codeword, int position) {
+      int pseudoRandom = ((149 * position) % 255) + 1;
+      int value = codeword - pseudoRandom;
+      return (value >= 0) ? value : value + 256;
+   }
+
+}
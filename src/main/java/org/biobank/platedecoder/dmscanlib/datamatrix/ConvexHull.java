@@ -0,0 +1,71 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+import java.util.Arrays;
+
+/**
+ * Computes the convex hull of a set of integer points using Andrew's monotone chain algorithm.
+ */
+final class ConvexHull {
+
+   private ConvexHull() {
+      // static methods only
+   }
+
+   /**
+    * Computes the convex hull of the first {@code n} points.
+    *
+    * @param xs  The X coordinates of the points. Must be between 0 and 2^21.
+    *
+    * @param ys  The Y coordinates of the points. Must be between 0 and 2^21.
+    *
+    * @param n  The number of points to use.
+    *
+    * @return the indexes of the points on the hull, in counter clockwise order when the Y axis
+    *         points up. Collinear points are not included.
+    */
+   static int [] compute(int [] xs, int [] ys, int n) {
+      if (n < 3) {
+         int [] result = new int[n];
+         for (int i = 0; i < n; ++i) {
+            result[i] = i;
+         }
+         return result;
+      }
+
+      // sort the indexes by X and then by Y, packed into longs to avoid boxing
+      long [] sorted = new long[n];
+      for (int i = 0; i < n; ++i) {
+         sorted[i] = ((long) xs[i] << 42) | ((long) ys[i] << 21) | i;
+      }
+      Arrays.sort(sorted);
+
+      int [] hull = new int[2 * n];
+      int k = 0;
+
+      // lower hull
+      for (int i = 0; i < n; ++i) {
+         int p = (int) (sorted[i] & 0x1fffff);
+         while ((k >= 2) && (cross(xs, ys, hull[k - 2], hull[k - 1], p) <= 0)) {
+            --k;
+         }
+         hull[k++] = p;
+      }
+
+      // upper hull
+      for (int i = n - 2, lower = k + 1; i >= 0; --i) {
+         int p = (int) (sorted[i] & 0x1fffff);
+         while ((k >= lower) && (cross(xs, ys, hull[k - 2], hull[k - 1], p) <= 0)) {
+            --k;
+         }
+         hull[k++] = p;
+      }
+
+      // the last point is the same as the first
+      return Arrays.copyOf(hull, k - 1);
+   }
+
+   private static long cross(int [] xs, int [] ys, int o, int a, int b) {
+      return (long) (xs[a] - xs[o]) * (ys[b] - ys[o]) - (long) (ys[a] - ys[o]) * (xs[b] - xs[o]);
+   }
+
+}
@@ -0,0 +1,121 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+/**
+ * Decodes the message held in a sampled ECC 200 DataMatrix symbol.
+ *
+ * <p>The symbol must already be sampled into a {@link BitMatrix} with row 0 at the top and the
+ * solid "L" of the finder pattern running along the left column and the bottom row.
+ */
+public final class DataMatrixDecoder {
+
+   private DataMatrixDecoder() {
+      // static methods only
+   }
+
+   /**
+    * Decodes the message in a sampled symbol.
+    *
+    * @param symbol  The modules of the symbol, including the finder and timing patterns.
+    *
+    * @param size  The size of the symbol. Must match the dimensions of {@code symbol}.
+    *
+    * @param maxCorrections  The maximum number of codewords that can be corrected. If more
+    *        codewords need correcting the symbol is rejected.
+    *
+    * @return the decoded message, or {@code null} if the symbol could not be decoded.
+    */
+   public static String decode(BitMatrix symbol, SymbolSize size, long maxCorrections) {
+      if ((symbol.getRows() != size.getRows()) || (symbol.getCols() != size.getCols())) {
+         throw new IllegalArgumentException("symbol does not match size " + size);
+      }
+
+      int [] codewords = readCodewords(symbol, size);
+      int blocks = size.getBlocks();
+      int eccPerBlock = size.getEccPerBlock();
+      int dataCodewords = size.getDataCodewords();
+      int dataPerBlock = dataCodewords / blocks;
+      int [] block = new int[dataPerBlock + eccPerBlock];
+      int [] data = new int[dataCodewords];
+      int corrections = 0;
+
+      // codeword i of block b is stored at position i * blocks + b
+      for (int b = 0; b < blocks; ++b) {
+         for (int i = 0; i < dataPerBlock; ++i) {
+            block[i] = codewords[i * blocks + b];
+         }
+         for (int i = 0; i < eccPerBlock; ++i) {
+            block[dataPerBlock + i] = codewords[dataCodewords + i * blocks + b];
+         }
+
+         int corrected = ReedSolomon.correct(block, eccPerBlock);
+         if (corrected < 0) {
+            return null;
+         }
+         corrections += corrected;
+         if (corrections > maxCorrections) {
+            return null;
+         }
+
+         for (int i = 0; i < dataPerBlock; ++i) {
+            data[i * blocks + b] = block[i];
+         }
+      }
+
+      return CodewordDecoder.decode(data);
+   }
+
+   /**
+    * Extracts the raw codewords, data followed by error correction, from a sampled symbol.
+    */
+   static int [] readCodewords(BitMatrix symbol, SymbolSize size) {
+      ModulePlacement placement = ModulePlacement.forSize(size);
+      int [] codewords = new int[size.getTotalCodewords()];
+
+      for (int row = 0, n = placement.getNumRows(); row < n; ++row) {
+         int symbolRow = size.mappingRowToSymbolRow(row);
+         for (int col = 0, m = placement.getNumCols(); col < m; ++col) {
+            int module = placement.get(row, col);
+            if ((module >= 0) && symbol.get(symbolRow, size.mappingColToSymbolCol(col))) {
+               codewords[module >> 3] |= 0x80 >> (module & 0x7);
+            }
+         }
+      }
+      return codewords;
+   }
+
+   /**
+    * Places the raw codewords, data followed by error correction, into a symbol and draws the
+    * finder and timing patterns.
+    */
+   static BitMatrix writeCodewords(int [] codewords, SymbolSize size) {
+      if (codewords.length != size.getTotalCodewords()) {
+         throw new IllegalArgumentException("invalid number of codewords for size " + size);
+      }
+      BitMatrix symbol = new BitMatrix(size.getRows(), size.getCols());
+
+      for (int row = 0; row < size.getRows(); ++row) {
+         for (int col = 0; col < size.getCols(); ++col) {
+            if (size.isPatternModule(row, col) && size.isPatternModuleDark(row, col)) {
+               symbol.set(row, col, true);
+            }
+         }
+      }
+
+      ModulePlacement placement = ModulePlacement.forSize(size);
+      for (int row = 0, n = placement.getNumRows(); row < n; ++row) {
+         int symbolRow = size.mappingRowToSymbolRow(row);
+         for (int col = 0, m = placement.getNumCols(); col < m; ++col) {
+            int module = placement.get(row, col);
+            boolean dark;
+            if (module >= 0) {
+               dark = (codewords[module >> 3] & (0x80 >> (module & 0x7))) != 0;
+            } else {
+               dark = (module == ModulePlacement.FIXED_DARK);
+            }
+            symbol.set(symbolRow, size.mappingColToSymbolCol(col), dark);
+         }
+      }
+      return symbol;
+   }
+
+}
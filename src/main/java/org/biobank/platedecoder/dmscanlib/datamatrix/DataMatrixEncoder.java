@@ -0,0 +1,145 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+/**
+ * Encodes a message into an ECC 200 DataMatrix symbol.
+ *
+ * <p>The message is encoded with ASCII encodation, pairs of digits are packed into a single
+ * codeword and characters above 127 use the upper shift codeword. This is what most tube
+ * printers produce for inventory IDs.
+ *
+ * <p>The symbol has row 0 at the top and the solid "L" of the finder pattern along the left
+ * column and the bottom row, the same layout read by {@link DataMatrixDecoder}.
+ */
+public final class DataMatrixEncoder {
+
+   private static final int PAD = 129;
+
+   private static final int UPPER_SHIFT = 235;
+
+   private static final int DIGIT_PAIR_OFFSET = 130;
+
+   private DataMatrixEncoder() {
+      // static methods only
+   }
+
+   /**
+    * Encodes a message in the smallest square symbol that can hold it.
+    *
+    * @param message  The message, made of characters between 0 and 255.
+    *
+    * @return the modules of the symbol, including the finder and timing patterns.
+    *
+    * @throws IllegalArgumentException if the message cannot be encoded.
+    */
+   public static BitMatrix encode(String message) {
+      return encode(message, getSymbolSize(message));
+   }
+
+   /**
+    * Encodes a message in a symbol of the given size.
+    *
+    * @param message  The message, made of characters between 0 and 255.
+    *
+    * @param size  The size of the symbol.
+    *
+    * @return the modules of the symbol, including the finder and timing patterns.
+    *
+    * @throws IllegalArgumentException if the message cannot be encoded, or does not fit in the
+    *         symbol.
+    */
+   public static BitMatrix encode(String message, SymbolSize size) {
+      return DataMatrixDecoder.writeCodewords(encodeCodewords(message, size), size);
+   }
+
+   /**
+    * Returns the smallest square symbol that can hold a message.
+    *
+    * @param message  The message, made of characters between 0 and 255.
+    *
+    * @return the symbol size.
+    *
+    * @throws IllegalArgumentException if the message cannot be encoded, or is too long for any
+    *         symbol.
+    */
+   public static SymbolSize getSymbolSize(String message) {
+      int count = encodeData(message).length;
+      for (SymbolSize size : SymbolSize.values()) {
+         if (size.isSquare() && (size.getDataCodewords() >= count)) {
+            return size;
+         }
+      }
+      throw new IllegalArgumentException("message is too long: " + message.length());
+   }
+
+   /**
+    * Returns the codewords, data followed by error correction, for a message.
+    */
+   static int [] encodeCodewords(String message, SymbolSize size) {
+      int [] data = encodeData(message);
+      int dataCodewords = size.getDataCodewords();
+      if (data.length > dataCodewords) {
+         throw new IllegalArgumentException("message too long for symbol " + size + ": " + message);
+      }
+
+      int [] codewords = new int[size.getTotalCodewords()];
+      System.arraycopy(data, 0, codewords, 0, data.length);
+      for (int pos = data.length; pos < dataCodewords; ++pos) {
+         codewords[pos] = (pos == data.length) ? PAD : randomizePad(pos + 1);
+      }
+
+      // codeword i of block b is stored at position i * blocks + b
+      int blocks = size.getBlocks();
+      int eccPerBlock = size.getEccPerBlock();
+      int dataPerBlock = dataCodewords / blocks;
+      int [] block = new int[dataPerBlock + eccPerBlock];
+      for (int b = 0; b < blocks; ++b) {
+         for (int i = 0; i < dataPerBlock; ++i) {
+            block[i] = codewords[i * blocks + b];
+         }
+         ReedSolomon.encode(block, eccPerBlock);
+         for (int i = 0; i < eccPerBlock; ++i) {
+            codewords[dataCodewords + i * blocks + b] = block[dataPerBlock + i];
+         }
+      }
+      return codewords;
+   }
+
+   // ASCII encodation, without padding
+   private static int [] encodeData(String message) {
+      if (message == null) {
+         throw new IllegalArgumentException("message is null");
+      }
+
+      int [] data = new int[2 * message.length()];
+      int count = 0;
+      for (int i = 0; i < message.length(); ++i) {
+         char ch = message.charAt(i);
+         if (isDigit(ch) && (i + 1 < message.length()) && isDigit(message.charAt(i + 1))) {
+            data[count++] = DIGIT_PAIR_OFFSET + (ch - '0') * 10 + (message.charAt(i + 1) - '0');
+            ++i;
+         } else if (ch < 128) {
+            data[count++] = ch + 1;
+         } else if (ch < 256) {
+            data[count++] = UPPER_SHIFT;
+            data[count++] = ch - 128 + 1;
+         } else {
+            throw new IllegalArgumentException("character cannot be encoded: " + (int) ch);
+         }
+      }
+
+      int [] result = new int[count];
+      System.arraycopy(data, 0, result, 0, count);
+      return result;
+   }
+
+   private static boolean isDigit(char ch) {
+      return (ch >= '0') && (ch <= '9');
+   }
+
+   // the 253 state randomising algorithm applied to pad codewords
+   private static int randomizePad(int position) {
+      int pad = PAD + ((149 * position) % 253) + 1;
+      return (pad <= 254) ? pad : pad - 254;
+   }
+
+}
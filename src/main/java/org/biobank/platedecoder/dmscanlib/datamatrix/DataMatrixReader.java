@@ -0,0 +1,737 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.LuminanceImage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Locates and decodes a single DataMatrix symbol inside a rectangular region of an image.
+ *
+ * <p>The region, usually the cell of one well, is binarized using Otsu's method. The connected
+ * regions of dark pixels are found after a small dilation so that the modules of a symbol merge
+ * into one region. The minimum area rectangle enclosing a region is then sampled at every
+ * symbol size and orientation, and the candidates whose finder and timing patterns match best
+ * are passed to the {@link DataMatrixDecoder}. The search is repeated with inverted colours to
+ * find light on dark symbols.
+ *
+ * <p>The settings in {@link DecodeOptions} are used as follows:
+ *
+ * <ul>
+ * <li>the minimum and maximum edge factors limit the length of the symbol's edges, as a fraction
+ *     of the cell width,</li>
+ * <li>the scan gap is the spacing of the grid used to seed the region search, as a fraction of
+ *     the cell width,</li>
+ * <li>the square deviation limits how far, in degrees, the angle between the two solid edges
+ *     of the finder pattern can be from 90 degrees,</li>
+ * <li>the edge threshold is the minimum contrast in the region as a percentage of the full
+ *     range,</li>
+ * <li>corrections is the maximum number of codewords that can be corrected per symbol,
+ *     and</li>
+ * <li>shrink skips pixels when searching for the symbol.</li>
+ * </ul>
+ *
+ * <p>Objects of this class hold scratch buffers that are reused between calls, so an instance
+ * must not be shared between threads.
+ */
+public final class DataMatrixReader {
+
+   @SuppressWarnings("unused")
+   private static final Logger LOG = LoggerFactory.getLogger(DataMatrixReader.class);
+
+   // the minimum finder and timing pattern match for a candidate to be decoded
+   private static final double MIN_PATTERN_SCORE = 0.8;
+
+   // the maximum number of sampled candidates passed to the decoder per region
+   private static final int MAX_CANDIDATES = 4;
+
+   // the number of connected regions examined per binarization
+   private static final int MAX_REGIONS = 3;
+
+   // the smallest module size, in pixels, that can be sampled
+   private static final double MIN_MODULE_SIZE = 1.5;
+
+   private static final double SQRT_2 = Math.sqrt(2.0);
+
+   private static final SymbolSize [] SIZES = SymbolSize.values();
+
+   private final DecodeOptions options;
+
+   private final int shrink;
+
+   private final int maxCorrections;
+
+   private int [] luminance = new int[0];
+
+   private byte [] mask = new byte[0];
+
+   private byte [] dilated = new byte[0];
+
+   private byte [] dilateScratch = new byte[0];
+
+   private int [] labels = new int[0];
+
+   private int [] stack = new int[0];
+
+   /**
+    * Creates a reader that uses the given decoder settings.
+    *
+    * @param options  The settings for the decoder.
+    */
+   public DataMatrixReader(DecodeOptions options) {
+      this.options = options;
+      this.shrink = (int) Math.max(1, options.getShrink());
+      this.maxCorrections = (int) Math.min(Integer.MAX_VALUE, Math.max(0, options.getCorrections()));
+   }
+
+   /**
+    * Decodes the symbol found in a region of the image.
+    *
+    * @param image  The image.
+    *
+    * @param x  The left edge of the region, in pixels.
+    *
+    * @param y  The top edge of the region, in pixels.
+    *
+    * @param width  The width of the region, in pixels.
+    *
+    * @param height  The height of the region, in pixels.
+    *
+    * @return the message held in the symbol, or {@code null} if no symbol could be decoded.
+    */
+   public String decode(LuminanceImage image, double x, double y, double width, double height) {
+      int x0 = Math.max(0, (int) Math.floor(x));
+      int y0 = Math.max(0, (int) Math.floor(y));
+      int x1 = Math.min(image.getWidth(), (int) Math.ceil(x + width));
+      int y1 = Math.min(image.getHeight(), (int) Math.ceil(y + height));
+      if ((x1 - x0 < 8) || (y1 - y0 < 8)) {
+         return null;
+      }
+
+      Region region = new Region(image, x0, y0, x1, y1, shrink);
+      if (!loadRegion(region)) {
+         return null;
+      }
+
+      double minEdge = options.getMinEdgeFactor() * width;
+      double maxEdge = Double.MAX_VALUE;
+      if (options.getMaxEdgeFactor() > 0) {
+         maxEdge = options.getMaxEdgeFactor() * width;
+      }
+
+      int gap = (int) Math.round(options.getScanGapFactor() * width / shrink);
+      gap = Math.max(1, Math.min(gap, Math.min(region.width, region.height) / 4));
+
+      // start with a dilation that only bridges small gaps, so that the symbol stays separated
+      // from its surroundings, and grow it if the modules did not merge
+      int radius = Math.max(1, (int) Math.round(Math.min(region.width, region.height) / 80.0));
+
+      for (boolean darkOnLight : new boolean [] { true, false }) {
+         binarize(region, darkOnLight);
+         for (int r = radius; r <= 4 * radius; r *= 2) {
+            String message = searchRegions(region, darkOnLight, r, gap, minEdge, maxEdge);
+            if (message != null) {
+               return message;
+            }
+         }
+      }
+      return null;
+   }
+
+   /*
+    * Loads the sub sampled luminance values of the region and calculates the threshold.
+    *
+    * Returns false if the contrast in the region is below the edge threshold.
+    */
+   private boolean loadRegion(Region region) {
+      int size = region.width * region.height;
+      if (luminance.length < size) {
+         luminance = new int[size];
+         mask = new byte[size];
+         dilated = new byte[size];
+         dilateScratch = new byte[size];
+         labels = new int[size];
+         stack = new int[size];
+      }
+
+      LuminanceImage image = region.image;
+      int min = 255;
+      int max = 0;
+      int [] histogram = new int[256];
+      int cx0 = region.width / 6;
+      int cx1 = region.width - cx0;
+      int cy0 = region.height / 6;
+      int cy1 = region.height - cy0;
+
+      for (int j = 0; j < region.height; ++j) {
+         int py = region.y0 + j * region.step;
+         for (int i = 0; i < region.width; ++i) {
+            int value = image.get(region.x0 + i * region.step, py);
+            luminance[j * region.width + i] = value;
+            if (value < min) {
+               min = value;
+            }
+            if (value > max) {
+               max = value;
+            }
+            if ((i >= cx0) && (i < cx1) && (j >= cy0) && (j < cy1)) {
+               ++histogram[value];
+            }
+         }
+      }
+
+      if ((max - min) * 100 < options.getEdgeThresh() * 255) {
+         return false;
+      }
+      region.threshold = otsuThreshold(histogram);
+      return true;
+   }
+
+   private static int otsuThreshold(int [] histogram) {
+      long total = 0;
+      long sum = 0;
+      for (int i = 0; i < histogram.length; ++i) {
+         total += histogram[i];
+         sum += (long) i * histogram[i];
+      }
+
+      long sumBackground = 0;
+      long weightBackground = 0;
+      double maxVariance = -1;
+      int threshold = 128;
+
+      for (int i = 0; i < histogram.length; ++i) {
+         weightBackground += histogram[i];
+         if (weightBackground == 0) {
+            continue;
+         }
+         long weightForeground = total - weightBackground;
+         if (weightForeground == 0) {
+            break;
+         }
+         sumBackground += (long) i * histogram[i];
+         double meanBackground = (double) sumBackground / weightBackground;
+         double meanForeground = (double) (sum - sumBackground) / weightForeground;
+         double diff = meanBackground - meanForeground;
+         double variance = (double) weightBackground * weightForeground * diff * diff;
+         if (variance > maxVariance) {
+            maxVariance = variance;
+            // use the midpoint between the class means, which is more stable than the split
+            // point when the histogram has two narrow peaks
+            threshold = (int) Math.round((meanBackground + meanForeground) / 2.0);
+         }
+      }
+      return threshold;
+   }
+
+   private void binarize(Region region, boolean darkOnLight) {
+      int size = region.width * region.height;
+      int threshold = region.threshold;
+      for (int i = 0; i < size; ++i) {
+         boolean dark = luminance[i] < threshold;
+         mask[i] = (byte) ((dark == darkOnLight) ? 1 : 0);
+      }
+   }
+
+   // separable box dilation of the mask into the dilated buffer
+   private void dilate(Region region, int radius) {
+      int w = region.width;
+      int h = region.height;
+      byte [] temp = dilateScratch;
+
+      for (int j = 0; j < h; ++j) {
+         int offset = j * w;
+         int count = 0;
+         for (int i = 0; i < Math.min(radius, w); ++i) {
+            count += mask[offset + i];
+         }
+         for (int i = 0; i < w; ++i) {
+            if (i + radius < w) {
+               count += mask[offset + i + radius];
+            }
+            if (i - radius - 1 >= 0) {
+               count -= mask[offset + i - radius - 1];
+            }
+            temp[offset + i] = (byte) ((count > 0) ? 1 : 0);
+         }
+      }
+
+      for (int i = 0; i < w; ++i) {
+         int count = 0;
+         for (int j = 0; j < Math.min(radius, h); ++j) {
+            count += temp[j * w + i];
+         }
+         for (int j = 0; j < h; ++j) {
+            if (j + radius < h) {
+               count += temp[(j + radius) * w + i];
+            }
+            if (j - radius - 1 >= 0) {
+               count -= temp[(j - radius - 1) * w + i];
+            }
+            dilated[j * w + i] = (byte) ((count > 0) ? 1 : 0);
+         }
+      }
+   }
+
+   private String searchRegions(Region region,
+                                boolean darkOnLight,
+                                int radius,
+                                int gap,
+                                double minEdge,
+                                double maxEdge) {
+      dilate(region, radius);
+      List<Component> components = labelComponents(region, gap);
+      components.sort((a, b) -> Integer.compare(b.count, a.count));
+
+      int examined = 0;
+      for (Component component : components) {
+         if (examined >= MAX_REGIONS) {
+            break;
+         }
+         if (component.touchesBorder) {
+            continue;
+         }
+         double extent = Math.max(component.maxX - component.minX + 1,
+                                  component.maxY - component.minY + 1) * (double) region.step;
+         if ((extent < minEdge) || (extent > maxEdge * SQRT_2)) {
+            continue;
+         }
+         ++examined;
+
+         double [][] hull = hull(region, component);
+         if (hull[0].length < 3) {
+            continue;
+         }
+         double [] rect = minAreaRectangle(hull);
+         double edge1 = Math.hypot(rect[2] - rect[0], rect[3] - rect[1]);
+         double edge2 = Math.hypot(rect[4] - rect[2], rect[5] - rect[3]);
+         if ((Math.min(edge1, edge2) < minEdge) || (Math.max(edge1, edge2) > maxEdge)) {
+            continue;
+         }
+
+         String message = decodeRectangle(region, darkOnLight, hull, rect);
+         if (message != null) {
+            return message;
+         }
+      }
+      return null;
+   }
+
+   private List<Component> labelComponents(Region region, int gap) {
+      int w = region.width;
+      int h = region.height;
+      List<Component> components = new ArrayList<Component>();
+
+      for (int i = 0, n = w * h; i < n; ++i) {
+         labels[i] = -1;
+      }
+
+      for (int j = 0; j < h; ++j) {
+         boolean gridRow = (j % gap) == 0;
+         for (int i = 0; i < w; ++i) {
+            int index = j * w + i;
+            if ((dilated[index] == 0) || (labels[index] >= 0)) {
+               continue;
+            }
+            // only seed from pixels on the scan grid
+            if (!gridRow && ((i % gap) != 0)) {
+               continue;
+            }
+            components.add(floodFill(region, i, j, components.size()));
+         }
+      }
+      return components;
+   }
+
+   private Component floodFill(Region region, int seedX, int seedY, int label) {
+      int w = region.width;
+      int h = region.height;
+      Component component = new Component(label, seedX, seedY);
+      int top = 0;
+
+      stack[top++] = seedY * w + seedX;
+      labels[seedY * w + seedX] = label;
+
+      while (top > 0) {
+         int index = stack[--top];
+         int px = index % w;
+         int py = index / w;
+         component.add(px, py, w, h);
+
+         for (int dy = -1; dy <= 1; ++dy) {
+            int ny = py + dy;
+            if ((ny < 0) || (ny >= h)) {
+               continue;
+            }
+            for (int dx = -1; dx <= 1; ++dx) {
+               int nx = px + dx;
+               if ((nx < 0) || (nx >= w)) {
+                  continue;
+               }
+               int neighbour = ny * w + nx;
+               if ((dilated[neighbour] != 0) && (labels[neighbour] < 0)) {
+                  labels[neighbour] = label;
+                  stack[top++] = neighbour;
+               }
+            }
+         }
+      }
+      return component;
+   }
+
+   /*
+    * Returns the convex hull, in image coordinates, of the undilated pixels of a component.
+    *
+    * The points are returned as {xs, ys} in counter clockwise order.
+    */
+   private double [][] hull(Region region, Component component) {
+      int w = region.width;
+      int rows = component.maxY - component.minY + 1;
+      int [] px = new int[rows * 4];
+      int [] py = new int[rows * 4];
+      int n = 0;
+
+      for (int j = component.minY; j <= component.maxY; ++j) {
+         int first = -1;
+         int last = -1;
+         for (int i = component.minX; i <= component.maxX; ++i) {
+            int index = j * w + i;
+            if ((mask[index] != 0) && (labels[index] == component.label)) {
+               if (first < 0) {
+                  first = i;
+               }
+               last = i;
+            }
+         }
+         if (first >= 0) {
+            px[n] = first;     py[n++] = j;
+            px[n] = first;     py[n++] = j + 1;
+            px[n] = last + 1;  py[n++] = j;
+            px[n] = last + 1;  py[n++] = j + 1;
+         }
+      }
+
+      int [] order = ConvexHull.compute(px, py, n);
+      double [][] result = new double[2][order.length];
+      for (int k = 0; k < order.length; ++k) {
+         result[0][k] = region.x0 + px[order[k]] * (double) region.step;
+         result[1][k] = region.y0 + py[order[k]] * (double) region.step;
+      }
+      return result;
+   }
+
+   /*
+    * Rotating calipers over the hull edges. Returns the 4 corners of the rectangle as
+    * {x0, y0, x1, y1, x2, y2, x3, y3} in cyclic order.
+    */
+   private static double [] minAreaRectangle(double [][] hull) {
+      double [] xs = hull[0];
+      double [] ys = hull[1];
+      int n = xs.length;
+      double bestArea = Double.MAX_VALUE;
+      double [] best = null;
+
+      for (int k = 0; k < n; ++k) {
+         double ex = xs[(k + 1) % n] - xs[k];
+         double ey = ys[(k + 1) % n] - ys[k];
+         double length = Math.hypot(ex, ey);
+         if (length == 0) {
+            continue;
+         }
+         double ux = ex / length;
+         double uy = ey / length;
+         double minU = Double.MAX_VALUE;
+         double maxU = -Double.MAX_VALUE;
+         double minV = Double.MAX_VALUE;
+         double maxV = -Double.MAX_VALUE;
+
+         for (int m = 0; m < n; ++m) {
+            double u = xs[m] * ux + ys[m] * uy;
+            double v = -xs[m] * uy + ys[m] * ux;
+            minU = Math.min(minU, u);
+            maxU = Math.max(maxU, u);
+            minV = Math.min(minV, v);
+            maxV = Math.max(maxV, v);
+         }
+
+         double area = (maxU - minU) * (maxV - minV);
+         if (area < bestArea) {
+            bestArea = area;
+            best = new double [] {
+               minU * ux - minV * uy, minU * uy + minV * ux,
+               maxU * ux - minV * uy, maxU * uy + minV * ux,
+               maxU * ux - maxV * uy, maxU * uy + maxV * ux,
+               minU * ux - maxV * uy, minU * uy + maxV * ux
+            };
+         }
+      }
+      return best;
+   }
+
+   private String decodeRectangle(Region region,
+                                  boolean darkOnLight,
+                                  double [][] hull,
+                                  double [] rect) {
+      List<Candidate> candidates = new ArrayList<Candidate>();
+
+      for (int start = 0; start < 4; ++start) {
+         for (int direction = -1; direction <= 1; direction += 2) {
+            // corners in the order top left, top right, bottom right, bottom left
+            double [] corners = new double[8];
+            for (int k = 0; k < 4; ++k) {
+               int c = (start + direction * k + 4) % 4;
+               corners[2 * k] = rect[2 * c];
+               corners[2 * k + 1] = rect[2 * c + 1];
+            }
+            double top = Math.hypot(corners[2] - corners[0], corners[3] - corners[1]);
+            double left = Math.hypot(corners[6] - corners[0], corners[7] - corners[1]);
+
+            for (SymbolSize size : SIZES) {
+               double aspect = (double) size.getCols() / size.getRows();
+               if (Math.abs(top / left - aspect) > 0.25 * aspect) {
+                  continue;
+               }
+               if (Math.min(top / size.getCols(), left / size.getRows()) < MIN_MODULE_SIZE) {
+                  continue;
+               }
+               double score = patternScore(region, darkOnLight, size, corners);
+               if (score >= MIN_PATTERN_SCORE) {
+                  candidates.add(new Candidate(size, corners, score));
+               }
+            }
+         }
+      }
+
+      candidates.sort((a, b) -> Double.compare(b.score, a.score));
+
+      for (int k = 0, n = Math.min(MAX_CANDIDATES, candidates.size()); k < n; ++k) {
+         Candidate candidate = candidates.get(k);
+         if (!isSquareEnough(hull, candidate.corners)) {
+            continue;
+         }
+
+         double [] refined = refineCorners(hull, candidate.corners);
+         String message = decodeCandidate(region, darkOnLight, candidate.size, refined);
+         if (message == null) {
+            message = decodeCandidate(region, darkOnLight, candidate.size, candidate.corners);
+         }
+         if (message != null) {
+            return message;
+         }
+      }
+      return null;
+   }
+
+   private String decodeCandidate(Region region,
+                                  boolean darkOnLight,
+                                  SymbolSize size,
+                                  double [] corners) {
+      BitMatrix symbol = new BitMatrix(size.getRows(), size.getCols());
+      for (int row = 0; row < size.getRows(); ++row) {
+         for (int col = 0; col < size.getCols(); ++col) {
+            if (sampleModule(region, darkOnLight, size, corners, row, col)) {
+               symbol.set(row, col, true);
+            }
+         }
+      }
+      return DataMatrixDecoder.decode(symbol, size, maxCorrections);
+   }
+
+   // the fraction of finder and timing pattern modules, on the symbol's perimeter, that match
+   private double patternScore(Region region,
+                               boolean darkOnLight,
+                               SymbolSize size,
+                               double [] corners) {
+      int rows = size.getRows();
+      int cols = size.getCols();
+      int matches = 0;
+      int total = 0;
+
+      for (int col = 0; col < cols; ++col) {
+         matches += patternMatch(region, darkOnLight, size, corners, 0, col);
+         matches += patternMatch(region, darkOnLight, size, corners, rows - 1, col);
+         total += 2;
+      }
+      for (int row = 1; row < rows - 1; ++row) {
+         matches += patternMatch(region, darkOnLight, size, corners, row, 0);
+         matches += patternMatch(region, darkOnLight, size, corners, row, cols - 1);
+         total += 2;
+      }
+      return (double) matches / total;
+   }
+
+   private int patternMatch(Region region,
+                            boolean darkOnLight,
+                            SymbolSize size,
+                            double [] corners,
+                            int row,
+                            int col) {
+      boolean expected = size.isPatternModuleDark(row, col);
+      return (sampleModule(region, darkOnLight, size, corners, row, col) == expected) ? 1 : 0;
+   }
+
+   /*
+    * Samples the module at the given row and column using bilinear interpolation between the
+    * corners of the symbol.
+    */
+   private boolean sampleModule(Region region,
+                                boolean darkOnLight,
+                                SymbolSize size,
+                                double [] corners,
+                                int row,
+                                int col) {
+      double u = (col + 0.5) / size.getCols();
+      double v = (row + 0.5) / size.getRows();
+      double w0 = (1 - u) * (1 - v);
+      double w1 = u * (1 - v);
+      double w2 = u * v;
+      double w3 = (1 - u) * v;
+      double x = w0 * corners[0] + w1 * corners[2] + w2 * corners[4] + w3 * corners[6];
+      double y = w0 * corners[1] + w1 * corners[3] + w2 * corners[5] + w3 * corners[7];
+
+      double moduleSize = Math.hypot(corners[2] - corners[0], corners[3] - corners[1])
+         / size.getCols();
+      int radius = Math.min(2, (int) (moduleSize / 4));
+
+      LuminanceImage image = region.image;
+      int cx = (int) x;
+      int cy = (int) y;
+      int sum = 0;
+      int count = 0;
+      for (int py = Math.max(0, cy - radius), ey = Math.min(image.getHeight() - 1, cy + radius);
+           py <= ey; ++py) {
+         for (int px = Math.max(0, cx - radius), ex = Math.min(image.getWidth() - 1, cx + radius);
+              px <= ex; ++px) {
+            sum += image.get(px, py);
+            ++count;
+         }
+      }
+      if (count == 0) {
+         return false;
+      }
+      boolean dark = sum < region.threshold * count;
+      return dark == darkOnLight;
+   }
+
+   /*
+    * Checks the angle between the two solid edges of the finder pattern. The corners of the hull
+    * closest to the top left, bottom left and bottom right corners of the symbol are used.
+    */
+   private boolean isSquareEnough(double [][] hull, double [] corners) {
+      int topLeft = closestHullPoint(hull, corners[0], corners[1]);
+      int bottomLeft = closestHullPoint(hull, corners[6], corners[7]);
+      int bottomRight = closestHullPoint(hull, corners[4], corners[5]);
+
+      double ax = hull[0][topLeft] - hull[0][bottomLeft];
+      double ay = hull[1][topLeft] - hull[1][bottomLeft];
+      double bx = hull[0][bottomRight] - hull[0][bottomLeft];
+      double by = hull[1][bottomRight] - hull[1][bottomLeft];
+      double lengths = Math.hypot(ax, ay) * Math.hypot(bx, by);
+      if (lengths == 0) {
+         return false;
+      }
+      double cos = Math.max(-1, Math.min(1, (ax * bx + ay * by) / lengths));
+      double angle = Math.toDegrees(Math.acos(cos));
+      return Math.abs(angle - 90) <= options.getSquareDev();
+   }
+
+   /*
+    * Moves the three corners of the finder pattern onto the closest hull points and places the
+    * fourth corner so that the symbol is a parallelogram. This handles images that are slightly
+    * skewed.
+    */
+   private static double [] refineCorners(double [][] hull, double [] corners) {
+      int topLeft = closestHullPoint(hull, corners[0], corners[1]);
+      int bottomRight = closestHullPoint(hull, corners[4], corners[5]);
+      int bottomLeft = closestHullPoint(hull, corners[6], corners[7]);
+
+      double [] result = new double[8];
+      result[0] = hull[0][topLeft];
+      result[1] = hull[1][topLeft];
+      result[4] = hull[0][bottomRight];
+      result[5] = hull[1][bottomRight];
+      result[6] = hull[0][bottomLeft];
+      result[7] = hull[1][bottomLeft];
+      result[2] = result[0] + result[4] - result[6];
+      result[3] = result[1] + result[5] - result[7];
+      return result;
+   }
+
+   private static int closestHullPoint(double [][] hull, double x, double y) {
+      int closest = 0;
+      double closestDistance = Double.MAX_VALUE;
+      for (int k = 0; k < hull[0].length; ++k) {
+         double dx = hull[0][k] - x;
+         double dy = hull[1][k] - y;
+         double distance = dx * dx + dy * dy;
+         if (distance < closestDistance) {
+            closestDistance = distance;
+            closest = k;
+         }
+      }
+      return closest;
+   }
+
+   private static final class Region {
+      final LuminanceImage image;
+      final int x0;
+      final int y0;
+      final int step;
+      final int width;
+      final int height;
+      int threshold;
+
+      Region(LuminanceImage image, int x0, int y0, int x1, int y1, int step) {
+         this.image = image;
+         this.x0 = x0;
+         this.y0 = y0;
+         this.step = step;
+         this.width = (x1 - x0 + step - 1) / step;
+         this.height = (y1 - y0 + step - 1) / step;
+      }
+   }
+
+   private static final class Component {
+      final int label;
+      int count = 0;
+      int minX;
+      int maxX;
+      int minY;
+      int maxY;
+      boolean touchesBorder = false;
+
+      Component(int label, int x, int y) {
+         this.label = label;
+         this.minX = x;
+         this.maxX = x;
+         this.minY = y;
+         this.maxY = y;
+      }
+
+      void add(int x, int y, int width, int height) {
+         ++count;
+         minX = Math.min(minX, x);
+         maxX = Math.max(maxX, x);
+         minY = Math.min(minY, y);
+         maxY = Math.max(maxY, y);
+         if ((x == 0) || (y == 0) || (x == width - 1) || (y == height - 1)) {
+            touchesBorder = true;
+         }
+      }
+   }
+
+   private static final class Candidate {
+      final SymbolSize size;
+      final double [] corners;
+      final double score;
+
+      Candidate(SymbolSize size, double [] corners, double score) {
+         this.size = size;
+         this.corners = corners;
+         this.score = score;
+      }
+   }
+
+}
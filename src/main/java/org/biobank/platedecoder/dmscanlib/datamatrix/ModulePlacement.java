@@ -0,0 +1,209 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Maps the modules of an ECC 200 mapping matrix to codeword bits.
+ *
+ * <p>The mapping matrix is the symbol with the finder and timing patterns of every data region
+ * removed. The placement follows the algorithm in Annex F of ISO/IEC 16022. Each module holds
+ * either the bit of a codeword, or a fixed value when the matrix is larger than the codewords
+ * need.
+ *
+ * <p>The placement only depends on the symbol size, so it is calculated once per size and shared.
+ */
+final class ModulePlacement {
+
+   /**
+    * The value for a module that does not hold a codeword bit and is always light.
+    */
+   static final int FIXED_LIGHT = -1;
+
+   /**
+    * The value for a module that does not hold a codeword bit and is always dark.
+    */
+   static final int FIXED_DARK = -2;
+
+   private static final Map<SymbolSize, ModulePlacement> PLACEMENTS =
+      new EnumMap<SymbolSize, ModulePlacement>(SymbolSize.class);
+
+   static {
+      for (SymbolSize size : SymbolSize.values()) {
+         PLACEMENTS.put(size, new ModulePlacement(size.getMappingRows(), size.getMappingCols()));
+      }
+   }
+
+   private final int numRows;
+
+   private final int numCols;
+
+   // codeword index * 8 + bit index (0 is the most significant bit), or a FIXED_ value
+   private final int [] modules;
+
+   private ModulePlacement(int numRows, int numCols) {
+      this.numRows = numRows;
+      this.numCols = numCols;
+      this.modules = new int[numRows * numCols];
+      place();
+   }
+
+   /**
+    * Returns the placement for the given symbol size.
+    *
+    * @param size  The symbol size.
+    *
+    * @return the placement for the mapping matrix of the symbol.
+    */
+   static ModulePlacement forSize(SymbolSize size) {
+      return PLACEMENTS.get(size);
+   }
+
+   int getNumRows() {
+      return numRows;
+   }
+
+   int getNumCols() {
+      return numCols;
+   }
+
+   /**
+    * Returns what the module at the given location in the mapping matrix holds.
+    *
+    * @param row  The row in the mapping matrix.
+    *
+    * @param col  The column in the mapping matrix.
+    *
+    * @return the codeword index multiplied by 8 plus the bit index, where bit index 0 is the most
+    *         significant bit, or either {@link #FIXED_LIGHT} or {@link #FIXED_DARK}.
+    */
+   int get(int row, int col) {
+      return modules[row * numCols + col];
+   }
+
+   private void place() {
+      boolean [] assigned = new boolean[modules.length];
+      for (int i = 0; i < modules.length; ++i) {
+         modules[i] = FIXED_LIGHT;
+      }
+
+      int pos = 0;
+      int row = 4;
+      int col = 0;
+
+      do {
+         // repeatedly first check for one of the special corner cases
+         if ((row == numRows) && (col == 0)) {
+            corner1(pos++, assigned);
+         }
+         if ((row == numRows - 2) && (col == 0) && ((numCols % 4) != 0)) {
+            corner2(pos++, assigned);
+         }
+         if ((row == numRows - 2) && (col == 0) && ((numCols % 8) == 4)) {
+            corner3(pos++, assigned);
+         }
+         if ((row == numRows + 4) && (col == 2) && ((numCols % 8) == 0)) {
+            corner4(pos++, assigned);
+         }
+
+         // sweep upward diagonally
+         do {
+            if ((row < numRows) && (col >= 0) && !assigned[row * numCols + col]) {
+               utah(row, col, pos++, assigned);
+            }
+            row -= 2;
+            col += 2;
+         } while ((row >= 0) && (col < numCols));
+         row += 1;
+         col += 3;
+
+         // sweep downward diagonally
+         do {
+            if ((row >= 0) && (col < numCols) && !assigned[row * numCols + col]) {
+               utah(row, col, pos++, assigned);
+            }
+            row += 2;
+            col -= 2;
+         } while ((row < numRows) && (col >= 0));
+         row += 3;
+         col += 1;
+      } while ((row < numRows) || (col < numCols));
+
+      // lastly, if the lower right corner is untouched, fill in the fixed pattern
+      if (!assigned[modules.length - 1]) {
+         modules[modules.length - 1] = FIXED_DARK;
+         modules[(numRows - 2) * numCols + numCols - 2] = FIXED_DARK;
+      }
+   }
+
+   private void module(int row, int col, int pos, int bit, boolean [] assigned) {
+      if (row < 0) {
+         row += numRows;
+         col += 4 - ((numRows + 4) % 8);
+      }
+      if (col < 0) {
+         col += numCols;
+         row += 4 - ((numCols + 4) % 8);
+      }
+      int index = row * numCols + col;
+      modules[index] = pos * 8 + bit;
+      assigned[index] = true;
+   }
+
+   // places the 8 bits of a standard shaped codeword
+   private void utah(int row, int col, int pos, boolean [] assigned) {
+      module(row - 2, col - 2, pos, 0, assigned);
+      module(row - 2, col - 1, pos, 1, assigned);
+      module(row - 1, col - 2, pos, 2, assigned);
+      module(row - 1, col - 1, pos, 3, assigned);
+      module(row - 1, col,     pos, 4, assigned);
+      module(row,     col - 2, pos, 5, assigned);
+      module(row,     col - 1, pos, 6, assigned);
+      module(row,     col,     pos, 7, assigned);
+   }
+
+   private void corner1(int pos, boolean [] assigned) {
+      module(numRows - 1, 0,           pos, 0, assigned);
+      module(numRows - 1, 1,           pos, 1, assigned);
+      module(numRows - 1, 2,           pos, 2, assigned);
+      module(0,           numCols - 2, pos, 3, assigned);
+      module(0,           numCols - 1, pos, 4, assigned);
+      module(1,           numCols - 1, pos, 5, assigned);
+      module(2,           numCols - 1, pos, 6, assigned);
+      module(3,           numCols - 1, pos, 7, assigned);
+   }
+
+   private void corner2(int pos, boolean [] assigned) {
+      module(numRows - 3, 0,           pos, 0, assigned);
+      module(numRows - 2, 0,           pos, 1, assigned);
+      module(numRows - 1, 0,           pos, 2, assigned);
+      module(0,           numCols - 4, pos, 3, assigned);
+      module(0,           numCols - 3, pos, 4, assigned);
+      module(0,           numCols - 2, pos, 5, assigned);
+      module(0,           numCols - 1, pos, 6, assigned);
+      module(1,           numCols - 1, pos, 7, assigned);
+   }
+
+   private void corner3(int pos, boolean [] assigned) {
+      module(numRows - 3, 0,           pos, 0, assigned);
+      module(numRows - 2, 0,           pos, 1, assigned);
+      module(numRows - 1, 0,           pos, 2, assigned);
+      module(0,           numCols - 2, pos, 3, assigned);
+      module(0,           numCols - 1, pos, 4, assigned);
+      module(1,           numCols - 1, pos, 5, assigned);
+      module(2,           numCols - 1, pos, 6, assigned);
+      module(3,           numCols - 1, pos, 7, assigned);
+   }
+
+   private void corner4(int pos, boolean [] assigned) {
+      module(numRows - 1, 0,           pos, 0, assigned);
+      module(numRows - 1, numCols - 1, pos, 1, assigned);
+      module(0,           numCols - 3, pos, 2, assigned);
+      module(0,           numCols - 2, pos, 3, assigned);
+      module(0,           numCols - 1, pos, 4, assigned);
+      module(1,           numCols - 3, pos, 5, assigned);
+      module(1,           numCols - 2, pos, 6, assigned);
+      module(1,           numCols - 1, pos, 7, assigned);
+   }
+
+}
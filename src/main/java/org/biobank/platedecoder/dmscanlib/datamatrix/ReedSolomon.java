@@ -0,0 +1,321 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+/**
+ * Reed-Solomon error correction over GF(256) as used by ECC 200 DataMatrix symbols.
+ *
+ * <p>The field is generated by the primitive polynomial {@code x^8 + x^5 + x^3 + x^2 + 1}
+ * (0x12D) and the generator polynomial roots start at {@code a^1}.
+ *
+ * <p>Polynomials are held in {@code int} arrays with the coefficient of the highest degree term
+ * first.
+ */
+public final class ReedSolomon {
+
+   private static final int PRIMITIVE = 0x12D;
+
+   private static final int FIELD_SIZE = 256;
+
+   private static final int GENERATOR_BASE = 1;
+
+   private static final int [] EXP = new int[2 * FIELD_SIZE];
+
+   private static final int [] LOG = new int[FIELD_SIZE];
+
+   private static final int [] ZERO = new int [] { 0 };
+
+   private static final int [] ONE = new int [] { 1 };
+
+   static {
+      int x = 1;
+      for (int i = 0; i < FIELD_SIZE - 1; ++i) {
+         EXP[i] = x;
+         LOG[x] = i;
+         x <<= 1;
+         if (x >= FIELD_SIZE) {
+            x ^= PRIMITIVE;
+         }
+      }
+      for (int i = FIELD_SIZE - 1; i < EXP.length; ++i) {
+         EXP[i] = EXP[i - (FIELD_SIZE - 1)];
+      }
+   }
+
+   private ReedSolomon() {
+      // static methods only
+   }
+
+   /**
+    * Corrects errors in a single Reed-Solomon block, in place.
+    *
+    * @param block  The data codewords followed by the error correction codewords.
+    *
+    * @param eccCount  The number of error correction codewords at the end of the block.
+    *
+    * @return the number of codewords that were corrected, or {@code -1} if the block has more
+    *         errors than can be corrected.
+    */
+   public static int correct(int [] block, int eccCount) {
+      int [] syndromes = new int[eccCount];
+      boolean noError = true;
+      for (int i = 0; i < eccCount; ++i) {
+         int eval = evaluate(block, EXP[i + GENERATOR_BASE]);
+         syndromes[eccCount - 1 - i] = eval;
+         if (eval != 0) {
+            noError = false;
+         }
+      }
+      if (noError) {
+         return 0;
+      }
+
+      int [][] sigmaOmega = euclidean(monomial(eccCount, 1), normalize(syndromes), eccCount);
+      if (sigmaOmega == null) {
+         return -1;
+      }
+
+      int [] locations = errorLocations(sigmaOmega[0]);
+      if (locations == null) {
+         return -1;
+      }
+
+      int [] magnitudes = errorMagnitudes(sigmaOmega[1], locations);
+      for (int i = 0; i < locations.length; ++i) {
+         int position = block.length - 1 - LOG[locations[i]];
+         if (position < 0) {
+            return -1;
+         }
+         block[position] ^= magnitudes[i];
+      }
+      return locations.length;
+   }
+
+   /**
+    * Calculates the error correction codewords for a single Reed-Solomon block, in place.
+    *
+    * @param block  The data codewords followed by room for the error correction codewords.
+    *
+    * @param eccCount  The number of error correction codewords to place at the end of the block.
+    */
+   public static void encode(int [] block, int eccCount) {
+      int dataCount = block.length - eccCount;
+      if (dataCount <= 0) {
+         throw new IllegalArgumentException("block has no room for data codewords");
+      }
+
+      int [] generator = ONE;
+      for (int i = 0; i < eccCount; ++i) {
+         generator = multiply(generator, new int [] { 1, EXP[i + GENERATOR_BASE] });
+      }
+
+      // remainder of data * x^eccCount divided by the generator
+      int [] remainder = new int[eccCount];
+      for (int i = 0; i < dataCount; ++i) {
+         int factor = block[i] ^ remainder[0];
+         System.arraycopy(remainder, 1, remainder, 0, eccCount - 1);
+         remainder[eccCount - 1] = 0;
+         for (int j = 0; j < eccCount; ++j) {
+            remainder[j] ^= mul(generator[j + 1], factor);
+         }
+      }
+      System.arraycopy(remainder, 0, block, dataCount, eccCount);
+   }
+
+   private static int [][] euclidean(int [] a, int [] b, int eccCount) {
+      if (degree(a) < degree(b)) {
+         int [] temp = a;
+         a = b;
+         b = temp;
+      }
+
+      int [] rLast = a;
+      int [] r = b;
+      int [] tLast = ZERO;
+      int [] t = ONE;
+
+      while (2 * degree(r) >= eccCount) {
+         int [] rLastLast = rLast;
+         int [] tLastLast = tLast;
+         rLast = r;
+         tLast = t;
+
+         if (isZero(rLast)) {
+            return null;
+         }
+         r = rLastLast;
+         int [] q = ZERO;
+         int dltInverse = inverse(coefficient(rLast, degree(rLast)));
+         while ((degree(r) >= degree(rLast)) && !isZero(r)) {
+            int degreeDiff = degree(r) - degree(rLast);
+            int scale = mul(coefficient(r, degree(r)), dltInverse);
+            q = add(q, monomial(degreeDiff, scale));
+            r = add(r, multiplyByMonomial(rLast, degreeDiff, scale));
+         }
+
+         t = add(multiply(q, tLast), tLastLast);
+
+         if (degree(r) >= degree(rLast)) {
+            return null;
+         }
+      }
+
+      int sigmaTildeAtZero = coefficient(t, 0);
+      if (sigmaTildeAtZero == 0) {
+         return null;
+      }
+      int inverse = inverse(sigmaTildeAtZero);
+      return new int [][] { scale(t, inverse), scale(r, inverse) };
+   }
+
+   private static int [] errorLocations(int [] errorLocator) {
+      int numErrors = degree(errorLocator);
+      if (numErrors == 1) {
+         return new int [] { coefficient(errorLocator, 1) };
+      }
+      int [] result = new int[numErrors];
+      int e = 0;
+      for (int i = 1; (i < FIELD_SIZE) && (e < numErrors); ++i) {
+         if (evaluate(errorLocator, i) == 0) {
+            result[e] = inverse(i);
+            ++e;
+         }
+      }
+      if (e != numErrors) {
+         return null;
+      }
+      return result;
+   }
+
+   private static int [] errorMagnitudes(int [] errorEvaluator, int [] errorLocations) {
+      int s = errorLocations.length;
+      int [] result = new int[s];
+      for (int i = 0; i < s; ++i) {
+         int xiInverse = inverse(errorLocations[i]);
+         int denominator = 1;
+         for (int j = 0; j < s; ++j) {
+            if (i != j) {
+               denominator = mul(denominator, 1 ^ mul(errorLocations[j], xiInverse));
+            }
+         }
+         result[i] = mul(evaluate(errorEvaluator, xiInverse), inverse(denominator));
+         result[i] = mul(result[i], xiInverse);
+      }
+      return result;
+   }
+
+   private static int mul(int a, int b) {
+      if ((a == 0) || (b == 0)) {
+         return 0;
+      }
+      return EXP[LOG[a] + LOG[b]];
+   }
+
+   private static int inverse(int a) {
+      if (a == 0) {
+         throw new ArithmeticException("zero has no inverse");
+      }
+      return EXP[FIELD_SIZE - 1 - LOG[a]];
+   }
+
+   private static int degree(int [] poly) {
+      return poly.length - 1;
+   }
+
+   private static boolean isZero(int [] poly) {
+      return poly[0] == 0;
+   }
+
+   private static int coefficient(int [] poly, int degree) {
+      return poly[poly.length - 1 - degree];
+   }
+
+   private static int [] normalize(int [] poly) {
+      int firstNonZero = 0;
+      while ((firstNonZero < poly.length - 1) && (poly[firstNonZero] == 0)) {
+         ++firstNonZero;
+      }
+      if (firstNonZero == 0) {
+         return poly;
+      }
+      int [] result = new int[poly.length - firstNonZero];
+      System.arraycopy(poly, firstNonZero, result, 0, result.length);
+      return result;
+   }
+
+   private static int [] monomial(int degree, int coefficient) {
+      if (coefficient == 0) {
+         return ZERO;
+      }
+      int [] result = new int[degree + 1];
+      result[0] = coefficient;
+      return result;
+   }
+
+   private static int evaluate(int [] poly, int a) {
+      if (a == 0) {
+         return coefficient(poly, 0);
+      }
+      int result = poly[0];
+      for (int i = 1; i < poly.length; ++i) {
+         result = mul(a, result) ^ poly[i];
+      }
+      return result;
+   }
+
+   private static int [] add(int [] a, int [] b) {
+      if (isZero(a)) {
+         return b;
+      }
+      if (isZero(b)) {
+         return a;
+      }
+      int [] smaller = a;
+      int [] larger = b;
+      if (smaller.length > larger.length) {
+         smaller = b;
+         larger = a;
+      }
+      int [] result = new int[larger.length];
+      int diff = larger.length - smaller.length;
+      System.arraycopy(larger, 0, result, 0, diff);
+      for (int i = diff; i < larger.length; ++i) {
+         result[i] = smaller[i - diff] ^ larger[i];
+      }
+      return normalize(result);
+   }
+
+   private static int [] multiply(int [] a, int [] b) {
+      if (isZero(a) || isZero(b)) {
+         return ZERO;
+      }
+      int [] result = new int[a.length + b.length - 1];
+      for (int i = 0; i < a.length; ++i) {
+         for (int j = 0; j < b.length; ++j) {
+            result[i + j] ^= mul(a[i], b[j]);
+         }
+      }
+      return normalize(result);
+   }
+
+   private static int [] scale(int [] poly, int scalar) {
+      if (scalar == 0) {
+         return ZERO;
+      }
+      int [] result = new int[poly.length];
+      for (int i = 0; i < poly.length; ++i) {
+         result[i] = mul(poly[i], scalar);
+      }
+      return result;
+   }
+
+   private static int [] multiplyByMonomial(int [] poly, int degree, int coefficient) {
+      if (coefficient == 0) {
+         return ZERO;
+      }
+      int [] result = new int[poly.length + degree];
+      for (int i = 0; i < poly.length; ++i) {
+         result[i] = mul(poly[i], coefficient);
+      }
+      return result;
+   }
+
+}
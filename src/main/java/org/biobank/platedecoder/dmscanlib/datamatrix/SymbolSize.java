@@ -0,0 +1,235 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+/**
+ * The ECC 200 DataMatrix symbol sizes supported by the Java decoder.
+ *
+ * <p>Each size defines the number of module rows and columns in the symbol (including the finder
+ * and timing patterns), the size of each data region, and the error correction layout.
+ *
+ * <p>The 144x144 symbol is not supported. It uses a special interleaving scheme and is far too
+ * large to be printed on a specimen tube.
+ */
+public enum SymbolSize {
+   S10X10(10, 10, 8, 8, 3, 5, 1),
+   S12X12(12, 12, 10, 10, 5, 7, 1),
+   S14X14(14, 14, 12, 12, 8, 10, 1),
+   S16X16(16, 16, 14, 14, 12, 12, 1),
+   S18X18(18, 18, 16, 16, 18, 14, 1),
+   S20X20(20, 20, 18, 18, 22, 18, 1),
+   S22X22(22, 22, 20, 20, 30, 20, 1),
+   S24X24(24, 24, 22, 22, 36, 24, 1),
+   S26X26(26, 26, 24, 24, 44, 28, 1),
+   S32X32(32, 32, 14, 14, 62, 36, 1),
+   S36X36(36, 36, 16, 16, 86, 42, 1),
+   S40X40(40, 40, 18, 18, 114, 48, 1),
+   S44X44(44, 44, 20, 20, 144, 56, 1),
+   S48X48(48, 48, 22, 22, 174, 68, 1),
+   S52X52(52, 52, 24, 24, 204, 42, 2),
+   S64X64(64, 64, 14, 14, 280, 56, 2),
+   S72X72(72, 72, 16, 16, 368, 36, 4),
+   S80X80(80, 80, 18, 18, 456, 48, 4),
+   S88X88(88, 88, 20, 20, 576, 56, 4),
+   S96X96(96, 96, 22, 22, 696, 68, 4),
+   S104X104(104, 104, 24, 24, 816, 56, 6),
+   S120X120(120, 120, 18, 18, 1050, 68, 6),
+   S132X132(132, 132, 20, 20, 1304, 62, 8),
+   S8X18(8, 18, 6, 16, 5, 7, 1),
+   S8X32(8, 32, 6, 14, 10, 11, 1),
+   S12X26(12, 26, 10, 24, 16, 14, 1),
+   S12X36(12, 36, 10, 16, 22, 18, 1),
+   S16X36(16, 36, 14, 16, 32, 24, 1),
+   S16X48(16, 48, 14, 22, 49, 28, 1);
+
+   private final int rows;
+   private final int cols;
+   private final int regionRows;
+   private final int regionCols;
+   private final int dataCodewords;
+   private final int eccPerBlock;
+   private final int blocks;
+
+   private SymbolSize(int rows,
+                      int cols,
+                      int regionRows,
+                      int regionCols,
+                      int dataCodewords,
+                      int eccPerBlock,
+                      int blocks) {
+      this.rows          = rows;
+      this.cols          = cols;
+      this.regionRows    = regionRows;
+      this.regionCols    = regionCols;
+      this.dataCodewords = dataCodewords;
+      this.eccPerBlock   = eccPerBlock;
+      this.blocks        = blocks;
+   }
+
+   /**
+    * The number of module rows in the symbol, including the finder and timing patterns.
+    *
+    * @return the number of module rows.
+    */
+   public int getRows() {
+      return rows;
+   }
+
+   /**
+    * The number of module columns in the symbol, including the finder and timing patterns.
+    *
+    * @return the number of module columns.
+    */
+   public int getCols() {
+      return cols;
+   }
+
+   /**
+    * The number of data module rows in a single data region.
+    *
+    * @return the number of rows in a data region.
+    */
+   public int getRegionRows() {
+      return regionRows;
+   }
+
+   /**
+    * The number of data module columns in a single data region.
+    *
+    * @return the number of columns in a data region.
+    */
+   public int getRegionCols() {
+      return regionCols;
+   }
+
+   /**
+    * The number of rows in the mapping matrix, i.e. all the data regions without their borders.
+    *
+    * @return the number of rows in the mapping matrix.
+    */
+   public int getMappingRows() {
+      return (rows / (regionRows + 2)) * regionRows;
+   }
+
+   /**
+    * The number of columns in the mapping matrix, i.e. all the data regions without their
+    * borders.
+    *
+    * @return the number of columns in the mapping matrix.
+    */
+   public int getMappingCols() {
+      return (cols / (regionCols + 2)) * regionCols;
+   }
+
+   /**
+    * The total number of data codewords held by the symbol.
+    *
+    * @return the number of data codewords.
+    */
+   public int getDataCodewords() {
+      return dataCodewords;
+   }
+
+   /**
+    * The number of error correction codewords in each interleaved block.
+    *
+    * @return the number of error correction codewords per block.
+    */
+   public int getEccPerBlock() {
+      return eccPerBlock;
+   }
+
+   /**
+    * The number of interleaved Reed-Solomon blocks.
+    *
+    * @return the number of blocks.
+    */
+   public int getBlocks() {
+      return blocks;
+   }
+
+   /**
+    * The total number of codewords, data and error correction, held by the symbol.
+    *
+    * @return the total number of codewords.
+    */
+   public int getTotalCodewords() {
+      return dataCodewords + eccPerBlock * blocks;
+   }
+
+   /**
+    * @return {@code true} if the symbol has the same number of rows and columns.
+    */
+   public boolean isSquare() {
+      return rows == cols;
+   }
+
+   /**
+    * Converts a row in the mapping matrix to a row in the symbol.
+    *
+    * @param row  The row in the mapping matrix.
+    *
+    * @return the row in the symbol.
+    */
+   public int mappingRowToSymbolRow(int row) {
+      return (row / regionRows) * (regionRows + 2) + 1 + (row % regionRows);
+   }
+
+   /**
+    * Converts a column in the mapping matrix to a column in the symbol.
+    *
+    * @param col  The column in the mapping matrix.
+    *
+    * @return the column in the symbol.
+    */
+   public int mappingColToSymbolCol(int col) {
+      return (col / regionCols) * (regionCols + 2) + 1 + (col % regionCols);
+   }
+
+   /**
+    * Returns {@code true} if the module belongs to the finder or timing pattern of a data region.
+    *
+    * <p>Row 0 is the top row of the symbol, and column 0 is the left most column. The solid
+    * "L" of the finder pattern runs along the left column and the bottom row.
+    *
+    * @param row  The row in the symbol.
+    *
+    * @param col  The column in the symbol.
+    *
+    * @return {@code true} if the module is part of a pattern.
+    */
+   public boolean isPatternModule(int row, int col) {
+      int regionRow = row % (regionRows + 2);
+      int regionCol = col % (regionCols + 2);
+      return (regionRow == 0) || (regionRow == regionRows + 1)
+         || (regionCol == 0) || (regionCol == regionCols + 1);
+   }
+
+   /**
+    * Returns the expected colour of a finder or timing pattern module.
+    *
+    * @param row  The row in the symbol.
+    *
+    * @param col  The column in the symbol.
+    *
+    * @return {@code true} if the module is expected to be dark. Only meaningful when {@link
+    *         #isPatternModule} returns {@code true} for the same module.
+    */
+   public boolean isPatternModuleDark(int row, int col) {
+      int regionRow = row % (regionRows + 2);
+      int regionCol = col % (regionCols + 2);
+      if ((regionCol == 0) || (regionRow == regionRows + 1)) {
+         return true;
+      }
+      if (regionRow == 0) {
+         return (regionCol % 2) == 0;
+      }
+      return (regionRow % 2) == 1;
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      buf.append(rows).append("x").append(cols);
+      return buf.toString();
+   }
+
+}
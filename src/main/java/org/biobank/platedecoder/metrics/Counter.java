@@ -0,0 +1,38 @@
+package org.biobank.platedecoder.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count of events, for example the number of wells decoded.
+ *
+ * <p>This class is thread safe and does not use locks. Use {@link Metrics#counter} to obtain one.
+ *
+ */
+public final class Counter implements CounterMXBean {
+
+   private final LongAdder count = new LongAdder();
+
+   Counter() {}
+
+   public void increment() {
+      count.increment();
+   }
+
+   /**
+    * @param value  The amount added to the counter.
+    */
+   public void add(long value) {
+      count.add(value);
+   }
+
+   @Override
+   public long getCount() {
+      return count.sum();
+   }
+
+   @Override
+   public void reset() {
+      count.reset();
+   }
+
+}
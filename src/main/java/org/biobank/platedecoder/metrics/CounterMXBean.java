@@ -0,0 +1,18 @@
+package org.biobank.platedecoder.metrics;
+
+/**
+ * The management interface of a {@link Counter}.
+ */
+public interface CounterMXBean {
+
+   /**
+    * @return the current value of the counter.
+    */
+   public long getCount();
+
+   /**
+    * Sets the counter back to zero.
+    */
+   public void reset();
+
+}
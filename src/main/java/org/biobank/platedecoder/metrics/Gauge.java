@@ -0,0 +1,24 @@
+package org.biobank.platedecoder.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * A value that is read when it is requested, for example the number of entries in a cache.
+ *
+ * <p>Use {@link Metrics#gauge} to obtain one.
+ *
+ */
+public final class Gauge implements GaugeMXBean {
+
+   private final LongSupplier supplier;
+
+   Gauge(LongSupplier supplier) {
+      this.supplier = supplier;
+   }
+
+   @Override
+   public long getValue() {
+      return supplier.getAsLong();
+   }
+
+}
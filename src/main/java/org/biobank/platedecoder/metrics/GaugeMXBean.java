@@ -0,0 +1,13 @@
+package org.biobank.platedecoder.metrics;
+
+/**
+ * The management interface of a {@link Gauge}.
+ */
+public interface GaugeMXBean {
+
+   /**
+    * @return the value of the gauge, read when this method is called.
+    */
+   public long getValue();
+
+}
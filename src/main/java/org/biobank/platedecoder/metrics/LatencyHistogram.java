@@ -0,0 +1,194 @@
+package org.biobank.platedecoder.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records how long an operation takes, for example decoding an image, and reports percentiles of
+ * the recorded times.
+ *
+ * <p>The times are counted in buckets. Times below {@code 2 * 32} nanoseconds each have their own
+ * bucket, above that each power of two is split into 32 buckets, so a percentile is reported
+ * within about 3% of the recorded time. The memory used does not depend on the number of times
+ * recorded.
+ *
+ * <p>This class is thread safe and does not use locks, so it can be used on the decoding threads.
+ * A percentile read while times are being recorded may not include the latest times. Use {@link
+ * Metrics#histogram} to obtain one.
+ *
+ */
+public final class LatencyHistogram implements LatencyHistogramMXBean {
+
+   private static final int SUB_BUCKET_BITS = 5;
+
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+   // enough buckets for any positive long
+   private static final int BUCKETS = (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS + SUB_BUCKETS;
+
+   private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+   private final LongAdder count = new LongAdder();
+
+   private final LongAdder total = new LongAdder();
+
+   private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+   LatencyHistogram() {}
+
+   /**
+    * Records the time taken by an operation.
+    *
+    * @param nanos  The time, in nanoseconds. Negative values are recorded as zero.
+    */
+   public void record(long nanos) {
+      long value = Math.max(0, nanos);
+      buckets.incrementAndGet(getBucket(value));
+      count.increment();
+      total.add(value);
+      max.accumulate(value);
+   }
+
+   /**
+    * Records the time since an operation was started. Meant to be used as follows:
+    *
+    * <pre>
+    * long start = System.nanoTime();
+    * try {
+    *    ...
+    * } finally {
+    *    histogram.recordSince(start);
+    * }
+    * </pre>
+    *
+    * @param startNanos  The value of {@link System#nanoTime} when the operation was started.
+    */
+   public void recordSince(long startNanos) {
+      record(System.nanoTime() - startNanos);
+   }
+
+   @Override
+   public long getCount() {
+      return count.sum();
+   }
+
+   /**
+    * @return the mean of the recorded times, in nanoseconds. Zero if no time was recorded.
+    */
+   public double getMeanNanos() {
+      long n = count.sum();
+      return (n == 0) ? 0 : (double) total.sum() / n;
+   }
+
+   /**
+    * @return the longest recorded time, in nanoseconds.
+    */
+   public long getMaxNanos() {
+      return max.get();
+   }
+
+   /**
+    * Returns the time below which a percentage of the recorded times fall.
+    *
+    * @param percentile  The percentage, between 0 and 100.
+    *
+    * @return the time, in nanoseconds. Zero if no time was recorded.
+    */
+   public long getPercentileNanos(double percentile) {
+      if ((percentile < 0) || (percentile > 100)) {
+         throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+      }
+
+      long [] counts = new long[BUCKETS];
+      long n = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         counts[i] = buckets.get(i);
+         n += counts[i];
+      }
+      if (n == 0) {
+         return 0;
+      }
+
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100 * n));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += counts[i];
+         if (seen >= rank) {
+            return Math.min(getBucketUpperBound(i), max.get());
+         }
+      }
+      return max.get();
+   }
+
+   @Override
+   public double getMeanMillis() {
+      return toMillis(getMeanNanos());
+   }
+
+   @Override
+   public double getMaxMillis() {
+      return toMillis(getMaxNanos());
+   }
+
+   @Override
+   public double getPercentile50Millis() {
+      return toMillis(getPercentileNanos(50));
+   }
+
+   @Override
+   public double getPercentile95Millis() {
+      return toMillis(getPercentileNanos(95));
+   }
+
+   @Override
+   public double getPercentile99Millis() {
+      return toMillis(getPercentileNanos(99));
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>Times recorded while the histogram is being reset may be partially discarded.
+    */
+   @Override
+   public void reset() {
+      for (int i = 0; i < BUCKETS; ++i) {
+         buckets.set(i, 0);
+      }
+      count.reset();
+      total.reset();
+      max.reset();
+   }
+
+   static int getBucket(long value) {
+      int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+      int shift = Math.max(0, exponent - SUB_BUCKET_BITS);
+      return shift * SUB_BUCKETS + (int) (value >> shift);
+   }
+
+   static long getBucketUpperBound(int bucket) {
+      if (bucket < 2 * SUB_BUCKETS) {
+         return bucket;
+      }
+      int shift = bucket / SUB_BUCKETS - 1;
+      long mantissa = bucket % SUB_BUCKETS + SUB_BUCKETS;
+      return ((mantissa + 1) << shift) - 1;
+   }
+
+   private static double toMillis(double nanos) {
+      return nanos / TimeUnit.MILLISECONDS.toNanos(1);
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      buf.append("count: ").append(getCount());
+      buf.append(", p50: ").append(getPercentile50Millis()).append("ms");
+      buf.append(", p95: ").append(getPercentile95Millis()).append("ms");
+      buf.append(", max: ").append(getMaxMillis()).append("ms");
+      return buf.toString();
+   }
+
+}
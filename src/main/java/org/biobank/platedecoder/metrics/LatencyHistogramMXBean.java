@@ -0,0 +1,28 @@
+package org.biobank.platedecoder.metrics;
+
+/**
+ * The management interface of a {@link LatencyHistogram}. Times are reported in milliseconds.
+ */
+public interface LatencyHistogramMXBean {
+
+   /**
+    * @return the number of times recorded.
+    */
+   public long getCount();
+
+   public double getMeanMillis();
+
+   public double getMaxMillis();
+
+   public double getPercentile50Millis();
+
+   public double getPercentile95Millis();
+
+   public double getPercentile99Millis();
+
+   /**
+    * Discards the times recorded so far.
+    */
+   public void reset();
+
+}
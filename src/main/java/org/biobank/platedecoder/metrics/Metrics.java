@@ -0,0 +1,158 @@
+package org.biobank.platedecoder.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the counters, gauges and latency histograms used to measure the application.
+ *
+ * <p>Metrics are created the first time they are requested by name, and the same object is
+ * returned afterwards, so call sites usually keep the metric in a static field. Each metric is
+ * also registered with the platform MBean server, under the domain {@value #DOMAIN}, so it can be
+ * watched with {@code jconsole} or {@code jvisualvm} while the application runs.
+ *
+ * <p>This class is thread safe.
+ *
+ */
+public final class Metrics {
+
+   private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+   /** The JMX domain the metrics are registered under. */
+   public static final String DOMAIN = "org.biobank.platedecoder";
+
+   private final ConcurrentMap<String, Object> metrics = new ConcurrentHashMap<>();
+
+   private final MBeanServer mbeanServer;
+
+   /**
+    * Returns the registry shared by the application. Its metrics are registered with the platform
+    * MBean server.
+    *
+    * @return the shared registry.
+    */
+   public static Metrics getInstance() {
+      return MetricsHolder.INSTANCE;
+   }
+
+   private static class MetricsHolder {
+      private static final Metrics INSTANCE =
+         new Metrics(ManagementFactory.getPlatformMBeanServer());
+   }
+
+   /**
+    * Creates a registry.
+    *
+    * @param mbeanServer  Where the metrics are registered. If {@code null}, the metrics are not
+    *                     registered.
+    */
+   public Metrics(MBeanServer mbeanServer) {
+      this.mbeanServer = mbeanServer;
+   }
+
+   /**
+    * Returns the counter with the given name, creating it if needed.
+    *
+    * @param name  The name of the counter, for example {@code decode.wells}.
+    *
+    * @return the counter.
+    *
+    * @throws IllegalArgumentException if another type of metric has the same name.
+    */
+   public Counter counter(String name) {
+      return get(name, Counter.class, "Counter", Counter::new);
+   }
+
+   /**
+    * Returns the latency histogram with the given name, creating it if needed.
+    *
+    * @param name  The name of the histogram, for example {@code scanlib.decodeImage}.
+    *
+    * @return the histogram.
+    *
+    * @throws IllegalArgumentException if another type of metric has the same name.
+    */
+   public LatencyHistogram histogram(String name) {
+      return get(name, LatencyHistogram.class, "Histogram", LatencyHistogram::new);
+   }
+
+   /**
+    * Adds a gauge. If a gauge with the same name already exists, it is kept and {@code supplier}
+    * is ignored.
+    *
+    * @param name  The name of the gauge.
+    *
+    * @param supplier  Reads the value of the gauge. Called on the thread that reads the gauge.
+    *
+    * @return the gauge.
+    *
+    * @throws IllegalArgumentException if another type of metric has the same name.
+    */
+   public Gauge gauge(String name, LongSupplier supplier) {
+      if (supplier == null) {
+         throw new IllegalArgumentException("supplier is null");
+      }
+      return get(name, Gauge.class, "Gauge", () -> new Gauge(supplier));
+   }
+
+   /**
+    * Returns all the metrics, sorted by name.
+    *
+    * @return a copy of the metrics. Each value is a {@link Counter}, a {@link Gauge} or a {@link
+    * LatencyHistogram}.
+    */
+   public Map<String, Object> getMetrics() {
+      return new TreeMap<>(metrics);
+   }
+
+   private <T> T get(String      name,
+                     Class<T>    metricClass,
+                     String      jmxType,
+                     Supplier<T> factory) {
+      if ((name == null) || name.isEmpty()) {
+         throw new IllegalArgumentException("name is empty");
+      }
+
+      Object metric = metrics.get(name);
+      if (metric == null) {
+         T created = factory.get();
+         metric = metrics.putIfAbsent(name, created);
+         if (metric == null) {
+            register(name, jmxType, created);
+            return created;
+         }
+      }
+
+      if (!metricClass.isInstance(metric)) {
+         throw new IllegalArgumentException("metric " + name + " is not a " + jmxType);
+      }
+      return metricClass.cast(metric);
+   }
+
+   private void register(String name, String jmxType, Object metric) {
+      if (mbeanServer == null) {
+         return;
+      }
+      try {
+         ObjectName objectName = new ObjectName(DOMAIN + ":type=" + jmxType
+                                                + ",name=" + ObjectName.quote(name));
+         if (!mbeanServer.isRegistered(objectName)) {
+            mbeanServer.registerMBean(metric, objectName);
+         }
+      } catch (JMException e) {
+         // the metric is still usable, it just cannot be watched
+         LOG.warn("could not register metric {}: {}", name, e.getMessage());
+      }
+   }
+
+}
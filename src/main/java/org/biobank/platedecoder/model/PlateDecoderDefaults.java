@@ -1,5 +1,7 @@
 package org.biobank.platedecoder.model;
 
+import org.biobank.platedecoder.dmscanlib.DecoderBackendType;
+
 import javafx.scene.shape.Rectangle;
 
 /**
@@ -22,6 +24,40 @@ public class PlateDecoderDefaults {
 
    public static final long DEFAULT_DECODER_DEBUG_LEVEL = 0;
 
+   /** The default 2D barcode decoder implementation. */
+   public static final String DEFAULT_DECODER_BACKEND = DecoderBackendType.NATIVE.name();
+
+   /** If the wells of a plate are decoded concurrently by default. */
+   public static final boolean DEFAULT_PARALLEL_DECODE = true;
+
+   /** If decode results are cached by default. */
+   public static final boolean DEFAULT_DECODE_CACHE = true;
+
+   /** If only the cells that were not decoded, or have moved, are decoded again by default. */
+   public static final boolean DEFAULT_INCREMENTAL_DECODE = true;
+
+   /** If wells that fail to decode are decoded again with alternative settings by default. */
+   public static final boolean DEFAULT_RETRY_LADDER = false;
+
+   /** If the well grid is found in the image automatically by default. */
+   public static final boolean DEFAULT_LOCATE_WELL_GRID = true;
+
+   /** If wells that do not contain a 2D barcode are skipped when decoding by default. */
+   public static final boolean DEFAULT_SKIP_EMPTY_WELLS = false;
+
+   /** If images are cropped, converted to grayscale and downsampled before decoding by default. */
+   public static final boolean DEFAULT_PREPROCESS_IMAGE = false;
+
+   /** The number of decode passes that must agree on a well by default. 1 decodes only once. */
+   public static final long DEFAULT_DECODE_QUORUM = 1;
+
+   /** The number of decoder worker processes by default, one per core left to the UI. */
+   public static final int DEFAULT_DECODER_WORKERS =
+      Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+   /** The time a decoder worker process is given to decode one image before it is killed. */
+   public static final long DEFAULT_DECODER_WORKER_TIMEOUT_MILLIS = 120000;
+
    /** The name of the file scanned images are saved to. */
    public static final String FLATBED_IMAGE_NAME = "flatbed.png";
 
@@ -6,9 +6,13 @@ import static org.biobank.platedecoder.dmscanlib.DecodeOptions.*;
 import java.util.Optional;
 import java.util.prefs.Preferences;
 
+import org.biobank.platedecoder.dmscanlib.DecodeOptionsLadder;
+import org.biobank.platedecoder.dmscanlib.DecoderBackendType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
 import javafx.geometry.Point2D;
 import javafx.scene.shape.Rectangle;
 
@@ -72,6 +76,36 @@ public class PlateDecoderPreferences {
 
    private static final String PREFS_CORRECTIONS      = "PREFS_CORRECTIONS";
 
+   // the square deviation and the edge threshold used to be saved under each other's key, they
+   // are swapped back once when this version is not yet saved
+   private static final String PREFS_DECODE_OPTIONS_VERSION = "PREFS_DECODE_OPTIONS_VERSION";
+
+   private static final int DECODE_OPTIONS_VERSION = 1;
+
+   private static final String PREFS_DECODER_BACKEND  = "PREFS_DECODER_BACKEND";
+
+   private static final String PREFS_PARALLEL_DECODE  = "PREFS_PARALLEL_DECODE";
+
+   private static final String PREFS_DECODE_CACHE     = "PREFS_DECODE_CACHE";
+
+   private static final String PREFS_INCREMENTAL_DECODE = "PREFS_INCREMENTAL_DECODE";
+
+   private static final String PREFS_RETRY_LADDER     = "PREFS_RETRY_LADDER";
+
+   private static final String PREFS_RETRY_LADDER_RUNGS = "PREFS_RETRY_LADDER_RUNGS";
+
+   private static final String PREFS_RETRY_LADDER_SUCCESSES = "PREFS_RETRY_LADDER_SUCCESSES";
+
+   private static final String PREFS_LOCATE_WELL_GRID = "PREFS_LOCATE_WELL_GRID";
+
+   private static final String PREFS_SKIP_EMPTY_WELLS = "PREFS_SKIP_EMPTY_WELLS";
+
+   private static final String PREFS_PREPROCESS_IMAGE = "PREFS_PREPROCESS_IMAGE";
+
+   private static final String PREFS_DECODE_QUORUM    = "PREFS_DECODE_QUORUM";
+
+   private static final String PREFS_DECODER_WORKERS  = "PREFS_DECODER_WORKERS";
+
    private static final String PREFS_SPECIMEN_LINK_DIVIDER_POSITION =
       "PREFS_SPECIMEN_LINK_DIVIDER_POSITION";
 
@@ -86,6 +120,24 @@ public class PlateDecoderPreferences {
 
    private PlateDecoderPreferences() {
       prefs = Preferences.userNodeForPackage(PlateDecoderPreferences.class);
+      migrateDecodeOptions();
+   }
+
+   private void migrateDecodeOptions() {
+      if (prefs.getInt(PREFS_DECODE_OPTIONS_VERSION, 0) >= DECODE_OPTIONS_VERSION) {
+         return;
+      }
+      String squareDeviation = prefs.get(PREFS_EDGE_THRESHOLD, null);
+      String edgeThreshold = prefs.get(PREFS_SQUARE_DEVIATION, null);
+      prefs.remove(PREFS_SQUARE_DEVIATION);
+      prefs.remove(PREFS_EDGE_THRESHOLD);
+      if (squareDeviation != null) {
+         prefs.put(PREFS_SQUARE_DEVIATION, squareDeviation);
+      }
+      if (edgeThreshold != null) {
+         prefs.put(PREFS_EDGE_THRESHOLD, edgeThreshold);
+      }
+      prefs.putInt(PREFS_DECODE_OPTIONS_VERSION, DECODE_OPTIONS_VERSION);
    }
 
    /**
@@ -170,6 +222,22 @@ public class PlateDecoderPreferences {
     * @return The size of the well grid stored in the preferences.
     */
    public Rectangle getWellRectangle(PlateType plateType) {
+      Bounds bounds = getWellBounds(plateType);
+      return new Rectangle(bounds.getMinX(),
+                           bounds.getMinY(),
+                           bounds.getWidth(),
+                           bounds.getHeight());
+   }
+
+   /**
+    * The same as {@link #getWellRectangle}, for code that runs without the JavaFX toolkit, such
+    * as the command line tools. Creating a {@link Rectangle} starts the toolkit's renderer.
+    *
+    * @param plateType The plate type the grid is for.
+    *
+    * @return The size of the well grid stored in the preferences.
+    */
+   public Bounds getWellBounds(PlateType plateType) {
       double x      = prefs.getDouble(geKeyForWellRectangle(plateType, PREFS_WELL_GRID_X),
                                       DEFAULT_WELL_GRID[0]);
       double y      = prefs.getDouble(geKeyForWellRectangle(plateType, PREFS_WELL_GRID_Y),
@@ -179,7 +247,7 @@ public class PlateDecoderPreferences {
       double height = prefs.getDouble(geKeyForWellRectangle(plateType, PREFS_WELL_GRID_HEIGHT),
                                       DEFAULT_WELL_GRID[3]);
 
-      return new Rectangle(x, y, width, height);
+      return new BoundingBox(x, y, width, height);
    }
 
    /**
@@ -368,6 +436,179 @@ public class PlateDecoderPreferences {
       prefs.put(PREFS_CORRECTIONS, String.valueOf(value));
    }
 
+   /**
+    * The 2D barcode decoder implementation stored in the preferences.
+    *
+    * @return The decoder implementation. Defaults to {@link
+    * PlateDecoderDefaults#DEFAULT_DECODER_BACKEND}.
+    */
+   public DecoderBackendType getDecoderBackendType() {
+      return DecoderBackendType.valueOf(prefs.get(PREFS_DECODER_BACKEND, DEFAULT_DECODER_BACKEND));
+   }
+
+   public void setDecoderBackendType(DecoderBackendType value) {
+      prefs.put(PREFS_DECODER_BACKEND, value.name());
+   }
+
+   /**
+    * If the wells of a plate are decoded concurrently, as stored in the preferences.
+    *
+    * @return {@code true} if the wells are decoded concurrently. Defaults to {@link
+    * PlateDecoderDefaults#DEFAULT_PARALLEL_DECODE}.
+    */
+   public boolean getParallelDecode() {
+      return prefs.getBoolean(PREFS_PARALLEL_DECODE, DEFAULT_PARALLEL_DECODE);
+   }
+
+   public void setParallelDecode(boolean value) {
+      prefs.putBoolean(PREFS_PARALLEL_DECODE, value);
+   }
+
+   /**
+    * If decode results are cached, as stored in the preferences.
+    *
+    * @return {@code true} if decode results are cached. Defaults to {@link
+    * PlateDecoderDefaults#DEFAULT_DECODE_CACHE}.
+    */
+   public boolean getDecodeCache() {
+      return prefs.getBoolean(PREFS_DECODE_CACHE, DEFAULT_DECODE_CACHE);
+   }
+
+   public void setDecodeCache(boolean value) {
+      prefs.putBoolean(PREFS_DECODE_CACHE, value);
+   }
+
+   /**
+    * If only the cells that still need decoding are decoded again, as stored in the preferences.
+    *
+    * @return {@code true} if decodes are incremental. Defaults to {@link
+    * PlateDecoderDefaults#DEFAULT_INCREMENTAL_DECODE}.
+    */
+   public boolean getIncrementalDecode() {
+      return prefs.getBoolean(PREFS_INCREMENTAL_DECODE, DEFAULT_INCREMENTAL_DECODE);
+   }
+
+   public void setIncrementalDecode(boolean value) {
+      prefs.putBoolean(PREFS_INCREMENTAL_DECODE, value);
+   }
+
+   /**
+    * If wells that fail to decode are decoded again with alternative settings, as stored in the
+    * preferences.
+    *
+    * @return {@code true} if the retry ladder is used. Defaults to {@link
+    * PlateDecoderDefaults#DEFAULT_RETRY_LADDER}.
+    */
+   public boolean getRetryLadder() {
+      return prefs.getBoolean(PREFS_RETRY_LADDER, DEFAULT_RETRY_LADDER);
+   }
+
+   public void setRetryLadder(boolean value) {
+      prefs.putBoolean(PREFS_RETRY_LADDER, value);
+   }
+
+   /**
+    * The alternative settings used to decode wells that failed to decode, as stored in the
+    * preferences, along with how often each one succeeded.
+    *
+    * <p>The settings can be changed by editing the preference. See {@link DecodeOptionsLadder} for
+    * the format. If the preference is not valid, the default ladder is used.
+    *
+    * @return the ladder. Defaults to {@link DecodeOptionsLadder#getDefaultLadder}.
+    */
+   public DecodeOptionsLadder getDecodeOptionsLadder() {
+      DecodeOptionsLadder ladder = DecodeOptionsLadder.getDefaultLadder();
+      String rungs = prefs.get(PREFS_RETRY_LADDER_RUNGS, null);
+      try {
+         if (rungs != null) {
+            ladder = DecodeOptionsLadder.parse(rungs);
+         }
+         ladder.parseSuccesses(prefs.get(PREFS_RETRY_LADDER_SUCCESSES, null));
+      } catch (IllegalArgumentException e) {
+         LOG.warn("invalid retry ladder in preferences: {}", e.getMessage());
+         ladder = DecodeOptionsLadder.getDefaultLadder();
+      }
+      return ladder;
+   }
+
+   public void setDecodeOptionsLadder(DecodeOptionsLadder ladder) {
+      prefs.put(PREFS_RETRY_LADDER_RUNGS, ladder.format());
+      prefs.put(PREFS_RETRY_LADDER_SUCCESSES, ladder.formatSuccesses());
+   }
+
+   /**
+    * If the well grid is found in the image automatically, as stored in the preferences.
+    *
+    * @return {@code true} if the well grid is found automatically. Defaults to {@link
+    * PlateDecoderDefaults#DEFAULT_LOCATE_WELL_GRID}.
+    */
+   public boolean getLocateWellGrid() {
+      return prefs.getBoolean(PREFS_LOCATE_WELL_GRID, DEFAULT_LOCATE_WELL_GRID);
+   }
+
+   public void setLocateWellGrid(boolean value) {
+      prefs.putBoolean(PREFS_LOCATE_WELL_GRID, value);
+   }
+
+   /**
+    * If wells that do not contain a 2D barcode are skipped when decoding, as stored in the
+    * preferences.
+    *
+    * @return {@code true} if the wells are skipped. Defaults to {@link
+    * PlateDecoderDefaults#DEFAULT_SKIP_EMPTY_WELLS}.
+    */
+   public boolean getSkipEmptyWells() {
+      return prefs.getBoolean(PREFS_SKIP_EMPTY_WELLS, DEFAULT_SKIP_EMPTY_WELLS);
+   }
+
+   public void setSkipEmptyWells(boolean value) {
+      prefs.putBoolean(PREFS_SKIP_EMPTY_WELLS, value);
+   }
+
+   /**
+    * If images are reduced to the pixels inside the well grid before they are decoded, as stored
+    * in the preferences.
+    *
+    * @return {@code true} if the images are reduced. Defaults to {@link
+    * PlateDecoderDefaults#DEFAULT_PREPROCESS_IMAGE}.
+    */
+   public boolean getPreprocessImage() {
+      return prefs.getBoolean(PREFS_PREPROCESS_IMAGE, DEFAULT_PREPROCESS_IMAGE);
+   }
+
+   public void setPreprocessImage(boolean value) {
+      prefs.putBoolean(PREFS_PREPROCESS_IMAGE, value);
+   }
+
+   /**
+    * The number of decode passes that must agree on the message of a well, as stored in the
+    * preferences.
+    *
+    * @return the quorum. Defaults to {@link PlateDecoderDefaults#DEFAULT_DECODE_QUORUM}.
+    */
+   public long getDecodeQuorum() {
+      return prefs.getLong(PREFS_DECODE_QUORUM, DEFAULT_DECODE_QUORUM);
+   }
+
+   public void setDecodeQuorum(long value) {
+      prefs.put(PREFS_DECODE_QUORUM, String.valueOf(value));
+   }
+
+   /**
+    * The number of worker processes used by {@link DecoderBackendType#WORKERS}, as stored in the
+    * preferences.
+    *
+    * @return the number of workers. Defaults to {@link
+    * PlateDecoderDefaults#DEFAULT_DECODER_WORKERS}.
+    */
+   public long getDecoderWorkers() {
+      return prefs.getLong(PREFS_DECODER_WORKERS, DEFAULT_DECODER_WORKERS);
+   }
+
+   public void setDecoderWorkers(long value) {
+      prefs.put(PREFS_DECODER_WORKERS, String.valueOf(value));
+   }
+
    //--
 
    private String geKeyForWellRectangle(PlateType plateType, String subKey) {
@@ -0,0 +1,282 @@
+package org.biobank.platedecoder.model;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How the wells of a plate appear in an image, for a plate type, orientation and barcode position.
+ *
+ * <p>The grid is the plate as seen in the image: {@link #getRows} rows of {@link #getCols} columns,
+ * numbered from the top left corner. Each grid position maps to a well of the plate, identified
+ * by its SBS label and its well index. The well index counts the wells of the plate row by row,
+ * {@code A1} is 0.
+ *
+ * <p>All the tables are computed once, so looking up a label, a well index or a sort key does not
+ * create any objects or parse any strings. Layouts are immutable and shared, use {@link #get} to
+ * obtain one.
+ *
+ */
+public final class PlateLayout {
+
+   /** Orders SBS labels by row and then by column, so that {@code A2} comes before {@code A10}. */
+   public static final Comparator<String> LABEL_ORDER =
+      (label1, label2) -> Integer.compare(getSortKey(label1), getSortKey(label2));
+
+   // the sort key of every SBS label, boxed once so that lookups do not allocate
+   private static final Map<String, Integer> SORT_KEYS = new HashMap<>();
+
+   private static final PlateLayout [][][] LAYOUTS;
+
+   static {
+      for (int position = 0; position < SbsLabeling.SBS_MAX_POSITIONS; ++position) {
+         SORT_KEYS.put(SbsLabeling.fromPosition(position), position);
+      }
+
+      PlateType [] plateTypes = PlateType.values();
+      PlateOrientation [] orientations = PlateOrientation.values();
+      BarcodePosition [] barcodePositions = BarcodePosition.values();
+      LAYOUTS = new PlateLayout[plateTypes.length][orientations.length][barcodePositions.length];
+      for (PlateType plateType : plateTypes) {
+         for (PlateOrientation orientation : orientations) {
+            for (BarcodePosition barcodePosition : barcodePositions) {
+               LAYOUTS[plateType.ordinal()][orientation.ordinal()][barcodePosition.ordinal()] =
+                  new PlateLayout(plateType, orientation, barcodePosition);
+            }
+         }
+      }
+   }
+
+   private final PlateType plateType;
+
+   private final PlateOrientation orientation;
+
+   private final BarcodePosition barcodePosition;
+
+   private final int rows;
+
+   private final int cols;
+
+   // by grid position, row * cols + col
+   private final String [] labels;
+
+   // by grid position
+   private final int [] wellIndexes;
+
+   // by well index
+   private final int [] gridPositions;
+
+   private PlateLayout(PlateType        plateType,
+                       PlateOrientation orientation,
+                       BarcodePosition  barcodePosition) {
+      this.plateType = plateType;
+      this.orientation = orientation;
+      this.barcodePosition = barcodePosition;
+
+      if (orientation == PlateOrientation.LANDSCAPE) {
+         rows = plateType.getRows();
+         cols = plateType.getCols();
+      } else {
+         rows = plateType.getCols();
+         cols = plateType.getRows();
+      }
+
+      int size = rows * cols;
+      labels = new String[size];
+      wellIndexes = new int[size];
+      gridPositions = new int[size];
+
+      for (int row = 0, i = 0; row < rows; ++row) {
+         for (int col = 0; col < cols; ++col, ++i) {
+            int wellIndex = computeWellIndex(row, col);
+            wellIndexes[i] = wellIndex;
+            gridPositions[wellIndex] = i;
+            labels[i] = SbsLabeling.fromPosition(
+               (wellIndex / plateType.getCols()) * SbsLabeling.SBS_MAX_COLS
+               + wellIndex % plateType.getCols());
+         }
+      }
+   }
+
+   /**
+    * Returns the layout for a plate.
+    *
+    * @param plateType  The dimensions of the plate in terms of number of wells.
+    *
+    * @param orientation  The plate's orientation.
+    *
+    * @param barcodePosition  The location of the 2D barcode on the tubes of the plate.
+    *
+    * @return the layout, the same object is returned on each call.
+    */
+   public static PlateLayout get(PlateType        plateType,
+                                 PlateOrientation orientation,
+                                 BarcodePosition  barcodePosition) {
+      return LAYOUTS[plateType.ordinal()][orientation.ordinal()][barcodePosition.ordinal()];
+   }
+
+   /**
+    * Returns a key that sorts SBS labels by row and then by column. The key is the label's SBS
+    * position, see {@link SbsLabeling#toPosition}.
+    *
+    * @param label  The label, for example {@code A1}.
+    *
+    * @return the sort key.
+    *
+    * @throws IllegalArgumentException if the label is not an SBS label.
+    */
+   public static int getSortKey(String label) {
+      Integer key = SORT_KEYS.get(label);
+      if (key == null) {
+         throw new IllegalArgumentException("invalid label: " + label);
+      }
+      return key;
+   }
+
+   /**
+    * Compares two SBS labels. See {@link #LABEL_ORDER}.
+    *
+    * @param label1  The first label.
+    *
+    * @param label2  The second label.
+    *
+    * @return a negative number, zero, or a positive number if the first label comes before, is the
+    * same as, or comes after the second label.
+    */
+   public static int compareLabels(String label1, String label2) {
+      return Integer.compare(getSortKey(label1), getSortKey(label2));
+   }
+
+   public PlateType getPlateType() {
+      return plateType;
+   }
+
+   public PlateOrientation getOrientation() {
+      return orientation;
+   }
+
+   public BarcodePosition getBarcodePosition() {
+      return barcodePosition;
+   }
+
+   /**
+    * @return the number of rows of the grid in the image.
+    */
+   public int getRows() {
+      return rows;
+   }
+
+   /**
+    * @return the number of columns of the grid in the image.
+    */
+   public int getCols() {
+      return cols;
+   }
+
+   /**
+    * @return the number of wells on the plate.
+    */
+   public int size() {
+      return labels.length;
+   }
+
+   /**
+    * @param row  The row of the grid. The top row is row 0.
+    *
+    * @param col  The column of the grid. The leftmost column is 0.
+    *
+    * @return the SBS label of the well at this grid position.
+    */
+   public String getLabel(int row, int col) {
+      return labels[row * cols + col];
+   }
+
+   /**
+    * @param row  The row of the grid. The top row is row 0.
+    *
+    * @param col  The column of the grid. The leftmost column is 0.
+    *
+    * @return the index of the well at this grid position.
+    */
+   public int getWellIndex(int row, int col) {
+      return wellIndexes[row * cols + col];
+   }
+
+   /**
+    * @param wellIndex  The index of a well on the plate.
+    *
+    * @return the SBS label of the well.
+    */
+   public String getLabelForWell(int wellIndex) {
+      return labels[gridPositions[wellIndex]];
+   }
+
+   /**
+    * @param wellIndex  The index of a well on the plate.
+    *
+    * @return the position of the well in the grid, {@code row * getCols() + col}.
+    */
+   public int getGridPosition(int wellIndex) {
+      return gridPositions[wellIndex];
+   }
+
+   /**
+    * @param label  The SBS label of a well.
+    *
+    * @return the index of the well on the plate.
+    *
+    * @throws IllegalArgumentException if the label is not on the plate.
+    */
+   public int getWellIndex(String label) {
+      int position = getSortKey(label);
+      int row = position / SbsLabeling.SBS_MAX_COLS;
+      int col = position % SbsLabeling.SBS_MAX_COLS;
+      if ((row >= plateType.getRows()) || (col >= plateType.getCols())) {
+         throw new IllegalArgumentException("label is not on the plate: " + label);
+      }
+      return row * plateType.getCols() + col;
+   }
+
+   // the well on the plate that appears at a grid position, depends on how the plate is imaged
+   private int computeWellIndex(int row, int col) {
+      int plateCols = plateType.getCols();
+
+      switch (barcodePosition) {
+         case TOP:
+            switch (orientation) {
+               case LANDSCAPE:
+                  return row * plateCols + col;
+               case PORTRAIT:
+                  return (plateType.getRows() - 1 - col) * plateCols + row;
+
+               default:
+                  throw new IllegalStateException("invalid value for orientation: " + orientation);
+            }
+
+         case BOTTOM:
+            switch (orientation) {
+               case LANDSCAPE:
+                  return row * plateCols + plateCols - 1 - col;
+               case PORTRAIT:
+                  return col * plateCols + row;
+
+               default:
+                  throw new IllegalStateException("invalid value for orientation: " + orientation);
+            }
+
+         default:
+            throw new IllegalStateException("invalid value for barcode position: "
+                                            + barcodePosition);
+      }
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      buf.append(plateType.name()).append(", ");
+      buf.append(orientation.name()).append(", ");
+      buf.append(barcodePosition.name());
+      return buf.toString();
+   }
+
+}
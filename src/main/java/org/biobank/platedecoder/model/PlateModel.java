@@ -2,12 +2,27 @@ package org.biobank.platedecoder.model;
 
 import java.util.Arrays;
 
+import org.biobank.platedecoder.dmscanlib.CachingDecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ClassifyingDecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ConsensusDecoderBackend;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.DecodeOptionsLadder;
+import org.biobank.platedecoder.dmscanlib.DecodeResultCache;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.DecoderBackendType;
+import org.biobank.platedecoder.dmscanlib.DecoderWorkerPool;
+import org.biobank.platedecoder.dmscanlib.ImagePreprocessor;
+import org.biobank.platedecoder.dmscanlib.PreprocessingDecoderBackend;
+import org.biobank.platedecoder.dmscanlib.RetryLadderDecoderBackend;
+import org.biobank.platedecoder.dmscanlib.WellClassifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.LongProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleLongProperty;
 import javafx.beans.property.SimpleObjectProperty;
@@ -89,6 +104,38 @@ public class PlateModel {
    private final LongProperty edgeThresholdProperty;
    private final LongProperty correctionsProperty;
 
+   // The implementation used to decode the 2D barcodes.
+   private final ObjectProperty<DecoderBackendType> decoderBackendTypeProperty;
+
+   // If the wells are decoded concurrently.
+   private final BooleanProperty parallelDecodeProperty;
+
+   // If decode results are cached.
+   private final BooleanProperty decodeCacheProperty;
+
+   // If only the cells that still need decoding are decoded again.
+   private final BooleanProperty incrementalDecodeProperty;
+
+   // If wells that fail to decode are decoded again with alternative settings.
+   private final BooleanProperty retryLadderProperty;
+
+   // If wells that do not contain a 2D barcode are skipped when decoding.
+   private final BooleanProperty skipEmptyWellsProperty;
+
+   private final BooleanProperty preprocessImageProperty;
+
+   // If the well grid is found in the image automatically.
+   private final BooleanProperty locateWellGridProperty;
+
+   // The number of decode passes that must agree on the message of a well.
+   private final LongProperty decodeQuorumProperty;
+
+   // The number of worker processes used when decoding in worker processes.
+   private final LongProperty decoderWorkersProperty;
+
+   // The alternative settings, shared by all decodes so that the success counts add up.
+   private final DecodeOptionsLadder decodeOptionsLadder;
+
    private PlateModel() {
       plateTypeProperty = new SimpleObjectProperty<PlateType>(preferences.getPlateType());
       plateTypeProperty.addListener((observable, oldValue, newValue) -> {
@@ -176,6 +223,59 @@ public class PlateModel {
             preferences.setDecoderCorrections(newValue.longValue());
          });
 
+      decoderBackendTypeProperty =
+         new SimpleObjectProperty<DecoderBackendType>(preferences.getDecoderBackendType());
+      decoderBackendTypeProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setDecoderBackendType(newValue);
+         });
+
+      parallelDecodeProperty = new SimpleBooleanProperty(preferences.getParallelDecode());
+      parallelDecodeProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setParallelDecode(newValue);
+         });
+
+      decodeCacheProperty = new SimpleBooleanProperty(preferences.getDecodeCache());
+      decodeCacheProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setDecodeCache(newValue);
+         });
+
+      incrementalDecodeProperty = new SimpleBooleanProperty(preferences.getIncrementalDecode());
+      incrementalDecodeProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setIncrementalDecode(newValue);
+         });
+
+      retryLadderProperty = new SimpleBooleanProperty(preferences.getRetryLadder());
+      retryLadderProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setRetryLadder(newValue);
+         });
+
+      skipEmptyWellsProperty = new SimpleBooleanProperty(preferences.getSkipEmptyWells());
+      skipEmptyWellsProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setSkipEmptyWells(newValue);
+         });
+
+      preprocessImageProperty = new SimpleBooleanProperty(preferences.getPreprocessImage());
+      preprocessImageProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setPreprocessImage(newValue);
+         });
+
+      locateWellGridProperty = new SimpleBooleanProperty(preferences.getLocateWellGrid());
+      locateWellGridProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setLocateWellGrid(newValue);
+         });
+
+      decodeQuorumProperty = new SimpleLongProperty(preferences.getDecodeQuorum());
+      decodeQuorumProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setDecodeQuorum(newValue.longValue());
+         });
+
+      decoderWorkersProperty = new SimpleLongProperty(preferences.getDecoderWorkers());
+      decoderWorkersProperty.addListener((observable, oldValue, newValue) -> {
+            preferences.setDecoderWorkers(newValue.longValue());
+         });
+
+      decodeOptionsLadder = preferences.getDecodeOptionsLadder();
+
       createNewPlate();
    }
 
@@ -453,6 +553,336 @@ public class PlateModel {
       correctionsProperty.setValue(value);
    }
 
+   /**
+    * Used to get the decoder settings as they are passed to the decoder.
+    *
+    * @return the options to decode images with.
+    */
+   public DecodeOptions getDecodeOptions() {
+      return new DecodeOptions(getMinEdgeFactor(),
+                               getMaxEdgeFactor(),
+                               getScanGapFactor(),
+                               getSquareDeviation(),
+                               getEdgeThreshold(),
+                               getDecoderCorrections(),
+                               DecodeOptions.DEFAULT_SHRINK);
+   }
+
+   /**
+    * Used to get the implementation used to decode 2D barcodes.
+    *
+    * @return The decoder implementation.
+    */
+   public DecoderBackendType getDecoderBackendType() {
+      return decoderBackendTypeProperty.getValue();
+   }
+
+   /**
+    * Used to set the implementation used to decode 2D barcodes.
+    *
+    * @param type  The decoder implementation.
+    */
+   public void setDecoderBackendType(DecoderBackendType type) {
+      decoderBackendTypeProperty.setValue(type);
+   }
+
+   /**
+    * The property that holds the implementation used to decode 2D barcodes.
+    *
+    * @return The property that holds the decoder implementation.
+    */
+   public ObjectProperty<DecoderBackendType> getDecoderBackendTypeProperty() {
+      return decoderBackendTypeProperty;
+   }
+
+   /**
+    * Used to determine if the wells of a plate are decoded concurrently.
+    *
+    * @return {@code true} if the wells are decoded concurrently.
+    */
+   public boolean isParallelDecode() {
+      return parallelDecodeProperty.getValue();
+   }
+
+   /**
+    * Used to select if the wells of a plate are decoded concurrently.
+    *
+    * @param value  {@code true} if the wells should be decoded concurrently.
+    */
+   public void setParallelDecode(boolean value) {
+      parallelDecodeProperty.setValue(value);
+   }
+
+   /**
+    * The property that holds the setting for decoding the wells of a plate concurrently.
+    *
+    * @return The property that holds the setting.
+    */
+   public BooleanProperty getParallelDecodeProperty() {
+      return parallelDecodeProperty;
+   }
+
+   /**
+    * Used to determine if decode results are cached.
+    *
+    * @return {@code true} if decode results are cached.
+    */
+   public boolean isDecodeCache() {
+      return decodeCacheProperty.getValue();
+   }
+
+   /**
+    * Used to select if decode results are cached.
+    *
+    * @param value  {@code true} if decode results should be cached.
+    */
+   public void setDecodeCache(boolean value) {
+      decodeCacheProperty.setValue(value);
+   }
+
+   /**
+    * The property that holds the setting for caching decode results.
+    *
+    * @return The property that holds the setting.
+    */
+   public BooleanProperty getDecodeCacheProperty() {
+      return decodeCacheProperty;
+   }
+
+   /**
+    * Used to determine if only the cells that were not decoded, or have moved since they were
+    * decoded, are decoded again.
+    *
+    * @return {@code true} if decodes are incremental.
+    */
+   public boolean isIncrementalDecode() {
+      return incrementalDecodeProperty.getValue();
+   }
+
+   /**
+    * Used to select if only the cells that were not decoded, or have moved since they were decoded,
+    * are decoded again.
+    *
+    * @param value  {@code true} if decodes should be incremental.
+    */
+   public void setIncrementalDecode(boolean value) {
+      incrementalDecodeProperty.setValue(value);
+   }
+
+   /**
+    * The property that holds the setting for incremental decodes.
+    *
+    * @return The property that holds the setting.
+    */
+   public BooleanProperty getIncrementalDecodeProperty() {
+      return incrementalDecodeProperty;
+   }
+
+   /**
+    * Used to determine if wells that fail to decode are decoded again with alternative settings.
+    *
+    * @return {@code true} if the retry ladder is used.
+    */
+   public boolean isRetryLadder() {
+      return retryLadderProperty.getValue();
+   }
+
+   /**
+    * Used to select if wells that fail to decode are decoded again with alternative settings.
+    *
+    * @param value  {@code true} if the retry ladder should be used.
+    */
+   public void setRetryLadder(boolean value) {
+      retryLadderProperty.setValue(value);
+   }
+
+   /**
+    * The property that holds the setting for the retry ladder.
+    *
+    * @return The property that holds the setting.
+    */
+   public BooleanProperty getRetryLadderProperty() {
+      return retryLadderProperty;
+   }
+
+   /**
+    * Used to determine if wells that do not contain a 2D barcode are skipped when decoding.
+    *
+    * @return {@code true} if the wells are skipped.
+    */
+   public boolean isSkipEmptyWells() {
+      return skipEmptyWellsProperty.getValue();
+   }
+
+   /**
+    * Used to select if wells that do not contain a 2D barcode are skipped when decoding.
+    *
+    * @param value  {@code true} if the wells should be skipped.
+    */
+   public void setSkipEmptyWells(boolean value) {
+      skipEmptyWellsProperty.setValue(value);
+   }
+
+   /**
+    * The property that holds the setting for skipping wells without a 2D barcode.
+    *
+    * @return The property that holds the setting.
+    */
+   public BooleanProperty getSkipEmptyWellsProperty() {
+      return skipEmptyWellsProperty;
+   }
+
+   /**
+    * Used to determine if images are cropped, converted to grayscale and downsampled before they
+    * are decoded.
+    *
+    * @return {@code true} if the images are reduced.
+    */
+   public boolean isPreprocessImage() {
+      return preprocessImageProperty.getValue();
+   }
+
+   /**
+    * Used to select if images are cropped, converted to grayscale and downsampled before they are
+    * decoded.
+    *
+    * @param value  {@code true} if the images should be reduced.
+    */
+   public void setPreprocessImage(boolean value) {
+      preprocessImageProperty.setValue(value);
+   }
+
+   /**
+    * The property that holds the setting for reducing images before they are decoded.
+    *
+    * @return The property that holds the setting.
+    */
+   public BooleanProperty getPreprocessImageProperty() {
+      return preprocessImageProperty;
+   }
+
+   /**
+    * Used to determine if the well grid is found in the image automatically.
+    *
+    * @return {@code true} if the well grid is found automatically.
+    */
+   public boolean isLocateWellGrid() {
+      return locateWellGridProperty.getValue();
+   }
+
+   /**
+    * Used to select if the well grid is found in the image automatically.
+    *
+    * @param value  {@code true} if the well grid should be found automatically.
+    */
+   public void setLocateWellGrid(boolean value) {
+      locateWellGridProperty.setValue(value);
+   }
+
+   /**
+    * The property that holds the setting for finding the well grid automatically.
+    *
+    * @return The property that holds the setting.
+    */
+   public BooleanProperty getLocateWellGridProperty() {
+      return locateWellGridProperty;
+   }
+
+   /**
+    * Used to get the number of decode passes that must agree on the message of a well. When the
+    * value is more than 1, the image is decoded once with the user's settings and once with each
+    * setting of the retry ladder.
+    *
+    * @return the quorum.
+    */
+   public long getDecodeQuorum() {
+      return decodeQuorumProperty.getValue();
+   }
+
+   /**
+    * Used to set the number of decode passes that must agree on the message of a well. A value of
+    * 1 decodes the image only once.
+    *
+    * @param value  the quorum.
+    */
+   public void setDecodeQuorum(long value) {
+      decodeQuorumProperty.setValue(value);
+   }
+
+   /**
+    * Used to get the number of worker processes that decode images when the decoder is {@link
+    * DecoderBackendType#WORKERS}.
+    *
+    * @return the number of workers.
+    */
+   public long getDecoderWorkers() {
+      return decoderWorkersProperty.getValue();
+   }
+
+   /**
+    * Used to set the number of worker processes that decode images when the decoder is {@link
+    * DecoderBackendType#WORKERS}.
+    *
+    * @param value  the number of workers.
+    */
+   public void setDecoderWorkers(long value) {
+      decoderWorkersProperty.setValue(value);
+   }
+
+   /**
+    * Returns the decoder selected by the user, configured with the user's decode settings.
+    *
+    * @return the decoder.
+    */
+   public DecoderBackend getDecoderBackend() {
+      DecoderBackendType type = getDecoderBackendType();
+      if (type == DecoderBackendType.WORKERS) {
+         DecoderWorkerPool.getInstance().setSize((int) getDecoderWorkers());
+      }
+      DecoderBackend backend = type.getBackend(isParallelDecode());
+      String backendName = type.name();
+
+      if (getDecodeQuorum() > 1) {
+         backend = new ConsensusDecoderBackend(backend,
+                                               decodeOptionsLadder,
+                                               (int) getDecodeQuorum());
+         // results with a quorum can include fewer wells
+         backendName += "+CONSENSUS" + getDecodeQuorum();
+      }
+
+      // the consensus already decodes with every rung of the ladder, and retrying its undecided
+      // wells one rung at a time would bypass the quorum
+      if (isRetryLadder() && (getDecodeQuorum() <= 1)) {
+         backend = new RetryLadderDecoderBackend(backend, decodeOptionsLadder, () -> {
+               preferences.setDecodeOptionsLadder(decodeOptionsLadder);
+            });
+         // results with the ladder can include more wells
+         backendName += "+RETRY";
+      }
+
+      if (isSkipEmptyWells()) {
+         // classified before the ladder, so that empty wells are not retried
+         backend = new ClassifyingDecoderBackend(backend, new WellClassifier());
+         backendName += "+CLASSIFY";
+      }
+
+      if (isPreprocessImage()) {
+         // the wells are classified on the reduced image
+         backend = new PreprocessingDecoderBackend(backend, new ImagePreprocessor());
+         backendName += "+PREPROCESS";
+      }
+
+      if (isDecodeCache()) {
+         // the ladder's rungs are part of the key when the backend decodes with them
+         boolean usesLadder = (getDecodeQuorum() > 1) || isRetryLadder();
+         backend = new CachingDecoderBackend(backend,
+                                             backendName,
+                                             usesLadder ? decodeOptionsLadder : null,
+                                             DecodeResultCache.getInstance());
+      }
+      return backend;
+   }
+
    // --
 
    private static class PlateModelHolder {
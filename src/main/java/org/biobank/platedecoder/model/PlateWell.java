@@ -4,7 +4,6 @@ import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.SimpleBooleanProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
-import javafx.util.Pair;
 
 public class PlateWell implements Comparable<PlateWell> {
 
@@ -93,11 +92,6 @@ public class PlateWell implements Comparable<PlateWell> {
 
     @Override
     public int compareTo(PlateWell that) {
-        Pair<Integer, Integer> thisPos = SbsLabeling.toRowCol(this.getLabel());
-        Pair<Integer, Integer> thatPos = SbsLabeling.toRowCol(that.getLabel());
-        if (thisPos.getKey().equals(thatPos.getKey())) {
-            return thisPos.getValue().compareTo(thatPos.getValue());
-        }
-        return thisPos.getKey().compareTo(thatPos.getKey());
+        return PlateLayout.compareLabels(this.getLabel(), that.getLabel());
     }
 }
@@ -8,6 +8,25 @@ public class SbsLabeling {
 
     public static final int SBS_MAX_COLS = 24;
 
+    public static final int SBS_MAX_ROWS = SBS_ROW_LABELLING_PATTERN.length();
+
+    /**
+     * The number of SBS positions. A position is a row and column packed into a single integer, see
+     * {@link #toPosition}.
+     */
+    public static final int SBS_MAX_POSITIONS = SBS_MAX_ROWS * SBS_MAX_COLS;
+
+    // the label for each position, so that converting a position does not create a string
+    private static final String [] POSITION_LABELS = new String[SBS_MAX_POSITIONS];
+
+    static {
+        for (int row = 0; row < SBS_MAX_ROWS; ++row) {
+            for (int col = 0; col < SBS_MAX_COLS; ++col) {
+                POSITION_LABELS[row * SBS_MAX_COLS + col] = fromRowCol(row, col).intern();
+            }
+        }
+    }
+
     public static final int ROW_DEFAULT = 8;
     public static final int COL_DEFAULT = 12;
 
@@ -51,4 +70,53 @@ public class SbsLabeling {
         return new Pair<>(row, col);
     }
 
+    /**
+     * Gets the SBS position for a label. Positions sort in the same order as the rows and columns
+     * of the labels: {@code A1} is 0, {@code A2} is 1 and {@code B1} is {@link #SBS_MAX_COLS}.
+     *
+     * <p>Unlike {@link #toRowCol toRowCol}, this method does not create any objects.
+     *
+     * @param label  The label to be converted, for example {@code A2} or {@code F12}.
+     *
+     * @return the position corresponding to the label.
+     */
+    public static int toPosition(String label) {
+        if ((label == null) || (label.length() < 2) || (label.length() > 3)) {
+            throw new IllegalArgumentException("invalid length for label string: " + label);
+        }
+
+        int row = SBS_ROW_LABELLING_PATTERN.indexOf(label.charAt(0));
+        if (row == -1) {
+            throw new IllegalArgumentException("row is invalid in label string: " + label);
+        }
+
+        int col = 0;
+        for (int i = 1; i < label.length(); ++i) {
+            int digit = label.charAt(i) - '0';
+            if ((digit < 0) || (digit > 9)) {
+                throw new IllegalArgumentException("column is invalid in label string: " + label);
+            }
+            col = col * 10 + digit;
+        }
+
+        if ((col < 1) || (col > SBS_MAX_COLS)) {
+            throw new IllegalArgumentException("column is invalid in label string: " + label);
+        }
+        return row * SBS_MAX_COLS + col - 1;
+    }
+
+    /**
+     * Gets the label for an SBS position. See {@link #toPosition toPosition}.
+     *
+     * @param position  The position to be converted.
+     *
+     * @return the label corresponding to the position. The same string is returned on each call.
+     */
+    public static String fromPosition(int position) {
+        if ((position < 0) || (position >= SBS_MAX_POSITIONS)) {
+            throw new IllegalArgumentException("invalid position: " + position);
+        }
+        return POSITION_LABELS[position];
+    }
+
 }
@@ -0,0 +1,289 @@
+package org.biobank.platedecoder.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
+
+/**
+ * Measures the throughput of a {@link DecodeServer} by sending it the same image from several
+ * clients at once.
+ *
+ * <p>Each client sends its requests one after the other, so the number of clients is the number
+ * of requests in flight. Requests rejected with {@code 429} are counted separately and are not
+ * retried, which shows where the server starts to push back.
+ */
+public class DecodeLoadClient {
+
+   private final URL url;
+
+   private final byte [] image;
+
+   /**
+    * @param server  The base URL of the server, for example {@code http://127.0.0.1:8090}.
+    *
+    * @param request  The plate parameters sent with every request.
+    *
+    * @param image  The contents of the image file sent with every request.
+    *
+    * @throws IOException if the URL is invalid.
+    */
+   public DecodeLoadClient(String server, DecodeRequest request, byte [] image)
+      throws IOException {
+      if ((server == null) || (request == null) || (image == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      this.url = new URL(server + DecodeServer.DECODE_PATH + "?" + request.toQuery());
+      this.image = image;
+   }
+
+   /**
+    * Sends one request.
+    *
+    * @return the HTTP status of the response.
+    *
+    * @throws IOException if the server cannot be reached.
+    */
+   public int send() throws IOException {
+      return send(null);
+   }
+
+   /**
+    * Sends one request.
+    *
+    * @param body  Receives the body of the response, or {@code null} if it is not needed.
+    *
+    * @return the HTTP status of the response.
+    *
+    * @throws IOException if the server cannot be reached.
+    */
+   public int send(ByteArrayOutputStream body) throws IOException {
+      HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(image.length);
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      try (OutputStream out = connection.getOutputStream()) {
+         out.write(image);
+      }
+
+      int status = connection.getResponseCode();
+      // read the whole response so that the connection can be reused
+      InputStream in =
+         (status < 400) ? connection.getInputStream() : connection.getErrorStream();
+      if (in != null) {
+         try {
+            byte [] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) > 0) {
+               if (body != null) {
+                  body.write(buffer, 0, count);
+               }
+            }
+         } finally {
+            in.close();
+         }
+      }
+      return status;
+   }
+
+   /**
+    * Sends requests from several clients and measures the throughput.
+    *
+    * @param clients  The number of clients sending requests at the same time.
+    *
+    * @param requestsPerClient  The number of requests each client sends.
+    *
+    * @return the measurements.
+    *
+    * @throws IOException if the server cannot be reached.
+    *
+    * @throws InterruptedException if interrupted while waiting for the clients.
+    */
+   public LoadReport run(int clients, int requestsPerClient)
+      throws IOException, InterruptedException {
+      LatencyHistogram latency = new Metrics(null).histogram("client.request");
+      AtomicLong succeeded = new AtomicLong();
+      AtomicLong rejected = new AtomicLong();
+      AtomicLong failed = new AtomicLong();
+
+      ExecutorService executor = Executors.newFixedThreadPool(clients);
+      long start = System.nanoTime();
+      try {
+         List<Future<Void>> futures = new ArrayList<>();
+         for (int i = 0; i < clients; ++i) {
+            futures.add(executor.submit(() -> {
+               for (int j = 0; j < requestsPerClient; ++j) {
+                  long requestStart = System.nanoTime();
+                  int status = send();
+                  latency.recordSince(requestStart);
+                  if (status == 200) {
+                     succeeded.incrementAndGet();
+                  } else if (status == 429) {
+                     rejected.incrementAndGet();
+                  } else {
+                     failed.incrementAndGet();
+                  }
+               }
+               return null;
+            }));
+         }
+         for (Future<Void> future : futures) {
+            future.get();
+         }
+      } catch (ExecutionException e) {
+         if (e.getCause() instanceof IOException) {
+            throw (IOException) e.getCause();
+         }
+         throw new IllegalStateException(e.getCause());
+      } finally {
+         executor.shutdownNow();
+      }
+
+      return new LoadReport(clients,
+                            succeeded.get(),
+                            rejected.get(),
+                            failed.get(),
+                            System.nanoTime() - start,
+                            latency.getPercentile50Millis(),
+                            latency.getPercentile95Millis(),
+                            latency.getPercentile99Millis());
+   }
+
+   /**
+    * The measurements of a {@link DecodeLoadClient} run.
+    */
+   public static final class LoadReport {
+
+      private final int clients;
+
+      private final long succeeded;
+
+      private final long rejected;
+
+      private final long failed;
+
+      private final long nanos;
+
+      private final double p50;
+
+      private final double p95;
+
+      private final double p99;
+
+      LoadReport(int    clients,
+                 long   succeeded,
+                 long   rejected,
+                 long   failed,
+                 long   nanos,
+                 double p50,
+                 double p95,
+                 double p99) {
+         this.clients = clients;
+         this.succeeded = succeeded;
+         this.rejected = rejected;
+         this.failed = failed;
+         this.nanos = nanos;
+         this.p50 = p50;
+         this.p95 = p95;
+         this.p99 = p99;
+      }
+
+      public long getSucceeded() {
+         return succeeded;
+      }
+
+      public long getRejected() {
+         return rejected;
+      }
+
+      public long getFailed() {
+         return failed;
+      }
+
+      /**
+       * @return the number of decoded images per second, not counting rejected requests.
+       */
+      public double getRequestsPerSecond() {
+         return (nanos == 0) ? 0 : succeeded * 1e9 / nanos;
+      }
+
+      @Override
+      public String toString() {
+         StringBuffer buf = new StringBuffer();
+         buf.append(clients).append(" clients: ");
+         buf.append(String.format("%.1f requests/s", getRequestsPerSecond()));
+         buf.append(", ").append(succeeded).append(" decoded");
+         buf.append(", ").append(rejected).append(" rejected");
+         buf.append(", ").append(failed).append(" failed");
+         buf.append(String.format(", latency p50 %.0f ms, p95 %.0f ms, p99 %.0f ms",
+                                  p50, p95, p99));
+         return buf.toString();
+      }
+   }
+
+   /**
+    * Runs the client from the command line.
+    *
+    * <p>Options are given as <code>--name value</code> pairs: <code>--server</code> (default
+    * <code>http://127.0.0.1:8090</code>), <code>--image</code> (required), <code>--clients</code>
+    * (one or more comma separated values, default <code>1,2,4,8</code>) and
+    * <code>--requests</code> (per client, default 20). The other options are the query
+    * parameters of {@link DecodeRequest}, for example <code>--plateType PT_96_WELLS</code>.
+    *
+    * @param args  The command line options.
+    *
+    * @throws Exception if the image cannot be read or the server cannot be reached.
+    */
+   public static void main(String [] args) throws Exception {
+      Map<String, String> options = new LinkedHashMap<>();
+      for (int i = 0; i + 1 < args.length; i += 2) {
+         if (!args[i].startsWith("--")) {
+            throw new IllegalArgumentException("invalid option: " + args[i]);
+         }
+         options.put(args[i].substring(2), args[i + 1]);
+      }
+      if (!options.containsKey("image") || (args.length % 2 != 0)) {
+         System.err.println("usage: DecodeLoadClient --image FILE --plateType TYPE"
+                            + " --orientation O --barcodePosition B --grid X,Y,WIDTH,HEIGHT"
+                            + " [--server URL] [--clients N,N,...] [--requests N]");
+         System.exit(1);
+      }
+
+      String server = options.remove("server");
+      byte [] image = Files.readAllBytes(new File(options.remove("image")).toPath());
+      String clients = options.remove("clients");
+      String requests = options.remove("requests");
+
+      StringBuffer query = new StringBuffer();
+      options.forEach((name, value) -> {
+            query.append((query.length() == 0) ? "" : "&");
+            query.append(name).append('=').append(value);
+         });
+      DecodeLoadClient client =
+         new DecodeLoadClient((server == null) ? "http://127.0.0.1:8090" : server,
+                              DecodeRequest.parse(query.toString()),
+                              image);
+
+      for (String count : ((clients == null) ? "1,2,4,8" : clients).split(",")) {
+         System.out.println(client.run(Integer.parseInt(count.trim()),
+                                       (requests == null) ? 20 : Integer.parseInt(requests)));
+      }
+   }
+
+}
@@ -0,0 +1,173 @@
+package org.biobank.platedecoder.server;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.CellRectangle;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+
+/**
+ * The plate parameters sent with an image to a {@link DecodeServer}, as query parameters.
+ *
+ * <p>{@code plateType}, {@code orientation}, {@code barcodePosition} and {@code grid} are
+ * required. The grid is the well grid in pixels, written as {@code x,y,width,height}. The decode
+ * options, {@code minEdgeFactor}, {@code maxEdgeFactor}, {@code scanGapFactor}, {@code
+ * squareDev}, {@code edgeThresh}, {@code corrections} and {@code shrink}, default to the values in
+ * {@link DecodeOptions}.
+ */
+public final class DecodeRequest {
+
+   private final PlateType plateType;
+
+   private final PlateOrientation orientation;
+
+   private final BarcodePosition barcodePosition;
+
+   private final double [] grid;
+
+   private final DecodeOptions decodeOptions;
+
+   /**
+    * @param plateType  The plate in the image.
+    *
+    * @param orientation  The orientation of the plate.
+    *
+    * @param barcodePosition  Whether the tops or bottoms of the tubes were scanned.
+    *
+    * @param grid  The well grid in pixels: x, y, width and height.
+    *
+    * @param decodeOptions  The settings used to decode the image.
+    */
+   public DecodeRequest(PlateType        plateType,
+                        PlateOrientation orientation,
+                        BarcodePosition  barcodePosition,
+                        double []        grid,
+                        DecodeOptions    decodeOptions) {
+      if ((plateType == null) || (orientation == null) || (barcodePosition == null)
+          || (decodeOptions == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      if ((grid == null) || (grid.length != 4) || (grid[2] <= 0) || (grid[3] <= 0)) {
+         throw new IllegalArgumentException("invalid grid");
+      }
+      this.plateType = plateType;
+      this.orientation = orientation;
+      this.barcodePosition = barcodePosition;
+      this.grid = grid.clone();
+      this.decodeOptions = decodeOptions;
+   }
+
+   /**
+    * Parses the query of a request.
+    *
+    * @param query  The raw query, still URL encoded. May be {@code null}.
+    *
+    * @return the request.
+    *
+    * @throws IllegalArgumentException if a parameter is missing or invalid.
+    */
+   public static DecodeRequest parse(String query) {
+      Map<String, String> params = new HashMap<>();
+      if (query != null) {
+         for (String param : query.split("&")) {
+            int equals = param.indexOf('=');
+            if (equals > 0) {
+               params.put(decode(param.substring(0, equals)), decode(param.substring(equals + 1)));
+            }
+         }
+      }
+
+      String [] gridValues = getRequired(params, "grid").split(",");
+      if (gridValues.length != 4) {
+         throw new IllegalArgumentException("grid must be x,y,width,height");
+      }
+      double [] grid = new double[4];
+      for (int i = 0; i < grid.length; ++i) {
+         grid[i] = Double.parseDouble(gridValues[i].trim());
+      }
+
+      DecodeOptions decodeOptions = new DecodeOptions(
+         getDouble(params, "minEdgeFactor", DecodeOptions.DEFAULT_MIN_EDGE_FACTOR),
+         getDouble(params, "maxEdgeFactor", DecodeOptions.DEFAULT_MAX_EDGE_FACTOR),
+         getDouble(params, "scanGapFactor", DecodeOptions.DEFAULT_SCAN_GAP_FACTOR),
+         getLong(params, "squareDev", DecodeOptions.DEFAULT_SQUARE_DEV),
+         getLong(params, "edgeThresh", DecodeOptions.DEFAULT_EDGE_THRESH),
+         getLong(params, "corrections", DecodeOptions.DEFAULT_CORRECTIONS),
+         getLong(params, "shrink", DecodeOptions.DEFAULT_SHRINK));
+
+      return new DecodeRequest(PlateType.valueOf(getRequired(params, "plateType")),
+                               PlateOrientation.valueOf(getRequired(params, "orientation")),
+                               BarcodePosition.valueOf(getRequired(params, "barcodePosition")),
+                               grid,
+                               decodeOptions);
+   }
+
+   private static String decode(String value) {
+      try {
+         return URLDecoder.decode(value, "UTF-8");
+      } catch (UnsupportedEncodingException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static String getRequired(Map<String, String> params, String name) {
+      String value = params.get(name);
+      if (value == null) {
+         throw new IllegalArgumentException("missing parameter: " + name);
+      }
+      return value;
+   }
+
+   private static double getDouble(Map<String, String> params, String name, double defaultValue) {
+      return params.containsKey(name) ? Double.parseDouble(params.get(name)) : defaultValue;
+   }
+
+   private static long getLong(Map<String, String> params, String name, long defaultValue) {
+      return params.containsKey(name) ? Long.parseLong(params.get(name)) : defaultValue;
+   }
+
+   /**
+    * Returns the query that {@link #parse} turns back into this request.
+    *
+    * @return the query, without the leading question mark.
+    */
+   public String toQuery() {
+      StringBuffer buf = new StringBuffer();
+      buf.append("plateType=").append(plateType.name());
+      buf.append("&orientation=").append(orientation.name());
+      buf.append("&barcodePosition=").append(barcodePosition.name());
+      buf.append("&grid=").append(grid[0]).append(',').append(grid[1]);
+      buf.append(',').append(grid[2]).append(',').append(grid[3]);
+      buf.append("&minEdgeFactor=").append(decodeOptions.getMinEdgeFactor());
+      buf.append("&maxEdgeFactor=").append(decodeOptions.getMaxEdgeFactor());
+      buf.append("&scanGapFactor=").append(decodeOptions.getScanGapFactor());
+      buf.append("&squareDev=").append(decodeOptions.getSquareDev());
+      buf.append("&edgeThresh=").append(decodeOptions.getEdgeThresh());
+      buf.append("&corrections=").append(decodeOptions.getCorrections());
+      buf.append("&shrink=").append(decodeOptions.getShrink());
+      return buf.toString();
+   }
+
+   public DecodeOptions getDecodeOptions() {
+      return decodeOptions;
+   }
+
+   /**
+    * @return the cells of the well grid.
+    */
+   public CellRectangle [] getCells() {
+      return CellRectangle.fromCellGrid(CellGrid.forBoundingBox(grid[0],
+                                                                grid[1],
+                                                                grid[2],
+                                                                grid[3],
+                                                                orientation,
+                                                                plateType,
+                                                                barcodePosition));
+   }
+
+}
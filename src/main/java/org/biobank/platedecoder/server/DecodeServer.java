@@ -0,0 +1,342 @@
+package org.biobank.platedecoder.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import org.biobank.platedecoder.batch.JsonBatchResultWriter;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.DecoderBackendType;
+import org.biobank.platedecoder.dmscanlib.DecoderWorkerPool;
+import org.biobank.platedecoder.dmscanlib.LibraryLoader;
+import org.biobank.platedecoder.metrics.Counter;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Decodes plate images sent over HTTP, so that several benches can share one decoding computer.
+ *
+ * <p>An image is decoded by sending it as the body of a {@code POST} to {@code /decode}, with the
+ * plate parameters in the query, see {@link DecodeRequest}. The response is a JSON object with
+ * the result code, the message and the decoded wells, in the same form as {@link
+ * JsonBatchResultWriter}. Invalid parameters get a {@code 400} response, and images larger than
+ * {@code maxBodyBytes} a {@code 413} response, so that clients cannot fill the disk.
+ *
+ * <p>At most {@code concurrency} images are decoded at the same time, and up to {@code
+ * queueCapacity} more wait their turn, in the order they arrived. Requests beyond that are
+ * answered at once with {@code 429 Too Many Requests}, so that clients can back off or try
+ * another server instead of waiting on a saturated one.
+ *
+ * <p>Backends that are not thread safe decode one image at a time; use {@link
+ * DecoderBackendType#WORKERS} to decode with the native library in parallel.
+ */
+public class DecodeServer {
+
+   private static final Logger LOG = LoggerFactory.getLogger(DecodeServer.class);
+
+   private static final Counter REQUESTS = Metrics.getInstance().counter("server.requests");
+
+   private static final Counter REJECTED = Metrics.getInstance().counter("server.rejected");
+
+   private static final LatencyHistogram DECODE =
+      Metrics.getInstance().histogram("server.decode");
+
+   /** The path images are posted to. */
+   public static final String DECODE_PATH = "/decode";
+
+   /** The largest image accepted by default, in bytes. */
+   public static final long DEFAULT_MAX_BODY_BYTES = 256L * 1024 * 1024;
+
+   private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+   // threads beyond the admitted requests, so that rejections are answered while all the
+   // admitted requests are being handled
+   private static final int EXTRA_THREADS = 2;
+
+   private final DecoderBackend backend;
+
+   private final HttpServer server;
+
+   private final ExecutorService executor;
+
+   // admitted requests, decoding or waiting to
+   private final Semaphore admitted;
+
+   private final Semaphore decoding;
+
+   private final long maxBodyBytes;
+
+   /**
+    * Creates a server that accepts images up to {@link #DEFAULT_MAX_BODY_BYTES}. It does not
+    * accept requests until it is started.
+    *
+    * @param backend  Decodes the images.
+    *
+    * @param address  The address and port the server listens on. Port 0 picks a free port.
+    *
+    * @param concurrency  The number of images decoded at the same time. Reduced to 1 if the
+    *                     backend is not thread safe.
+    *
+    * @param queueCapacity  The number of requests that can wait for a decode.
+    *
+    * @throws IOException if the server cannot listen on the address.
+    */
+   public DecodeServer(DecoderBackend    backend,
+                       InetSocketAddress address,
+                       int               concurrency,
+                       int               queueCapacity) throws IOException {
+      this(backend, address, concurrency, queueCapacity, DEFAULT_MAX_BODY_BYTES);
+   }
+
+   /**
+    * Creates a server. It does not accept requests until it is started.
+    *
+    * @param backend  Decodes the images.
+    *
+    * @param address  The address and port the server listens on. Port 0 picks a free port.
+    *
+    * @param concurrency  The number of images decoded at the same time. Reduced to 1 if the
+    *                     backend is not thread safe.
+    *
+    * @param queueCapacity  The number of requests that can wait for a decode.
+    *
+    * @param maxBodyBytes  The size of the largest image accepted, in bytes.
+    *
+    * @throws IOException if the server cannot listen on the address.
+    */
+   public DecodeServer(DecoderBackend    backend,
+                       InetSocketAddress address,
+                       int               concurrency,
+                       int               queueCapacity,
+                       long              maxBodyBytes) throws IOException {
+      if ((backend == null) || (address == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      if ((concurrency < 1) || (queueCapacity < 0)) {
+         throw new IllegalArgumentException("invalid concurrency or queue capacity");
+      }
+      if (maxBodyBytes < 1) {
+         throw new IllegalArgumentException("invalid maximum body size: " + maxBodyBytes);
+      }
+      if ((concurrency > 1) && !backend.isThreadSafe()) {
+         LOG.warn("the decoder is not thread safe, images will be decoded one at a time");
+         concurrency = 1;
+      }
+      this.backend = backend;
+      this.maxBodyBytes = maxBodyBytes;
+      this.admitted = new Semaphore(concurrency + queueCapacity);
+      this.decoding = new Semaphore(concurrency, true);
+      this.executor =
+         Executors.newFixedThreadPool(concurrency + queueCapacity + EXTRA_THREADS);
+      this.server = HttpServer.create(address, 0);
+      server.setExecutor(executor);
+      server.createContext(DECODE_PATH, this::handleDecode);
+   }
+
+   public void start() {
+      server.start();
+      LOG.info("listening on {}", server.getAddress());
+   }
+
+   /**
+    * Stops accepting requests and waits for the ones being handled to finish.
+    *
+    * @param delaySeconds  The longest time to wait.
+    */
+   public void stop(int delaySeconds) {
+      server.stop(delaySeconds);
+      executor.shutdown();
+   }
+
+   /**
+    * @return the port the server listens on.
+    */
+   public int getPort() {
+      return server.getAddress().getPort();
+   }
+
+   private void handleDecode(HttpExchange exchange) throws IOException {
+      REQUESTS.increment();
+      try {
+         if (!"POST".equals(exchange.getRequestMethod())) {
+            sendError(exchange, 405, "images must be sent with POST");
+            return;
+         }
+         if (getContentLength(exchange) > maxBodyBytes) {
+            sendError(exchange, 413, "image is larger than " + maxBodyBytes + " bytes");
+            return;
+         }
+         if (!admitted.tryAcquire()) {
+            REJECTED.increment();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            sendError(exchange, 429, "too many requests");
+            return;
+         }
+         try {
+            decode(exchange);
+         } finally {
+            admitted.release();
+         }
+      } catch (IllegalArgumentException e) {
+         sendError(exchange, 400, e.getMessage());
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         sendError(exchange, 503, "server is stopping");
+      } catch (RuntimeException e) {
+         LOG.error("decode request failed", e);
+         sendError(exchange, 500, String.valueOf(e.getMessage()));
+      } finally {
+         exchange.close();
+      }
+   }
+
+   private void decode(HttpExchange exchange) throws IOException, InterruptedException {
+      DecodeRequest request = DecodeRequest.parse(exchange.getRequestURI().getRawQuery());
+
+      // the decoders read images from files; the native library also reads TIFF this way
+      File image = File.createTempFile("decode-server", ".img");
+      try {
+         // chunked requests have no length, so the copy stops at the limit as well
+         if (!copyBody(exchange.getRequestBody(), image)) {
+            sendError(exchange, 413, "image is larger than " + maxBodyBytes + " bytes");
+            return;
+         }
+         if (image.length() == 0) {
+            throw new IllegalArgumentException("no image in the request");
+         }
+
+         DecodeResult result;
+         decoding.acquire();
+         try {
+            long start = System.nanoTime();
+            result = backend.decodeImage(0,
+                                         image.getPath(),
+                                         request.getDecodeOptions(),
+                                         request.getCells());
+            DECODE.recordSince(start);
+         } finally {
+            decoding.release();
+         }
+         send(exchange, 200, JsonBatchResultWriter.toJson(result));
+      } finally {
+         image.delete();
+      }
+   }
+
+   // -1 if the request does not give its length
+   private static long getContentLength(HttpExchange exchange) {
+      String length = exchange.getRequestHeaders().getFirst("Content-Length");
+      if (length == null) {
+         return -1;
+      }
+      try {
+         return Long.parseLong(length.trim());
+      } catch (NumberFormatException e) {
+         throw new IllegalArgumentException("invalid Content-Length: " + length);
+      }
+   }
+
+   // returns false if the body is larger than the limit, the file then holds part of it
+   private boolean copyBody(InputStream body, File file) throws IOException {
+      byte [] buffer = new byte[COPY_BUFFER_SIZE];
+      long copied = 0;
+      try (OutputStream out = Files.newOutputStream(file.toPath())) {
+         int count;
+         while ((count = body.read(buffer)) >= 0) {
+            copied += count;
+            if (copied > maxBodyBytes) {
+               return false;
+            }
+            out.write(buffer, 0, count);
+         }
+      }
+      return true;
+   }
+
+   private static void sendError(HttpExchange exchange, int status, String message)
+      throws IOException {
+      Map<String, Object> json = new LinkedHashMap<>();
+      json.put("error", message);
+      send(exchange, status, json);
+   }
+
+   private static void send(HttpExchange exchange, int status, Map<String, Object> json)
+      throws IOException {
+      byte [] body = JSON.std.asString(json).getBytes(StandardCharsets.UTF_8);
+      exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+      exchange.sendResponseHeaders(status, body.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+         out.write(body);
+      }
+   }
+
+   /**
+    * Runs the server until the process is stopped.
+    *
+    * <p>Options are given as <code>--name value</code> pairs: <code>--port</code> (default 8090),
+    * <code>--bind</code> (the address to listen on, default <code>127.0.0.1</code>; use
+    * <code>0.0.0.0</code> to accept requests from other computers), <code>--backend</code> (a
+    * {@link DecoderBackendType} name, default <code>WORKERS</code>), <code>--concurrency</code>
+    * (default the number of processors), <code>--queue</code> (default twice the
+    * concurrency) and <code>--max-body</code> (the size of the largest image accepted in bytes,
+    * default {@link #DEFAULT_MAX_BODY_BYTES}).
+    *
+    * @param args  The command line options.
+    *
+    * @throws IOException if the server cannot listen on the address.
+    */
+   public static void main(String [] args) throws IOException {
+      Map<String, String> options = new LinkedHashMap<>();
+      for (int i = 0; i + 1 < args.length; i += 2) {
+         if (!args[i].startsWith("--")) {
+            throw new IllegalArgumentException("invalid option: " + args[i]);
+         }
+         options.put(args[i].substring(2), args[i + 1]);
+      }
+      if (args.length % 2 != 0) {
+         System.err.println("usage: DecodeServer [--port N] [--bind ADDRESS]"
+                            + " [--backend NATIVE|JAVA|WORKERS] [--concurrency N] [--queue N]"
+                            + " [--max-body BYTES]");
+         System.exit(1);
+      }
+
+      DecoderBackendType type =
+         DecoderBackendType.valueOf(options.getOrDefault("backend", "WORKERS"));
+      int concurrency = Integer.parseInt(
+         options.getOrDefault("concurrency",
+                              String.valueOf(Runtime.getRuntime().availableProcessors())));
+      int queue = Integer.parseInt(options.getOrDefault("queue", String.valueOf(2 * concurrency)));
+      long maxBody = Long.parseLong(
+         options.getOrDefault("max-body", String.valueOf(DEFAULT_MAX_BODY_BYTES)));
+
+      if (type == DecoderBackendType.NATIVE) {
+         LibraryLoader.load();
+      } else if (type == DecoderBackendType.WORKERS) {
+         DecoderWorkerPool.getInstance().setSize(concurrency);
+      }
+
+      InetSocketAddress address =
+         new InetSocketAddress(options.getOrDefault("bind", "127.0.0.1"),
+                               Integer.parseInt(options.getOrDefault("port", "8090")));
+      DecodeServer server =
+         new DecodeServer(type.getBackend(), address, concurrency, queue, maxBody);
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> server.stop(5), "decode-server"));
+      server.start();
+   }
+
+}
@@ -1,7 +1,13 @@
 package org.biobank.platedecoder.service;
 
+import java.util.Set;
+
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.CellRectangle;
 import org.biobank.platedecoder.dmscanlib.DecodeOptions;
 import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ImageBuffer;
 import org.biobank.platedecoder.model.BarcodePosition;
 import org.biobank.platedecoder.model.PlateOrientation;
 import org.biobank.platedecoder.model.PlateType;
@@ -9,16 +15,24 @@ import org.biobank.platedecoder.ui.wellgrid.WellGrid;
 
 public class DecodeImageTask extends ScanAndDecodeImageTask {
 
-   public DecodeImageTask(WellGrid         wellGrid,
-                          long             dpi,
-                          PlateOrientation orientation,
-                          PlateType        plateType,
-                          BarcodePosition  barcodePosition,
-                          long             brightness,
-                          long             contrast,
-                          long             decodeDebugLevel,
-                          DecodeOptions    decodeOptions,
-                          String           filename) {
+   // the cells to decode, when null all the cells in the well grid are decoded
+   private final Set<CellRectangle> cells;
+
+   private final PlateType plateType;
+
+   public DecodeImageTask(WellGrid           wellGrid,
+                          long               dpi,
+                          PlateOrientation   orientation,
+                          PlateType          plateType,
+                          BarcodePosition    barcodePosition,
+                          long               brightness,
+                          long               contrast,
+                          long               decodeDebugLevel,
+                          DecodeOptions      decodeOptions,
+                          DecoderBackend     decoderBackend,
+                          String             filename,
+                          ImageBuffer        imageBuffer,
+                          Set<CellRectangle> cells) {
 
       super(wellGrid,
             dpi,
@@ -29,7 +43,19 @@ public class DecodeImageTask extends ScanAndDecodeImageTask {
             contrast,
             decodeDebugLevel,
             decodeOptions,
-            filename);
+            decoderBackend,
+            filename,
+            imageBuffer);
+      this.cells = cells;
+      this.plateType = plateType;
+   }
+
+   @Override
+   protected CellGrid getCells() {
+      if (cells == null) {
+         return super.getCells();
+      }
+      return CellRectangle.toCellGrid(plateType, cells.toArray(new CellRectangle[] {}));
    }
 
    @Override
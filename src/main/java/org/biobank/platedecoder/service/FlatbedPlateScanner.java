@@ -0,0 +1,92 @@
+package org.biobank.platedecoder.service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.function.IntPredicate;
+
+import org.biobank.platedecoder.dmscanlib.ScanLibResult;
+import org.biobank.platedecoder.model.PlateDecoderDefaults;
+import org.biobank.platedecoder.ui.PlateDecoder;
+
+/**
+ * Scans a series of plates with the flatbed scanner, for a {@link PlatePipeline}.
+ *
+ * <p>Each plate is saved to its own file, {@code plate-<number>.png}, so that a plate can be
+ * scanned while the previous one is still being decoded. On Linux the scan is simulated by
+ * copying {@link PlateDecoderDefaults#FLATBED_PLATE_IMAGE_NAME}.
+ */
+public class FlatbedPlateScanner implements PlatePipeline.PlateScanner {
+
+   private final long dpi;
+
+   private final long brightness;
+
+   private final long contrast;
+
+   private final long decodeDebugLevel;
+
+   private final File dir;
+
+   private final IntPredicate nextPlate;
+
+   /**
+    * @param dpi  The resolution of the scans.
+    *
+    * @param brightness  The brightness setting of the scanner.
+    *
+    * @param contrast  The contrast setting of the scanner.
+    *
+    * @param decodeDebugLevel  The debug level of the scanning library.
+    *
+    * @param dir  Where the images are saved.
+    *
+    * @param nextPlate  Called with the number of the plate before each scan. Returns {@code true}
+    *                   once the plate is on the scanner, or {@code false} to end the series.
+    */
+   public FlatbedPlateScanner(long         dpi,
+                              long         brightness,
+                              long         contrast,
+                              long         decodeDebugLevel,
+                              File         dir,
+                              IntPredicate nextPlate) {
+      if ((dir == null) || (nextPlate == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      this.dpi = dpi;
+      this.brightness = brightness;
+      this.contrast = contrast;
+      this.decodeDebugLevel = decodeDebugLevel;
+      this.dir = dir;
+      this.nextPlate = nextPlate;
+   }
+
+   @Override
+   public File scan(int plateNumber) throws Exception {
+      if (!nextPlate.test(plateNumber)) {
+         return null;
+      }
+
+      File image = new File(dir, "plate-" + plateNumber + ".png");
+      if (PlateDecoder.IS_LINUX) {
+         Thread.sleep(500);
+         Files.copy(Paths.get(PlateDecoderDefaults.FLATBED_PLATE_IMAGE_NAME),
+                    image.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+         return image;
+      }
+
+      ScanLibResult result = ScanAndDecodeImageTask.scanImage(decodeDebugLevel,
+                                                              dpi,
+                                                              brightness,
+                                                              contrast,
+                                                              image.getPath());
+      if (result.getResultCode() != ScanLibResult.Result.SUCCESS) {
+         throw new IOException("scan failed: " + result.getMessage());
+      }
+      return image;
+   }
+
+}
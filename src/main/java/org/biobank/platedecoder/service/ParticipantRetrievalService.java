@@ -3,6 +3,9 @@ package org.biobank.platedecoder.service;
 import java.util.Arrays;
 import java.util.List;
 
+import org.biobank.platedecoder.metrics.Counter;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
 import org.biobank.platedecoder.model.Participant;
 import org.biobank.platedecoder.model.PmiDetail;
 import org.slf4j.Logger;
@@ -25,6 +28,12 @@ public class ParticipantRetrievalService extends Service<ObservableList<Particip
     //@SuppressWarnings("unused")
     private static final Logger LOG = LoggerFactory.getLogger(ParticipantRetrievalService.class);
 
+    private static final LatencyHistogram REQUEST_TIME =
+        Metrics.getInstance().histogram("openspecimen.participants");
+
+    private static final Counter REQUEST_ERRORS =
+        Metrics.getInstance().counter("openspecimen.errors");
+
     private static final String REST_API = "openspecimen/rest/ng/participants/match";
 
     private final String hostname;
@@ -69,10 +78,16 @@ public class ParticipantRetrievalService extends Service<ObservableList<Particip
                     LOG.debug("json param: {}", json);
 
                     post.setBody(json);
+                    long start = System.nanoTime();
                     Response response = post.execute().get();
+                    REQUEST_TIME.recordSince(start);
                     int statusCode = response.getStatusCode();
                     LOG.debug("statusCode: {}", statusCode);
 
+                    if (statusCode != 200) {
+                        REQUEST_ERRORS.increment();
+                    }
+
                     if (statusCode == 200) {
                         String body = response.getResponseBody();
                         LOG.debug("response: {}", body);
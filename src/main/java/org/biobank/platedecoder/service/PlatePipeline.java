@@ -0,0 +1,514 @@
+package org.biobank.platedecoder.service;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.biobank.platedecoder.batch.BatchResultWriter;
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ImagePreprocessor;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Scans, decodes and exports a series of plates, working on several plates at the same time.
+ *
+ * <p>The work is split into {@link Stage stages} that each run on their own thread and are
+ * connected by bounded queues: the next plate is scanned while the previous one is decoded and
+ * the one before that is exported. When a queue is full the stage feeding it waits, so the
+ * scanner never gets more than a few plates ahead of the decoder and memory use stays bounded.
+ *
+ * <p>Each stage keeps its own {@link StageStats statistics}. The stage with the highest
+ * utilization limits the throughput of the whole pipeline. The stages are also measured in the
+ * shared {@link Metrics} registry, as {@code pipeline.<stage>} latency histograms and {@code
+ * pipeline.<stage>.queue} gauges holding the number of plates waiting for the stage.
+ */
+public class PlatePipeline implements Closeable {
+
+   private static final Logger LOG = LoggerFactory.getLogger(PlatePipeline.class);
+
+   /**
+    * The stages of the pipeline, in the order a plate goes through them.
+    */
+   public enum Stage {
+      /** Scans the plate to an image file. */
+      ACQUIRE("acquire"),
+
+      /**
+       * Reads the image into memory, reduced to grayscale pixels inside the cells. Skipped when
+       * the backend only decodes files.
+       */
+      PREPROCESS("preprocess"),
+
+      /** Decodes the image. */
+      DECODE("decode"),
+
+      /** Saves the result. */
+      EXPORT("export");
+
+      private final LatencyHistogram time;
+
+      // plates waiting for this stage, in all the pipelines
+      private final AtomicInteger queued = new AtomicInteger();
+
+      private Stage(String name) {
+         this.time = Metrics.getInstance().histogram("pipeline." + name);
+         Metrics.getInstance().gauge("pipeline." + name + ".queue", queued::get);
+      }
+   }
+
+   /**
+    * Produces the images of the plates in a series.
+    */
+   @FunctionalInterface
+   public interface PlateScanner {
+
+      /**
+       * Scans the next plate.
+       *
+       * @param plateNumber  The position of the plate in the series, starting at 1.
+       *
+       * @return the image of the plate, or {@code null} if there are no more plates.
+       *
+       * @throws Exception if the plate could not be scanned. The series ends.
+       */
+      File scan(int plateNumber) throws Exception;
+   }
+
+   /**
+    * Saves the result of a plate.
+    */
+   @FunctionalInterface
+   public interface PlateExporter {
+
+      /**
+       * @param plate  The plate, with its image and decode result.
+       *
+       * @throws Exception if the result could not be saved.
+       */
+      void export(ScannedPlate plate) throws Exception;
+   }
+
+   @FunctionalInterface
+   private interface Step {
+      void process(ScannedPlate plate) throws Exception;
+   }
+
+   /**
+    * The statistics of one stage of a pipeline.
+    */
+   public final class StageStats {
+
+      private final Stage stage;
+
+      // the queue the stage takes plates from, null for the first stage
+      private final BlockingQueue<ScannedPlate> queue;
+
+      private final AtomicLong plates = new AtomicLong();
+
+      private final AtomicLong busyNanos = new AtomicLong();
+
+      private final AtomicInteger maxQueueDepth = new AtomicInteger();
+
+      StageStats(Stage stage, BlockingQueue<ScannedPlate> queue) {
+         this.stage = stage;
+         this.queue = queue;
+      }
+
+      public Stage getStage() {
+         return stage;
+      }
+
+      /**
+       * @return the number of plates the stage has worked on.
+       */
+      public long getPlates() {
+         return plates.get();
+      }
+
+      /**
+       * @return the number of plates waiting for the stage.
+       */
+      public int getQueueDepth() {
+         return (queue == null) ? 0 : queue.size();
+      }
+
+      /**
+       * @return the largest number of plates that have waited for the stage.
+       */
+      public int getMaxQueueDepth() {
+         return maxQueueDepth.get();
+      }
+
+      /**
+       * @return the number of plates the stage worked on per second since the pipeline started.
+       */
+      public double getPlatesPerSecond() {
+         long elapsed = getElapsedNanos();
+         return (elapsed == 0) ? 0 : plates.get() * 1e9 / elapsed;
+      }
+
+      /**
+       * @return the fraction of the time since the pipeline started that the stage was working.
+       */
+      public double getUtilization() {
+         long elapsed = getElapsedNanos();
+         return (elapsed == 0) ? 0 : (double) busyNanos.get() / elapsed;
+      }
+
+      void updateMaxQueueDepth() {
+         maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+      }
+
+      void record(long start) {
+         long elapsed = System.nanoTime() - start;
+         plates.incrementAndGet();
+         busyNanos.addAndGet(elapsed);
+         stage.time.record(elapsed);
+      }
+
+      @Override
+      public String toString() {
+         StringBuffer buf = new StringBuffer();
+         buf.append(stage.name().toLowerCase());
+         buf.append(": ").append(plates.get()).append(" plates");
+         buf.append(String.format(", %.2f plates/s, %.0f%% busy",
+                                  getPlatesPerSecond(),
+                                  getUtilization() * 100));
+         buf.append(", queue ").append(getQueueDepth());
+         buf.append(" (max ").append(getMaxQueueDepth()).append(")");
+         return buf.toString();
+      }
+   }
+
+   // marks the end of the series, passed down through all the queues
+   private static final ScannedPlate END = new ScannedPlate(0);
+
+   private final PlateScanner scanner;
+
+   private final DecoderBackend backend;
+
+   private final CellGrid cells;
+
+   private final ImagePreprocessor preprocessor = new ImagePreprocessor();
+
+   private final DecodeOptions decodeOptions;
+
+   private final long decodeDebugLevel;
+
+   private final PlateExporter exporter;
+
+   private final Consumer<ScannedPlate> listener;
+
+   private final Map<Stage, StageStats> stats = new EnumMap<>(Stage.class);
+
+   private final List<Thread> threads = new ArrayList<>();
+
+   private volatile boolean stopped;
+
+   private volatile long startNanos;
+
+   private volatile long endNanos;
+
+   /**
+    * Creates a pipeline. No plates are scanned until it is started.
+    *
+    * @param scanner  Scans the plates.
+    *
+    * @param backend  Decodes the images.
+    *
+    * @param cells  The cells of the plates, in pixels. The same for every plate.
+    *
+    * @param decodeOptions  The settings used to decode the images.
+    *
+    * @param decodeDebugLevel  The debug level passed to the decoder.
+    *
+    * @param exporter  Saves the results.
+    *
+    * @param listener  Called with each plate once it has gone through all the stages, or {@code
+    *                  null}. Called on the thread of the last stage.
+    *
+    * @param queueCapacity  The number of plates that can wait between two stages.
+    */
+   public PlatePipeline(PlateScanner           scanner,
+                        DecoderBackend         backend,
+                        CellGrid               cells,
+                        DecodeOptions          decodeOptions,
+                        long                   decodeDebugLevel,
+                        PlateExporter          exporter,
+                        Consumer<ScannedPlate> listener,
+                        int                    queueCapacity) {
+      if ((scanner == null) || (backend == null) || (cells == null) || (decodeOptions == null)
+          || (exporter == null)) {
+         throw new IllegalArgumentException("null argument");
+      }
+      if (queueCapacity < 1) {
+         throw new IllegalArgumentException("invalid queue capacity: " + queueCapacity);
+      }
+      this.scanner = scanner;
+      this.backend = backend;
+      this.cells = cells;
+      this.decodeOptions = decodeOptions;
+      this.decodeDebugLevel = decodeDebugLevel;
+      this.exporter = exporter;
+      this.listener = listener;
+
+      stats.put(Stage.ACQUIRE, new StageStats(Stage.ACQUIRE, null));
+      for (Stage stage : new Stage [] { Stage.PREPROCESS, Stage.DECODE, Stage.EXPORT }) {
+         stats.put(stage, new StageStats(stage, new ArrayBlockingQueue<>(queueCapacity)));
+      }
+   }
+
+   /**
+    * Creates an exporter that saves the result of each plate next to its image, in a file named
+    * after the image with the format appended, for example {@code plate-1.png.csv}.
+    *
+    * @param outputDir  Where the results are saved. If {@code null}, they are saved in the
+    *                   directory holding the image.
+    *
+    * @param format  {@code csv} or {@code json}, see {@link BatchResultWriter#create}.
+    *
+    * @return the exporter.
+    */
+   public static PlateExporter exportTo(File outputDir, String format) {
+      if (!"csv".equals(format) && !"json".equals(format)) {
+         throw new IllegalArgumentException("invalid format: " + format);
+      }
+      return plate -> {
+         File image = plate.getImage();
+         File dir = (outputDir == null) ? image.getAbsoluteFile().getParentFile() : outputDir;
+         File file = new File(dir, image.getName() + "." + format);
+         try (BatchResultWriter writer =
+                 BatchResultWriter.create(format,
+                                          new OutputStreamWriter(new FileOutputStream(file),
+                                                                 StandardCharsets.UTF_8))) {
+            writer.write(image, plate.getResult());
+         }
+      };
+   }
+
+   /**
+    * Starts scanning plates.
+    */
+   public synchronized void start() {
+      if (!threads.isEmpty()) {
+         throw new IllegalStateException("pipeline already started");
+      }
+      startNanos = System.nanoTime();
+      threads.add(new Thread(this::acquire, "pipeline-acquire"));
+      threads.add(stageThread(Stage.PREPROCESS, Stage.DECODE, this::preprocess));
+      threads.add(stageThread(Stage.DECODE, Stage.EXPORT, this::decode));
+      threads.add(stageThread(Stage.EXPORT, null, this::export));
+      for (Thread thread : threads) {
+         thread.setDaemon(true);
+         thread.start();
+      }
+   }
+
+   /**
+    * Stops scanning plates once the current scan is done. The plates already scanned still go
+    * through the rest of the stages.
+    */
+   public void stop() {
+      stopped = true;
+   }
+
+   /**
+    * Waits until every scanned plate has gone through all the stages.
+    *
+    * @throws InterruptedException if interrupted while waiting.
+    */
+   public void awaitCompletion() throws InterruptedException {
+      List<Thread> started;
+      synchronized (this) {
+         started = new ArrayList<>(threads);
+      }
+      for (Thread thread : started) {
+         thread.join();
+      }
+   }
+
+   /**
+    * Stops scanning and waits for the plates already scanned.
+    */
+   @Override
+   public void close() {
+      stop();
+      try {
+         awaitCompletion();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * @return the statistics of each stage, in the order of the stages.
+    */
+   public List<StageStats> getStats() {
+      return Collections.unmodifiableList(new ArrayList<>(stats.values()));
+   }
+
+   /**
+    * @param stage  The stage.
+    *
+    * @return the statistics of the stage.
+    */
+   public StageStats getStats(Stage stage) {
+      return stats.get(stage);
+   }
+
+   private long getElapsedNanos() {
+      if (startNanos == 0) {
+         return 0;
+      }
+      return ((endNanos == 0) ? System.nanoTime() : endNanos) - startNanos;
+   }
+
+   private void acquire() {
+      StageStats acquireStats = stats.get(Stage.ACQUIRE);
+      try {
+         for (int number = 1; !stopped; ++number) {
+            ScannedPlate plate = new ScannedPlate(number);
+            long start = System.nanoTime();
+            try {
+               File image = scanner.scan(number);
+               if (image == null) {
+                  break;
+               }
+               plate.setImage(image);
+               acquireStats.record(start);
+            } catch (InterruptedException e) {
+               throw e;
+            } catch (Exception e) {
+               LOG.error("could not scan plate {}: {}", number, e.getMessage());
+               plate.fail(Stage.ACQUIRE, e);
+               stopped = true;
+            }
+            put(Stage.PREPROCESS, plate);
+         }
+         put(Stage.PREPROCESS, END);
+      } catch (InterruptedException e) {
+         LOG.warn("scanning interrupted");
+      }
+   }
+
+   private Thread stageThread(Stage stage, Stage next, Step step) {
+      return new Thread(() -> {
+            try {
+               runStage(stage, next, step);
+            } catch (InterruptedException e) {
+               LOG.warn("{} interrupted", stage);
+            }
+         }, "pipeline-" + stage.name().toLowerCase());
+   }
+
+   private void runStage(Stage stage, Stage next, Step step) throws InterruptedException {
+      StageStats stageStats = stats.get(stage);
+      while (true) {
+         ScannedPlate plate = stageStats.queue.take();
+         if (plate == END) {
+            if (next == null) {
+               endNanos = System.nanoTime();
+            } else {
+               put(next, END);
+            }
+            return;
+         }
+         stage.queued.decrementAndGet();
+
+         if (plate.getError() == null) {
+            long start = System.nanoTime();
+            try {
+               step.process(plate);
+            } catch (InterruptedException e) {
+               throw e;
+            } catch (Exception e) {
+               LOG.error("plate {}: {} failed: {}", plate.getNumber(), stage, e.getMessage());
+               plate.fail(stage, e);
+            }
+            stageStats.record(start);
+         }
+
+         if (next != null) {
+            put(next, plate);
+         } else if (listener != null) {
+            try {
+               listener.accept(plate);
+            } catch (RuntimeException e) {
+               // the remaining plates must still be taken off the queue
+               LOG.error("plate listener failed", e);
+            }
+         }
+      }
+   }
+
+   private void put(Stage stage, ScannedPlate plate) throws InterruptedException {
+      StageStats stageStats = stats.get(stage);
+      if (plate == END) {
+         stageStats.queue.put(plate);
+         return;
+      }
+      stage.queued.incrementAndGet();
+      try {
+         // waits while the next stage is behind
+         stageStats.queue.put(plate);
+      } catch (InterruptedException e) {
+         stage.queued.decrementAndGet();
+         throw e;
+      }
+      stageStats.updateMaxQueueDepth();
+   }
+
+   private void preprocess(ScannedPlate plate) throws Exception {
+      if (!backend.isImageBufferSupported()) {
+         // the reduced image would be saved to another file, the scan is decoded instead
+         return;
+      }
+      ImagePreprocessor.PreprocessedImage reduced =
+         preprocessor.preprocess(plate.getImage(), cells);
+      if (reduced == null) {
+         throw new IOException("the cells are outside the image: " + plate.getImage());
+      }
+      plate.setImageBuffer(reduced.getImage(), reduced.rebase(cells));
+   }
+
+   private void decode(ScannedPlate plate) {
+      DecodeResult result;
+      if (plate.getImageBuffer() == null) {
+         result = backend.decodeImage(decodeDebugLevel,
+                                      plate.getImage().getPath(),
+                                      decodeOptions,
+                                      cells);
+      } else {
+         result = backend.decodeImageBuffer(decodeDebugLevel,
+                                            plate.getImageBuffer(),
+                                            decodeOptions,
+                                            plate.getCells());
+      }
+      plate.setImageBuffer(null, null);
+      plate.setResult(result);
+   }
+
+   private void export(ScannedPlate plate) throws Exception {
+      exporter.export(plate);
+   }
+
+}
@@ -3,13 +3,17 @@ package org.biobank.platedecoder.service;
 import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
 
 import java.util.Optional;
-import java.util.Set;
 
-import org.biobank.platedecoder.dmscanlib.CellRectangle;
+import org.biobank.platedecoder.dmscanlib.CellGrid;
 import org.biobank.platedecoder.dmscanlib.DecodeOptions;
 import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ImageBuffer;
 import org.biobank.platedecoder.dmscanlib.ScanLib;
 import org.biobank.platedecoder.dmscanlib.ScanLibResult;
+import org.biobank.platedecoder.metrics.Counter;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
 import org.biobank.platedecoder.model.BarcodePosition;
 import org.biobank.platedecoder.model.PlateDecoderDefaults;
 import org.biobank.platedecoder.model.PlateDecoderPreferences;
@@ -27,6 +31,17 @@ public class ScanAndDecodeImageTask extends Task<ScanLibResult> {
    // @SuppressWarnings("unused")
    private static final Logger LOG = LoggerFactory.getLogger(ScanAndDecodeImageTask.class);
 
+   private static final LatencyHistogram SCAN_TIME =
+      Metrics.getInstance().histogram("scanlib.scanImage");
+
+   // the whole decode, through all the layers of the decoder backend
+   private static final LatencyHistogram DECODE_TIME =
+      Metrics.getInstance().histogram("decode.image");
+
+   private static final Counter DECODED_WELLS = Metrics.getInstance().counter("decode.wells");
+
+   private static final Counter DECODE_FAILURES = Metrics.getInstance().counter("decode.failures");
+
    private final Rectangle scanRect;
 
    private final long dpi;
@@ -47,6 +62,11 @@ public class ScanAndDecodeImageTask extends Task<ScanLibResult> {
 
    private final DecodeOptions decodeOptions;
 
+   private final DecoderBackend decoderBackend;
+
+   // when not null, the image is decoded from memory instead of from filename
+   private final ImageBuffer imageBuffer;
+
    public ScanAndDecodeImageTask(Rectangle        scanRect,
                                  long             dpi,
                                  PlateOrientation orientation,
@@ -56,7 +76,34 @@ public class ScanAndDecodeImageTask extends Task<ScanLibResult> {
                                  long             contrast,
                                  long             decodeDebugLevel,
                                  DecodeOptions    decodeOptions,
+                                 DecoderBackend   decoderBackend,
                                  String           filename) {
+      this(scanRect,
+           dpi,
+           orientation,
+           plateType,
+           barcodePosition,
+           brightness,
+           contrast,
+           decodeDebugLevel,
+           decodeOptions,
+           decoderBackend,
+           filename,
+           null);
+   }
+
+   protected ScanAndDecodeImageTask(Rectangle        scanRect,
+                                    long             dpi,
+                                    PlateOrientation orientation,
+                                    PlateType        plateType,
+                                    BarcodePosition  barcodePosition,
+                                    long             brightness,
+                                    long             contrast,
+                                    long             decodeDebugLevel,
+                                    DecodeOptions    decodeOptions,
+                                    DecoderBackend   decoderBackend,
+                                    String           filename,
+                                    ImageBuffer      imageBuffer) {
       this.scanRect         = scanRect;
       this.dpi              = dpi;
       this.orientation      = orientation;
@@ -66,7 +113,9 @@ public class ScanAndDecodeImageTask extends Task<ScanLibResult> {
       this.barcodePosition  = barcodePosition;
       this.decodeDebugLevel = decodeDebugLevel;
       this.decodeOptions    = decodeOptions;
+      this.decoderBackend   = decoderBackend;
       this.filename         = filename;
+      this.imageBuffer      = imageBuffer;
 
       LOG.debug("decodeDebugLevel: {}", decodeDebugLevel);
       LOG.debug("decodeOptions: {}", decodeOptions);
@@ -91,6 +140,31 @@ public class ScanAndDecodeImageTask extends Task<ScanLibResult> {
    }
 
    private ScanLibResult scanPlateWindows() {
+      return scanImage(decodeDebugLevel, dpi, brightness, contrast, filename);
+   }
+
+   /**
+    * Scans the scanning region saved in the preferences with the flatbed scanner.
+    *
+    * @param decodeDebugLevel  The debug level of the scanning library.
+    *
+    * @param dpi  The resolution of the scan.
+    *
+    * @param brightness  The brightness setting of the scanner.
+    *
+    * @param contrast  The contrast setting of the scanner.
+    *
+    * @param filename  The file the image is saved to.
+    *
+    * @return the result of the scan.
+    *
+    * @throws IllegalStateException if the scanning region has not been defined.
+    */
+   public static ScanLibResult scanImage(long   decodeDebugLevel,
+                                         long   dpi,
+                                         long   brightness,
+                                         long   contrast,
+                                         String filename) {
       Optional<Rectangle> rectMaybe = PlateDecoderPreferences.getInstance().getScanRegion();
 
       if (!rectMaybe.isPresent()) {
@@ -99,6 +173,7 @@ public class ScanAndDecodeImageTask extends Task<ScanLibResult> {
 
       Rectangle r = rectMaybe.get();
       ScanLibResult result = new ScanLibResult(ScanLib.ResultCode.SC_FAIL, 0, "exception");
+      long start = System.nanoTime();
       try {
          result = ScanLib.getInstance().scanImage(decodeDebugLevel,
                                                   dpi,
@@ -111,6 +186,8 @@ public class ScanAndDecodeImageTask extends Task<ScanLibResult> {
                                                   filename);
       } catch (Exception ex) {
          LOG.error(ex.getMessage());
+      } finally {
+         SCAN_TIME.recordSince(start);
       }
       return result;
    }
@@ -124,18 +201,44 @@ public class ScanAndDecodeImageTask extends Task<ScanLibResult> {
       return new ScanLibResult(SC_SUCCESS, 0, "");
    }
 
+   /**
+    * The cells of the image that are decoded.
+    *
+    * @return all the cells in the scanning region.
+    */
+   protected CellGrid getCells() {
+      return CellGrid.forBoundingBox(scanRect.getX(),
+                                     scanRect.getY(),
+                                     scanRect.getWidth(),
+                                     scanRect.getHeight(),
+                                     orientation,
+                                     plateType,
+                                     barcodePosition);
+   }
+
    protected DecodeResult decode() {
-      Set<CellRectangle> cells =
-         CellRectangle.getCellsForBoundingBox(scanRect,
-                                              orientation,
-                                              plateType,
-                                              barcodePosition);
-
-      DecodeResult result =
-         ScanLib.getInstance().decodeImage(decodeDebugLevel,
-                                           filename,
-                                           decodeOptions,
-                                           cells.toArray(new CellRectangle[] {}));
+      CellGrid wells = getCells();
+      long start = System.nanoTime();
+      DecodeResult result;
+
+      if (imageBuffer != null) {
+         result = decoderBackend.decodeImageBuffer(decodeDebugLevel,
+                                                   imageBuffer,
+                                                   decodeOptions,
+                                                   wells);
+      } else {
+         result = decoderBackend.decodeImage(decodeDebugLevel,
+                                             filename,
+                                             decodeOptions,
+                                             wells);
+      }
+
+      DECODE_TIME.recordSince(start);
+      if (result.getResultCode() == ScanLibResult.Result.SUCCESS) {
+         DECODED_WELLS.add(result.getDecodedWellCount());
+      } else {
+         DECODE_FAILURES.increment();
+      }
       return result;
    }
 
@@ -23,6 +23,7 @@ public class ScanPlateTask extends ScanAndDecodeImageTask {
               contrast,
               decodeLibraryDebugLevel,
               null,
+              null,
               filename);
     }
 
@@ -2,6 +2,8 @@ package org.biobank.platedecoder.service;
 
 import org.biobank.platedecoder.dmscanlib.ScanLib;
 import org.biobank.platedecoder.dmscanlib.ScanLibResult;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
 import org.biobank.platedecoder.model.PlateDecoderDefaults;
 import org.biobank.platedecoder.model.PlateModel;
 import org.biobank.platedecoder.ui.PlateDecoder;
@@ -15,6 +17,9 @@ public class ScanRegionTask extends Task<ScanLibResult> {
    //@SuppressWarnings("unused")
     private static final Logger LOG = LoggerFactory.getLogger(ScanRegionTask.class);
 
+    private static final LatencyHistogram SCAN_TIME =
+        Metrics.getInstance().histogram("scanlib.scanFlatbed");
+
     protected PlateModel model = PlateModel.getInstance();
 
     @Override
@@ -27,6 +32,7 @@ public class ScanRegionTask extends Task<ScanLibResult> {
 
     private ScanLibResult scanFlatbedWindows() {
         ScanLibResult result = new ScanLibResult(ScanLib.ResultCode.SC_FAIL, 0, "exception");
+        long start = System.nanoTime();
         try {
             result = ScanLib.getInstance().scanFlatbed(0L,
                                                        PlateDecoderDefaults.FLATBED_IMAGE_DPI,
@@ -35,6 +41,8 @@ public class ScanRegionTask extends Task<ScanLibResult> {
                                                        PlateDecoderDefaults.FLATBED_IMAGE_NAME);
         } catch (Exception ex) {
             LOG.error(ex.getMessage());
+        } finally {
+            SCAN_TIME.recordSince(start);
         }
         return result;
     }
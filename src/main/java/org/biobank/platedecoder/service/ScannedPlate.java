@@ -0,0 +1,116 @@
+package org.biobank.platedecoder.service;
+
+import java.io.File;
+
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.ImageBuffer;
+
+/**
+ * A plate moving through a {@link PlatePipeline}.
+ *
+ * <p>Each stage of the pipeline fills in part of the plate and hands it to the next stage. Once
+ * a stage fails, the later stages pass the plate along without working on it, so that every
+ * plate reaches the end of the pipeline.
+ */
+public final class ScannedPlate {
+
+   private final int number;
+
+   private File image;
+
+   // only held between the preprocess and decode stages
+   private ImageBuffer imageBuffer;
+
+   // the cells in the coordinates of the image buffer
+   private CellGrid cells;
+
+   private DecodeResult result;
+
+   private PlatePipeline.Stage failedStage;
+
+   private Exception error;
+
+   ScannedPlate(int number) {
+      this.number = number;
+   }
+
+   /**
+    * @return the position of the plate in the series, starting at 1.
+    */
+   public int getNumber() {
+      return number;
+   }
+
+   /**
+    * @return the image of the plate, or {@code null} if it could not be scanned.
+    */
+   public File getImage() {
+      return image;
+   }
+
+   void setImage(File image) {
+      this.image = image;
+   }
+
+   ImageBuffer getImageBuffer() {
+      return imageBuffer;
+   }
+
+   CellGrid getCells() {
+      return cells;
+   }
+
+   void setImageBuffer(ImageBuffer imageBuffer, CellGrid cells) {
+      this.imageBuffer = imageBuffer;
+      this.cells = cells;
+   }
+
+   /**
+    * @return the decode result, or {@code null} if the plate was not decoded.
+    */
+   public DecodeResult getResult() {
+      return result;
+   }
+
+   void setResult(DecodeResult result) {
+      this.result = result;
+   }
+
+   /**
+    * @return the stage that failed, or {@code null} if all the stages completed.
+    */
+   public PlatePipeline.Stage getFailedStage() {
+      return failedStage;
+   }
+
+   /**
+    * @return the reason the stage failed, or {@code null} if all the stages completed.
+    */
+   public Exception getError() {
+      return error;
+   }
+
+   void fail(PlatePipeline.Stage stage, Exception error) {
+      this.failedStage = stage;
+      this.error = error;
+      this.imageBuffer = null;
+      this.cells = null;
+   }
+
+   @Override
+   public String toString() {
+      StringBuffer buf = new StringBuffer();
+      buf.append("plate ").append(number);
+      buf.append(": ").append(image);
+      if (result != null) {
+         buf.append(", ").append(result.getResultCode());
+         buf.append(", ").append(result.getDecodedWellCount()).append(" wells");
+      }
+      if (error != null) {
+         buf.append(", ").append(failedStage).append(" failed: ").append(error.getMessage());
+      }
+      return buf.toString();
+   }
+
+}
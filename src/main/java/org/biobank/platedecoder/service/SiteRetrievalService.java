@@ -2,6 +2,9 @@ package org.biobank.platedecoder.service;
 
 import java.util.List;
 
+import org.biobank.platedecoder.metrics.Counter;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
 import org.biobank.platedecoder.model.Site;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -19,6 +22,12 @@ public class SiteRetrievalService extends Service<ObservableList<Site>> {
     //@SuppressWarnings("unused")
     private static final Logger LOG = LoggerFactory.getLogger(SiteRetrievalService.class);
 
+    private static final LatencyHistogram REQUEST_TIME =
+        Metrics.getInstance().histogram("openspecimen.sites");
+
+    private static final Counter REQUEST_ERRORS =
+        Metrics.getInstance().counter("openspecimen.errors");
+
     private static final String REST_API = "openspecimen/rest/ng/sites?maxResults=";
 
     private final String hostname;
@@ -51,10 +60,16 @@ public class SiteRetrievalService extends Service<ObservableList<Site>> {
                 ObservableList<Site> result = FXCollections.observableArrayList();
                 String url = getUrl();
                 HttpClient client = new HttpClient();
+                long start = System.nanoTime();
                 Response response = client.prepareGet(url).execute().get();
+                REQUEST_TIME.recordSince(start);
                 int statusCode = response.getStatusCode();
                 LOG.debug("statusCode: {}", statusCode);
 
+                if (statusCode != 200) {
+                    REQUEST_ERRORS.increment();
+                }
+
                 if (statusCode == 200) {
                     String body = response.getResponseBody();
                     try {
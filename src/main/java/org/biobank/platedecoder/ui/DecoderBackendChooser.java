@@ -0,0 +1,22 @@
+package org.biobank.platedecoder.ui;
+
+import org.biobank.platedecoder.dmscanlib.DecoderBackendType;
+
+import javafx.beans.property.ObjectProperty;
+
+/**
+ * Allows the user to select the implementation used to decode the 2D barcodes.
+ */
+public class DecoderBackendChooser extends RadioButtonChooser<DecoderBackendType> {
+
+   public DecoderBackendChooser(ObjectProperty<DecoderBackendType> property) {
+      super("Decoder", property);
+
+      final DecoderBackendType selected = property.getValue();
+
+      for (DecoderBackendType type : DecoderBackendType.values()) {
+         addButton(type.toString(), type, (selected == type));
+      }
+   }
+
+}
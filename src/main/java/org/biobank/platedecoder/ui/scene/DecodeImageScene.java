@@ -1,25 +1,42 @@
 package org.biobank.platedecoder.ui.scene;
 
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
 import static org.biobank.platedecoder.ui.JavaFxHelper.createButton;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 import java.util.stream.Collectors;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 
+import org.biobank.platedecoder.dmscanlib.CellRectangle;
+import org.biobank.platedecoder.dmscanlib.DecodeConsensus;
 import org.biobank.platedecoder.dmscanlib.DecodeOptions;
 import org.biobank.platedecoder.dmscanlib.DecodeResult;
-import org.biobank.platedecoder.dmscanlib.DecodedWell;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ImageBuffer;
 import org.biobank.platedecoder.dmscanlib.ScanLibResult;
+import org.biobank.platedecoder.dmscanlib.WellGridLocator;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
 import org.biobank.platedecoder.model.ImageSource;
 import org.biobank.platedecoder.model.Plate;
 import org.biobank.platedecoder.model.PlateDecoderPreferences;
+import org.biobank.platedecoder.model.SbsLabeling;
 import org.biobank.platedecoder.service.DecodeImageTask;
 import org.biobank.platedecoder.ui.BarcodePositionChooser;
-import org.biobank.platedecoder.ui.JavaFxHelper;
 import org.biobank.platedecoder.ui.ManualDecodeDialog;
 import org.biobank.platedecoder.ui.PlateOrientationChooser;
 import org.biobank.platedecoder.ui.PlateTypeChooser;
@@ -31,13 +48,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javafx.event.ActionEvent;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Dimension2D;
 import javafx.geometry.Insets;
+import javafx.geometry.Rectangle2D;
 import javafx.scene.Group;
 import javafx.scene.Node;
-import javafx.scene.control.Alert;
-import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
-import javafx.scene.control.ButtonType;
 import javafx.scene.control.Label;
 import javafx.scene.control.ScrollPane;
 import javafx.scene.image.Image;
@@ -48,6 +66,7 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Pane;
 import javafx.scene.layout.Region;
 import javafx.scene.shape.Rectangle;
+import javafx.stage.Screen;
 
 /**
  * Used for decoding the tubes present in an image.
@@ -62,10 +81,27 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
       + "If there are missed cells, double click one to decode it with a hand held scanner. "
       + "Press the Next button once all cells are decoded.";
 
+   // how far a decoded cell can move, as a fraction of its size, before it is decoded again
+   private static final double INCREMENTAL_DECODE_TOLERANCE = 0.1;
+
+   private static final LatencyHistogram IMAGE_LOAD_TIME =
+      Metrics.getInstance().histogram("image.load");
+
    private ImageView imageView;
 
    private ImageSource imageSource;
 
+   // the dimensions of the image file, the well grid is in these coordinates
+   private double imageWidth;
+
+   private double imageHeight;
+
+   // the pixels of the preview, created the first time the well grid is located
+   private ImageBuffer previewBuffer;
+
+   // the cells that were decoded, as they were when decoded, used for incremental decodes
+   private final Map<String, CellRectangle> decodedCells = new HashMap<>();
+
    private Group imageGroup;
 
    private ScrollPane imagePane;
@@ -112,27 +148,116 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
     */
    public <T extends ImageSource> void setImageSource(T imageSource) {
       this.imageSource = imageSource;
-      Image image = new Image(imageSource.getImageFileUrl());
+      this.previewBuffer = null;
+      decodedCells.clear();
+      long start = System.nanoTime();
+
+      // only a preview the size of the screen is loaded, in the background, the image is never
+      // displayed at full resolution and the decoder reads the file itself
+      File file = new File(getFilenameFromImageSource());
+      double previewWidth = 0;
+      double previewHeight = 0;
+      try {
+         Dimension2D size = readImageSize(file);
+         imageWidth = size.getWidth();
+         imageHeight = size.getHeight();
+         Rectangle2D screen = Screen.getPrimary().getVisualBounds();
+         if ((imageWidth > screen.getWidth()) || (imageHeight > screen.getHeight())) {
+            previewWidth = screen.getWidth();
+            previewHeight = screen.getHeight();
+         }
+      } catch (IOException e) {
+         // the dimensions are taken from the image once it is loaded
+         LOG.warn("setImageSource: could not read the size of {}: {}", file, e.getMessage());
+         imageWidth = 0;
+         imageHeight = 0;
+      }
+
+      Image image = new Image(imageSource.getImageFileUrl(),
+                              previewWidth,
+                              previewHeight,
+                              true,
+                              true,
+                              true);
+      image.progressProperty().addListener((observable, oldValue, newValue) -> {
+            if ((newValue.doubleValue() >= 1.0) && (imageView.getImage() == image)) {
+               previewLoaded(image, start);
+            }
+         });
       imageView.setImage(image);
       imageView.setCache(true);
+      updateScale();
+   }
+
+   private void previewLoaded(Image image, long start) {
+      if (image.isError()) {
+         LOG.error("could not load image: {}", imageSource.getImageFileUrl(), image.getException());
+         return;
+      }
+      IMAGE_LOAD_TIME.recordSince(start);
+      if ((imageWidth <= 0) || (imageHeight <= 0)) {
+         imageWidth = image.getWidth();
+         imageHeight = image.getHeight();
+      }
+      updateScale();
+      locateWellGrid();
+   }
+
+   private static Dimension2D readImageSize(File file) throws IOException {
+      try (ImageInputStream input = ImageIO.createImageInputStream(file)) {
+         Iterator<ImageReader> readers = (input == null) ? null : ImageIO.getImageReaders(input);
+         if ((readers == null) || !readers.hasNext()) {
+            throw new IOException("not a supported image format: " + file);
+         }
+         ImageReader reader = readers.next();
+         try {
+            // only the header is read
+            reader.setInput(input, true, true);
+            return new Dimension2D(reader.getWidth(0), reader.getHeight(0));
+         } finally {
+            reader.dispose();
+         }
+      }
+   }
+
+   /**
+    * The scale the image is displayed at. It is computed from the dimensions of the image file,
+    * since the image being displayed is a smaller preview.
+    */
+   private double getDisplayScale() {
+      if ((imageWidth <= 0) || (imageHeight <= 0)) {
+         return 1.0;
+      }
+      double scale = Double.MAX_VALUE;
+      if (imageView.getFitWidth() > 0) {
+         scale = imageView.getFitWidth() / imageWidth;
+      }
+      if (imageView.getFitHeight() > 0) {
+         scale = Math.min(scale, imageView.getFitHeight() / imageHeight);
+      }
+      return (scale == Double.MAX_VALUE) ? 1.0 : scale;
+   }
+
+   private void updateScale() {
+      if (imageView.getImage() != null) {
+         wellGrid.setScale(getDisplayScale());
+      }
    }
 
    @Override
    public double getImageWidth() {
-      Image image = imageView.getImage();
-      if (image == null) {
+      if (imageView.getImage() == null) {
          throw new IllegalArgumentException("image is null");
       }
-      return image.getWidth();
+      return imageWidth;
    }
 
    @Override
    public double getImageHeight() {
-      Image image = imageView.getImage();
-      if (image == null) {
+      if (imageView.getImage() == null) {
          throw new IllegalArgumentException("image is null");
       }
-      return image.getHeight();
+      return imageHeight;
    }
 
    /**
@@ -142,11 +267,10 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
       Rectangle r;
 
       r = PlateDecoderPreferences.getInstance().getWellRectangle(model.getPlateType());
-      Image image = imageView.getImage();
-      double scale = (image == null) ? 1.0
-         : imageView.getLayoutBounds().getWidth() / image.getWidth();
+      double scale = (imageView.getImage() == null) ? 1.0 : getDisplayScale();
 
       wellGrid = new WellGrid(this, r.getX(), r.getY(), r.getWidth(), r.getHeight(), scale);
+      decodedCells.clear();
       wellGrid.setScale(scale);
 
       imageGroup.getChildren().clear();
@@ -155,6 +279,39 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
 
       updateDecodedWellCount(wellGrid.getDecodedCellCount());
       wellGrid.update();
+      locateWellGrid();
+   }
+
+   /**
+    * Places the well grid over the tubes in the image, if the user selected this setting. The
+    * grid is left where it is if the tubes cannot be found.
+    *
+    * <p>The tubes are located in the preview, which is larger than the texture image used by the
+    * {@link WellGridLocator}, and the rectangle is scaled to the dimensions of the image file.
+    */
+   private void locateWellGrid() {
+      Image image = imageView.getImage();
+      if (!model.isLocateWellGrid() || (image == null) || (image.getProgress() < 1.0)
+          || image.isError() || (wellGrid.getDecodedCellCount() > 0)) {
+         return;
+      }
+
+      long start = System.nanoTime();
+      if (previewBuffer == null) {
+         previewBuffer = ImageBuffer.fromImage(image);
+      }
+      double scale = imageWidth / previewBuffer.getWidth();
+      Optional<Bounds> bounds = WellGridLocator.locate(previewBuffer,
+                                                       model.getPlateType(),
+                                                       model.getPlateOrientation())
+         .map(b -> new BoundingBox(b.getMinX() * scale,
+                                   b.getMinY() * scale,
+                                   b.getWidth() * scale,
+                                   b.getHeight() * scale));
+      LOG.debug("locateWellGrid: {} in {} ms",
+                bounds,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+      bounds.ifPresent(wellGrid::setBounds);
    }
 
    @Override
@@ -234,21 +391,11 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
          grid.heightProperty().subtract(filenameLabel.heightProperty()).subtract(5));
 
       imageView.fitWidthProperty().addListener((observable, oldValue, newValue) -> {
-            // the actual dimensions are in imageView.getLayoutBounds().getWidth()
-            Image image = imageView.getImage();
-            if (image != null) {
-               double newScale = imageView.getLayoutBounds().getWidth() / image.getWidth();
-               wellGrid.setScale(newScale);
-            }
+            updateScale();
          });
 
       imageView.fitHeightProperty().addListener((observable, oldValue, newValue) -> {
-            // the actual dimensions are in imageView.getLayoutBounds().getHeight()
-            Image image = imageView.getImage();
-            if (image != null) {
-               double newScale = imageView.getLayoutBounds().getHeight() / image.getHeight();
-               wellGrid.setScale(newScale);
-            }
+            updateScale();
          });
 
       return grid;
@@ -266,19 +413,40 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
 
    private void clearDecodeAction(@SuppressWarnings("unused") ActionEvent e) {
       wellGrid.clearWellCellInventoryId();
+      decodedCells.clear();
       updateWellGrid();
       updateDecodedWellCount(0);
       disableNextButton(true);
    }
 
    private void decodeImageAction(@SuppressWarnings("unused") ActionEvent e) {
-      DecodeOptions decodeOptions = new DecodeOptions(model.getMinEdgeFactor(),
-                                                      model.getMaxEdgeFactor(),
-                                                      model.getScanGapFactor(),
-                                                      model.getEdgeThreshold(),
-                                                      model.getSquareDeviation(),
-                                                      model.getDecoderCorrections(),
-                                                      DecodeOptions.DEFAULT_SHRINK);
+      DecodeOptions decodeOptions = model.getDecodeOptions();
+      DecoderBackend decoderBackend = model.getDecoderBackend();
+      Map<String, CellRectangle> cells =
+         CellRectangle.getCellsForBoundingBox(wellGrid,
+                                              model.getPlateOrientation(),
+                                              model.getPlateType(),
+                                              model.getBarcodePosition())
+         .stream()
+         .collect(Collectors.toMap(CellRectangle::getLabel, Function.identity()));
+
+      Set<CellRectangle> cellsToDecode = null;
+      if (model.isIncrementalDecode() && (wellGrid.getDecodedCellCount() > 0)) {
+         Set<String> labelsWithIds = wellGrid.getDecodedCells().stream()
+            .map(WellCell::getLabel)
+            .collect(Collectors.toSet());
+         cellsToDecode = CellRectangle.getCellsToDecode(new HashSet<>(cells.values()),
+                                                        labelsWithIds,
+                                                        decodedCells,
+                                                        INCREMENTAL_DECODE_TOLERANCE);
+         if (cellsToDecode.isEmpty()) {
+            LOG.debug("decodeImageAction: all cells already decoded");
+            return;
+         }
+         LOG.debug("decodeImageAction: decoding {} cells", cellsToDecode.size());
+      }
+
+      // only a preview is displayed, the image is decoded from the file
       DecodeImageTask worker = new DecodeImageTask(wellGrid,
                                                    model.getFlatbedDpi().getValue(),
                                                    model.getPlateOrientation(),
@@ -288,7 +456,10 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
                                                    model.getFlatbedContrast(),
                                                    model.getDecoderDebugLevel(),
                                                    decodeOptions,
-                                                   getFilenameFromImageSource());
+                                                   decoderBackend,
+                                                   getFilenameFromImageSource(),
+                                                   null,
+                                                   cellsToDecode);
       ProgressDialog dlg = new ProgressDialog(worker);
       dlg.setTitle("Decoding image");
       dlg.setHeaderText("Decoding image");
@@ -297,26 +468,31 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
             DecodeResult result = (DecodeResult) worker.getValue();
 
             if (result.getResultCode() == ScanLibResult.Result.SUCCESS) {
-               Set<DecodedWell> decodedWells = result.getDecodedWells();
-
-               if (wellGrid.getDecodedCellCount() > 0) {
-                  Set<DecodedWell> prevDecodedWells = wellGrid.getDecodedCells().stream()
-                     .map(c -> new DecodedWell(c.getLabel(), c.getInventoryId()))
-                     .collect(Collectors.toSet());
-                  Set<DecodedWell> currentDecodedWells = decodedWells;
-
-                  // compare this new result with the previous one
-                  if (DecodeResult.compareDecodeResults(prevDecodedWells, currentDecodedWells)) {
-                     // aggregate this new result
-                     setDecodedCells(currentDecodedWells);
-                  } else if (decodeMismatchErrorDialog()) {
-                     wellGrid.clearWellCellInventoryId();
-                     setDecodedCells(currentDecodedWells);
+               // the wells already decoded and this result are two passes, the wells they agree
+               // on are kept and the wells they disagree on are flagged for the user
+               DecodeResult prevResult = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+               wellGrid.getDecodedCells()
+                  .forEach(c -> prevResult.addWell(c.getLabel(), c.getInventoryId()));
+               DecodeConsensus consensus = new DecodeConsensus(1);
+               consensus.addPass(prevResult);
+               consensus.addPass(result);
+               DecodeResult merged = consensus.getResult();
+
+               for (int i = merged.nextDecodedPosition(0);
+                    i >= 0;
+                    i = merged.nextDecodedPosition(i + 1)) {
+                  // the wells only in the previous pass are already in the grid
+                  if (result.getInventoryId(i) != null) {
+                     String label = SbsLabeling.fromPosition(i);
+                     wellGrid.setWellCellInventoryId(label, merged.getInventoryId(i));
+                     decodedCells.put(label, cells.get(label));
                   }
-               } else {
-                  setDecodedCells(decodedWells);
                }
 
+               setConflictCells(merged);
+               setConflictCells(result);
+               setSkippedCells(result);
+
                updateDecodedWellCount(wellGrid.getDecodedCellCount());
                updateWellGrid();
                disableNextButton(false);
@@ -334,9 +510,27 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
       th.start();
    }
 
-   private void setDecodedCells(Set<DecodedWell> decodedWells) {
-      for (DecodedWell well : decodedWells) {
-         wellGrid.setWellCellInventoryId(well.getLabel(), well.getMessage());
+   private void setConflictCells(DecodeResult result) {
+      for (int i = result.nextConflictPosition(0);
+           i >= 0;
+           i = result.nextConflictPosition(i + 1)) {
+         String label = SbsLabeling.fromPosition(i);
+         LOG.warn("decode passes disagree on well {}", label);
+         wellGrid.setWellCellInventoryId(label, "");
+         wellGrid.setWellCellConflict(label, true);
+         decodedCells.remove(label);
+      }
+   }
+
+   private void setSkippedCells(DecodeResult result) {
+      for (String label : result.getSkippedWells()) {
+         // a well decoded by an earlier pass keeps its inventory ID
+         if (!decodedCells.containsKey(label)) {
+            LOG.debug("well {} skipped, classified as {}",
+                      label,
+                      result.getWellClasses().get(label));
+            wellGrid.setWellCellSkipped(label, true);
+         }
       }
    }
 
@@ -355,29 +549,6 @@ public class DecodeImageScene extends SceneRoot implements WellGridHandler {
       filenameLabel.setText(buf.toString());
    }
 
-   /**
-    *
-    * See http://code.makery.ch/blog/javafx-dialogs-official/ for dialog examples.
-    *
-    * @return TRUE if these results should be used instead. FALSE if they should be discarded.
-    */
-   private boolean decodeMismatchErrorDialog() {
-      // display error message to user
-      ButtonType buttonTypeUseResult = new ButtonType("Use this result instead");
-      ButtonType buttonTypeDiscardResult = new ButtonType("Discard this result");
-
-      Alert dlg = JavaFxHelper.createDialog(
-         AlertType.CONFIRMATION,
-         "Decode Mismatch",
-         "The results from this decode do not match the previous results.",
-         "What would you like to do?");
-
-      dlg.getButtonTypes().setAll(buttonTypeUseResult, buttonTypeDiscardResult);
-
-      Optional<ButtonType> result = dlg.showAndWait();
-      return (result.get() == buttonTypeUseResult);
-   }
-
    @Override
    public void cellMoved(WellCell cell, double deltaX, double deltaY) {
       if (wellGrid == null) {
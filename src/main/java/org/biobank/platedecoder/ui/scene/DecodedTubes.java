@@ -13,7 +13,7 @@ import java.util.stream.Collectors;
 
 import org.biobank.platedecoder.model.PlateWell;
 import org.biobank.platedecoder.model.PlateWellCsvWriter;
-import org.biobank.platedecoder.model.SbsPosition;
+import org.biobank.platedecoder.model.PlateLayout;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -85,11 +85,7 @@ public class DecodedTubes extends SceneRoot {
       labelColumn = new TableColumn<>("Label");
       labelColumn.setCellValueFactory(cellData -> cellData.getValue().getLabelProperty());
       labelColumn.setSortType(TableColumn.SortType.ASCENDING);
-      labelColumn.setComparator((String l1, String l2) -> {
-            SbsPosition pos1 = new SbsPosition(l1);
-            SbsPosition pos2 = new SbsPosition(l2);
-            return pos1.compareTo(pos2);
-         });
+      labelColumn.setComparator(PlateLayout.LABEL_ORDER);
       labelColumn.prefWidthProperty().bind(table.widthProperty().divide(10));
 
       TableColumn<PlateWell, String> inventoryIdColumn = new TableColumn<>("Inventory ID");
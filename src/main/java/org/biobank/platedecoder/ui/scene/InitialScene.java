@@ -1,15 +1,26 @@
 package org.biobank.platedecoder.ui.scene;
 
+import static org.biobank.platedecoder.ui.JavaFxHelper.createDialog;
 import static org.biobank.platedecoder.ui.JavaFxHelper.errorDialog;
+import static org.biobank.platedecoder.ui.JavaFxHelper.infoDialog;
 
+import java.io.File;
 import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
+import org.biobank.platedecoder.dmscanlib.CellGrid;
 import org.biobank.platedecoder.dmscanlib.DecodeOptions;
 import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
 import org.biobank.platedecoder.dmscanlib.ScanLibResult;
 import org.biobank.platedecoder.model.Plate;
 import org.biobank.platedecoder.model.PlateDecoderDefaults;
 import org.biobank.platedecoder.model.PlateDecoderPreferences;
+import org.biobank.platedecoder.service.FlatbedPlateScanner;
+import org.biobank.platedecoder.service.PlatePipeline;
 import org.biobank.platedecoder.service.ScanAndDecodeImageTask;
 import org.biobank.platedecoder.ui.PlateDecoder;
 import org.controlsfx.dialog.ProgressDialog;
@@ -18,24 +29,34 @@ import org.slf4j.LoggerFactory;
 
 import javafx.application.Platform;
 import javafx.event.ActionEvent;
+import javafx.geometry.Bounds;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.ButtonType;
 import javafx.scene.control.RadioButton;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.Region;
 import javafx.scene.shape.Rectangle;
+import javafx.stage.DirectoryChooser;
 
 public class InitialScene extends SceneRoot {
 
    // @SuppressWarnings("unused")
    private static final Logger LOG = LoggerFactory.getLogger(InitialScene.class);
 
+   // the number of plates that can wait between two stages of a series
+   private static final int SERIES_QUEUE_CAPACITY = 2;
+
    private RadioButton filesystemButton;
 
    private RadioButton flatbedScanButton;
 
    private RadioButton withPrevParamsButton;
 
+   private RadioButton seriesButton;
+
    private RadioButton modifyFlatbedConfiguration;
 
    private RadioButton modifyDecodingConfiguration;
@@ -56,12 +77,15 @@ public class InitialScene extends SceneRoot {
       filesystemButton = new RadioButton("Decode image - decode tubes in an image from the filesystem");
       flatbedScanButton = new RadioButton("Scan and decode - using the flatbed scanner");
       withPrevParamsButton = new RadioButton("Scan and decode using previous settings");
+      seriesButton = new RadioButton(
+         "Scan and decode a series of plates using previous settings");
       modifyFlatbedConfiguration = new RadioButton("Modify flatbed scanner configuration");
       modifyDecodingConfiguration = new RadioButton("Modify 2D barcode decoding configuration");
 
       modifyFlatbedConfiguration.setPadding(new Insets(20, 0, 0, 0));
 
       withPrevParamsButton.setOnAction(this::withPrevParamsAction);
+      seriesButton.setOnAction(this::seriesAction);
 
       final GridPane grid = new GridPane();
       grid.setPadding(new Insets(20, 5, 5, 5));
@@ -71,8 +95,9 @@ public class InitialScene extends SceneRoot {
       grid.add(filesystemButton, 0, 0);
       grid.add(flatbedScanButton, 0, 1);
       grid.add(withPrevParamsButton, 0, 2);
-      grid.add(modifyFlatbedConfiguration, 0, 3);
-      grid.add(modifyDecodingConfiguration, 0, 4);
+      grid.add(seriesButton, 0, 3);
+      grid.add(modifyFlatbedConfiguration, 0, 4);
+      grid.add(modifyDecodingConfiguration, 0, 5);
       grid.setAlignment(Pos.TOP_CENTER);
       return grid;
    }
@@ -110,13 +135,9 @@ public class InitialScene extends SceneRoot {
 
       Rectangle scanRect = PlateDecoderPreferences.getInstance().getWellRectangle(model.getPlateType());
 
-      DecodeOptions decodeOptions = new DecodeOptions(model.getMinEdgeFactor(),
-                                                      model.getMaxEdgeFactor(),
-                                                      model.getScanGapFactor(),
-                                                      model.getEdgeThreshold(),
-                                                      model.getSquareDeviation(),
-                                                      model.getDecoderCorrections(),
-                                                      DecodeOptions.DEFAULT_SHRINK);
+      DecodeOptions decodeOptions = model.getDecodeOptions();
+
+      DecoderBackend decoderBackend = model.getDecoderBackend();
 
       ScanAndDecodeImageTask worker =
          new ScanAndDecodeImageTask(scanRect,
@@ -128,6 +149,7 @@ public class InitialScene extends SceneRoot {
                                     model.getFlatbedContrast(),
                                     model.getDecoderDebugLevel(),
                                     decodeOptions,
+                                    decoderBackend,
                                     PlateDecoderDefaults.FLATBED_PLATE_IMAGE_NAME);
 
       ProgressDialog dlg = new ProgressDialog(worker);
@@ -155,6 +177,105 @@ public class InitialScene extends SceneRoot {
       th.start();
    }
 
+   /*
+    * Scans plates one after the other until the user cancels, decoding and exporting each plate
+    * while the next one is scanned. The images and results are saved in a directory chosen by the
+    * user.
+    */
+   private void seriesAction(@SuppressWarnings("unused") ActionEvent event) {
+      if (PlateDecoder.IS_LINUX
+          && !PlateDecoder.fileExists(PlateDecoderDefaults.FLATBED_PLATE_IMAGE_NAME)) {
+         errorDialog("Simulating a scan will not work. To correct this, please copy an image to: "
+                     + PlateDecoderDefaults.FLATBED_PLATE_IMAGE_NAME,
+                     "Unable to simulate action",
+                     "File is missing.");
+         seriesButton.setSelected(false);
+         return;
+      }
+
+      DirectoryChooser chooser = new DirectoryChooser();
+      chooser.setTitle("Save the plate images and results in");
+      File dir = chooser.showDialog(getScene().getWindow());
+      if (dir == null) {
+         seriesButton.setSelected(false);
+         return;
+      }
+
+      Bounds bounds = PlateDecoderPreferences.getInstance().getWellBounds(model.getPlateType());
+      CellGrid cells = CellGrid.forBoundingBox(bounds.getMinX(),
+                                               bounds.getMinY(),
+                                               bounds.getWidth(),
+                                               bounds.getHeight(),
+                                               model.getPlateOrientation(),
+                                               model.getPlateType(),
+                                               model.getBarcodePosition());
+
+      AtomicInteger failures = new AtomicInteger();
+      PlatePipeline pipeline =
+         new PlatePipeline(new FlatbedPlateScanner(model.getFlatbedDpi().getValue(),
+                                                   model.getFlatbedBrightness(),
+                                                   model.getFlatbedContrast(),
+                                                   model.getDecoderDebugLevel(),
+                                                   dir,
+                                                   this::confirmNextPlate),
+                           model.getDecoderBackend(),
+                           cells,
+                           model.getDecodeOptions(),
+                           model.getDecoderDebugLevel(),
+                           PlatePipeline.exportTo(dir, "csv"),
+                           plate -> {
+                              LOG.info("{}", plate);
+                              if ((plate.getError() != null)
+                                  || (plate.getResult().getResultCode()
+                                      != ScanLibResult.Result.SUCCESS)) {
+                                 failures.incrementAndGet();
+                              }
+                           },
+                           SERIES_QUEUE_CAPACITY);
+
+      Thread th = new Thread(() -> {
+            pipeline.start();
+            try {
+               pipeline.awaitCompletion();
+            } catch (InterruptedException e) {
+               pipeline.stop();
+               return;
+            }
+            Platform.runLater(() -> {
+                  seriesButton.setSelected(false);
+                  long plates = pipeline.getStats(PlatePipeline.Stage.EXPORT).getPlates();
+                  infoDialog("Scan plates",
+                             plates + " plates decoded, " + failures.get() + " with errors",
+                             "The results were saved in " + dir + "\n\n"
+                             + pipeline.getStats().stream()
+                             .map(Object::toString)
+                             .collect(Collectors.joining("\n")));
+               });
+         });
+      th.setDaemon(true);
+      th.start();
+   }
+
+   // called on the scanning thread, asks the user on the JavaFX thread
+   private boolean confirmNextPlate(int plateNumber) {
+      FutureTask<Boolean> confirm = new FutureTask<>(() -> {
+            Alert alert = createDialog(AlertType.CONFIRMATION,
+                                       "Scan plates",
+                                       "Place plate " + plateNumber + " on the scanner",
+                                       "Press OK to scan it, or Cancel to end the series.");
+            return alert.showAndWait().filter(button -> button == ButtonType.OK).isPresent();
+         });
+      Platform.runLater(confirm);
+      try {
+         return confirm.get();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         return false;
+      } catch (ExecutionException e) {
+         throw new IllegalStateException(e.getCause());
+      }
+   }
+
     private boolean checkFilePresentLinux() {
         if (PlateDecoder.IS_LINUX) {
             return PlateDecoder.fileExists(PlateDecoderDefaults.FLATBED_IMAGE_NAME);
@@ -166,6 +287,7 @@ public class InitialScene extends SceneRoot {
       filesystemButton.setSelected(false);
       flatbedScanButton.setSelected(false);
       withPrevParamsButton.setSelected(false);
+      seriesButton.setSelected(false);
       modifyFlatbedConfiguration.setSelected(false);
       modifyDecodingConfiguration.setSelected(false);
    }
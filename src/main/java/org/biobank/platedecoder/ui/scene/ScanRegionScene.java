@@ -6,6 +6,8 @@ import static org.biobank.platedecoder.ui.JavaFxHelper.errorDialog;
 import java.util.Optional;
 
 import org.biobank.platedecoder.dmscanlib.ScanLibResult;
+import org.biobank.platedecoder.metrics.LatencyHistogram;
+import org.biobank.platedecoder.metrics.Metrics;
 import org.biobank.platedecoder.model.PlateDecoderDefaults;
 import org.biobank.platedecoder.model.PlateDecoderPreferences;
 import org.biobank.platedecoder.service.ScanRegionTask;
@@ -36,6 +38,9 @@ public class ScanRegionScene extends SceneRoot implements ScanRegionHandler {
    // @SuppressWarnings("unused")
    private static final Logger LOG = LoggerFactory.getLogger(ScanRegionScene.class);
 
+   private static final LatencyHistogram IMAGE_LOAD_TIME =
+      Metrics.getInstance().histogram("image.load");
+
    private static final String TITLE_AREA_MESSAGE =
       "Place a plate on your flatbed scanner and then press the scan button. "
       + "Align the rectangle so that it contains all the tubes on the plate. "
@@ -179,7 +184,9 @@ public class ScanRegionScene extends SceneRoot implements ScanRegionHandler {
             ScanLibResult result = worker.getValue();
 
             if (result.getResultCode() == ScanLibResult.Result.SUCCESS) {
+               long start = System.nanoTime();
                Image image = new Image(PlateDecoder.flatbedImageFilenameToUrl());
+               IMAGE_LOAD_TIME.recordSince(start);
                imageView.setImage(image);
                imageView.setCache(true);
 
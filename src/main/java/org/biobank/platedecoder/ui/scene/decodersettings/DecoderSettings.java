@@ -3,13 +3,18 @@ package org.biobank.platedecoder.ui.scene.decodersettings;
 import java.util.HashSet;
 import java.util.Set;
 
+import org.biobank.platedecoder.dmscanlib.DecoderBackendType;
+import org.biobank.platedecoder.ui.DecoderBackendChooser;
 import org.biobank.platedecoder.ui.scene.ConfigScene;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import javafx.geometry.HPos;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
+import javafx.scene.control.CheckBox;
 import javafx.scene.control.Label;
 import javafx.scene.control.Tooltip;
 import javafx.scene.layout.BorderPane;
@@ -29,6 +34,22 @@ public class DecoderSettings extends ConfigScene {
 
    private boolean modelValuesAssigned;
 
+   private ObjectProperty<DecoderBackendType> decoderBackendTypeProperty;
+
+   private CheckBox parallelDecodeCheckBox;
+
+   private CheckBox decodeCacheCheckBox;
+
+   private CheckBox incrementalDecodeCheckBox;
+
+   private CheckBox retryLadderCheckBox;
+
+   private CheckBox locateWellGridCheckBox;
+
+   private CheckBox skipEmptyWellsCheckBox;
+
+   private CheckBox preprocessImageCheckBox;
+
    public DecoderSettings() {
       super("2D barcode decoder settings");
    }
@@ -54,6 +75,101 @@ public class DecoderSettings extends ConfigScene {
          ++row;
       }
 
+      decoderBackendTypeProperty =
+         new SimpleObjectProperty<DecoderBackendType>(model.getDecoderBackendType());
+      decoderBackendTypeProperty.addListener((observable, oldValue, newValue) -> {
+            if (modelValuesAssigned) {
+               setConfigChanged(true);
+            }
+         });
+      grid.add(new DecoderBackendChooser(decoderBackendTypeProperty), 1, row);
+      ++row;
+
+      parallelDecodeCheckBox = new CheckBox("Decode wells in parallel");
+      Tooltip.install(parallelDecodeCheckBox,
+                      new Tooltip("Uses all the processors in the computer to decode the wells."
+                                  + " Has no effect with the native library."));
+      parallelDecodeCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            if (modelValuesAssigned) {
+               setConfigChanged(true);
+            }
+         });
+      grid.add(parallelDecodeCheckBox, 1, row);
+      ++row;
+
+      decodeCacheCheckBox = new CheckBox("Remember decode results");
+      Tooltip.install(decodeCacheCheckBox,
+                      new Tooltip("Decoding the same image again, with the same settings,"
+                                  + " returns the previous result immediately."));
+      decodeCacheCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            if (modelValuesAssigned) {
+               setConfigChanged(true);
+            }
+         });
+      grid.add(decodeCacheCheckBox, 1, row);
+      ++row;
+
+      incrementalDecodeCheckBox = new CheckBox("Only decode cells that still need it");
+      Tooltip.install(incrementalDecodeCheckBox,
+                      new Tooltip("When decoding an image again, only the cells without an"
+                                  + " inventory ID, or the ones that were moved, are decoded."));
+      incrementalDecodeCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            if (modelValuesAssigned) {
+               setConfigChanged(true);
+            }
+         });
+      grid.add(incrementalDecodeCheckBox, 1, row);
+      ++row;
+
+      retryLadderCheckBox = new CheckBox("Retry failed cells with other settings");
+      Tooltip.install(retryLadderCheckBox,
+                      new Tooltip("Cells that could not be decoded are decoded again with"
+                                  + " alternative settings."));
+      retryLadderCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            if (modelValuesAssigned) {
+               setConfigChanged(true);
+            }
+         });
+      grid.add(retryLadderCheckBox, 1, row);
+      ++row;
+
+      locateWellGridCheckBox = new CheckBox("Find the well grid in the image");
+      Tooltip.install(locateWellGridCheckBox,
+                      new Tooltip("When an image is opened, the grid is placed over the tubes"
+                                  + " automatically."));
+      locateWellGridCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            if (modelValuesAssigned) {
+               setConfigChanged(true);
+            }
+         });
+      grid.add(locateWellGridCheckBox, 1, row);
+      ++row;
+
+      skipEmptyWellsCheckBox = new CheckBox("Skip empty wells");
+      Tooltip.install(skipEmptyWellsCheckBox,
+                      new Tooltip("Wells that are empty, or hold a tube without a 2D barcode,"
+                                  + " are not decoded."));
+      skipEmptyWellsCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            if (modelValuesAssigned) {
+               setConfigChanged(true);
+            }
+         });
+      grid.add(skipEmptyWellsCheckBox, 1, row);
+      ++row;
+
+      preprocessImageCheckBox = new CheckBox("Reduce the image before decoding");
+      Tooltip.install(preprocessImageCheckBox,
+                      new Tooltip("The image is cropped to the well grid, converted to grayscale"
+                                  + " and, for high resolution scans, downsampled. Has no effect"
+                                  + " with the native decoder unless its library can decode"
+                                  + " images from memory."));
+      preprocessImageCheckBox.selectedProperty().addListener((observable, oldValue, newValue) -> {
+            if (modelValuesAssigned) {
+               setConfigChanged(true);
+            }
+         });
+      grid.add(preprocessImageCheckBox, 1, row);
+
       ColumnConstraints col1 = new ColumnConstraints();
       col1.setPercentWidth(20);
       ColumnConstraints col2 = new ColumnConstraints();
@@ -87,9 +203,19 @@ public class DecoderSettings extends ConfigScene {
       model.setMinEdgeFactor(TextFieldData.EDGE_MIN.getValue() / 100.0);
       model.setMaxEdgeFactor(TextFieldData.EDGE_MAX.getValue() / 100.0);
       model.setScanGapFactor(TextFieldData.SCAN_GAP.getValue() / 100.0);
-      model.setSquareDeviation(TextFieldData.EDGE_THRESHOLD.getValue());
-      model.setEdgeThreshold(TextFieldData.SQUARE_DEVIATION.getValue());
+      model.setSquareDeviation(TextFieldData.SQUARE_DEVIATION.getValue());
+      model.setEdgeThreshold(TextFieldData.EDGE_THRESHOLD.getValue());
       model.setDecoderCorrections(TextFieldData.CORRECTIONS.getValue());
+      model.setDecodeQuorum(TextFieldData.DECODE_QUORUM.getValue());
+      model.setDecoderWorkers(TextFieldData.DECODER_WORKERS.getValue());
+      model.setDecoderBackendType(decoderBackendTypeProperty.getValue());
+      model.setParallelDecode(parallelDecodeCheckBox.isSelected());
+      model.setDecodeCache(decodeCacheCheckBox.isSelected());
+      model.setIncrementalDecode(incrementalDecodeCheckBox.isSelected());
+      model.setRetryLadder(retryLadderCheckBox.isSelected());
+      model.setLocateWellGrid(locateWellGridCheckBox.isSelected());
+      model.setSkipEmptyWells(skipEmptyWellsCheckBox.isSelected());
+      model.setPreprocessImage(preprocessImageCheckBox.isSelected());
    }
 
     @Override
@@ -128,6 +254,16 @@ public class DecoderSettings extends ConfigScene {
       TextFieldData.EDGE_THRESHOLD.setValue(model.getEdgeThreshold());
       TextFieldData.SQUARE_DEVIATION.setValue(model.getSquareDeviation());
       TextFieldData.CORRECTIONS.setValue(model.getDecoderCorrections ());
+      TextFieldData.DECODE_QUORUM.setValue(model.getDecodeQuorum());
+      TextFieldData.DECODER_WORKERS.setValue(model.getDecoderWorkers());
+      decoderBackendTypeProperty.setValue(model.getDecoderBackendType());
+      parallelDecodeCheckBox.setSelected(model.isParallelDecode());
+      decodeCacheCheckBox.setSelected(model.isDecodeCache());
+      incrementalDecodeCheckBox.setSelected(model.isIncrementalDecode());
+      retryLadderCheckBox.setSelected(model.isRetryLadder());
+      locateWellGridCheckBox.setSelected(model.isLocateWellGrid());
+      skipEmptyWellsCheckBox.setSelected(model.isSkipEmptyWells());
+      preprocessImageCheckBox.setSelected(model.isPreprocessImage());
       modelValuesAssigned = true;
    }
 
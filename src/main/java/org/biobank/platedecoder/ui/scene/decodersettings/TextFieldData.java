@@ -49,7 +49,20 @@ enum TextFieldData {
       20,
       "Corrections:",
       "The number of errors to correct per image.",
-      "Corrections should be a number between ");
+      "Corrections should be a number between "),
+   DECODE_QUORUM(
+      1,
+      9,
+      "Decode quorum:",
+      "The number of decode passes that must agree on the message of a well. A value of 1\n"
+      + "decodes the image once. Higher values also decode with each retry setting.",
+      "Decode quorum should be a number between "),
+   DECODER_WORKERS(
+      1,
+      16,
+      "Decoder workers:",
+      "The number of processes that decode images when the decoder runs in worker processes.",
+      "Decoder workers should be a number between ");
 
    final long minimum;
 
@@ -40,6 +40,10 @@ public class WellCell {
 
    private static final Paint STROKE_COLOR = Color.GREEN;
 
+   private static final Paint CONFLICT_STROKE_COLOR = Color.RED;
+
+   private static final Paint SKIPPED_STROKE_COLOR = Color.GRAY;
+
    private static final Image DECODED_IMAGE =
       new Image(WellCell.class.getResourceAsStream("decoded.png"));
 
@@ -60,6 +64,10 @@ public class WellCell {
 
    private boolean manuallyDecoded;
 
+   private boolean conflict;
+
+   private boolean skipped;
+
    protected Optional<Point2D> mouseLocationMaybe = Optional.empty();
 
    /**
@@ -148,10 +156,18 @@ public class WellCell {
     * Assigns the inventory ID corresponding to the message decoded from the image of the 2D barcode
     * contained in this cell.
     *
+    * <p>Assigning a non empty inventory ID resolves a conflict, see {@link #setConflict}, and
+    * clears the skipped flag, see {@link #setSkipped}.
+    *
     * @param id the inventory ID.
     */
    public void setInventoryId(String id) {
       inventoryId = id;
+      if (!id.isEmpty()) {
+         conflict = false;
+         skipped = false;
+         rect.setStroke(STROKE_COLOR);
+      }
 
       if (!label.equals("A1")) {
          Color fillColor = id.isEmpty()
@@ -167,11 +183,59 @@ public class WellCell {
          }
       }
 
+      installTooltip();
+   }
+
+   /**
+    * @return TRUE if the decode passes did not agree on the inventory ID of this cell.
+    */
+   public boolean isConflict() {
+      return conflict;
+   }
+
+   /**
+    * Flags a cell where the decode passes did not agree on the inventory ID. The cell is outlined
+    * in red until the flag is cleared or an inventory ID is assigned.
+    *
+    * @param value TRUE if the decode passes did not agree.
+    */
+   public void setConflict(boolean value) {
+      conflict = value;
+      rect.setStroke(value ? CONFLICT_STROKE_COLOR : STROKE_COLOR);
+      installTooltip();
+   }
+
+   /**
+    * @return TRUE if the cell was not decoded because it does not appear to contain a 2D barcode.
+    */
+   public boolean isSkipped() {
+      return skipped;
+   }
+
+   /**
+    * Flags a cell that was not decoded because it was classified as not containing a 2D barcode.
+    * The cell is outlined in gray until the flag is cleared or an inventory ID is assigned.
+    *
+    * @param value TRUE if the cell was skipped.
+    */
+   public void setSkipped(boolean value) {
+      skipped = value;
+      if (!conflict) {
+         rect.setStroke(value ? SKIPPED_STROKE_COLOR : STROKE_COLOR);
+      }
+      installTooltip();
+   }
+
+   private void installTooltip() {
       StringBuffer labelBuf = new StringBuffer();
       labelBuf.append(label);
 
       if (!inventoryId.isEmpty()) {
          labelBuf.append(": ").append(inventoryId);
+      } else if (conflict) {
+         labelBuf.append(": decode passes disagree");
+      } else if (skipped) {
+         labelBuf.append(": skipped, no barcode found");
       }
 
       Tooltip.install(rect, new Tooltip(labelBuf.toString()));
@@ -2,6 +2,7 @@ package org.biobank.platedecoder.ui.wellgrid;
 
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
+import javafx.geometry.Bounds;
 import javafx.scene.Cursor;
 import javafx.scene.Node;
 import javafx.scene.shape.Rectangle;
@@ -13,11 +14,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.stream.Collectors;
 
-import static org.biobank.platedecoder.dmscanlib.CellRectangle.*;
-
+import org.biobank.platedecoder.model.PlateLayout;
 import org.biobank.platedecoder.model.PlateModel;
-import org.biobank.platedecoder.model.PlateOrientation;
-import org.biobank.platedecoder.model.PlateType;
 import org.biobank.platedecoder.ui.resize.ResizeHandler;
 import org.biobank.platedecoder.ui.resize.ResizeHandle;
 import org.biobank.platedecoder.ui.resize.ResizeHandleNW;
@@ -117,16 +115,9 @@ public class WellGrid extends Rectangle implements ResizeHandler {
     */
    public void update() {
       double displayScale = displayScaleProperty.getValue();
-      int rows, cols;
-
-      PlateType plateType = model.getPlateType();
-      if (model.getPlateOrientation() == PlateOrientation.LANDSCAPE) {
-         rows = plateType.getRows();
-         cols = plateType.getCols();
-      } else {
-         rows = plateType.getCols();
-         cols = plateType.getRows();
-      }
+      PlateLayout layout = getLayout();
+      int rows = layout.getRows();
+      int cols = layout.getCols();
 
       double wellWidth = displayScale * getWidth() / cols;
       double wellHeight = displayScale * getHeight() / rows;
@@ -137,7 +128,7 @@ public class WellGrid extends Rectangle implements ResizeHandler {
 
       for (int row = 0; row < rows; ++row) {
          for (int col = 0; col < cols; ++col) {
-            String label = getLabelForGridPosition(row, col);
+            String label = layout.getLabel(row, col);
             WellCell cell = wellCellMap.get(label);
             if (cell != null) {
                cell.setPositionAndSize(offsetX, offsetY, wellWidth, wellHeight);
@@ -191,12 +182,46 @@ public class WellGrid extends Rectangle implements ResizeHandler {
    }
 
    /**
-    * Clears the inventory ID from all the cells in the grid.
+    * Clears the inventory ID, and the conflict and skipped flags, from all the cells in the grid.
     */
    public void clearWellCellInventoryId() {
       for (WellCell cell : wellCellMap.values()) {
          cell.setInventoryId("");
+         cell.setConflict(false);
+         cell.setSkipped(false);
+      }
+   }
+
+   /**
+    * Flags a cell where the decode passes did not agree on the inventory ID. See {@link
+    * WellCell#setConflict}.
+    *
+    * @param label The label for the cell.
+    *
+    * @param conflict True if the decode passes did not agree.
+    */
+   public void setWellCellConflict(String label, boolean conflict) {
+      WellCell cell = wellCellMap.get(label);
+      if (cell == null) {
+         throw new IllegalArgumentException("label is invalid for grid: " + label);
+      }
+      cell.setConflict(conflict);
+   }
+
+   /**
+    * Flags a cell that was not decoded because it was classified as not containing a 2D barcode.
+    * See {@link WellCell#setSkipped}.
+    *
+    * @param label The label for the cell.
+    *
+    * @param skipped True if the cell was skipped.
+    */
+   public void setWellCellSkipped(String label, boolean skipped) {
+      WellCell cell = wellCellMap.get(label);
+      if (cell == null) {
+         throw new IllegalArgumentException("label is invalid for grid: " + label);
       }
+      cell.setSkipped(skipped);
    }
 
    /**
@@ -235,18 +260,21 @@ public class WellGrid extends Rectangle implements ResizeHandler {
    }
 
    /**
-    * Returns the label for a cell in the grid.
-    *
-    * @param row The row the cell is in.
+    * Returns the layout of the cells in the grid, based on the plate's settings.
+    */
+   private PlateLayout getLayout() {
+      return PlateLayout.get(model.getPlateType(),
+                             model.getPlateOrientation(),
+                             model.getBarcodePosition());
+   }
+
+   /**
+    * Moves and resizes the grid.
     *
-    * @param col The column the cell is in.
+    * @param bounds  The new position and size of the grid, in image coordinates.
     */
-   private String getLabelForGridPosition(int row, int col) {
-      return getLabelForPosition(row,
-                                 col,
-                                 model.getPlateOrientation(),
-                                 model.getPlateType(),
-                                 model.getBarcodePosition());
+   public void setBounds(Bounds bounds) {
+      resized(bounds.getMinX(), bounds.getMinY(), bounds.getWidth(), bounds.getHeight());
    }
 
    /**
@@ -324,16 +352,9 @@ public class WellGrid extends Rectangle implements ResizeHandler {
 
    private void createWellCells() {
       double displayScale = displayScaleProperty.getValue();
-      int rows, cols;
-
-      PlateType plateType = model.getPlateType();
-      if (model.getPlateOrientation() == PlateOrientation.LANDSCAPE) {
-         rows = plateType.getRows();
-         cols = plateType.getCols();
-      } else {
-         rows = plateType.getCols();
-         cols = plateType.getRows();
-      }
+      PlateLayout layout = getLayout();
+      int rows = layout.getRows();
+      int cols = layout.getCols();
 
       double wellWidth = displayScale * getWidth() / cols;
       double wellHeight = displayScale * getHeight() / rows;
@@ -347,7 +368,7 @@ public class WellGrid extends Rectangle implements ResizeHandler {
 
       for (int row = 0; row < rows; ++row) {
          for (int col = 0; col < cols; ++col) {
-            String label = getLabelForGridPosition(row, col);
+            String label = layout.getLabel(row, col);
 
             // make the well slightly smaller so that user can see gaps between wells
             cell = new WellCell(wellGridHandler,
@@ -0,0 +1,147 @@
+package org.biobank.platedecoder.batch;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.biobank.platedecoder.corpus.PlateImageGenerator;
+import org.biobank.platedecoder.corpus.PlateManifest;
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.JavaDecoderBackend;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+public class BatchDecoderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File dir;
+
+    private List<PlateManifest> manifests;
+
+    private BatchDecoder decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = folder.newFolder("scans");
+        PlateImageGenerator generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                                                PlateOrientation.LANDSCAPE,
+                                                                BarcodePosition.BOTTOM,
+                                                                300,
+                                                                11);
+        generator.setFillRatio(0.25);
+        manifests = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            manifests.add(generator.write(dir, "plate-" + i));
+        }
+
+        // the generator puts the wells in the same place on every plate
+        double [] bounds = manifests.get(0).getWellBounds();
+        CellGrid grid = CellGrid.forBoundingBox(bounds[0],
+                                                bounds[1],
+                                                bounds[2],
+                                                bounds[3],
+                                                PlateOrientation.LANDSCAPE,
+                                                PlateType.PT_96_WELLS,
+                                                BarcodePosition.BOTTOM);
+        decoder = new BatchDecoder(JavaDecoderBackend.getInstance(),
+                                   grid,
+                                   DecodeOptions.getDefaultDecodeOptions(),
+                                   2);
+    }
+
+    private Map<String, String> getExpected(PlateManifest manifest) {
+        Map<String, String> expected = new HashMap<>();
+        manifest.getInventoryIds().forEach((label, id) -> {
+                expected.put(label, id);
+            });
+        return expected;
+    }
+
+    @Test
+    public void findsImagesInDirectoryAndByPattern() throws Exception {
+        List<File> images = BatchDecoder.findImages(dir.getPath());
+        assertEquals(3, images.size());
+        assertEquals(manifests.get(0).getImage(), images.get(0).getName());
+
+        images = BatchDecoder.findImages(new File(dir, "plate-[12].png").getPath());
+        assertEquals(2, images.size());
+        assertEquals(manifests.get(1).getImage(), images.get(0).getName());
+    }
+
+    @Test
+    public void writesCsvRowForEachTube() throws Exception {
+        StringWriter out = new StringWriter();
+        int failed;
+        try (BatchResultWriter writer = new CsvBatchResultWriter(out)) {
+            failed = decoder.decode(BatchDecoder.findImages(dir.getPath()), writer);
+        }
+        assertEquals(0, failed);
+
+        String [] lines = out.toString().split("\r?\n");
+        assertEquals("image,result,label,inventoryId", lines[0]);
+
+        Map<String, Map<String, String>> decoded = new HashMap<>();
+        for (int i = 1; i < lines.length; ++i) {
+            String [] columns = lines[i].split(",");
+            assertEquals("SUCCESS", columns[1]);
+            String image = new File(columns[0]).getName();
+            decoded.computeIfAbsent(image, key -> new HashMap<>()).put(columns[2], columns[3]);
+        }
+        for (PlateManifest manifest : manifests) {
+            assertEquals(getExpected(manifest), decoded.get(manifest.getImage()));
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void writesJsonObjectForEachImage() throws Exception {
+        StringWriter out = new StringWriter();
+        try (BatchResultWriter writer = new JsonBatchResultWriter(out)) {
+            decoder.decode(BatchDecoder.findImages(dir.getPath()), writer);
+        }
+
+        String [] lines = out.toString().split("\n");
+        assertEquals(manifests.size(), lines.length);
+
+        Map<String, Map<String, Object>> decoded = new HashMap<>();
+        for (String line : lines) {
+            Map<String, Object> json = JSON.std.mapFrom(line);
+            assertEquals("SUCCESS", json.get("result"));
+            decoded.put(new File((String) json.get("image")).getName(),
+                        (Map<String, Object>) json.get("wells"));
+        }
+        for (PlateManifest manifest : manifests) {
+            assertEquals(getExpected(manifest), decoded.get(manifest.getImage()));
+        }
+    }
+
+    @Test
+    public void missingImageIsReportedAndBatchContinues() throws Exception {
+        List<File> images = new ArrayList<>(BatchDecoder.findImages(dir.getPath()));
+        images.add(new File(dir, "missing.png"));
+
+        StringWriter out = new StringWriter();
+        int failed;
+        try (BatchResultWriter writer = new CsvBatchResultWriter(out)) {
+            failed = decoder.decode(images, writer);
+        }
+        assertEquals(1, failed);
+        assertTrue(out.toString().contains("missing.png"));
+    }
+
+}
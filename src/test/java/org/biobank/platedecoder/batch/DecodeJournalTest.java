@@ -0,0 +1,89 @@
+package org.biobank.platedecoder.batch;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DecodeJournalTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File createImage(String name, int size) throws Exception {
+        File image = folder.newFile(name);
+        Files.write(image.toPath(), new byte[size]);
+        return image;
+    }
+
+    private static void record(DecodeJournal journal, File image, DecodeJournal.State state)
+        throws Exception {
+        journal.record(image, image.length(), image.lastModified(), state, "SUCCESS");
+    }
+
+    @Test
+    public void finishedJobsSurviveReopening() throws Exception {
+        File done = createImage("done.png", 10);
+        File started = createImage("started.png", 10);
+        File journalFile = new File(folder.getRoot(), "journal.txt");
+
+        try (DecodeJournal journal = new DecodeJournal(journalFile)) {
+            assertNull(journal.getState(done));
+            record(journal, done, DecodeJournal.State.STARTED);
+            record(journal, done, DecodeJournal.State.DONE);
+            record(journal, started, DecodeJournal.State.STARTED);
+            assertTrue(journal.isFinished(done));
+        }
+
+        try (DecodeJournal journal = new DecodeJournal(journalFile)) {
+            assertEquals(DecodeJournal.State.DONE, journal.getState(done));
+            assertTrue(journal.isFinished(done));
+            assertEquals(DecodeJournal.State.STARTED, journal.getState(started));
+            assertFalse(journal.isFinished(started));
+        }
+    }
+
+    @Test
+    public void replacedImageIsNotFinished() throws Exception {
+        File image = createImage("plate.png", 10);
+        try (DecodeJournal journal = new DecodeJournal(new File(folder.getRoot(), "journal.txt"))) {
+            record(journal, image, DecodeJournal.State.DONE);
+            Files.write(image.toPath(), new byte[20]);
+            assertFalse(journal.isFinished(image));
+        }
+    }
+
+    @Test
+    public void incompleteLineIsIgnored() throws Exception {
+        File image = createImage("plate.png", 10);
+        File journalFile = new File(folder.getRoot(), "journal.txt");
+        try (DecodeJournal journal = new DecodeJournal(journalFile)) {
+            record(journal, image, DecodeJournal.State.STARTED);
+        }
+
+        // a crash while the DONE line was being written
+        try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write("DONE\t10\t".getBytes(StandardCharsets.UTF_8));
+        }
+
+        try (DecodeJournal journal = new DecodeJournal(journalFile)) {
+            assertEquals(DecodeJournal.State.STARTED, journal.getState(image));
+            record(journal, image, DecodeJournal.State.DONE);
+        }
+
+        List<String> lines = Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(3, lines.size());
+        assertTrue(lines.get(2).startsWith("DONE\t10\t"));
+        try (DecodeJournal journal = new DecodeJournal(journalFile)) {
+            assertTrue(journal.isFinished(image));
+        }
+    }
+
+}
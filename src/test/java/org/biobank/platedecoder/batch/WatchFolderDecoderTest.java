@@ -0,0 +1,138 @@
+package org.biobank.platedecoder.batch;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.biobank.platedecoder.corpus.PlateImageGenerator;
+import org.biobank.platedecoder.corpus.PlateManifest;
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.JavaDecoderBackend;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class WatchFolderDecoderTest {
+
+    private static final long TIMEOUT_MILLIS = 30000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PlateImageGenerator generator;
+
+    private File scans;
+
+    private File results;
+
+    private File journalFile;
+
+    private BatchDecoder decoder;
+
+    @Before
+    public void setUp() throws Exception {
+        generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                            PlateOrientation.LANDSCAPE,
+                                            BarcodePosition.BOTTOM,
+                                            300,
+                                            23);
+        generator.setFillRatio(0.2);
+        scans = folder.newFolder("scans");
+        results = folder.newFolder("results");
+        journalFile = new File(results, "journal.txt");
+
+        double [] bounds = generator.createManifest("unused").getWellBounds();
+        CellGrid grid = CellGrid.forBoundingBox(bounds[0],
+                                                bounds[1],
+                                                bounds[2],
+                                                bounds[3],
+                                                PlateOrientation.LANDSCAPE,
+                                                PlateType.PT_96_WELLS,
+                                                BarcodePosition.BOTTOM);
+        decoder = new BatchDecoder(JavaDecoderBackend.getInstance(),
+                                   grid,
+                                   DecodeOptions.getDefaultDecodeOptions(),
+                                   2);
+    }
+
+    private WatchFolderDecoder createWatcher(DecodeJournal journal) throws Exception {
+        return new WatchFolderDecoder(decoder, scans, results, "csv", journal, 4, 200);
+    }
+
+    private static void waitFor(File file) throws Exception {
+        long end = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!file.exists()) {
+            assertTrue("timed out waiting for " + file, System.currentTimeMillis() < end);
+            Thread.sleep(50);
+        }
+    }
+
+    private static void assertResult(File resultFile, PlateManifest manifest) throws Exception {
+        List<String> lines = Files.readAllLines(resultFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals(manifest.getInventoryIds().size() + 1, lines.size());
+        manifest.getInventoryIds().forEach((label, id) -> {
+                String row = manifest.getImage() + ",SUCCESS," + label + "," + id;
+                assertTrue(row, lines.stream().anyMatch(line -> line.endsWith(row)));
+            });
+    }
+
+    private static long countLines(File journalFile, String prefix) throws Exception {
+        return Files.readAllLines(journalFile.toPath(), StandardCharsets.UTF_8).stream()
+            .filter(line -> line.startsWith(prefix))
+            .count();
+    }
+
+    @Test
+    public void decodesImagesDroppedInFolder() throws Exception {
+        try (DecodeJournal journal = new DecodeJournal(journalFile);
+             WatchFolderDecoder watcher = createWatcher(journal)) {
+            watcher.start();
+
+            PlateManifest first = generator.write(scans, "plate-1");
+            PlateManifest second = generator.write(scans, "plate-2");
+            File firstResult = watcher.getResultFile(new File(scans, first.getImage()));
+            File secondResult = watcher.getResultFile(new File(scans, second.getImage()));
+            assertEquals(new File(results, "plate-1.png.csv"), firstResult);
+
+            waitFor(firstResult);
+            waitFor(secondResult);
+            assertResult(firstResult, first);
+            assertResult(secondResult, second);
+        }
+        assertEquals(2, countLines(journalFile, "DONE"));
+    }
+
+    @Test
+    public void restartSkipsFinishedImages() throws Exception {
+        PlateManifest first = generator.write(scans, "plate-1");
+        File firstResult = new File(results, first.getImage() + ".csv");
+        try (DecodeJournal journal = new DecodeJournal(journalFile);
+             WatchFolderDecoder watcher = createWatcher(journal)) {
+            watcher.start();
+            waitFor(firstResult);
+        }
+
+        // an image that arrives while the watcher is stopped, and one that arrives afterwards
+        PlateManifest second = generator.write(scans, "plate-2");
+        try (DecodeJournal journal = new DecodeJournal(journalFile);
+             WatchFolderDecoder watcher = createWatcher(journal)) {
+            watcher.start();
+            PlateManifest third = generator.write(scans, "plate-3");
+            waitFor(new File(results, second.getImage() + ".csv"));
+            waitFor(new File(results, third.getImage() + ".csv"));
+            assertResult(new File(results, third.getImage() + ".csv"), third);
+        }
+
+        assertEquals(3, countLines(journalFile, "DONE"));
+        assertEquals(3, countLines(journalFile, "STARTED"));
+    }
+
+}
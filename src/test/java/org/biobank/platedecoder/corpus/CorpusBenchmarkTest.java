@@ -0,0 +1,106 @@
+package org.biobank.platedecoder.corpus;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.JavaDecoderBackend;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CorpusBenchmarkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static CorpusReport createReport(long decodeNanos, long correct, long decoded) {
+        return new CorpusReport("test", 10, 0, 960, 500, decoded, correct, decodeNanos,
+                                100, 200, 300);
+    }
+
+    private File createCorpus(int images) throws Exception {
+        File dir = folder.newFolder("corpus");
+        PlateImageGenerator generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                                                PlateOrientation.LANDSCAPE,
+                                                                BarcodePosition.BOTTOM,
+                                                                300,
+                                                                5);
+        generator.setFillRatio(0.25);
+        for (int i = 0; i < images; ++i) {
+            generator.write(dir, "plate-" + i);
+        }
+        return dir;
+    }
+
+    @Test
+    public void reportsRecallAndMisreads() throws Exception {
+        File dir = createCorpus(2);
+
+        // swap one inventory ID so that its tube is read as a misread
+        File manifestFile = CorpusBenchmark.getManifestFiles(dir)[0];
+        PlateManifest manifest = PlateManifest.read(manifestFile);
+        Map<String, String> ids = new HashMap<>(manifest.getInventoryIds());
+        String label = ids.keySet().iterator().next();
+        ids.put(label, "WRONG");
+        new PlateManifest(manifest.getImage(),
+                          manifest.getPlateType(),
+                          manifest.getOrientation(),
+                          manifest.getBarcodePosition(),
+                          manifest.getDpi(),
+                          manifest.getWellBounds(),
+                          ids,
+                          manifest.getSettings()).write(manifestFile);
+
+        CorpusBenchmark benchmark = new CorpusBenchmark(JavaDecoderBackend.getInstance(),
+                                                        "JAVA",
+                                                        DecodeOptions.getDefaultDecodeOptions());
+        CorpusReport report = benchmark.run(dir, 0);
+
+        assertEquals(2, report.getImages());
+        assertEquals(0, report.getFailedImages());
+        assertEquals(2 * 96, report.getWells());
+        assertEquals(report.getTubes(), report.getDecoded());
+        assertEquals(1, report.getMisreads());
+        assertEquals(report.getTubes() - 1, report.getCorrect());
+        assertTrue(report.getWellsPerSecond() > 0);
+        assertTrue(report.getPercentile50Millis() <= report.getPercentile99Millis());
+    }
+
+    @Test
+    public void reportIsWrittenAndRead() throws Exception {
+        CorpusReport report = createReport(1000000000L, 490, 495);
+        File file = folder.newFile("report.json");
+        report.write(file);
+
+        CorpusReport read = CorpusReport.read(file);
+        assertEquals(report.getBackend(), read.getBackend());
+        assertEquals(report.getWells(), read.getWells());
+        assertEquals(report.getDecodeNanos(), read.getDecodeNanos());
+        assertEquals(report.getRecall(), read.getRecall(), 0);
+        assertEquals(report.getMisreadRate(), read.getMisreadRate(), 0);
+        assertEquals(report.getPercentile95Millis(), read.getPercentile95Millis(), 0);
+    }
+
+    @Test
+    public void regressionsAreFound() {
+        CorpusReport baseline = createReport(1000000000L, 490, 495);
+
+        assertTrue(createReport(1050000000L, 490, 495)
+                   .findRegressions(baseline, 0.1, 0.005, 0.001).isEmpty());
+
+        assertEquals(1, createReport(1500000000L, 490, 495)
+                     .findRegressions(baseline, 0.1, 0.005, 0.001).size());
+        assertEquals(1, createReport(1000000000L, 480, 485)
+                     .findRegressions(baseline, 0.1, 0.005, 0.001).size());
+        assertEquals(1, createReport(1000000000L, 490, 500)
+                     .findRegressions(baseline, 0.1, 0.005, 0.001).size());
+    }
+
+}
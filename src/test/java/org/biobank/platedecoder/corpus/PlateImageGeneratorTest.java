@@ -0,0 +1,121 @@
+package org.biobank.platedecoder.corpus;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.JavaDecoderBackend;
+import org.biobank.platedecoder.dmscanlib.LuminanceImage;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PlateImageGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, String> decode(PlateManifest manifest, BufferedImage image) {
+        double [] bounds = manifest.getWellBounds();
+        CellGrid cells = CellGrid.forBoundingBox(bounds[0],
+                                                 bounds[1],
+                                                 bounds[2],
+                                                 bounds[3],
+                                                 manifest.getOrientation(),
+                                                 manifest.getPlateType(),
+                                                 manifest.getBarcodePosition());
+        DecodeResult result =
+            JavaDecoderBackend.getInstance().decodeImage(0,
+                                                         LuminanceImage.fromBufferedImage(image),
+                                                         DecodeOptions.getDefaultDecodeOptions(),
+                                                         cells);
+        Map<String, String> decoded = new HashMap<>();
+        result.getDecodedWells().forEach(well -> decoded.put(well.getLabel(), well.getMessage()));
+        return decoded;
+    }
+
+    @Test
+    public void renderedTubesAreDecoded() {
+        PlateImageGenerator generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                                                PlateOrientation.PORTRAIT,
+                                                                BarcodePosition.BOTTOM,
+                                                                600,
+                                                                7);
+        generator.setFillRatio(0.5);
+        generator.setMaxRotation(20);
+        generator.setBlur(0.7);
+        generator.setContrast(0.8);
+        generator.setNoise(4);
+
+        PlateManifest manifest = generator.createManifest("plate.png");
+        assertTrue(manifest.getInventoryIds().size() > 20);
+        assertTrue(manifest.getInventoryIds().size() < 76);
+
+        assertEquals(manifest.getInventoryIds(), decode(manifest, generator.render(manifest)));
+    }
+
+    @Test
+    public void sameSeedGivesSameImage() {
+        PlateImageGenerator first = new PlateImageGenerator(PlateType.PT_81_WELLS,
+                                                            PlateOrientation.LANDSCAPE,
+                                                            BarcodePosition.TOP,
+                                                            100,
+                                                            3);
+        PlateImageGenerator second = new PlateImageGenerator(PlateType.PT_81_WELLS,
+                                                             PlateOrientation.LANDSCAPE,
+                                                             BarcodePosition.TOP,
+                                                             100,
+                                                             3);
+        first.setNoise(10);
+        second.setNoise(10);
+
+        PlateManifest manifest = first.createManifest("a.png");
+        assertEquals(manifest.getInventoryIds(),
+                     second.createManifest("a.png").getInventoryIds());
+
+        BufferedImage image1 = first.render(manifest);
+        BufferedImage image2 = second.render(manifest);
+        for (int y = 0; y < image1.getHeight(); y += 7) {
+            for (int x = 0; x < image1.getWidth(); x += 7) {
+                assertEquals(image1.getRGB(x, y), image2.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void manifestIsWrittenAndRead() throws Exception {
+        PlateImageGenerator generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                                                PlateOrientation.LANDSCAPE,
+                                                                BarcodePosition.BOTTOM,
+                                                                150,
+                                                                11);
+        generator.setFillRatio(0.75);
+        File dir = folder.getRoot();
+        PlateManifest written = generator.write(dir, "plate-0001");
+
+        File imageFile = new File(dir, "plate-0001.png");
+        assertTrue(imageFile.exists());
+        File manifestFile = PlateManifest.getManifestFile(imageFile);
+        assertEquals("plate-0001" + PlateManifest.FILE_SUFFIX, manifestFile.getName());
+
+        PlateManifest read = PlateManifest.read(manifestFile);
+        assertEquals(written.getImage(), read.getImage());
+        assertEquals(written.getPlateType(), read.getPlateType());
+        assertEquals(written.getOrientation(), read.getOrientation());
+        assertEquals(written.getBarcodePosition(), read.getBarcodePosition());
+        assertEquals(written.getDpi(), read.getDpi());
+        assertArrayEquals(written.getWellBounds(), read.getWellBounds(), 1e-9);
+        assertEquals(written.getInventoryIds(), read.getInventoryIds());
+        assertEquals(0.75, ((Number) read.getSettings().get("fillRatio")).doubleValue(), 0);
+    }
+
+}
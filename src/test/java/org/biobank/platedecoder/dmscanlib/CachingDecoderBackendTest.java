@@ -0,0 +1,222 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_NOTHING_DECODED;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javafx.scene.shape.Rectangle;
+
+public class CachingDecoderBackendTest {
+
+    private static final DecodeOptions OPTIONS = new DecodeOptions(0.1, 0.9, 0.05, 10, 5, 10, 1);
+
+    private static final CellRectangle [] WELLS = new CellRectangle [] {
+        new CellRectangle("A1", new Rectangle(0, 0, 10, 10)),
+        new CellRectangle("A2", new Rectangle(10, 0, 10, 10))
+    };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File cacheDir;
+
+    private File imageFile;
+
+    /**
+     * Decodes every well to its label followed by the number of calls made so far, so that results
+     * from different calls can be told apart.
+     */
+    private static class CountingBackend implements DecoderBackend {
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private volatile boolean decodeNothing;
+
+        @Override
+        public DecodeResult decodeImage(long            verbose,
+                                        String          filename,
+                                        DecodeOptions   decodeOptions,
+                                        CellRectangle[] wells) {
+            int call = calls.incrementAndGet();
+            if (decodeNothing) {
+                return new DecodeResult(SC_INVALID_NOTHING_DECODED, SC_INVALID_NOTHING_DECODED, "");
+            }
+            DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+            for (CellRectangle well : wells) {
+                result.addWell(well.getLabel(), well.getLabel() + "-" + call);
+            }
+            return result;
+        }
+
+        @Override
+        public DecodeResult decodeImageBuffer(long            verbose,
+                                              ImageBuffer     image,
+                                              DecodeOptions   decodeOptions,
+                                              CellRectangle[] wells) {
+            return decodeImage(verbose, "", decodeOptions, wells);
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        cacheDir = folder.newFolder("cache");
+        imageFile = folder.newFile("plate.png");
+        Files.write(imageFile.toPath(), new byte [] { 1, 2, 3, 4 });
+    }
+
+    private static String messageFor(DecodeResult result, String label) {
+        for (DecodedWell well : result.getDecodedWells()) {
+            if (well.getLabel().equals(label)) {
+                return well.getMessage();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void sameImageIsDecodedOnce() {
+        CountingBackend backend = new CountingBackend();
+        CachingDecoderBackend caching =
+            new CachingDecoderBackend(backend, "TEST", new DecodeResultCache(cacheDir, 4, 10));
+
+        DecodeResult first = caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+        DecodeResult second = caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+
+        assertEquals(1, backend.calls.get());
+        assertEquals(ScanLibResult.Result.SUCCESS, second.getResultCode());
+        assertEquals(first.getDecodedWells().size(), second.getDecodedWells().size());
+        assertEquals("A1-1", messageFor(second, "A1"));
+    }
+
+    @Test
+    public void changesToTheRequestAreDecodedAgain() throws IOException {
+        CountingBackend backend = new CountingBackend();
+        CachingDecoderBackend caching =
+            new CachingDecoderBackend(backend, "TEST", new DecodeResultCache(cacheDir, 4, 10));
+
+        caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+
+        DecodeOptions options = new DecodeOptions(0.1, 0.9, 0.05, 10, 5, 11, 1);
+        caching.decodeImage(0, imageFile.getPath(), options, WELLS);
+        assertEquals(2, backend.calls.get());
+
+        CellRectangle [] wells = new CellRectangle [] {
+            new CellRectangle("A1", new Rectangle(0, 0, 10, 11))
+        };
+        caching.decodeImage(0, imageFile.getPath(), OPTIONS, wells);
+        assertEquals(3, backend.calls.get());
+
+        Files.write(imageFile.toPath(), new byte [] { 1, 2, 3, 5 });
+        caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+        assertEquals(4, backend.calls.get());
+    }
+
+    @Test
+    public void changesToTheLadderAreDecodedAgain() {
+        CountingBackend backend = new CountingBackend();
+        DecodeOptionsLadder ladder = DecodeOptionsLadder.getDefaultLadder();
+        CachingDecoderBackend caching =
+            new CachingDecoderBackend(backend,
+                                      "TEST",
+                                      ladder,
+                                      new DecodeResultCache(cacheDir, 4, 10));
+
+        caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+        caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+        assertEquals(1, backend.calls.get());
+
+        // the last rung is now tried first
+        ladder.addSuccesses(ladder.size() - 1, 1);
+        caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+        assertEquals(2, backend.calls.get());
+
+        CachingDecoderBackend otherLadder =
+            new CachingDecoderBackend(backend,
+                                      "TEST",
+                                      DecodeOptionsLadder.parse(ladder.getRung(0).toString()),
+                                      new DecodeResultCache(cacheDir, 4, 10));
+        otherLadder.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+        assertEquals(3, backend.calls.get());
+    }
+
+    @Test
+    public void resultsAreRestoredFromDisk() {
+        CountingBackend backend = new CountingBackend();
+        new CachingDecoderBackend(backend, "TEST", new DecodeResultCache(cacheDir, 4, 10))
+            .decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+
+        // a new cache has nothing in memory, as if the application was restarted
+        CachingDecoderBackend caching =
+            new CachingDecoderBackend(backend, "TEST", new DecodeResultCache(cacheDir, 4, 10));
+        DecodeResult result = caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+
+        assertEquals(1, backend.calls.get());
+        assertEquals(ScanLibResult.Result.SUCCESS, result.getResultCode());
+        assertEquals("A1-1", messageFor(result, "A1"));
+        assertEquals("A2-1", messageFor(result, "A2"));
+    }
+
+    @Test
+    public void failedDecodesAreNotCached() {
+        CountingBackend backend = new CountingBackend();
+        backend.decodeNothing = true;
+        CachingDecoderBackend caching =
+            new CachingDecoderBackend(backend, "TEST", new DecodeResultCache(cacheDir, 4, 10));
+
+        caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+        caching.decodeImage(0, imageFile.getPath(), OPTIONS, WELLS);
+
+        assertEquals(2, backend.calls.get());
+    }
+
+    @Test
+    public void diskEntriesAreBounded() {
+        CountingBackend backend = new CountingBackend();
+        CachingDecoderBackend caching =
+            new CachingDecoderBackend(backend, "TEST", new DecodeResultCache(cacheDir, 1, 3));
+
+        for (int i = 0; i < 6; ++i) {
+            CellRectangle [] wells = new CellRectangle [] {
+                new CellRectangle("A1", new Rectangle(i, 0, 10, 10))
+            };
+            caching.decodeImage(0, imageFile.getPath(), OPTIONS, wells);
+        }
+
+        assertEquals(3, cacheDir.listFiles().length);
+    }
+
+    @Test
+    public void imageBuffersAreCached() {
+        CountingBackend backend = new CountingBackend();
+        CachingDecoderBackend caching =
+            new CachingDecoderBackend(backend, "TEST", new DecodeResultCache(null, 4, 10));
+
+        ByteBuffer pixels = ByteBuffer.allocateDirect(16);
+        ImageBuffer image = new ImageBuffer(pixels, 4, 4, 4, ImageBuffer.Format.GRAY);
+
+        caching.decodeImageBuffer(0, image, OPTIONS, WELLS);
+        caching.decodeImageBuffer(0, image, OPTIONS, WELLS);
+        assertEquals(1, backend.calls.get());
+
+        pixels.put(5, (byte) 1);
+        caching.decodeImageBuffer(0, image, OPTIONS, WELLS);
+        assertEquals(2, backend.calls.get());
+    }
+
+}
@@ -0,0 +1,120 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.Test;
+
+public class CellGridTest {
+
+    @Test
+    public void everyWellIsInTheGrid() {
+        for (PlateOrientation orientation : PlateOrientation.values()) {
+            for (PlateType plateType : PlateType.values()) {
+                for (BarcodePosition barcodePosition : BarcodePosition.values()) {
+                    CellGrid grid = CellGrid.forBoundingBox(1000, 1000, 3000, 2000,
+                                                            orientation,
+                                                            plateType,
+                                                            barcodePosition);
+                    int wells = plateType.getRows() * plateType.getCols();
+                    assertEquals(wells, grid.size());
+
+                    BitSet seen = new BitSet(wells);
+                    for (int i = 0; i < grid.size(); ++i) {
+                        seen.set(grid.getWellIndex(i));
+                        assertTrue(grid.getX(i) >= 1000);
+                        assertTrue(grid.getY(i) >= 1000);
+                        assertTrue(grid.getX(i) + grid.getWidth(i) <= 4000);
+                        assertTrue(grid.getY(i) + grid.getHeight(i) <= 3000);
+                    }
+                    assertEquals(wells, seen.cardinality());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void labelsMatchCellRectangle() {
+        for (PlateOrientation orientation : PlateOrientation.values()) {
+            for (PlateType plateType : PlateType.values()) {
+                for (BarcodePosition barcodePosition : BarcodePosition.values()) {
+                    int rows = (orientation == PlateOrientation.LANDSCAPE)
+                        ? plateType.getRows() : plateType.getCols();
+                    int cols = (orientation == PlateOrientation.LANDSCAPE)
+                        ? plateType.getCols() : plateType.getRows();
+                    CellGrid grid = CellGrid.forBoundingBox(0, 0, 100, 100,
+                                                            orientation,
+                                                            plateType,
+                                                            barcodePosition);
+
+                    for (int row = 0; row < rows; ++row) {
+                        for (int col = 0; col < cols; ++col) {
+                            String label = CellRectangle.getLabelForPosition(row,
+                                                                             col,
+                                                                             orientation,
+                                                                             plateType,
+                                                                             barcodePosition);
+                            assertEquals(label, grid.getLabel(row * cols + col));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void cellRectangleConversion() {
+        CellGrid grid = CellGrid.forBoundingBox(10, 20, 1200, 800,
+                                                PlateOrientation.LANDSCAPE,
+                                                PlateType.PT_96_WELLS,
+                                                BarcodePosition.TOP);
+        CellRectangle [] cells = CellRectangle.fromCellGrid(grid);
+        assertEquals(grid.size(), cells.length);
+
+        CellGrid copy = CellRectangle.toCellGrid(PlateType.PT_96_WELLS, cells);
+        for (int i = 0; i < grid.size(); ++i) {
+            assertEquals(grid.getLabel(i), cells[i].getLabel());
+            assertEquals(grid.getWellIndex(i), copy.getWellIndex(i));
+            for (int corner = 0; corner < 4; ++corner) {
+                assertEquals(cells[i].getCornerX(corner), grid.getCornerX(i, corner), 0);
+                assertEquals(cells[i].getCornerY(corner), grid.getCornerY(i, corner), 0);
+            }
+        }
+    }
+
+    @Test
+    public void wellIndexForLabel() {
+        assertEquals(0, CellGrid.getWellIndex(PlateType.PT_96_WELLS, "A1"));
+        assertEquals(13, CellGrid.getWellIndex(PlateType.PT_96_WELLS, "B2"));
+        assertEquals(95, CellGrid.getWellIndex(PlateType.PT_96_WELLS, "H12"));
+        assertEquals("H12", CellGrid.getLabel(PlateType.PT_96_WELLS, 95));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void labelNotOnPlate() {
+        CellGrid.getWellIndex(PlateType.PT_96_WELLS, "I1");
+    }
+
+    @Test
+    public void selectKeepsOrder() {
+        CellGrid grid = CellGrid.forBoundingBox(0, 0, 1200, 800,
+                                                PlateOrientation.LANDSCAPE,
+                                                PlateType.PT_96_WELLS,
+                                                BarcodePosition.TOP);
+        CellGrid even = grid.select(cell -> cell % 2 == 0);
+        assertEquals(48, even.size());
+        for (int i = 0; i < even.size(); ++i) {
+            assertEquals(grid.getWellIndex(2 * i), even.getWellIndex(i));
+            assertEquals(grid.getX(2 * i), even.getX(i), 0);
+        }
+
+        int [] count = new int[1];
+        even.forEach((cell, wellIndex, x, y, width, height) -> ++count[0]);
+        assertEquals(48, count[0]);
+    }
+
+}
@@ -4,7 +4,10 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import org.biobank.platedecoder.model.BarcodePosition;
@@ -259,6 +262,64 @@ public class CellRectangleTest {
         }
     }
 
+    @Test
+    public void nearRectangles() {
+        CellRectangle cell = new CellRectangle("A1", new Rectangle(100, 100, 50, 40));
+
+        assertTrue(cell.isNear(cell, 0));
+        assertTrue(cell.isNear(new CellRectangle("A1", new Rectangle(103, 97, 50, 40)), 0.1));
+        assertFalse(cell.isNear(new CellRectangle("A1", new Rectangle(105, 100, 50, 40)), 0.1));
+        assertFalse(cell.isNear(new CellRectangle("A1", new Rectangle(100, 100, 50, 45)), 0.1));
+    }
+
+    @Test
+    public void cellsToDecodeAfterPartialDecode() {
+        Rectangle bounds = new Rectangle(0, 0, 1200, 800);
+        Set<CellRectangle> cells = CellRectangle.getCellsForBoundingBox(
+            bounds,
+            PlateOrientation.LANDSCAPE,
+            PlateType.PT_96_WELLS,
+            BarcodePosition.TOP);
+
+        Map<String, CellRectangle> decodedCells = new HashMap<>();
+        for (CellRectangle cell : cells) {
+            if (!cell.getLabel().startsWith("H") || cell.getLabel().equals("H12")) {
+                decodedCells.put(cell.getLabel(), cell);
+            }
+        }
+
+        // H1 to H11 were not decoded, H12 was entered with a hand held scanner
+        decodedCells.remove("H12");
+        Set<String> labelsWithIds = new HashSet<>(decodedCells.keySet());
+        labelsWithIds.add("H12");
+
+        Set<CellRectangle> toDecode =
+            CellRectangle.getCellsToDecode(cells, labelsWithIds, decodedCells, 0.1);
+        assertEquals(11, toDecode.size());
+        for (CellRectangle cell : toDecode) {
+            assertTrue(cell.getLabel().startsWith("H"));
+            assertFalse(cell.getLabel().equals("H12"));
+        }
+
+        // move the grid a little, only the undecoded cells are selected
+        Set<CellRectangle> nudged = CellRectangle.getCellsForBoundingBox(
+            new Rectangle(2, 2, 1200, 800),
+            PlateOrientation.LANDSCAPE,
+            PlateType.PT_96_WELLS,
+            BarcodePosition.TOP);
+        assertEquals(11,
+                     CellRectangle.getCellsToDecode(nudged, labelsWithIds, decodedCells, 0.1).size());
+
+        // move the grid by half a cell, all the decoded cells are selected again
+        Set<CellRectangle> moved = CellRectangle.getCellsForBoundingBox(
+            new Rectangle(50, 0, 1200, 800),
+            PlateOrientation.LANDSCAPE,
+            PlateType.PT_96_WELLS,
+            BarcodePosition.TOP);
+        assertEquals(95,
+                     CellRectangle.getCellsToDecode(moved, labelsWithIds, decodedCells, 0.1).size());
+    }
+
     private List<CellRectangle> sortCells(Set<CellRectangle> cells) {
         assertNotNull(cells);
         assertFalse(cells.isEmpty());
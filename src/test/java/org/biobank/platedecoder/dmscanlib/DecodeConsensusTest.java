@@ -0,0 +1,95 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DecodeConsensusTest {
+
+    private static DecodeResult createPass(String... labelsAndMessages) {
+        DecodeResult result = new DecodeResult(0, 0, "OK");
+        for (int i = 0; i < labelsAndMessages.length; i += 2) {
+            result.addWell(labelsAndMessages[i], labelsAndMessages[i + 1]);
+        }
+        return result;
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void quorumMustBePositive() {
+        new DecodeConsensus(0);
+    }
+
+    @Test
+    public void wellIsAcceptedWhenQuorumAgrees() {
+        DecodeConsensus consensus = new DecodeConsensus(2);
+        consensus.addPass(createPass("A1", "AAA1", "A2", "AAA2"));
+        consensus.addPass(createPass("A1", "AAA1"));
+
+        assertEquals(2, consensus.getPassCount());
+        assertEquals(2, consensus.getVotes("A1", "AAA1"));
+        assertEquals(DecodeConsensus.State.ACCEPTED, consensus.getState("A1"));
+        assertEquals(DecodeConsensus.State.UNDECIDED, consensus.getState("A2"));
+
+        DecodeResult result = consensus.getResult();
+        assertEquals(ScanLibResult.Result.SUCCESS, result.getResultCode());
+        assertEquals(1, result.getDecodedWellCount());
+        assertEquals("AAA1", result.getInventoryId("A1"));
+        assertNull(result.getInventoryId("A2"));
+        assertFalse(result.isConflict("A2"));
+    }
+
+    @Test
+    public void disagreementIsFlaggedPerWell() {
+        DecodeConsensus consensus = new DecodeConsensus(1);
+        consensus.addPass(createPass("A1", "AAA1", "A2", "AAA2"));
+        consensus.addPass(createPass("A1", "AAA1", "A2", "BBB2"));
+
+        assertEquals(DecodeConsensus.State.CONFLICT, consensus.getState("A2"));
+
+        DecodeResult result = consensus.getResult();
+        assertEquals("AAA1", result.getInventoryId("A1"));
+        assertNull(result.getInventoryId("A2"));
+        assertTrue(result.isConflict("A2"));
+        assertFalse(result.isConflict("A1"));
+    }
+
+    @Test
+    public void majorityOverridesAStrayVote() {
+        DecodeConsensus consensus = new DecodeConsensus(1);
+        consensus.addPass(createPass("A1", "AAA1"));
+        consensus.addPass(createPass("A1", "AAA1"));
+        consensus.addPass(createPass("A1", "BBB1"));
+
+        assertEquals("AAA1", consensus.getResult().getInventoryId("A1"));
+    }
+
+    @Test
+    public void sameMessageInTwoWellsIsAConflict() {
+        DecodeConsensus consensus = new DecodeConsensus(1);
+        consensus.addPass(createPass("A1", "AAA1", "B1", "BBB1"));
+        consensus.addPass(createPass("A2", "AAA1"));
+
+        DecodeResult result = consensus.getResult();
+        assertTrue(result.isConflict("A1"));
+        assertTrue(result.isConflict("A2"));
+        assertEquals("BBB1", result.getInventoryId("B1"));
+        assertEquals(1, result.getDecodedWellCount());
+    }
+
+    @Test
+    public void failedPassesAndEmptyMessagesDoNotVote() {
+        DecodeConsensus consensus = new DecodeConsensus(1);
+        DecodeResult failed = new DecodeResult(ScanLib.ResultCode.SC_FAIL,
+                                               ScanLib.ResultCode.SC_FAIL,
+                                               "");
+        failed.addWell("A1", "BBB1");
+        consensus.addPass(failed);
+        consensus.addPass(createPass("A1", ""));
+
+        assertEquals(1, consensus.getPassCount());
+        assertEquals(0, consensus.getVotes("A1", "BBB1"));
+        assertEquals(ScanLibResult.Result.INVALID_NOTHING_DECODED,
+                     consensus.getResult().getResultCode());
+    }
+
+}
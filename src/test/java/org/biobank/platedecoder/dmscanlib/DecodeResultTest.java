@@ -2,6 +2,7 @@ package org.biobank.platedecoder.dmscanlib;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -120,4 +121,63 @@ public class DecodeResultTest {
                                                       dr2.getDecodedWells()));
     }
 
+    @Test
+    public void wellsAreInSbsOrder() {
+        DecodeResult dr = createDecodeResult(
+            Arrays.asList(
+                new DecodedWell("B1", "AAA3"),
+                new DecodedWell("A10", "AAA2"),
+                new DecodedWell("A2", "AAA1")
+                ));
+
+        List<String> labels = new ArrayList<>();
+        for (DecodedWell well : dr.getDecodedWells()) {
+            labels.add(well.getLabel());
+        }
+        assertEquals(Arrays.asList("A2", "A10", "B1"), labels);
+        assertEquals("AAA2", dr.getInventoryId("A10"));
+        assertNull(dr.getInventoryId("A1"));
+    }
+
+    @Test
+    public void mergeKeepsExistingWells() {
+        DecodeResult dr1 = createDecodeResult(decodedWells);
+        DecodeResult dr2 = createDecodeResult(
+            Arrays.asList(
+                new DecodedWell("A2", "AAA3"),
+                new DecodedWell("A3", "AAA4")
+                ));
+
+        dr1.addWells(dr2);
+        assertEquals(3, dr1.getDecodedWellCount());
+        assertEquals("AAA2", dr1.getInventoryId("A2"));
+        assertEquals("AAA4", dr1.getInventoryId("A3"));
+    }
+
+    @Test
+    public void resultsAreComparedByPosition() {
+        DecodeResult dr1 = createDecodeResult(decodedWells);
+        DecodeResult dr2 = createDecodeResult(
+            Arrays.asList(
+                new DecodedWell("A2", "AAA2"),
+                new DecodedWell("A3", "AAA3")
+                ));
+        assertTrue(DecodeResult.compareDecodeResults(dr1, dr2));
+
+        dr2.addWell("A4", "AAA1");
+        assertFalse(DecodeResult.compareDecodeResults(dr1, dr2));
+    }
+
+    @Test
+    public void decodedWellsMatchOnLabelAndMessage() {
+        DecodeResult dr = createDecodeResult(decodedWells);
+
+        assertTrue(dr.getDecodedWells().contains(new DecodedWell("A1", "AAA1")));
+        assertFalse(dr.getDecodedWells().contains(new DecodedWell("A1", "AAA2")));
+        assertFalse(dr.getDecodedWells().contains(new DecodedWell("A3", "AAA1")));
+        assertEquals(dr.getDecodedWells(), createDecodeResult(decodedWells).getDecodedWells());
+        assertFalse(dr.getDecodedWells().containsAll(
+            Arrays.asList(new DecodedWell("A1", "AAA1"), new DecodedWell("A2", "AAA1"))));
+    }
+
 }
@@ -0,0 +1,168 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.biobank.platedecoder.corpus.PlateImageGenerator;
+import org.biobank.platedecoder.corpus.PlateManifest;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateDecoderDefaults;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DecoderWorkerPoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private DecoderWorkerPool pool;
+
+    private PlateManifest manifest;
+
+    private BufferedImage image;
+
+    private File imageFile;
+
+    private CellRectangle [] cells;
+
+    @Before
+    public void setUp() throws Exception {
+        pool = new DecoderWorkerPool(DecoderBackendType.JAVA, 2);
+
+        PlateImageGenerator generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                                                PlateOrientation.LANDSCAPE,
+                                                                BarcodePosition.BOTTOM,
+                                                                300,
+                                                                17);
+        generator.setFillRatio(0.25);
+        manifest = generator.write(folder.getRoot(), "plate");
+        imageFile = new File(folder.getRoot(), manifest.getImage());
+        image = ImageIO.read(imageFile);
+
+        double [] bounds = manifest.getWellBounds();
+        cells = CellRectangle.fromCellGrid(CellGrid.forBoundingBox(bounds[0],
+                                                                   bounds[1],
+                                                                   bounds[2],
+                                                                   bounds[3],
+                                                                   manifest.getOrientation(),
+                                                                   manifest.getPlateType(),
+                                                                   manifest.getBarcodePosition()));
+    }
+
+    @After
+    public void tearDown() {
+        pool.shutdown();
+    }
+
+    private void assertAllTubesDecoded(DecodeResult result) {
+        assertEquals(ScanLibResult.Result.SUCCESS, result.getResultCode());
+        assertEquals(manifest.getInventoryIds().size(), result.getDecodedWellCount());
+        manifest.getInventoryIds().forEach((label, id) -> {
+                assertEquals(id, result.getInventoryId(label));
+            });
+    }
+
+    @Test
+    public void decodesImageFile() {
+        assertAllTubesDecoded(pool.decodeImage(0,
+                                               imageFile.getPath(),
+                                               DecodeOptions.getDefaultDecodeOptions(),
+                                               cells));
+    }
+
+    @Test
+    public void decodesImageBufferThroughSharedFile() {
+        byte [] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        ByteBuffer pixels = ByteBuffer.allocateDirect(data.length);
+        pixels.put(data).rewind();
+        ImageBuffer buffer = new ImageBuffer(pixels,
+                                             image.getWidth(),
+                                             image.getHeight(),
+                                             image.getWidth(),
+                                             ImageBuffer.Format.GRAY);
+
+        // twice, so that the mapped file is reused
+        for (int i = 0; i < 2; ++i) {
+            assertAllTubesDecoded(pool.decodeImageBuffer(0,
+                                                         buffer,
+                                                         DecodeOptions.getDefaultDecodeOptions(),
+                                                         cells));
+        }
+    }
+
+    @Test
+    public void concurrentCallsShareWorkers() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<DecodeResult>> results = new ArrayList<>();
+            for (int i = 0; i < 6; ++i) {
+                results.add(executor.submit(() -> {
+                    return pool.decodeImage(0,
+                                            imageFile.getPath(),
+                                            DecodeOptions.getDefaultDecodeOptions(),
+                                            cells);
+                }));
+            }
+            for (Future<DecodeResult> result : results) {
+                assertAllTubesDecoded(result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void workerThatDoesNotStartFails() {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator
+            + "java";
+        DecoderWorkerPool broken =
+            new DecoderWorkerPool(Arrays.asList(java, "-cp", folder.getRoot().getPath(),
+                                                "no.such.Worker"), 1);
+        DecodeResult result = broken.decodeImage(0,
+                                                 imageFile.getPath(),
+                                                 DecodeOptions.getDefaultDecodeOptions(),
+                                                 cells);
+        assertEquals(ScanLibResult.Result.FAIL, result.getResultCode());
+        broken.shutdown();
+    }
+
+    @Test
+    public void workerThatDoesNotAnswerInTimeIsReplaced() {
+        // too short for any decode, the worker is killed
+        pool.setRequestTimeout(1);
+        DecodeResult result = pool.decodeImage(0,
+                                               imageFile.getPath(),
+                                               DecodeOptions.getDefaultDecodeOptions(),
+                                               cells);
+        assertEquals(ScanLibResult.Result.FAIL, result.getResultCode());
+
+        pool.setRequestTimeout(PlateDecoderDefaults.DEFAULT_DECODER_WORKER_TIMEOUT_MILLIS);
+        assertAllTubesDecoded(pool.decodeImage(0,
+                                               imageFile.getPath(),
+                                               DecodeOptions.getDefaultDecodeOptions(),
+                                               cells));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void workersCannotUseWorkers() {
+        new DecoderWorkerPool(DecoderBackendType.WORKERS, 1);
+    }
+
+}
@@ -0,0 +1,103 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ImageBufferTest {
+
+    private static final int WIDTH = 5;
+
+    private static final int HEIGHT = 3;
+
+    private static int grayValue(int x, int y) {
+        return (x * 50 + y * 20) & 0xff;
+    }
+
+    private static ImageBuffer createGrayBuffer(int stride) {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(stride * HEIGHT);
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                pixels.put(y * stride + x, (byte) grayValue(x, y));
+            }
+        }
+        return new ImageBuffer(pixels, WIDTH, HEIGHT, stride, ImageBuffer.Format.GRAY);
+    }
+
+    private static ImageBuffer createBgraBuffer(int stride) {
+        ByteBuffer pixels = ByteBuffer.allocateDirect(stride * HEIGHT);
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                int offset = y * stride + x * 4;
+                byte value = (byte) grayValue(x, y);
+                pixels.put(offset, value);
+                pixels.put(offset + 1, value);
+                pixels.put(offset + 2, value);
+                pixels.put(offset + 3, (byte) 0xff);
+            }
+        }
+        return new ImageBuffer(pixels, WIDTH, HEIGHT, stride, ImageBuffer.Format.BGRA);
+    }
+
+    @Test
+    public void grayWithPaddedRows() {
+        LuminanceImage image = LuminanceImage.fromImageBuffer(createGrayBuffer(WIDTH + 3));
+
+        assertEquals(WIDTH, image.getWidth());
+        assertEquals(HEIGHT, image.getHeight());
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                assertEquals(grayValue(x, y), image.get(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void bgraIsConvertedToGray() {
+        LuminanceImage image = LuminanceImage.fromImageBuffer(createBgraBuffer(WIDTH * 4 + 8));
+
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                assertEquals(grayValue(x, y), image.get(x, y), 1);
+            }
+        }
+    }
+
+    @Test
+    public void toBufferedImage() {
+        for (ImageBuffer buffer : new ImageBuffer [] {
+                createGrayBuffer(WIDTH + 1), createBgraBuffer(WIDTH * 4)
+            }) {
+            BufferedImage image = buffer.toBufferedImage();
+            LuminanceImage luminance = LuminanceImage.fromBufferedImage(image);
+
+            for (int y = 0; y < HEIGHT; ++y) {
+                for (int x = 0; x < WIDTH; ++x) {
+                    assertEquals(grayValue(x, y), luminance.get(x, y), 1);
+                }
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void heapBufferIsRejected() {
+        new ImageBuffer(ByteBuffer.allocate(WIDTH * HEIGHT),
+                        WIDTH,
+                        HEIGHT,
+                        WIDTH,
+                        ImageBuffer.Format.GRAY);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void strideTooSmallIsRejected() {
+        new ImageBuffer(ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4),
+                        WIDTH,
+                        HEIGHT,
+                        WIDTH,
+                        ImageBuffer.Format.BGRA);
+    }
+
+}
@@ -0,0 +1,177 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import javax.imageio.ImageIO;
+
+import org.biobank.platedecoder.corpus.PlateImageGenerator;
+import org.biobank.platedecoder.corpus.PlateManifest;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImagePreprocessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Map<String, String> messages(DecodeResult result) {
+        Map<String, String> decoded = new HashMap<>();
+        result.getDecodedWells().forEach(well -> decoded.put(well.getLabel(), well.getMessage()));
+        return decoded;
+    }
+
+    private static CellGrid cells(PlateManifest manifest) {
+        double [] bounds = manifest.getWellBounds();
+        return CellGrid.forBoundingBox(bounds[0],
+                                       bounds[1],
+                                       bounds[2],
+                                       bounds[3],
+                                       manifest.getOrientation(),
+                                       manifest.getPlateType(),
+                                       manifest.getBarcodePosition());
+    }
+
+    private static ImageBuffer toBgra(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        ByteBuffer pixels = ByteBuffer.allocateDirect(width * height * 4);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                int rgb = image.getRGB(x, y);
+                pixels.put((byte) rgb).put((byte) (rgb >> 8)).put((byte) (rgb >> 16));
+                pixels.put((byte) 0xff);
+            }
+        }
+        pixels.rewind();
+        return new ImageBuffer(pixels, width, height, width * 4, ImageBuffer.Format.BGRA);
+    }
+
+    @Test
+    public void cropsConvertsAndDownsamples() {
+        // 4x2 BGRA image: a white and a black 2x2 block, the cell covers the right half
+        ByteBuffer pixels = ByteBuffer.allocateDirect(4 * 2 * 4);
+        for (int y = 0; y < 2; ++y) {
+            for (int x = 0; x < 4; ++x) {
+                byte value = (x < 2) ? (byte) 255 : (byte) 0;
+                pixels.put(value).put(value).put(value).put((byte) 255);
+            }
+        }
+        pixels.rewind();
+        ImageBuffer image = new ImageBuffer(pixels, 4, 2, 16, ImageBuffer.Format.BGRA);
+
+        CellRectangle [] wells = { new CellRectangle("A1", 1, 0, 2, 2) };
+        ImagePreprocessor.PreprocessedImage reduced =
+            new ImagePreprocessor(0, 1, ForkJoinPool.commonPool())
+            .preprocess(image, wells);
+
+        assertEquals(1, reduced.getOffsetX());
+        assertEquals(0, reduced.getOffsetY());
+        assertEquals(2, reduced.getScale());
+        assertEquals(ImageBuffer.Format.GRAY, reduced.getImage().getFormat());
+        assertEquals(1, reduced.getImage().getWidth());
+        assertEquals(1, reduced.getImage().getHeight());
+        // average of two white and two black pixels
+        assertEquals(128, reduced.getImage().getPixels().get(0) & 0xff);
+
+        CellRectangle rebased = reduced.rebase(wells)[0];
+        assertEquals("A1", rebased.getLabel());
+        assertEquals(0, rebased.getX(), 0);
+        assertEquals(1, rebased.getWidth(), 0);
+    }
+
+    @Test
+    public void reducedImageIsNotCopied() {
+        ImageBuffer image = new LuminanceImage(10, 10, new byte[100]).toImageBuffer();
+        CellRectangle [] wells = { new CellRectangle("A1", 0, 0, 10, 10) };
+        ImagePreprocessor preprocessor = new ImagePreprocessor();
+        assertSame(image, preprocessor.preprocess(image, wells).getImage());
+
+        CellRectangle [] outside = { new CellRectangle("A1", 20, 20, 10, 10) };
+        assertNull(preprocessor.preprocess(image, outside));
+    }
+
+    @Test
+    public void fileIsDecodedWhenBackendCannotDecodeBuffers() {
+        String [] decoded = new String[1];
+        DecoderBackend fileBackend = new DecoderBackend() {
+            @Override
+            public DecodeResult decodeImage(long            verbose,
+                                            String          filename,
+                                            DecodeOptions   decodeOptions,
+                                            CellRectangle[] wells) {
+                decoded[0] = filename;
+                return new DecodeResult(0, 0, "");
+            }
+
+            @Override
+            public DecodeResult decodeImageBuffer(long            verbose,
+                                                  ImageBuffer     image,
+                                                  DecodeOptions   decodeOptions,
+                                                  CellRectangle[] wells) {
+                throw new AssertionError("the image must not be loaded");
+            }
+
+            @Override
+            public boolean isImageBufferSupported() {
+                return false;
+            }
+
+            @Override
+            public boolean isThreadSafe() {
+                return true;
+            }
+        };
+        DecoderBackend backend =
+            new PreprocessingDecoderBackend(fileBackend, new ImagePreprocessor());
+        CellRectangle [] wells = { new CellRectangle("A1", 0, 0, 10, 10) };
+        backend.decodeImage(0, "plate.bmp", DecodeOptions.getDefaultDecodeOptions(), wells);
+        assertEquals("plate.bmp", decoded[0]);
+        assertFalse(backend.isImageBufferSupported());
+    }
+
+    @Test
+    public void highResolutionScanDecodesFromSmallerImage() throws Exception {
+        PlateImageGenerator generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                                                PlateOrientation.LANDSCAPE,
+                                                                BarcodePosition.BOTTOM,
+                                                                600,
+                                                                11);
+        generator.setFillRatio(0.3);
+        PlateManifest manifest = generator.write(folder.getRoot(), "plate");
+        File file = new File(folder.getRoot(), manifest.getImage());
+        CellGrid cells = cells(manifest);
+
+        ImageBuffer image = toBgra(ImageIO.read(file));
+        ImagePreprocessor.PreprocessedImage reduced =
+            new ImagePreprocessor().preprocess(image, cells);
+        assertEquals(2, reduced.getScale());
+        long before = (long) image.getStride() * image.getHeight();
+        long after = (long) reduced.getImage().getStride() * reduced.getImage().getHeight();
+        assertTrue(before + " -> " + after, after * 16 < before);
+
+        DecoderBackend backend =
+            new PreprocessingDecoderBackend(JavaDecoderBackend.getInstance(),
+                                            new ImagePreprocessor());
+        DecodeOptions options = DecodeOptions.getDefaultDecodeOptions();
+        assertEquals(manifest.getInventoryIds(),
+                     messages(backend.decodeImageBuffer(0, image, options, cells)));
+        assertEquals(manifest.getInventoryIds(),
+                     messages(backend.decodeImage(0, file.getPath(), options, cells)));
+        assertEquals(manifest.getInventoryIds(),
+                     messages(backend.decodeImage(0,
+                                                  file.getPath(),
+                                                  options,
+                                                  CellRectangle.fromCellGrid(cells))));
+    }
+
+}
@@ -0,0 +1,165 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.junit.Assert.*;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+import org.biobank.platedecoder.corpus.PlateImageGenerator;
+import org.biobank.platedecoder.corpus.PlateManifest;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import javafx.geometry.Bounds;
+
+public class MappedImageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static BufferedImage randomImage(int type, int width, int height) {
+        Random random = new Random(3);
+        BufferedImage image = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; ++y) {
+            for (int x = 0; x < width; ++x) {
+                image.setRGB(x, y, random.nextInt(0x1000000));
+            }
+        }
+        return image;
+    }
+
+    private File writeBitmap(BufferedImage image) throws IOException {
+        File file = folder.newFile();
+        assertTrue(ImageIO.write(image, "bmp", file));
+        return file;
+    }
+
+    private static void assertSameLuminance(LuminanceImage expected, MappedImage actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        int [] row = new int[actual.getWidth()];
+        for (int y = 0; y < actual.getHeight(); ++y) {
+            actual.getRow(0, y, row.length, row);
+            for (int x = 0; x < row.length; ++x) {
+                assertEquals(x + "," + y, expected.get(x, y), row[x]);
+                assertEquals(expected.get(x, y), actual.get(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void readsColourBitmap() throws Exception {
+        // an odd width, so that the rows are padded
+        BufferedImage image = randomImage(BufferedImage.TYPE_3BYTE_BGR, 13, 7);
+        File file = writeBitmap(image);
+        assertTrue(MappedImage.isBitmap(file));
+        try (MappedImage mapped = MappedImage.open(file)) {
+            assertSameLuminance(LuminanceImage.fromBufferedImage(image), mapped);
+        }
+    }
+
+    @Test
+    public void readsGrayBitmap() throws Exception {
+        BufferedImage image = randomImage(BufferedImage.TYPE_BYTE_GRAY, 10, 6);
+        try (MappedImage mapped = MappedImage.open(writeBitmap(image))) {
+            assertSameLuminance(LuminanceImage.fromBufferedImage(image), mapped);
+        }
+    }
+
+    @Test
+    public void readsRawRasterTiles() throws Exception {
+        byte [] pixels = new byte[4 * 3 * 4];
+        for (int i = 0; i < 12; ++i) {
+            // blue, green, red, alpha
+            pixels[i * 4] = (byte) (i * 20);
+            pixels[i * 4 + 1] = (byte) (i * 20);
+            pixels[i * 4 + 2] = (byte) (i * 20);
+        }
+        File file = folder.newFile("plate.raw");
+        Files.write(file.toPath(), pixels);
+        assertFalse(MappedImage.isBitmap(file));
+
+        try (MappedImage mapped = MappedImage.openRaw(file, 4, 3, ImageBuffer.Format.BGRA)) {
+            ImageBuffer tile = mapped.getTile(1, 1, 2, 2);
+            assertEquals(ImageBuffer.Format.GRAY, tile.getFormat());
+            assertEquals(100, tile.getPixels().get(0) & 0xff);
+            assertEquals(120, tile.getPixels().get(1) & 0xff);
+            assertEquals(180, tile.getPixels().get(2) & 0xff);
+        }
+
+        try {
+            MappedImage.openRaw(file, 4, 4, ImageBuffer.Format.BGRA);
+            fail("file is too small");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsOtherFormats() throws Exception {
+        File file = folder.newFile("plate.png");
+        ImageIO.write(randomImage(BufferedImage.TYPE_INT_RGB, 4, 4), "png", file);
+        MappedImage.open(file);
+    }
+
+    @Test
+    public void bitmapScanIsLocatedAndDecoded() throws Exception {
+        PlateImageGenerator generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                                                PlateOrientation.LANDSCAPE,
+                                                                BarcodePosition.BOTTOM,
+                                                                600,
+                                                                17);
+        generator.setFillRatio(0.3);
+        PlateManifest manifest = generator.createManifest("plate.bmp");
+        BufferedImage rendered = generator.render(manifest);
+        BufferedImage bgr = new BufferedImage(rendered.getWidth(),
+                                              rendered.getHeight(),
+                                              BufferedImage.TYPE_3BYTE_BGR);
+        bgr.getGraphics().drawImage(rendered, 0, 0, null);
+        File file = writeBitmap(bgr);
+
+        try (MappedImage mapped = MappedImage.open(file)) {
+            Optional<Bounds> expected =
+                WellGridLocator.locate(LuminanceImage.fromBufferedImage(bgr),
+                                       PlateType.PT_96_WELLS,
+                                       PlateOrientation.LANDSCAPE);
+            Optional<Bounds> located = WellGridLocator.locate(mapped,
+                                                              PlateType.PT_96_WELLS,
+                                                              PlateOrientation.LANDSCAPE);
+            assertTrue(located.isPresent());
+            assertEquals(expected.get().getMinX(), located.get().getMinX(), 0);
+            assertEquals(expected.get().getWidth(), located.get().getWidth(), 0);
+        }
+
+        double [] bounds = manifest.getWellBounds();
+        CellGrid cells = CellGrid.forBoundingBox(bounds[0],
+                                                 bounds[1],
+                                                 bounds[2],
+                                                 bounds[3],
+                                                 PlateOrientation.LANDSCAPE,
+                                                 PlateType.PT_96_WELLS,
+                                                 BarcodePosition.BOTTOM);
+        DecoderBackend backend =
+            new PreprocessingDecoderBackend(JavaDecoderBackend.getInstance(),
+                                            new ImagePreprocessor());
+        DecodeResult result = backend.decodeImage(0,
+                                                  file.getPath(),
+                                                  DecodeOptions.getDefaultDecodeOptions(),
+                                                  cells);
+        Map<String, String> decoded = new HashMap<>();
+        result.getDecodedWells().forEach(well -> decoded.put(well.getLabel(), well.getMessage()));
+        assertEquals(manifest.getInventoryIds(), decoded);
+    }
+
+}
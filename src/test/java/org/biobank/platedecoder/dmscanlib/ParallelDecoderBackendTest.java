@@ -0,0 +1,177 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_IMAGE;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_NOTHING_DECODED;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.biobank.platedecoder.model.SbsLabeling;
+import org.junit.Test;
+
+import javafx.scene.shape.Rectangle;
+
+public class ParallelDecoderBackendTest {
+
+    private static final DecodeOptions OPTIONS = new DecodeOptions(0.1, 0.9, 0.05, 10, 5, 10, 1);
+
+    private static final int UNDECODABLE_ROW = 8;
+
+    private static final char UNDECODABLE_ROW_LABEL =
+        SbsLabeling.SBS_ROW_LABELLING_PATTERN.charAt(UNDECODABLE_ROW);
+
+    /**
+     * Decodes every well in rows A to H, and records the number of calls made concurrently.
+     */
+    private static class FakeBackend implements DecoderBackend {
+
+        private final boolean threadSafe;
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final AtomicInteger maxActive = new AtomicInteger();
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        FakeBackend(boolean threadSafe) {
+            this.threadSafe = threadSafe;
+        }
+
+        @Override
+        public DecodeResult decodeImage(long            verbose,
+                                        String          filename,
+                                        DecodeOptions   decodeOptions,
+                                        CellRectangle[] wells) {
+            calls.incrementAndGet();
+            maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                active.decrementAndGet();
+            }
+
+            DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+            for (CellRectangle well : wells) {
+                if (well.getLabel().charAt(0) < UNDECODABLE_ROW_LABEL) {
+                    result.addWell(well.getLabel(), "ID-" + well.getLabel());
+                }
+            }
+            if (result.getDecodedWells().isEmpty()) {
+                return new DecodeResult(SC_INVALID_NOTHING_DECODED, SC_INVALID_NOTHING_DECODED, "");
+            }
+            return result;
+        }
+
+        @Override
+        public DecodeResult decodeImageBuffer(long            verbose,
+                                              ImageBuffer     image,
+                                              DecodeOptions   decodeOptions,
+                                              CellRectangle[] wells) {
+            return decodeImage(verbose, "", decodeOptions, wells);
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return threadSafe;
+        }
+    }
+
+    private static CellRectangle [] createWells(int count, int firstRow) {
+        CellRectangle [] wells = new CellRectangle[count];
+        for (int i = 0; i < count; ++i) {
+            String label = SbsLabeling.fromRowCol(firstRow + i / 12, i % 12);
+            wells[i] = new CellRectangle(label, new Rectangle(i * 10, 0, 10, 10));
+        }
+        return wells;
+    }
+
+    @Test
+    public void allWellsAreMerged() {
+        FakeBackend backend = new FakeBackend(true);
+        ParallelDecoderBackend parallel = new ParallelDecoderBackend(backend, new ForkJoinPool(4));
+        CellRectangle [] wells = createWells(96, 0);
+
+        DecodeResult result = parallel.decodeImage(0, "plate.png", OPTIONS, wells);
+
+        assertEquals(ScanLibResult.Result.SUCCESS, result.getResultCode());
+        assertEquals(wells.length, result.getDecodedWells().size());
+        assertTrue(backend.calls.get() > 1);
+
+        Set<String> labels = new HashSet<>();
+        for (DecodedWell well : result.getDecodedWells()) {
+            labels.add(well.getLabel());
+            assertEquals("ID-" + well.getLabel(), well.getMessage());
+        }
+        for (CellRectangle well : wells) {
+            assertTrue(labels.contains(well.getLabel()));
+        }
+    }
+
+    @Test
+    public void chunksWithNothingDecodedAreIgnored() {
+        CellRectangle [] decodable = createWells(8, 0);
+        CellRectangle [] wells = createWells(96, UNDECODABLE_ROW);
+        System.arraycopy(decodable, 0, wells, 0, decodable.length);
+
+        ParallelDecoderBackend parallel =
+            new ParallelDecoderBackend(new FakeBackend(true), new ForkJoinPool(4));
+        DecodeResult result = parallel.decodeImage(0, "plate.png", OPTIONS, wells);
+
+        assertEquals(ScanLibResult.Result.SUCCESS, result.getResultCode());
+        assertEquals(decodable.length, result.getDecodedWells().size());
+    }
+
+    @Test
+    public void nothingDecoded() {
+        ParallelDecoderBackend parallel =
+            new ParallelDecoderBackend(new FakeBackend(true), new ForkJoinPool(4));
+        DecodeResult result =
+            parallel.decodeImage(0, "plate.png", OPTIONS, createWells(96, UNDECODABLE_ROW));
+
+        assertEquals(ScanLibResult.Result.INVALID_NOTHING_DECODED, result.getResultCode());
+        assertTrue(result.getDecodedWells().isEmpty());
+    }
+
+    @Test
+    public void failuresArePropagated() {
+        DecodeResult ok = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+        ok.addWell("A1", "ID-A1");
+        DecodeResult failed = new DecodeResult(SC_INVALID_IMAGE, SC_INVALID_IMAGE, "");
+
+        assertEquals(ScanLibResult.Result.INVALID_IMAGE,
+                     ParallelDecoderBackend.merge(ok, failed).getResultCode());
+        assertEquals(ScanLibResult.Result.INVALID_IMAGE,
+                     ParallelDecoderBackend.merge(failed, ok).getResultCode());
+    }
+
+    @Test
+    public void backendThatIsNotThreadSafeIsSerialised() throws Exception {
+        FakeBackend backend = new FakeBackend(false);
+        ParallelDecoderBackend parallel = new ParallelDecoderBackend(backend, new ForkJoinPool(4));
+        CellRectangle [] wells = createWells(96, 0);
+
+        Thread [] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                DecodeResult result = parallel.decodeImage(0, "plate.png", OPTIONS, wells);
+                assertEquals(wells.length, result.getDecodedWells().size());
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threads.length, backend.calls.get());
+        assertEquals(1, backend.maxActive.get());
+        assertFalse(parallel.isThreadSafe());
+        assertTrue(new ParallelDecoderBackend(new FakeBackend(true)).isThreadSafe());
+    }
+
+}
@@ -0,0 +1,277 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_IMAGE;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_INVALID_NOTHING_DECODED;
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.biobank.platedecoder.model.SbsLabeling;
+import org.junit.After;
+import org.junit.Test;
+
+import javafx.scene.shape.Rectangle;
+
+public class RetryLadderDecoderBackendTest {
+
+    private static final DecodeOptions OPTIONS = new DecodeOptions(0.1, 0.9, 0.05, 10, 5, 10, 1);
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    /**
+     * Decodes a well when the well's Y coordinate is the number of corrections in the options, so
+     * that each set of options decodes different wells. Options with a square deviation of 99
+     * never finish within their time budget, and options with a square deviation of 98 take 100
+     * ms whether they are interrupted or not.
+     */
+    private static class FakeBackend implements DecoderBackend {
+
+        private final boolean threadSafe;
+
+        private final AtomicInteger calls = new AtomicInteger();
+
+        private volatile boolean invalidImage;
+
+        FakeBackend(boolean threadSafe) {
+            this.threadSafe = threadSafe;
+        }
+
+        @Override
+        public DecodeResult decodeImage(long            verbose,
+                                        String          filename,
+                                        DecodeOptions   decodeOptions,
+                                        CellRectangle[] wells) {
+            calls.incrementAndGet();
+            if (invalidImage) {
+                return new DecodeResult(SC_INVALID_IMAGE, SC_INVALID_IMAGE, "");
+            }
+            if (decodeOptions.getSquareDev() == 99) {
+                try {
+                    Thread.sleep(10000);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (decodeOptions.getSquareDev() == 98) {
+                long end = System.currentTimeMillis() + 100;
+                while (System.currentTimeMillis() < end) {
+                    Thread.yield();
+                }
+            }
+
+            DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+            for (CellRectangle well : wells) {
+                if ((long) well.getY() == decodeOptions.getCorrections()) {
+                    result.addWell(well.getLabel(), "ID-" + decodeOptions.getCorrections());
+                }
+            }
+            if (result.getDecodedWells().isEmpty()) {
+                return new DecodeResult(SC_INVALID_NOTHING_DECODED, SC_INVALID_NOTHING_DECODED, "");
+            }
+            return result;
+        }
+
+        @Override
+        public DecodeResult decodeImageBuffer(long            verbose,
+                                              ImageBuffer     image,
+                                              DecodeOptions   decodeOptions,
+                                              CellRectangle[] wells) {
+            return decodeImage(verbose, "", decodeOptions, wells);
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return threadSafe;
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    private static DecodeOptionsLadder.Rung rung(long corrections, long squareDev, long budget) {
+        return new DecodeOptionsLadder.Rung(
+            new DecodeOptions(0.1, 0.9, 0.05, squareDev, 5, corrections, 1), budget);
+    }
+
+    /**
+     * Creates a row of wells, starting at A1. Each well is decoded by the options with the matching
+     * number of corrections.
+     */
+    private static CellRectangle [] createWells(long... corrections) {
+        CellRectangle [] wells = new CellRectangle[corrections.length];
+        for (int i = 0; i < corrections.length; ++i) {
+            wells[i] = new CellRectangle(SbsLabeling.fromRowCol(0, i),
+                                         new Rectangle(i * 10, corrections[i], 10, 10));
+        }
+        return wells;
+    }
+
+    private static String messageFor(DecodeResult result, String label) {
+        for (DecodedWell well : result.getDecodedWells()) {
+            if (well.getLabel().equals(label)) {
+                return well.getMessage();
+            }
+        }
+        return null;
+    }
+
+    @Test
+    public void failedWellsAreDecodedByTheLadder() {
+        DecodeOptionsLadder ladder = new DecodeOptionsLadder(
+            Arrays.asList(rung(20, 10, 5000), rung(30, 10, 5000)));
+        AtomicInteger updates = new AtomicInteger();
+        RetryLadderDecoderBackend retry = new RetryLadderDecoderBackend(
+            new FakeBackend(true), ladder, executor, updates::incrementAndGet);
+
+        DecodeResult result = retry.decodeImage(
+            0, "plate.png", OPTIONS, createWells(10, 20, 30, 30, 40));
+
+        assertEquals(ScanLibResult.Result.SUCCESS, result.getResultCode());
+        assertEquals(4, result.getDecodedWells().size());
+        assertEquals("ID-10", messageFor(result, "A1"));
+        assertEquals("ID-20", messageFor(result, "A2"));
+        assertEquals("ID-30", messageFor(result, "A3"));
+        assertNull(messageFor(result, "A5"));
+
+        assertEquals(1, ladder.getSuccesses(0));
+        assertEquals(2, ladder.getSuccesses(1));
+        assertArrayEquals(new int [] { 1, 0 }, ladder.getOrder());
+        assertEquals(1, updates.get());
+    }
+
+    @Test
+    public void nothingDecodedIsRetried() {
+        DecodeOptionsLadder ladder = new DecodeOptionsLadder(Arrays.asList(rung(20, 10, 5000)));
+        RetryLadderDecoderBackend retry =
+            new RetryLadderDecoderBackend(new FakeBackend(true), ladder, executor, null);
+
+        DecodeResult result = retry.decodeImage(0, "plate.png", OPTIONS, createWells(20));
+
+        assertEquals(ScanLibResult.Result.SUCCESS, result.getResultCode());
+        assertEquals("ID-20", messageFor(result, "A1"));
+    }
+
+    @Test
+    public void ladderIsNotUsedWhenAllWellsDecode() {
+        FakeBackend backend = new FakeBackend(true);
+        DecodeOptionsLadder ladder = new DecodeOptionsLadder(Arrays.asList(rung(20, 10, 5000)));
+        RetryLadderDecoderBackend retry =
+            new RetryLadderDecoderBackend(backend, ladder, executor, null);
+
+        retry.decodeImage(0, "plate.png", OPTIONS, createWells(10, 10));
+
+        assertEquals(1, backend.calls.get());
+    }
+
+    @Test
+    public void errorsAreNotRetried() {
+        FakeBackend backend = new FakeBackend(true);
+        backend.invalidImage = true;
+        DecodeOptionsLadder ladder = new DecodeOptionsLadder(Arrays.asList(rung(20, 10, 5000)));
+        RetryLadderDecoderBackend retry =
+            new RetryLadderDecoderBackend(backend, ladder, executor, null);
+
+        DecodeResult result = retry.decodeImage(0, "plate.png", OPTIONS, createWells(20));
+
+        assertEquals(ScanLibResult.Result.INVALID_IMAGE, result.getResultCode());
+        assertEquals(1, backend.calls.get());
+    }
+
+    @Test
+    public void wellsBelowQuorumAreNotRetried() {
+        // A1 is decoded by the first pass and the first rung, A2 only by the second rung
+        DecodeOptionsLadder ladder =
+            new DecodeOptionsLadder(Arrays.asList(rung(10, 10, 1000), rung(1, 10, 1000)));
+        FakeBackend backend = new FakeBackend(true);
+        ConsensusDecoderBackend consensus =
+            new ConsensusDecoderBackend(backend, ladder, 2, executor);
+        RetryLadderDecoderBackend retry =
+            new RetryLadderDecoderBackend(consensus, ladder, executor, null);
+
+        DecodeResult result = retry.decodeImage(0, "", OPTIONS, createWells(10, 1));
+
+        assertEquals("ID-10", messageFor(result, "A1"));
+        assertNull(messageFor(result, "A2"));
+        assertEquals(3, backend.calls.get());
+        assertEquals(0, ladder.getSuccesses(1));
+    }
+
+    @Test
+    public void slowRungsAreIgnored() {
+        DecodeOptionsLadder ladder = new DecodeOptionsLadder(
+            Arrays.asList(rung(20, 99, 50), rung(30, 10, 5000)));
+        RetryLadderDecoderBackend retry =
+            new RetryLadderDecoderBackend(new FakeBackend(true), ladder, executor, null);
+
+        long start = System.currentTimeMillis();
+        DecodeResult result = retry.decodeImage(
+            0, "plate.png", OPTIONS, createWells(20, 30));
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertNull(messageFor(result, "A1"));
+        assertEquals("ID-30", messageFor(result, "A2"));
+        assertEquals(0, ladder.getSuccesses(0));
+    }
+
+    @Test
+    public void rungStopsOnceItsBudgetIsUsedUp() {
+        FakeBackend backend = new FakeBackend(false);
+        DecodeOptionsLadder ladder = new DecodeOptionsLadder(Arrays.asList(rung(20, 98, 10)));
+        RetryLadderDecoderBackend retry =
+            new RetryLadderDecoderBackend(backend, ladder, executor, null);
+
+        long [] corrections = new long[RetryLadderDecoderBackend.BATCH_SIZE + 1];
+        Arrays.fill(corrections, 30);
+        CellRectangle [] wells = new CellRectangle[corrections.length];
+        for (int i = 0; i < wells.length; ++i) {
+            String label = SbsLabeling.fromPosition(i % SbsLabeling.SBS_MAX_POSITIONS);
+            wells[i] = new CellRectangle(label, new Rectangle(i * 10, 30, 10, 10));
+        }
+        retry.decodeImage(0, "plate.png", OPTIONS, wells);
+
+        // the first decode and a single batch, the second batch is not started
+        assertEquals(2, backend.calls.get());
+    }
+
+    @Test
+    public void backendThatIsNotThreadSafeOnlyGetsRemainingWells() {
+        FakeBackend backend = new FakeBackend(false);
+        DecodeOptionsLadder ladder = new DecodeOptionsLadder(
+            Arrays.asList(rung(20, 10, 5000), rung(30, 10, 5000), rung(40, 10, 5000)));
+        RetryLadderDecoderBackend retry =
+            new RetryLadderDecoderBackend(backend, ladder, executor, null);
+
+        DecodeResult result = retry.decodeImage(
+            0, "plate.png", OPTIONS, createWells(10, 20));
+
+        assertEquals(2, result.getDecodedWells().size());
+        // the first rung decodes the last failed well, the remaining rungs are not used
+        assertEquals(2, backend.calls.get());
+    }
+
+    @Test
+    public void ladderIsSavedAndRestored() {
+        DecodeOptionsLadder ladder = DecodeOptionsLadder.getDefaultLadder();
+        ladder.addSuccesses(2, 7);
+
+        DecodeOptionsLadder restored = DecodeOptionsLadder.parse(ladder.format());
+        restored.parseSuccesses(ladder.formatSuccesses());
+
+        assertEquals(ladder.size(), restored.size());
+        assertEquals(ladder.format(), restored.format());
+        assertEquals(7, restored.getSuccesses(2));
+        assertEquals(2, restored.getOrder()[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLadder() {
+        DecodeOptionsLadder.parse("0.1,0.2,0.3");
+    }
+
+}
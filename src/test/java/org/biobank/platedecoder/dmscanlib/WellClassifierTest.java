@@ -0,0 +1,171 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.biobank.platedecoder.dmscanlib.ScanLib.ResultCode.SC_SUCCESS;
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import javafx.scene.shape.Rectangle;
+
+public class WellClassifierTest {
+
+    private static final DecodeOptions OPTIONS = new DecodeOptions(0.1, 0.9, 0.05, 10, 5, 10, 1);
+
+    private static final int WELL_SIZE = 100;
+
+    private static final int MODULE_SIZE = 4;
+
+    private static final int WIDTH = 3 * WELL_SIZE;
+
+    /**
+     * Creates a row of three wells: an empty well, a tube without a barcode and a tube with a
+     * barcode. The image has some noise, like a scan.
+     */
+    private static byte [] createPixels() {
+        Random random = new Random(7);
+        byte [] pixels = new byte[WIDTH * WELL_SIZE];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = (byte) (40 + random.nextInt(5));
+        }
+
+        int radius = WELL_SIZE * 2 / 5;
+        for (int well = 1; well < 3; ++well) {
+            int cx = well * WELL_SIZE + WELL_SIZE / 2;
+            int cy = WELL_SIZE / 2;
+            for (int y = cy - radius; y <= cy + radius; ++y) {
+                for (int x = cx - radius; x <= cx + radius; ++x) {
+                    if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= radius * radius) {
+                        pixels[y * WIDTH + x] = (byte) (180 + random.nextInt(5));
+                    }
+                }
+            }
+        }
+
+        int codeSize = 10 * MODULE_SIZE;
+        int x0 = 2 * WELL_SIZE + (WELL_SIZE - codeSize) / 2;
+        int y0 = (WELL_SIZE - codeSize) / 2;
+        for (int y = 0; y < codeSize; y += MODULE_SIZE) {
+            for (int x = 0; x < codeSize; x += MODULE_SIZE) {
+                if (!random.nextBoolean()) {
+                    continue;
+                }
+                for (int dy = 0; dy < MODULE_SIZE; ++dy) {
+                    for (int dx = 0; dx < MODULE_SIZE; ++dx) {
+                        pixels[(y0 + y + dy) * WIDTH + x0 + x + dx] = (byte) 20;
+                    }
+                }
+            }
+        }
+        return pixels;
+    }
+
+    private static CellRectangle [] createWells() {
+        return new CellRectangle [] {
+            new CellRectangle("A1", new Rectangle(0, 0, WELL_SIZE, WELL_SIZE)),
+            new CellRectangle("A2", new Rectangle(WELL_SIZE, 0, WELL_SIZE, WELL_SIZE)),
+            new CellRectangle("A3", new Rectangle(2 * WELL_SIZE, 0, WELL_SIZE, WELL_SIZE))
+        };
+    }
+
+    /**
+     * Decodes every well it is given, and records the labels of the wells.
+     */
+    private static class RecordingBackend implements DecoderBackend {
+
+        private final Set<String> labels = new HashSet<>();
+
+        @Override
+        public DecodeResult decodeImage(long            verbose,
+                                        String          filename,
+                                        DecodeOptions   decodeOptions,
+                                        CellRectangle[] wells) {
+            DecodeResult result = new DecodeResult(SC_SUCCESS, SC_SUCCESS, "");
+            for (CellRectangle well : wells) {
+                labels.add(well.getLabel());
+                result.addWell(well.getLabel(), "ID-" + well.getLabel());
+            }
+            return result;
+        }
+
+        @Override
+        public DecodeResult decodeImageBuffer(long            verbose,
+                                              ImageBuffer     image,
+                                              DecodeOptions   decodeOptions,
+                                              CellRectangle[] wells) {
+            return decodeImage(verbose, "", decodeOptions, wells);
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+    }
+
+    @Test
+    public void wellsAreClassified() {
+        LuminanceImage image = new LuminanceImage(WIDTH, WELL_SIZE, createPixels());
+
+        Map<String, WellClass> classes = new WellClassifier().classify(image, createWells());
+
+        assertEquals(WellClass.EMPTY, classes.get("A1"));
+        assertEquals(WellClass.TUBE_NO_CODE, classes.get("A2"));
+        assertEquals(WellClass.CANDIDATE, classes.get("A3"));
+    }
+
+    @Test
+    public void wellsOutsideTheImageAreEmpty() {
+        LuminanceImage image = new LuminanceImage(WIDTH, WELL_SIZE, createPixels());
+        CellRectangle well =
+            new CellRectangle("B1", new Rectangle(0, 2 * WELL_SIZE, WELL_SIZE, WELL_SIZE));
+
+        assertEquals(WellClass.EMPTY, new WellClassifier().classify(image, well));
+    }
+
+    @Test
+    public void onlyCandidatesAreDecoded() {
+        byte [] pixels = createPixels();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length);
+        buffer.put(pixels);
+        buffer.clear();
+        ImageBuffer image =
+            new ImageBuffer(buffer, WIDTH, WELL_SIZE, WIDTH, ImageBuffer.Format.GRAY);
+
+        RecordingBackend backend = new RecordingBackend();
+        ClassifyingDecoderBackend classifying =
+            new ClassifyingDecoderBackend(backend, new WellClassifier());
+        DecodeResult result = classifying.decodeImageBuffer(0, image, OPTIONS, createWells());
+
+        assertEquals(new HashSet<>(Arrays.asList("A3")), backend.labels);
+        assertEquals(ScanLibResult.Result.SUCCESS, result.getResultCode());
+        assertEquals(1, result.getDecodedWells().size());
+        assertEquals(3, result.getWellClasses().size());
+        assertEquals(WellClass.EMPTY, result.getWellClasses().get("A1"));
+        assertEquals(WellClass.TUBE_NO_CODE, result.getWellClasses().get("A2"));
+        assertEquals(Arrays.asList("A1", "A2"), result.getSkippedWells());
+        assertTrue(result.isSkipped("A1"));
+        assertFalse(result.isSkipped("A3"));
+    }
+
+    @Test
+    public void nothingToDecode() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(WIDTH * WELL_SIZE);
+        ImageBuffer image =
+            new ImageBuffer(buffer, WIDTH, WELL_SIZE, WIDTH, ImageBuffer.Format.GRAY);
+
+        RecordingBackend backend = new RecordingBackend();
+        DecodeResult result = new ClassifyingDecoderBackend(backend, new WellClassifier())
+            .decodeImageBuffer(0, image, OPTIONS, createWells());
+
+        assertTrue(backend.labels.isEmpty());
+        assertEquals(ScanLibResult.Result.INVALID_NOTHING_DECODED, result.getResultCode());
+        assertEquals(3, result.getWellClasses().size());
+    }
+
+}
@@ -0,0 +1,148 @@
+package org.biobank.platedecoder.dmscanlib;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.Random;
+
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.Test;
+
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+
+public class WellGridLocatorTest {
+
+    // the size of a well in a 600 dpi scan
+    private static final int WELL_SIZE = 212;
+
+    private static final int MODULE_SIZE = 6;
+
+    /**
+     * Creates an image of a plate: a dark rack with a bright tube in each well, and a random
+     * pattern that looks like a 2D barcode in the middle of each tube.
+     */
+    private static ImageBuffer createPlateImage(int width,
+                                                int height,
+                                                int left,
+                                                int top,
+                                                int rows,
+                                                int cols) {
+        Random random = new Random(rows * 31 + cols);
+        byte [] pixels = new byte[width * height];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = (byte) (40 + random.nextInt(6));
+        }
+
+        int radius = WELL_SIZE * 2 / 5;
+        int codeSize = 12 * MODULE_SIZE;
+        for (int row = 0; row < rows; ++row) {
+            for (int col = 0; col < cols; ++col) {
+                int cx = left + col * WELL_SIZE + WELL_SIZE / 2;
+                int cy = top + row * WELL_SIZE + WELL_SIZE / 2;
+
+                for (int y = cy - radius; y <= cy + radius; ++y) {
+                    for (int x = cx - radius; x <= cx + radius; ++x) {
+                        int dx = x - cx;
+                        int dy = y - cy;
+                        if (dx * dx + dy * dy <= radius * radius) {
+                            pixels[y * width + x] = (byte) 190;
+                        }
+                    }
+                }
+
+                int x0 = cx - codeSize / 2;
+                int y0 = cy - codeSize / 2;
+                for (int my = 0; my < codeSize / MODULE_SIZE; ++my) {
+                    for (int mx = 0; mx < codeSize / MODULE_SIZE; ++mx) {
+                        if (!random.nextBoolean()) {
+                            continue;
+                        }
+                        for (int y = 0; y < MODULE_SIZE; ++y) {
+                            for (int x = 0; x < MODULE_SIZE; ++x) {
+                                int offset = (y0 + my * MODULE_SIZE + y) * width
+                                    + x0 + mx * MODULE_SIZE + x;
+                                pixels[offset] = (byte) 20;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocateDirect(pixels.length);
+        buffer.put(pixels);
+        buffer.clear();
+        return new ImageBuffer(buffer, width, height, width, ImageBuffer.Format.GRAY);
+    }
+
+    private static void assertBounds(Bounds expected, Bounds actual) {
+        // the grid is found on an image about 8 times smaller than the original
+        double tolerance = WELL_SIZE / 10.0;
+        assertEquals(expected.getMinX(), actual.getMinX(), tolerance);
+        assertEquals(expected.getMinY(), actual.getMinY(), tolerance);
+        assertEquals(expected.getWidth(), actual.getWidth(), tolerance);
+        assertEquals(expected.getHeight(), actual.getHeight(), tolerance);
+    }
+
+    @Test
+    public void landscapePlate() {
+        ImageBuffer image = createPlateImage(3000, 2100, 230, 170, 8, 12);
+
+        Optional<Bounds> bounds =
+            WellGridLocator.locate(image, PlateType.PT_96_WELLS, PlateOrientation.LANDSCAPE);
+
+        assertTrue(bounds.isPresent());
+        assertBounds(new BoundingBox(230, 170, 12 * WELL_SIZE, 8 * WELL_SIZE), bounds.get());
+    }
+
+    @Test
+    public void portraitPlate() {
+        ImageBuffer image = createPlateImage(2000, 2900, 120, 250, 12, 8);
+
+        Optional<Bounds> bounds =
+            WellGridLocator.locate(image, PlateType.PT_96_WELLS, PlateOrientation.PORTRAIT);
+
+        assertTrue(bounds.isPresent());
+        assertBounds(new BoundingBox(120, 250, 8 * WELL_SIZE, 12 * WELL_SIZE), bounds.get());
+    }
+
+    @Test
+    public void squarePlate() {
+        ImageBuffer image = createPlateImage(2300, 2300, 50, 60, 10, 10);
+
+        Optional<Bounds> bounds =
+            WellGridLocator.locate(image, PlateType.PT_100_WELLS, PlateOrientation.LANDSCAPE);
+
+        assertTrue(bounds.isPresent());
+        assertBounds(new BoundingBox(50, 60, 10 * WELL_SIZE, 10 * WELL_SIZE), bounds.get());
+    }
+
+    @Test
+    public void imageWithoutTubes() {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(1200 * 800);
+        ImageBuffer image = new ImageBuffer(buffer, 1200, 800, 1200, ImageBuffer.Format.GRAY);
+
+        Optional<Bounds> bounds =
+            WellGridLocator.locate(image, PlateType.PT_96_WELLS, PlateOrientation.LANDSCAPE);
+
+        assertFalse(bounds.isPresent());
+    }
+
+    @Test
+    public void isFastEnoughForA600DpiScan() {
+        ImageBuffer image = createPlateImage(3000, 2100, 230, 170, 8, 12);
+        for (int i = 0; i < 5; ++i) {
+            WellGridLocator.locate(image, PlateType.PT_96_WELLS, PlateOrientation.LANDSCAPE);
+        }
+
+        long start = System.nanoTime();
+        WellGridLocator.locate(image, PlateType.PT_96_WELLS, PlateOrientation.LANDSCAPE);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue("took " + elapsedMillis + " ms", elapsedMillis < 100);
+    }
+
+}
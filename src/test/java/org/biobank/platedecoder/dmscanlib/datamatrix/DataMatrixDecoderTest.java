@@ -0,0 +1,132 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DataMatrixDecoderTest {
+
+    @SuppressWarnings("unused")
+    private static final Logger LOG = LoggerFactory.getLogger(DataMatrixDecoderTest.class);
+
+    /*
+     * Encodes a message made of digits and upper case letters in ASCII encodation and returns the
+     * codewords, data followed by error correction, for a symbol of the given size.
+     */
+    static int [] createCodewords(String message, SymbolSize size) {
+        int [] codewords = new int[size.getTotalCodewords()];
+        int pos = 0;
+        for (int i = 0; i < message.length(); ++i) {
+            char ch = message.charAt(i);
+            if (Character.isDigit(ch) && (i + 1 < message.length())
+                && Character.isDigit(message.charAt(i + 1))) {
+                codewords[pos++] = 130 + Integer.parseInt(message.substring(i, i + 2));
+                ++i;
+            } else {
+                codewords[pos++] = ch + 1;
+            }
+        }
+        if (pos > size.getDataCodewords()) {
+            throw new IllegalArgumentException("message too long for symbol: " + message);
+        }
+        if (pos < size.getDataCodewords()) {
+            codewords[pos++] = 129;
+        }
+        while (pos < size.getDataCodewords()) {
+            int pad = 129 + ((149 * (pos + 1)) % 253) + 1;
+            codewords[pos++] = (pad <= 254) ? pad : pad - 254;
+        }
+
+        int blocks = size.getBlocks();
+        int dataPerBlock = size.getDataCodewords() / blocks;
+        int [] block = new int[dataPerBlock + size.getEccPerBlock()];
+        for (int b = 0; b < blocks; ++b) {
+            for (int i = 0; i < dataPerBlock; ++i) {
+                block[i] = codewords[i * blocks + b];
+            }
+            ReedSolomon.encode(block, size.getEccPerBlock());
+            for (int i = 0; i < size.getEccPerBlock(); ++i) {
+                codewords[size.getDataCodewords() + i * blocks + b] = block[dataPerBlock + i];
+            }
+        }
+        return codewords;
+    }
+
+    static BitMatrix createSymbol(String message, SymbolSize size) {
+        return DataMatrixDecoder.writeCodewords(createCodewords(message, size), size);
+    }
+
+    @Test
+    public void reedSolomonMatchesReferenceExample() {
+        // the "123456" example from ISO/IEC 16022
+        int [] block = new int [] { 142, 164, 186, 0, 0, 0, 0, 0 };
+        ReedSolomon.encode(block, 5);
+        assertArrayEquals(new int [] { 142, 164, 186, 114, 25, 5, 88, 102 }, block);
+    }
+
+    @Test
+    public void reedSolomonCorrectsErrors() {
+        int [] block = new int [] { 142, 164, 186, 114, 25, 5, 88, 102 };
+        block[1] = 0;
+        block[6] = 7;
+        assertEquals(2, ReedSolomon.correct(block, 5));
+        assertArrayEquals(new int [] { 142, 164, 186, 114, 25, 5, 88, 102 }, block);
+    }
+
+    @Test
+    public void decodesSymbols() {
+        String [] messages = new String [] { "123456", "ABC123", "FR2345678901", "S0001234" };
+        for (String message : messages) {
+            for (SymbolSize size : SymbolSize.values()) {
+                if (size.getDataCodewords() < message.length()) {
+                    continue;
+                }
+                BitMatrix symbol = createSymbol(message, size);
+                assertEquals(size.toString(), message, DataMatrixDecoder.decode(symbol, size, 0));
+            }
+        }
+    }
+
+    @Test
+    public void placementUsesEveryModule() {
+        for (SymbolSize size : SymbolSize.values()) {
+            ModulePlacement placement = ModulePlacement.forSize(size);
+            int [] bitsUsed = new int[size.getTotalCodewords()];
+            for (int row = 0; row < placement.getNumRows(); ++row) {
+                for (int col = 0; col < placement.getNumCols(); ++col) {
+                    int module = placement.get(row, col);
+                    if (module >= 0) {
+                        bitsUsed[module >> 3] |= 1 << (module & 0x7);
+                    }
+                }
+            }
+            for (int used : bitsUsed) {
+                assertEquals(size.toString(), 0xff, used);
+            }
+        }
+    }
+
+    @Test
+    public void correctsDamagedSymbol() {
+        SymbolSize size = SymbolSize.S16X16;
+        BitMatrix symbol = createSymbol("FR2345678901", size);
+
+        // damage a few modules inside the first data region
+        symbol.flip(3, 3);
+        symbol.flip(5, 8);
+        symbol.flip(9, 12);
+
+        assertEquals("FR2345678901", DataMatrixDecoder.decode(symbol, size, 10));
+        assertNull(DataMatrixDecoder.decode(symbol, size, 0));
+    }
+
+    @Test
+    public void rejectsBlankSymbol() {
+        SymbolSize size = SymbolSize.S12X12;
+        BitMatrix symbol = new BitMatrix(size.getRows(), size.getCols());
+        assertNull(DataMatrixDecoder.decode(symbol, size, 10));
+    }
+
+}
@@ -0,0 +1,57 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class DataMatrixEncoderTest {
+
+    @Test
+    public void codewordsMatchReferenceEncoding() {
+        String [] messages = new String [] { "123456", "ABC123", "FR2345678901", "S0001234" };
+        for (String message : messages) {
+            SymbolSize size = DataMatrixEncoder.getSymbolSize(message);
+            assertArrayEquals(message,
+                              DataMatrixDecoderTest.createCodewords(message, size),
+                              DataMatrixEncoder.encodeCodewords(message, size));
+        }
+    }
+
+    @Test
+    public void smallestSymbolIsChosen() {
+        // digit pairs use one codeword each
+        assertEquals(SymbolSize.S10X10, DataMatrixEncoder.getSymbolSize("123456"));
+        assertEquals(SymbolSize.S12X12, DataMatrixEncoder.getSymbolSize("FR1234"));
+        assertEquals(SymbolSize.S16X16, DataMatrixEncoder.getSymbolSize("FR2345678901AB"));
+    }
+
+    @Test
+    public void encodedSymbolsAreDecoded() {
+        String [] messages = new String [] {
+            "", "7", "fr-0001/a", "S0001234", "été", "AB12345678901234567890"
+        };
+        for (String message : messages) {
+            BitMatrix symbol = DataMatrixEncoder.encode(message);
+            SymbolSize size = DataMatrixEncoder.getSymbolSize(message);
+            assertEquals(size.getRows(), symbol.getRows());
+            assertEquals(message, DataMatrixDecoder.decode(symbol, size, 0));
+        }
+    }
+
+    @Test
+    public void rectangularSymbolsAreDecoded() {
+        BitMatrix symbol = DataMatrixEncoder.encode("FR1234", SymbolSize.S8X32);
+        assertEquals("FR1234", DataMatrixDecoder.decode(symbol, SymbolSize.S8X32, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void messageMustFitSymbol() {
+        DataMatrixEncoder.encode("FR2345678901AB", SymbolSize.S10X10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unicodeIsRejected() {
+        DataMatrixEncoder.encode("一");
+    }
+
+}
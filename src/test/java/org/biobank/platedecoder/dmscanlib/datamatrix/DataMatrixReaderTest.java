@@ -0,0 +1,152 @@
+package org.biobank.platedecoder.dmscanlib.datamatrix;
+
+import static org.junit.Assert.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.LuminanceImage;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DataMatrixReaderTest {
+
+    @SuppressWarnings("unused")
+    private static final Logger LOG = LoggerFactory.getLogger(DataMatrixReaderTest.class);
+
+    private static final int CELL_SIZE = 120;
+
+    // allows symbols that fill most of the cell
+    private static final DecodeOptions OPTIONS =
+        new DecodeOptions(0.1, 0.9, 0.05, 10, 5, 10, 1);
+
+    /*
+     * Draws the symbol centred in a cell of the image.
+     */
+    private static void drawSymbol(Graphics2D g,
+                                   BitMatrix symbol,
+                                   double cellX,
+                                   double cellY,
+                                   double moduleSize,
+                                   double degrees,
+                                   boolean inverted) {
+        AffineTransform saved = g.getTransform();
+        g.translate(cellX + CELL_SIZE / 2.0, cellY + CELL_SIZE / 2.0);
+        g.rotate(Math.toRadians(degrees));
+        g.translate(-symbol.getCols() * moduleSize / 2.0, -symbol.getRows() * moduleSize / 2.0);
+
+        if (inverted) {
+            g.setColor(Color.BLACK);
+            g.fill(new Rectangle2D.Double(-2 * moduleSize,
+                                          -2 * moduleSize,
+                                          (symbol.getCols() + 4) * moduleSize,
+                                          (symbol.getRows() + 4) * moduleSize));
+        }
+
+        g.setColor(inverted ? Color.WHITE : Color.BLACK);
+        for (int row = 0; row < symbol.getRows(); ++row) {
+            for (int col = 0; col < symbol.getCols(); ++col) {
+                if (symbol.get(row, col)) {
+                    g.fill(new Rectangle2D.Double(col * moduleSize,
+                                                  row * moduleSize,
+                                                  moduleSize,
+                                                  moduleSize));
+                }
+            }
+        }
+        g.setTransform(saved);
+    }
+
+    private static BufferedImage createImage(int cells) {
+        BufferedImage image =
+            new BufferedImage(cells * CELL_SIZE, CELL_SIZE, BufferedImage.TYPE_BYTE_GRAY);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, image.getWidth(), image.getHeight());
+        g.dispose();
+        return image;
+    }
+
+    @Test
+    public void decodesRotatedSymbols() {
+        double [] angles = new double [] { 0, 17, 45, 90, 133, 180, 250, 301 };
+        BufferedImage image = createImage(angles.length);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        for (int i = 0; i < angles.length; ++i) {
+            BitMatrix symbol = DataMatrixDecoderTest.createSymbol("FR" + (1000 + i), SymbolSize.S12X12);
+            drawSymbol(g, symbol, i * CELL_SIZE, 0, 5, angles[i], false);
+        }
+        g.dispose();
+
+        LuminanceImage luminance = LuminanceImage.fromBufferedImage(image);
+        DataMatrixReader reader = new DataMatrixReader(OPTIONS);
+        for (int i = 0; i < angles.length; ++i) {
+            assertEquals("angle " + angles[i],
+                         "FR" + (1000 + i),
+                         reader.decode(luminance, i * CELL_SIZE, 0, CELL_SIZE, CELL_SIZE));
+        }
+    }
+
+    @Test
+    public void decodesDifferentSizes() {
+        SymbolSize [] sizes = new SymbolSize [] {
+            SymbolSize.S10X10, SymbolSize.S14X14, SymbolSize.S18X18, SymbolSize.S26X26
+        };
+        BufferedImage image = createImage(sizes.length);
+        Graphics2D g = image.createGraphics();
+        for (int i = 0; i < sizes.length; ++i) {
+            BitMatrix symbol = DataMatrixDecoderTest.createSymbol("1234", sizes[i]);
+            drawSymbol(g, symbol, i * CELL_SIZE, 0, 72.0 / sizes[i].getRows(), 10, false);
+        }
+        g.dispose();
+
+        LuminanceImage luminance = LuminanceImage.fromBufferedImage(image);
+        DataMatrixReader reader = new DataMatrixReader(OPTIONS);
+        for (int i = 0; i < sizes.length; ++i) {
+            assertEquals(sizes[i].toString(),
+                         "1234",
+                         reader.decode(luminance, i * CELL_SIZE, 0, CELL_SIZE, CELL_SIZE));
+        }
+    }
+
+    @Test
+    public void decodesInvertedSymbol() {
+        BufferedImage image = createImage(1);
+        Graphics2D g = image.createGraphics();
+        drawSymbol(g, DataMatrixDecoderTest.createSymbol("5678", SymbolSize.S14X14), 0, 0, 4, 30, true);
+        g.dispose();
+
+        DataMatrixReader reader = new DataMatrixReader(OPTIONS);
+        assertEquals("5678", reader.decode(LuminanceImage.fromBufferedImage(image),
+                                           0, 0, CELL_SIZE, CELL_SIZE));
+    }
+
+    @Test
+    public void emptyCellIsNotDecoded() {
+        DataMatrixReader reader = new DataMatrixReader(OPTIONS);
+        assertNull(reader.decode(LuminanceImage.fromBufferedImage(createImage(1)),
+                                 0, 0, CELL_SIZE, CELL_SIZE));
+    }
+
+    @Test
+    public void edgeLimitsAreHonoured() {
+        BufferedImage image = createImage(1);
+        Graphics2D g = image.createGraphics();
+        drawSymbol(g, DataMatrixDecoderTest.createSymbol("5678", SymbolSize.S14X14), 0, 0, 5, 0, false);
+        g.dispose();
+
+        // symbol is 70 pixels wide, which is larger than 30% of the cell width
+        DataMatrixReader reader = new DataMatrixReader(new DecodeOptions(0.1, 0.3, 0.05, 10, 5, 10, 1));
+        assertNull(reader.decode(LuminanceImage.fromBufferedImage(image),
+                                 0, 0, CELL_SIZE, CELL_SIZE));
+    }
+
+}
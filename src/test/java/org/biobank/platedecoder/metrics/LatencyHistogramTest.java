@@ -0,0 +1,73 @@
+package org.biobank.platedecoder.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(99));
+        assertEquals(0, histogram.getMeanNanos(), 0);
+    }
+
+    @Test
+    public void bucketsCoverAllValues() {
+        long [] values = { 0, 1, 31, 32, 63, 64, 65, 1000, 123456789, Long.MAX_VALUE };
+        for (long value : values) {
+            int bucket = LatencyHistogram.getBucket(value);
+            assertTrue(LatencyHistogram.getBucketUpperBound(bucket) >= value);
+            if (bucket > 0) {
+                assertTrue(LatencyHistogram.getBucketUpperBound(bucket - 1) < value);
+            }
+        }
+    }
+
+    @Test
+    public void percentilesAreWithinPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; ++millis) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getPercentile50Millis(), 50 * 0.04);
+        assertEquals(95, histogram.getPercentile95Millis(), 95 * 0.04);
+        assertEquals(100, histogram.getMaxMillis(), 0.001);
+        assertEquals(50.5, histogram.getMeanMillis(), 0.001);
+    }
+
+    @Test
+    public void resetDiscardsTimes() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+
+    @Test
+    public void concurrentRecordsAreCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Thread [] threads = new Thread[4];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; ++j) {
+                    histogram.record(j);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.getCount());
+    }
+
+}
@@ -0,0 +1,53 @@
+package org.biobank.platedecoder.metrics;
+
+import static org.junit.Assert.*;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void sameNameReturnsSameMetric() {
+        Metrics metrics = new Metrics(null);
+        Counter counter = metrics.counter("test.counter");
+        counter.add(2);
+        assertSame(counter, metrics.counter("test.counter"));
+        assertEquals(2, metrics.counter("test.counter").getCount());
+        assertSame(metrics.histogram("test.histogram"), metrics.histogram("test.histogram"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nameCannotBeReusedForAnotherType() {
+        Metrics metrics = new Metrics(null);
+        metrics.counter("test.metric");
+        metrics.histogram("test.metric");
+    }
+
+    @Test
+    public void metricsAreRegisteredWithMBeanServer() throws Exception {
+        MBeanServer server = MBeanServerFactory.newMBeanServer();
+        Metrics metrics = new Metrics(server);
+        metrics.counter("test.counter").increment();
+        metrics.gauge("test.gauge", () -> 42);
+        metrics.histogram("test.histogram").record(1000000);
+
+        ObjectName counterName =
+            new ObjectName(Metrics.DOMAIN + ":type=Counter,name=\"test.counter\"");
+        assertEquals(1L, server.getAttribute(counterName, "Count"));
+
+        ObjectName gaugeName = new ObjectName(Metrics.DOMAIN + ":type=Gauge,name=\"test.gauge\"");
+        assertEquals(42L, server.getAttribute(gaugeName, "Value"));
+
+        ObjectName histogramName =
+            new ObjectName(Metrics.DOMAIN + ":type=Histogram,name=\"test.histogram\"");
+        assertEquals(1L, server.getAttribute(histogramName, "Count"));
+        assertEquals(1.0, (Double) server.getAttribute(histogramName, "MaxMillis"), 0.001);
+
+        assertEquals(3, metrics.getMetrics().size());
+    }
+
+}
@@ -0,0 +1,65 @@
+package org.biobank.platedecoder.model;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Test;
+
+public class PlateLayoutTest {
+
+    @Test
+    public void everyWellIsInTheGrid() {
+        for (PlateType plateType : PlateType.values()) {
+            for (PlateOrientation orientation : PlateOrientation.values()) {
+                for (BarcodePosition barcodePosition : BarcodePosition.values()) {
+                    PlateLayout layout = PlateLayout.get(plateType, orientation, barcodePosition);
+                    assertSame(layout, PlateLayout.get(plateType, orientation, barcodePosition));
+                    assertEquals(plateType.getRows() * plateType.getCols(), layout.size());
+
+                    BitSet seen = new BitSet(layout.size());
+                    for (int row = 0; row < layout.getRows(); ++row) {
+                        for (int col = 0; col < layout.getCols(); ++col) {
+                            int wellIndex = layout.getWellIndex(row, col);
+                            String label = layout.getLabel(row, col);
+                            seen.set(wellIndex);
+                            assertEquals(row * layout.getCols() + col,
+                                         layout.getGridPosition(wellIndex));
+                            assertEquals(wellIndex, layout.getWellIndex(label));
+                            assertSame(label, layout.getLabelForWell(wellIndex));
+                        }
+                    }
+                    assertEquals(layout.size(), seen.cardinality());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void portraitTopLayout() {
+        PlateLayout layout = PlateLayout.get(PlateType.PT_96_WELLS,
+                                             PlateOrientation.PORTRAIT,
+                                             BarcodePosition.TOP);
+        assertEquals(12, layout.getRows());
+        assertEquals(8, layout.getCols());
+        assertEquals("H1", layout.getLabel(0, 0));
+        assertEquals("A1", layout.getLabel(0, 7));
+        assertEquals("A12", layout.getLabel(11, 7));
+    }
+
+    @Test
+    public void labelsAreSortedByRowAndColumn() {
+        List<String> labels = new ArrayList<>(Arrays.asList("B1", "A10", "A2", "A1"));
+        labels.sort(PlateLayout.LABEL_ORDER);
+        assertEquals(Arrays.asList("A1", "A2", "A10", "B1"), labels);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLabel() {
+        PlateLayout.getSortKey("Z1");
+    }
+
+}
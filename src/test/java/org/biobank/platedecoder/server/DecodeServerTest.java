@@ -0,0 +1,223 @@
+package org.biobank.platedecoder.server;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.biobank.platedecoder.corpus.PlateImageGenerator;
+import org.biobank.platedecoder.corpus.PlateManifest;
+import org.biobank.platedecoder.dmscanlib.CellRectangle;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ImageBuffer;
+import org.biobank.platedecoder.dmscanlib.JavaDecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ScanLib;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.fasterxml.jackson.jr.ob.JSON;
+
+public class DecodeServerTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PlateManifest manifest;
+
+    private byte [] image;
+
+    private DecodeRequest request;
+
+    private DecodeServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        PlateImageGenerator generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                                                PlateOrientation.LANDSCAPE,
+                                                                BarcodePosition.BOTTOM,
+                                                                300,
+                                                                31);
+        generator.setFillRatio(0.2);
+        File dir = folder.newFolder("scans");
+        manifest = generator.write(dir, "plate");
+        image = Files.readAllBytes(new File(dir, manifest.getImage()).toPath());
+        request = new DecodeRequest(PlateType.PT_96_WELLS,
+                                    PlateOrientation.LANDSCAPE,
+                                    BarcodePosition.BOTTOM,
+                                    manifest.getWellBounds(),
+                                    DecodeOptions.getDefaultDecodeOptions());
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    private DecodeLoadClient startServer(DecoderBackend backend, int concurrency, int queue)
+        throws Exception {
+        return startServer(backend, concurrency, queue, DecodeServer.DEFAULT_MAX_BODY_BYTES);
+    }
+
+    private DecodeLoadClient startServer(DecoderBackend backend,
+                                         int            concurrency,
+                                         int            queue,
+                                         long           maxBodyBytes) throws Exception {
+        server = new DecodeServer(backend,
+                                  new InetSocketAddress("127.0.0.1", 0),
+                                  concurrency,
+                                  queue,
+                                  maxBodyBytes);
+        server.start();
+        return new DecodeLoadClient("http://127.0.0.1:" + server.getPort(), request, image);
+    }
+
+    private int get(String path) throws Exception {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + path);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private int post(String query) throws Exception {
+        return post(query, false);
+    }
+
+    private int post(String query, boolean chunked) throws Exception {
+        URL url = new URL("http://127.0.0.1:" + server.getPort() + DecodeServer.DECODE_PATH
+                          + "?" + query);
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        if (chunked) {
+            connection.setChunkedStreamingMode(0);
+        }
+        connection.getOutputStream().write(image);
+        try {
+            return connection.getResponseCode();
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    @Test
+    public void requestRoundTripsThroughQuery() {
+        DecodeRequest parsed = DecodeRequest.parse(request.toQuery());
+        assertEquals(request.toQuery(), parsed.toQuery());
+        assertEquals(96, parsed.getCells().length);
+
+        DecodeRequest defaults = DecodeRequest.parse(
+            "plateType=PT_96_WELLS&orientation=LANDSCAPE&barcodePosition=BOTTOM"
+            + "&grid=1,2,300,200");
+        assertEquals(DecodeOptions.DEFAULT_SQUARE_DEV, defaults.getDecodeOptions().getSquareDev());
+    }
+
+    @Test
+    public void decodesPostedImage() throws Exception {
+        DecodeLoadClient client = startServer(JavaDecoderBackend.getInstance(), 2, 2);
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        assertEquals(200, client.send(body));
+        Map<String, Object> json =
+            JSON.std.mapFrom(new String(body.toByteArray(), StandardCharsets.UTF_8));
+        assertEquals("SUCCESS", json.get("result"));
+        assertEquals(manifest.getInventoryIds(), json.get("wells"));
+    }
+
+    @Test
+    public void rejectsInvalidRequests() throws Exception {
+        startServer(JavaDecoderBackend.getInstance(), 1, 0);
+        assertEquals(405, get(DecodeServer.DECODE_PATH));
+        assertEquals(400, post("plateType=PT_96_WELLS"));
+        assertEquals(400, post(request.toQuery().replace("LANDSCAPE", "SIDEWAYS")));
+    }
+
+    @Test
+    public void rejectsImagesLargerThanLimit() throws Exception {
+        startServer(JavaDecoderBackend.getInstance(), 1, 0, image.length - 1);
+        assertEquals(413, post(request.toQuery()));
+        // no length is given, the copy stops at the limit
+        assertEquals(413, post(request.toQuery(), true));
+    }
+
+    @Test
+    public void rejectsRequestsBeyondQueue() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        DecoderBackend blocking = new DecoderBackend() {
+                @Override
+                public DecodeResult decodeImage(long            verbose,
+                                                String          filename,
+                                                DecodeOptions   decodeOptions,
+                                                CellRectangle[] wells) {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new DecodeResult(ScanLib.ResultCode.SC_SUCCESS, 0, "");
+                }
+
+                @Override
+                public DecodeResult decodeImageBuffer(long            verbose,
+                                                      ImageBuffer     image,
+                                                      DecodeOptions   decodeOptions,
+                                                      CellRectangle[] wells) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public boolean isThreadSafe() {
+                    return true;
+                }
+            };
+        DecodeLoadClient client = startServer(blocking, 1, 0);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<Integer> first = executor.submit(() -> client.send());
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(429, client.send());
+            release.countDown();
+            assertEquals(Integer.valueOf(200), first.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void loadClientMeasuresThroughput() throws Exception {
+        DecodeLoadClient client = startServer(JavaDecoderBackend.getInstance(), 2, 4);
+        DecodeLoadClient.LoadReport report = client.run(2, 3);
+        assertEquals(6, report.getSucceeded());
+        assertEquals(0, report.getRejected());
+        assertEquals(0, report.getFailed());
+        assertTrue(report.getRequestsPerSecond() > 0);
+    }
+
+}
@@ -0,0 +1,205 @@
+package org.biobank.platedecoder.service;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.biobank.platedecoder.corpus.PlateImageGenerator;
+import org.biobank.platedecoder.corpus.PlateManifest;
+import org.biobank.platedecoder.dmscanlib.CellGrid;
+import org.biobank.platedecoder.dmscanlib.CellRectangle;
+import org.biobank.platedecoder.dmscanlib.DecodeOptions;
+import org.biobank.platedecoder.dmscanlib.DecodeResult;
+import org.biobank.platedecoder.dmscanlib.DecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ImageBuffer;
+import org.biobank.platedecoder.dmscanlib.JavaDecoderBackend;
+import org.biobank.platedecoder.dmscanlib.ScanLib;
+import org.biobank.platedecoder.dmscanlib.ScanLibResult;
+import org.biobank.platedecoder.model.BarcodePosition;
+import org.biobank.platedecoder.model.PlateOrientation;
+import org.biobank.platedecoder.model.PlateType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PlatePipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File scans;
+
+    private File results;
+
+    private List<PlateManifest> manifests;
+
+    private CellGrid cells;
+
+    @Before
+    public void setUp() throws Exception {
+        PlateImageGenerator generator = new PlateImageGenerator(PlateType.PT_96_WELLS,
+                                                                PlateOrientation.LANDSCAPE,
+                                                                BarcodePosition.BOTTOM,
+                                                                300,
+                                                                41);
+        generator.setFillRatio(0.2);
+        scans = folder.newFolder("scans");
+        results = folder.newFolder("results");
+        manifests = new ArrayList<>();
+        for (int i = 1; i <= 3; ++i) {
+            manifests.add(generator.write(scans, "plate-" + i));
+        }
+
+        double [] bounds = manifests.get(0).getWellBounds();
+        cells = CellGrid.forBoundingBox(bounds[0],
+                                        bounds[1],
+                                        bounds[2],
+                                        bounds[3],
+                                        PlateOrientation.LANDSCAPE,
+                                        PlateType.PT_96_WELLS,
+                                        BarcodePosition.BOTTOM);
+    }
+
+    // "scans" the generated images in order
+    private PlatePipeline.PlateScanner scanGenerated() {
+        return plateNumber -> (plateNumber > manifests.size())
+            ? null
+            : new File(scans, manifests.get(plateNumber - 1).getImage());
+    }
+
+    @Test
+    public void decodesAndExportsEveryPlate() throws Exception {
+        List<ScannedPlate> done = Collections.synchronizedList(new ArrayList<>());
+        PlatePipeline pipeline = new PlatePipeline(scanGenerated(),
+                                                   JavaDecoderBackend.getInstance(),
+                                                   cells,
+                                                   DecodeOptions.getDefaultDecodeOptions(),
+                                                   0,
+                                                   PlatePipeline.exportTo(results, "csv"),
+                                                   done::add,
+                                                   2);
+        pipeline.start();
+        pipeline.awaitCompletion();
+
+        assertEquals(3, done.size());
+        for (int i = 0; i < done.size(); ++i) {
+            ScannedPlate plate = done.get(i);
+            PlateManifest manifest = manifests.get(i);
+            assertEquals(i + 1, plate.getNumber());
+            assertNull(plate.getError());
+            assertEquals(ScanLibResult.Result.SUCCESS, plate.getResult().getResultCode());
+            assertEquals(manifest.getInventoryIds().size(),
+                         plate.getResult().getDecodedWellCount());
+
+            File exported = new File(results, manifest.getImage() + ".csv");
+            List<String> lines = Files.readAllLines(exported.toPath(), StandardCharsets.UTF_8);
+            assertEquals(manifest.getInventoryIds().size() + 1, lines.size());
+        }
+
+        for (PlatePipeline.StageStats stats : pipeline.getStats()) {
+            assertEquals(stats.toString(), 3, stats.getPlates());
+            assertEquals(0, stats.getQueueDepth());
+            assertTrue(stats.getPlatesPerSecond() > 0);
+        }
+    }
+
+    @Test
+    public void failedStagePassesPlateAlong() throws Exception {
+        List<ScannedPlate> done = Collections.synchronizedList(new ArrayList<>());
+        PlatePipeline.PlateScanner scanner = plateNumber -> (plateNumber == 1)
+            ? new File(scans, "missing.png")
+            : scanGenerated().scan(plateNumber);
+        PlatePipeline pipeline = new PlatePipeline(scanner,
+                                                   JavaDecoderBackend.getInstance(),
+                                                   cells,
+                                                   DecodeOptions.getDefaultDecodeOptions(),
+                                                   0,
+                                                   PlatePipeline.exportTo(results, "csv"),
+                                                   done::add,
+                                                   2);
+        pipeline.start();
+        pipeline.awaitCompletion();
+
+        assertEquals(3, done.size());
+        assertEquals(PlatePipeline.Stage.PREPROCESS, done.get(0).getFailedStage());
+        assertNull(done.get(0).getResult());
+        assertNull(done.get(1).getError());
+        assertEquals(2, pipeline.getStats(PlatePipeline.Stage.DECODE).getPlates());
+    }
+
+    @Test
+    public void slowDecoderHoldsBackScanner() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        DecoderBackend blocking = new DecoderBackend() {
+                @Override
+                public DecodeResult decodeImage(long            verbose,
+                                                String          filename,
+                                                DecodeOptions   decodeOptions,
+                                                CellRectangle[] wells) {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                public DecodeResult decodeImageBuffer(long            verbose,
+                                                      ImageBuffer     image,
+                                                      DecodeOptions   decodeOptions,
+                                                      CellRectangle[] wells) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return new DecodeResult(ScanLib.ResultCode.SC_SUCCESS, 0, "");
+                }
+
+                @Override
+                public boolean isThreadSafe() {
+                    return true;
+                }
+            };
+
+        // scans the same image until stopped
+        AtomicInteger scanned = new AtomicInteger();
+        File image = new File(scans, manifests.get(0).getImage());
+        PlatePipeline pipeline = new PlatePipeline(plateNumber -> {
+                scanned.incrementAndGet();
+                return image;
+            },
+            blocking,
+            cells,
+            DecodeOptions.getDefaultDecodeOptions(),
+            0,
+            plate -> { },
+            null,
+            1);
+        pipeline.start();
+
+        // one plate decoding, one waiting for decode, one preprocessed and waiting to be queued,
+        // one waiting for preprocess and one scanned and waiting to be queued
+        long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+        while ((pipeline.getStats(PlatePipeline.Stage.PREPROCESS).getMaxQueueDepth() < 1)
+               || (pipeline.getStats(PlatePipeline.Stage.DECODE).getQueueDepth() < 1)) {
+            assertTrue(System.currentTimeMillis() < end);
+            Thread.sleep(20);
+        }
+        Thread.sleep(200);
+        assertEquals(5, scanned.get());
+        assertEquals(1, pipeline.getStats(PlatePipeline.Stage.DECODE).getQueueDepth());
+        assertEquals(0, pipeline.getStats(PlatePipeline.Stage.DECODE).getPlates());
+
+        pipeline.stop();
+        release.countDown();
+        pipeline.awaitCompletion();
+        assertEquals(scanned.get(), pipeline.getStats(PlatePipeline.Stage.EXPORT).getPlates());
+    }
+
+}